@@ -62,6 +62,19 @@ public class CompatCameraHandlerLifecycleTest extends BaseTest {
         mHandler.destroyHandler();
     }
 
+    @Test
+    public void resumeWithinGracePeriod() throws Exception {
+        mHandler.createHandler();
+        mHandler.resumeHandler();
+        assertTrue(mHandler.awaitCommands(1000));
+        mHandler.pauseHandler();
+        assertTrue(mHandler.awaitCommands(1000));
+        mHandler.resumeHandler();
+        assertTrue(mHandler.awaitCommands(1000));
+        mHandler.pauseHandler();
+        mHandler.destroyHandler();
+    }
+
     @Test(expected = NullPointerException.class)
     public void noLifecycle() throws Exception {
         mHandler.schedulePersisting();
@@ -1,5 +1,7 @@
 package de.pcc.privacycrashcam.applicationlogic.camera;
 
+import android.support.test.InstrumentationRegistry;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -79,13 +81,14 @@ public class CompatCameraHandlerTest extends BaseTest {
 
     @Test
     public void onInfo() throws Exception {
-        try {
-            mHandler.onInfo(null, 0, 0);
-        } catch (NullPointerException ne) {
-            // will be thrown as we cannot allocate the camera and thus won't get the app into a
-            // consistent state. In production, this method sill never be called if the camera
-            // cannot be allocated (as the camera calls the method indirectly)
-        }
+        // the camera thread ignores the rollover as we cannot allocate the camera. In production,
+        // this method will never be called if the camera cannot be allocated (as the camera calls
+        // the method indirectly)
+        mHandler.onInfo(null, 0, 0);
+        assertTrue(mHandler.awaitCommands(1000));
+        // errors are reported on the main thread
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
         // recording a new chunk should not trigger an error
         // (we though get one error when locking the camera while testing)
         assertTrue(errorCounter == 1);
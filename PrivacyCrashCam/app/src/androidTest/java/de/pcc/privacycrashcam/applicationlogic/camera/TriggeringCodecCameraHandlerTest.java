@@ -0,0 +1,80 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.pcc.privacycrashcam.BaseTest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the triggering codec camera handler
+ *
+ * @author Giorgio Gross
+ */
+public class TriggeringCodecCameraHandlerTest extends BaseTest {
+    private TriggeringCodecCameraHandler mHandler;
+    private RecordCallback mCallback = new RecordCallback() {
+        @Override
+        public void onRecordingStarted() {
+            calledOnRecordingStarted = true;
+        }
+
+        @Override
+        public void onRecordingStopped() {
+            calledOnRecordingStopped = true;
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            calledOnError = true;
+        }
+    };
+    private boolean calledOnRecordingStarted = false;
+    private boolean calledOnRecordingStopped = false;
+    private boolean calledOnError = false;
+
+    @Before
+    public void setUp() throws Exception {
+        mHandler = new TriggeringCodecCameraHandler(context, surfaceViewMock, mCallback);
+        mHandler.createHandler();
+        mHandler.resumeHandler();
+    }
+
+    @Test
+    public void onClickSingle() throws Exception {
+        mHandler.onClick(new View(context));
+        assertFalse(calledOnRecordingStarted);
+    }
+
+    @Test
+    public void onClickDouble() throws Exception {
+        mHandler.onClick(new View(context));
+        Thread.sleep(200);
+        mHandler.onClick(new View(context));
+        assertTrue(calledOnRecordingStarted);
+    }
+
+    @Test
+    public void samplerRunsWhileResumed() throws Exception {
+        boolean running = mHandler.getAccelerometerSampler().isRunning();
+        mHandler.pauseHandler();
+        assertFalse(mHandler.getAccelerometerSampler().isRunning());
+        mHandler.resumeHandler();
+        assertEquals(running, mHandler.getAccelerometerSampler().isRunning());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHandler.pauseHandler();
+        mHandler.destroyHandler();
+
+        calledOnRecordingStarted = false;
+        calledOnRecordingStopped = false;
+        calledOnError = false;
+    }
+
+}
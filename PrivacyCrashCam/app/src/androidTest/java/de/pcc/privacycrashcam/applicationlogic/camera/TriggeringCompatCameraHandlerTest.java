@@ -114,6 +114,19 @@ public class TriggeringCompatCameraHandlerTest extends BaseTest {
         assertTrue(calledOnRecordingStarted);
     }
 
+    @Test
+    public void samplerRunsDuringGracePeriod() throws Exception {
+        assertTrue(mHandler.awaitCommands(1000));
+        boolean running = mHandler.getAccelerometerSampler().isRunning();
+        mHandler.pauseHandler();
+        assertTrue(mHandler.awaitCommands(1000));
+        // impacts within the grace period are still detected
+        assertEquals(running, mHandler.getAccelerometerSampler().isRunning());
+        mHandler.resumeHandler();
+        assertTrue(mHandler.awaitCommands(1000));
+        assertEquals(running, mHandler.getAccelerometerSampler().isRunning());
+    }
+
     @After
     public void tearDown() throws Exception {
         mHandler.pauseHandler();
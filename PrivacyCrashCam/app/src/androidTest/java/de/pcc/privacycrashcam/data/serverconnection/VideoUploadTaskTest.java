@@ -8,6 +8,8 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import de.pcc.privacycrashcam.BaseTest;
 
@@ -28,10 +30,12 @@ public class VideoUploadTaskTest extends BaseTest {
 
     private RequestState onResponse;
     private String onError;
+    private CountDownLatch done = new CountDownLatch(1);
     private ServerResponseCallback serverResponseCallback = new ServerResponseCallback() {
         @Override
         public void onResponse(Object response) {
             onResponse = (RequestState) response;
+            done.countDown();
         }
 
         @Override
@@ -42,9 +46,19 @@ public class VideoUploadTaskTest extends BaseTest {
         @Override
         public void onError(String error) {
             onError = error;
+            done.countDown();
         }
     };
 
+    /**
+     * Starts the task and waits for its result.
+     */
+    private RequestState upload() throws InterruptedException {
+        videoUploadTask.execute(ADDRESS);
+        Assert.assertTrue(done.await(5, TimeUnit.MINUTES));
+        return onError != null ? RequestState.NETWORK_FAILURE : onResponse;
+    }
+
 
     @Before
     public void setUp() {
@@ -55,7 +69,7 @@ public class VideoUploadTaskTest extends BaseTest {
     }
 
     @Test
-    public void accountFailureTest() {
+    public void accountFailureTest() throws Exception {
         try {
             json = new JSONObject("{}");
             json.put(JSON_KEY_MAIL, "failMail@321.de");
@@ -65,12 +79,12 @@ public class VideoUploadTaskTest extends BaseTest {
         }
         when(accountMock.getAsJSON()).thenReturn(json.toString());
         videoUploadTask = new VideoUploadTask(videoUpload, metadataUpload, keyUpload, accountMock, serverResponseCallback, context);
-        RequestState requestState = videoUploadTask.doInBackground(ADDRESS);
+        RequestState requestState = upload();
         Assert.assertTrue(requestState == RequestState.ACCOUNT_FAILURE);
     }
 
     @Test
-    public void uploadValidTest() {
+    public void uploadValidTest() throws Exception {
         try {
             json = new JSONObject("{}");
             json.put(JSON_KEY_MAIL, "test123@321.de");
@@ -80,28 +94,37 @@ public class VideoUploadTaskTest extends BaseTest {
         }
         when(accountMock.getAsJSON()).thenReturn(json.toString());
         videoUploadTask = new VideoUploadTask(videoUpload, metadataUpload, keyUpload, accountMock, serverResponseCallback, context);
-        RequestState requestState = videoUploadTask.doInBackground(ADDRESS);
+        RequestState requestState = upload();
         Assert.assertTrue(requestState == RequestState.SUCCESS);
     }
 
 
     @Test
-    public void failureOtherTest() {
+    public void failureOtherTest() throws Exception {
         when(accountMock.getAsJSON()).thenReturn(null);
         videoUploadTask = new VideoUploadTask(videoUpload, metadataUpload, keyUpload, accountMock, serverResponseCallback, context);
-        RequestState requestState = videoUploadTask.doInBackground(ADDRESS);
+        RequestState requestState = upload();
         Assert.assertTrue(requestState == RequestState.FAILURE_OTHER);
     }
 
     @Test
-    public void onPostExecuteNoNetworkTest() {
-        videoUploadTask.onPostExecute(RequestState.NETWORK_FAILURE);
+    public void cancelTest() throws Exception {
+        videoUploadTask = new VideoUploadTask(videoUpload, metadataUpload, keyUpload, accountMock, serverResponseCallback, context);
+        videoUploadTask.execute(ADDRESS);
+        videoUploadTask.cancel();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(onResponse == RequestState.CANCELLED);
+    }
+
+    @Test
+    public void onFinishedNoNetworkTest() {
+        videoUploadTask.onFinished(RequestState.NETWORK_FAILURE);
         Assert.assertTrue(onError.equals("No network available"));
     }
 
     @Test
-    public void onPostExecuteSuccessTest() {
-        videoUploadTask.onPostExecute(RequestState.SUCCESS);
+    public void onFinishedSuccessTest() {
+        videoUploadTask.onFinished(RequestState.SUCCESS);
         Assert.assertTrue(onResponse == RequestState.SUCCESS);
     }
 
@@ -6,11 +6,19 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.crypto.SecretKey;
 
 import de.pcc.privacycrashcam.BaseTest;
 import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.SegmentManifest;
 import de.pcc.privacycrashcam.testUtils.FileUtils;
+import de.pcc.privacycrashcam.utils.encryption.DeviceKeyWrapper;
+import de.pcc.privacycrashcam.utils.encryption.Encryptor;
 
 import static org.junit.Assert.*;
 
@@ -158,6 +166,77 @@ public class AsyncPersistorTest extends BaseTest {
         assertNotNull(memoryManagerMock.getEncryptedSymmetricKey(VIDEO_TAG));
     }
 
+    @Test
+    public void doInBackgroundDeferred() throws Exception {
+        File pendingDir = new File(testDirectory, VIDEO_TAG);
+        assertTrue(pendingDir.mkdirs());
+        Mockito.when(settingsMock.isDeferredAssembly()).thenReturn(true);
+        Mockito.when(memoryManagerMock.createPendingDir(VIDEO_TAG)).thenReturn(pendingDir);
+
+        assertTrue(mPersistor.doInBackground(metadataMock));
+        // segments, session key and manifest are persisted instead of the assembled video
+        assertTrue(new File(pendingDir, SegmentManifest.FILE_NAME).exists());
+        assertTrue(new File(pendingDir, SegmentManifest.SESSION_KEY_FILE_NAME).exists());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(new File(pendingDir, SegmentManifest.GetSegmentName(i)).exists());
+        }
+        assertNotNull(memoryManagerMock.getEncryptedMetadata(VIDEO_TAG));
+        assertNotNull(memoryManagerMock.getEncryptedSymmetricKey(VIDEO_TAG));
+        assertEquals(0, FileUtils.GetFile(testDirectory, TEST_VIDEO).length());
+    }
+
+    @Test
+    public void deferredSessionKeyIsNotStoredInPlain() throws Exception {
+        File pendingDir = new File(testDirectory, VIDEO_TAG);
+        assertTrue(pendingDir.mkdirs());
+        Mockito.when(settingsMock.isDeferredAssembly()).thenReturn(true);
+        Mockito.when(memoryManagerMock.createPendingDir(VIDEO_TAG)).thenReturn(pendingDir);
+
+        assertTrue(mPersistor.doInBackground(metadataMock));
+        byte[] wrapped = ReadFile(new File(pendingDir, SegmentManifest.SESSION_KEY_FILE_NAME));
+        SecretKey key = new DeviceKeyWrapper(context).unwrap(wrapped, "AES");
+        assertNotNull(key);
+
+        // no file of the pending directory contains the raw key
+        byte[] raw = key.getEncoded();
+        File[] files = pendingDir.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse(file.getName() + " contains the session key",
+                    Contains(ReadFile(file), raw));
+        }
+
+        // the wrapped key still decrypts the segments
+        File decrypted = new File(testDirectory, "decrypted");
+        assertTrue(new Encryptor().decrypt(new File(pendingDir, SegmentManifest.GetSegmentName(0)),
+                key, decrypted));
+        assertTrue(decrypted.length() > 0);
+    }
+
+    private static byte[] ReadFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            input.readFully(content);
+        }
+        return content;
+    }
+
+    private static boolean Contains(byte[] content, byte[] part) {
+        for (int i = 0; i + part.length <= content.length; i++) {
+            int j = 0;
+            while (j < part.length && content[i + j] == part[j]) j++;
+            if (j == part.length) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void noPendingDir() throws Exception {
+        Mockito.when(settingsMock.isDeferredAssembly()).thenReturn(true);
+        Mockito.when(memoryManagerMock.createPendingDir(VIDEO_TAG)).thenReturn(null);
+        assertFalse(mPersistor.doInBackground(metadataMock));
+    }
+
     @Test
     public void onPostExecute() throws Exception {
         // check if callback passes the value without modifying it
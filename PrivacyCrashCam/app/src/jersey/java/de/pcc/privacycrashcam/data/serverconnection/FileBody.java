@@ -0,0 +1,23 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.io.File;
+
+/**
+ * Entity of a request body part which is streamed from a file by the {@link FileBodyWriter}.
+ *
+ * @author Giorgio Gross
+ */
+public class FileBody {
+    private final File file;
+
+    /**
+     * @param file the file holding the content of the part
+     */
+    public FileBody(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,45 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import de.pcc.privacycrashcam.utils.dataprocessing.FileTransfer;
+
+/**
+ * Writes {@link FileBody} entities with the {@link FileTransfer}. Jersey's own file provider
+ * passes files in blocks of 8 KiB, each of which runs through the whole stream chain of the
+ * request, so large uploads spend most of their CPU time on calls rather than on bytes.
+ *
+ * @author Giorgio Gross
+ */
+@Produces({MediaType.APPLICATION_OCTET_STREAM, "*/*"})
+public class FileBodyWriter implements MessageBodyWriter<FileBody> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations,
+                               MediaType mediaType) {
+        return FileBody.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(FileBody fileBody, Class<?> type, Type genericType,
+                        Annotation[] annotations, MediaType mediaType) {
+        return fileBody.getFile().length();
+    }
+
+    @Override
+    public void writeTo(FileBody fileBody, Class<?> type, Type genericType,
+                        Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        FileTransfer.Transfer(fileBody.getFile(), entityStream);
+    }
+}
@@ -0,0 +1,53 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+/**
+ * Provides the HTTP client shared by all server calls. Bootstrapping a Jersey client is expensive,
+ * so it is created once on first use and never closed.
+ * <p>The client uses the default connector which is based on HttpURLConnection. Its connections
+ * are kept alive and pooled by the platform as long as responses are read completely, so
+ * consecutive requests to the server reuse their socket.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class HttpClientProvider {
+    /**
+     * Threads sending async requests. Uploads pass a gate one at a time, so few threads suffice.
+     */
+    static final int ASYNC_THREADS = 4;
+
+    private static volatile Client client;
+
+    /**
+     * Gets the shared client. Creates it on first use.
+     *
+     * @return the client
+     */
+    public static Client GetClient() {
+        Client result = client;
+        if (result == null) {
+            synchronized (HttpClientProvider.class) {
+                result = client;
+                if (result == null) client = result = CreateClient();
+            }
+        }
+        return result;
+    }
+
+    private static Client CreateClient() {
+        ClientConfig config = new ClientConfig()
+                .property(ClientProperties.CONNECT_TIMEOUT, ServerHelper.CONNECT_TIMEOUT_MILLIS)
+                .property(ClientProperties.READ_TIMEOUT, ServerHelper.READ_TIMEOUT_MILLIS)
+                .property(ClientProperties.ASYNC_THREADPOOL_SIZE, ASYNC_THREADS)
+                .register(MultiPartFeature.class)
+                .register(ProgressInterceptor.class)
+                .register(FileBodyWriter.class);
+        return ClientBuilder.newClient(config);
+    }
+}
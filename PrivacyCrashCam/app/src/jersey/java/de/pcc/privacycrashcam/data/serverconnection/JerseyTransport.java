@@ -0,0 +1,129 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import android.util.Log;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
+import org.glassfish.jersey.media.multipart.MultiPart;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import de.pcc.privacycrashcam.utils.dataprocessing.FileTransfer;
+
+/**
+ * Transport which sends the requests with the Jersey client of the {@link HttpClientProvider}.
+ * <p>Uploads are streamed in chunks of {@link #CHUNK_SIZE} by the client's async executor. The
+ * files are written in large blocks by the {@link FileBodyWriter} and counted by the
+ * {@link ProgressInterceptor}.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class JerseyTransport implements ServerTransport {
+    private final static String TAG = JerseyTransport.class.getName();
+    /**
+     * Size of the chunks the request is streamed in, one block of the {@link FileTransfer} each.
+     */
+    private static final int CHUNK_SIZE = FileTransfer.BUFFER_SIZE;
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    @Override
+    public String authenticate(String domain, String accountJSON) throws IOException {
+        Form form = new Form();
+        form.param("account", accountJSON);
+        WebTarget webTarget = HttpClientProvider.GetClient().target(domain)
+                .path(API_CALL_AUTHENTICATE);
+        Log.i(TAG, "URI: " + webTarget.getUri().toASCIIString());
+        try {
+            // reading the entity releases the connection for the next request
+            Response response = webTarget.request().post(Entity.entity(form,
+                    MediaType.APPLICATION_FORM_URLENCODED_TYPE), Response.class);
+            return response.readEntity(String.class);
+        } catch (ProcessingException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public Future<?> uploadVideo(String domain, File video, File metadata, File key,
+                                 String accountJSON, TransferObserver observer,
+                                 final TransportCallback callback) {
+        WebTarget webTarget = HttpClientProvider.GetClient().target(domain)
+                .path(API_CALL_VIDEO_UPLOAD);
+        Log.i(TAG, "URI: " + webTarget.getUri().toASCIIString());
+
+        // build multiPart
+        MultiPart multiPart = new MultiPart();
+        multiPart.setMediaType(MediaType.MULTIPART_FORM_DATA_TYPE);
+        multiPart.bodyPart(CreateFilePart("video", video.getAbsoluteFile()));
+        multiPart.bodyPart(CreateFilePart("metadata", metadata.getAbsoluteFile()));
+        multiPart.bodyPart(CreateFilePart("key", key.getAbsoluteFile()));
+        multiPart.bodyPart(new FormDataBodyPart("account", accountJSON));
+        // the parts' headers and boundaries are not counted
+        long length = video.length() + metadata.length() + key.length() + accountJSON.length();
+
+        // actual post call, streamed in chunks and counted by the ProgressInterceptor
+        try {
+            return webTarget.request()
+                    .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED)
+                    .property(ClientProperties.CHUNKED_ENCODING_SIZE, CHUNK_SIZE)
+                    .property(ProgressInterceptor.PROPERTY_OBSERVER, observer)
+                    .property(ProgressInterceptor.PROPERTY_LENGTH, length)
+                    .async().post(Entity.entity(multiPart, multiPart.getMediaType()),
+                            new InvocationCallback<Response>() {
+                                @Override
+                                public void completed(Response response) {
+                                    String content;
+                                    try {
+                                        content = response.readEntity(String.class);
+                                    } catch (ProcessingException | IllegalStateException e) {
+                                        callback.onFailure(e);
+                                        return;
+                                    }
+                                    callback.onResponse(content);
+                                }
+
+                                @Override
+                                public void failed(Throwable throwable) {
+                                    callback.onFailure(throwable);
+                                }
+                            });
+        } catch (ProcessingException e) {
+            callback.onFailure(e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a part which is streamed from the passed file by the {@link FileBodyWriter}. The
+     * part is described like a FileDataBodyPart, so the server sees no difference.
+     *
+     * @param name name of the form field
+     * @param file the file
+     * @return the part
+     */
+    static FormDataBodyPart CreateFilePart(String name, File file) {
+        FormDataContentDisposition disposition = FormDataContentDisposition.name(name)
+                .fileName(file.getName())
+                .modificationDate(new Date(file.lastModified()))
+                .size(file.length())
+                .build();
+        return new FormDataBodyPart(disposition, new FileBody(file),
+                MediaType.APPLICATION_OCTET_STREAM_TYPE);
+    }
+}
@@ -0,0 +1,40 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.io.IOException;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Counts the bytes of request entities while they are streamed to the server. Requests opt in by
+ * setting a {@link TransferObserver} as {@link #PROPERTY_OBSERVER} and the expected length as
+ * {@link #PROPERTY_LENGTH}. The interceptor is registered once on the shared client, so that
+ * requests don't need their own client configuration.
+ *
+ * @author Giorgio Gross
+ */
+public class ProgressInterceptor implements WriterInterceptor {
+    /**
+     * Request property holding the {@link TransferObserver} of the request.
+     */
+    public static final String PROPERTY_OBSERVER = "de.pcc.privacycrashcam.transfer.observer";
+    /**
+     * Request property holding the expected length of the entity in bytes as Long.
+     */
+    public static final String PROPERTY_LENGTH = "de.pcc.privacycrashcam.transfer.length";
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context)
+            throws IOException, WebApplicationException {
+        Object observer = context.getProperty(PROPERTY_OBSERVER);
+        Object length = context.getProperty(PROPERTY_LENGTH);
+        // nested entities such as the parts of a multipart entity are counted already
+        if (observer instanceof TransferObserver
+                && !(context.getOutputStream() instanceof ProgressOutputStream)) {
+            context.setOutputStream(new ProgressOutputStream(context.getOutputStream(),
+                    length instanceof Long ? (Long) length : -1, (TransferObserver) observer));
+        }
+        context.proceed();
+    }
+}
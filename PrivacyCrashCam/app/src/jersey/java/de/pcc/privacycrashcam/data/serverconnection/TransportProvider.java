@@ -0,0 +1,20 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Provides the transport shared by all server calls. Sends the requests with
+ * the Jersey client, which the jersey flavor ships with.
+ *
+ * @author Giorgio Gross
+ */
+public class TransportProvider {
+    private static final ServerTransport TRANSPORT = new JerseyTransport();
+
+    /**
+     * Gets the shared transport.
+     *
+     * @return the transport
+     */
+    public static ServerTransport GetTransport() {
+        return TRANSPORT;
+    }
+}
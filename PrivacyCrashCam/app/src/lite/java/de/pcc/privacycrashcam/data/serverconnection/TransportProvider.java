@@ -0,0 +1,20 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Provides the transport shared by all server calls. Sends the requests with
+ * the platform's HttpURLConnection, so the lite flavor ships without Jersey.
+ *
+ * @author Giorgio Gross
+ */
+public class TransportProvider {
+    private static final ServerTransport TRANSPORT = new UrlConnectionTransport();
+
+    /**
+     * Gets the shared transport.
+     *
+     * @return the transport
+     */
+    public static ServerTransport GetTransport() {
+        return TRANSPORT;
+    }
+}
@@ -19,16 +19,17 @@ import android.widget.Toast;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
 
 import de.pcc.privacycrashcam.R;
 import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.UploadJob;
 import de.pcc.privacycrashcam.data.Video;
 import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
 import de.pcc.privacycrashcam.data.serverconnection.RequestState;
-import de.pcc.privacycrashcam.data.serverconnection.ServerProxy;
-import de.pcc.privacycrashcam.data.serverconnection.ServerResponseCallback;
-
-import static de.pcc.privacycrashcam.data.serverconnection.RequestState.SUCCESS;
+import de.pcc.privacycrashcam.data.serverconnection.UploadJobListener;
+import de.pcc.privacycrashcam.data.serverconnection.UploadQueue;
 
 /**
  * Shows all videos which were recorded by the user.
@@ -43,6 +44,7 @@ public class VideosFragment extends Fragment {
      * ###########################################################################################*/
 
     private VideoListAdapter videoListAdapter;
+    private UploadQueue uploadQueue;
 
     /* #############################################################################################
      *                                  methods
@@ -58,6 +60,7 @@ public class VideosFragment extends Fragment {
 
         // set up content
         MemoryManager memoryManager = new MemoryManager(getContext());
+        uploadQueue = UploadQueue.GetInstance(getContext());
         videoListAdapter = new VideoListAdapter(memoryManager.getAllVideos(), memoryManager);
         videosListView.setAdapter(videoListAdapter);
         videosListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
@@ -69,6 +72,19 @@ public class VideosFragment extends Fragment {
         return base;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        videoListAdapter.setJobs(uploadQueue.getJobs());
+        uploadQueue.addListener(videoListAdapter);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        uploadQueue.removeListener(videoListAdapter);
+    }
+
     protected class VideoViewHolder {
         ProgressBar progressUpload;
         ImageButton upload;
@@ -77,11 +93,18 @@ public class VideosFragment extends Fragment {
         TextView caption;
     }
 
-    private class VideoListAdapter extends BaseAdapter {
-        private boolean isUploading = false;
+    private class VideoListAdapter extends BaseAdapter implements UploadJobListener {
         private MemoryManager memoryManager;
         private LayoutInflater inflater;
         private ArrayList<Video> videos;
+        /**
+         * Jobs of the upload queue by video tag. Only accessed on the main thread.
+         */
+        private HashMap<String, UploadJob> jobs = new HashMap<>();
+        /**
+         * Progress of the running jobs by video tag. Only accessed on the main thread.
+         */
+        private HashMap<String, Integer> progress = new HashMap<>();
 
         private VideoListAdapter(ArrayList<Video> videos, MemoryManager memoryManager) {
             this.inflater = LayoutInflater.from(getContext());
@@ -123,21 +146,27 @@ public class VideosFragment extends Fragment {
             }
 
             mHolder.title.setText(videos.get(position).getName());
-            mHolder.caption.setText(getDate(
-                    videos.get(position).getReadableMetadata().getDate(), "dd.MM.yyyy HH:mm:ss"));
+            mHolder.caption.setText(getCaption(position));
+            setProgressBarVisible(mHolder, isUploading(position));
 
             mHolder.upload.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (!isUploading) upload(position, mHolder);
+                    if (!isUploading(position)) upload(position);
                     else Toast.makeText(getContext(), getString(R.string.upload_wait),
                             Toast.LENGTH_SHORT).show();
                 }
             });
+            mHolder.progressUpload.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    cancelUpload(position);
+                }
+            });
             mHolder.delete.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if(!isUploading) delete(position);
+                    if(!isUploading(position)) delete(position);
                     else Toast.makeText(getContext(), getString(R.string.upload_wait),
                             Toast.LENGTH_SHORT).show();
                 }
@@ -146,14 +175,39 @@ public class VideosFragment extends Fragment {
             return view;
         }
 
-        private void toggleProgressBar(VideoViewHolder mHolder) {
-            if (mHolder.progressUpload.getVisibility() == View.VISIBLE) {
-                mHolder.progressUpload.setVisibility(View.GONE);
-                mHolder.upload.setVisibility(View.VISIBLE);
-            } else {
-                mHolder.progressUpload.setVisibility(View.VISIBLE);
-                mHolder.upload.setVisibility(View.GONE);
+        private void setProgressBarVisible(VideoViewHolder mHolder, boolean visible) {
+            mHolder.progressUpload.setVisibility(visible ? View.VISIBLE : View.GONE);
+            mHolder.upload.setVisibility(visible ? View.GONE : View.VISIBLE);
+        }
+
+        /**
+         * Gets the caption of the video at the passed index. Shows the progress while the video
+         * is being uploaded and its date otherwise.
+         *
+         * @param index video index
+         * @return the caption
+         */
+        private String getCaption(int index) {
+            String videoTag = Video.ExtractTagFromName(videos.get(index).getName());
+            UploadJob job = jobs.get(videoTag);
+            Integer percent = progress.get(videoTag);
+            if (job != null && job.getState() == UploadJob.State.RUNNING && percent != null) {
+                return percent < 100 ? getString(R.string.upload_progress, percent)
+                        : getString(R.string.upload_processing);
             }
+            return getDate(videos.get(index).getReadableMetadata().getDate(),
+                    "dd.MM.yyyy HH:mm:ss");
+        }
+
+        /**
+         * Checks whether the video at the passed index is queued or being uploaded.
+         *
+         * @param index video index
+         * @return true if the upload of the video did not finish yet
+         */
+        private boolean isUploading(int index) {
+            UploadJob job = jobs.get(Video.ExtractTagFromName(videos.get(index).getName()));
+            return job != null && !job.isFinished();
         }
 
         /**
@@ -164,69 +218,118 @@ public class VideosFragment extends Fragment {
         private void delete(int index) {
             Video item = videos.get(index);
             String videoTag = Video.ExtractTagFromName(item.getName());
+            uploadQueue.cancel(videoTag);
             memoryManager.deleteEncryptedVideoFile(videoTag);
             memoryManager.deleteEncryptedMetadataFile(videoTag);
             memoryManager.deleteReadableMetadata(videoTag);
+            memoryManager.deleteEncryptedTraceFile(videoTag);
+            memoryManager.deleteDiagnosticsFile(videoTag);
             memoryManager.deleteEncryptedSymmetricKeyFile(videoTag);
+            memoryManager.deletePendingData(videoTag);
 
             videos.remove(item);
             this.notifyDataSetChanged();
         }
 
         /**
-         * Uploads the video at the passed index
+         * Cancels the upload of the video at the passed index. A running transfer is aborted.
          *
-         * @param index   video index in the video list
-         * @param mHolder View Holder to be updated
+         * @param index video index
          */
-        private void upload(int index, final VideoViewHolder mHolder) {
-            toggleProgressBar(mHolder);
-            isUploading = true;
+        private void cancelUpload(int index) {
+            uploadQueue.cancel(Video.ExtractTagFromName(videos.get(index).getName()));
+            Toast.makeText(getContext(), getString(R.string.upload_cancelled),
+                    Toast.LENGTH_SHORT).show();
+        }
 
+        /**
+         * Queues the upload of the video at the passed index. Pending videos are assembled by the
+         * queue before they are uploaded.
+         *
+         * @param index video index in the video list
+         */
+        private void upload(int index) {
             Video item = videos.get(index);
-            ServerProxy proxy = new ServerProxy(getContext());
-            proxy.videoUpload(item.getEncVideoFile(), item.getEncMetaFile(),
-                    item.getEncSymKeyFile(), memoryManager.getAccountData(),
-                    new ServerResponseCallback<RequestState>() {
-                        @Override
-                        public void onResponse(RequestState response) {
-                            switch (response) {
-                                case SUCCESS:
-                                    Toast.makeText(getContext(), getString(R.string.video_upload_success),
-                                            Toast.LENGTH_SHORT).show();
-                                    break;
-                                case ACCOUNT_FAILURE:
-                                    Toast.makeText(getContext(), getString(R.string.error_account),
-                                            Toast.LENGTH_SHORT).show();
-                                    break;
-                                case NETWORK_FAILURE:
-                                    Toast.makeText(getContext(), getString(R.string.error_no_connection),
-                                            Toast.LENGTH_SHORT).show();
-                                    break;
-                                default:
-                                    Toast.makeText(getContext(), getString(R.string.error_undefined),
-                                            Toast.LENGTH_SHORT).show();
-
-                            }
-
-                            toggleProgressBar(mHolder);
-                            isUploading = false;
-                        }
-
-                        @Override
-                        public void onProgress(int percent) {
-                            // ignored
-                        }
-
-                        @Override
-                        public void onError(String error) {
-                            Toast.makeText(getContext(), getString(R.string.error_no_connection),
-                                    Toast.LENGTH_SHORT).show();
-
-                            toggleProgressBar(mHolder);
-                            isUploading = false;
-                        }
-                    });
+            Metadata readableMetadata = item.getReadableMetadata();
+            float priority = readableMetadata == null
+                    ? Metadata.SEVERITY_MANUAL : readableMetadata.getSeverity();
+            uploadQueue.enqueue(Video.ExtractTagFromName(item.getName()), priority);
+        }
+
+        /**
+         * Replaces the known jobs.
+         *
+         * @param jobs all jobs of the upload queue
+         */
+        private void setJobs(List<UploadJob> jobs) {
+            this.jobs.clear();
+            this.progress.clear();
+            for (UploadJob job : jobs) {
+                this.jobs.put(job.getVideoTag(), job);
+            }
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onJobChanged(final UploadJob job) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    UploadJob previous = jobs.put(job.getVideoTag(), job);
+                    if (previous == null || previous.getState() != job.getState())
+                        showResult(job);
+                    if (job.getState() != UploadJob.State.RUNNING)
+                        progress.remove(job.getVideoTag());
+                    notifyDataSetChanged();
+                }
+            });
+        }
+
+        @Override
+        public void onJobProgress(final String videoTag, final int percent) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    progress.put(videoTag, percent);
+                    notifyDataSetChanged();
+                }
+            });
+        }
+
+        @Override
+        public void onJobRemoved(final String videoTag) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    jobs.remove(videoTag);
+                    progress.remove(videoTag);
+                    notifyDataSetChanged();
+                }
+            });
+        }
+
+        private void runOnUiThread(Runnable runnable) {
+            if (getActivity() != null) getActivity().runOnUiThread(runnable);
+        }
+
+        private void showResult(UploadJob job) {
+            int message;
+            switch (job.getState()) {
+                case SUCCEEDED:
+                    message = R.string.video_upload_success;
+                    break;
+                case WAITING_FOR_RETRY:
+                    message = R.string.upload_retry;
+                    break;
+                case FAILED:
+                    message = RequestState.ACCOUNT_FAILURE.name().equals(job.getLastError())
+                            ? R.string.error_account : R.string.error_undefined;
+                    break;
+                default:
+                    return;
+            }
+            if (getContext() != null)
+                Toast.makeText(getContext(), getString(message), Toast.LENGTH_SHORT).show();
         }
 
         /**
@@ -0,0 +1,286 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Delivers accelerometer events to a listener on a dedicated background thread so that sensor
+ * processing does not compete with the camera preview and the UI.
+ * <p>The sampler has two modes. While cruising the sensor is sampled slowly and events are batched
+ * in the sensor's hardware FIFO for at most {@link #CRUISING_REPORT_LATENCY_US}, which keeps the
+ * number of wakeups low. Clients report the current jerk through {@link #onJerk(float, long)}. As
+ * soon as the jerk exceeds {@link #ACTIVE_JERK} the sampler switches to the fastest rate without
+ * batching and stays there until the jerk was low for {@link #CALM_PERIOD_NANOS}.</p>
+ * <p>On a mode switch the events held back in the FIFO are flushed first. The new rate is
+ * registered before the old one is unregistered, so that no samples are lost at the beginning of
+ * an impact. Events whose timestamps were delivered already are dropped.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class AccelerometerSampler implements SensorEventListener {
+    private final static String TAG = "ACCEL_SAMPLER";
+
+    /**
+     * Sampling period while cruising, 200 Hz. Gives the crash detector 12 samples per detection
+     * window and the trace the rate of the fast mode on many devices. Batching keeps the number of
+     * wakeups low nevertheless.
+     */
+    public final static int CRUISING_SAMPLING_PERIOD_US = 5000;
+    /**
+     * Maximum time events are held back in the hardware FIFO while cruising. Bounds the additional
+     * trigger latency introduced by batching.
+     */
+    public final static int CRUISING_REPORT_LATENCY_US = 100000;
+    /**
+     * Jerk in g/s above which the sampler switches to the fastest rate.
+     */
+    public final static float ACTIVE_JERK = 5f;
+    /**
+     * Time the jerk needs to stay below {@link #ACTIVE_JERK} before switching back to cruising.
+     */
+    public final static long CALM_PERIOD_NANOS = 5000L * 1000000L;
+    /**
+     * Events arriving within this time span are counted as one delivery.
+     */
+    private final static long DELIVERY_GAP_NANOS = 1000000L;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final SensorEventListener listener;
+
+    // started and stopped on the same thread
+    private volatile HandlerThread sensorThread;
+    private Handler sensorHandler;
+
+    // only accessed on the sensor thread, except when starting and stopping
+    private Registration registration;
+    /**
+     * Whether the FIFO of the current registration is being flushed before the mode switch.
+     */
+    private boolean flushing = false;
+    private long lastTimestampNanos = Long.MIN_VALUE;
+    private boolean fast = false;
+    private long lastActivityNanos = 0;
+    private long lastDeliveryNanos = 0;
+
+    // statistics
+    private volatile long sampleCount = 0;
+    private volatile long deliveryCount = 0;
+    private volatile long mainThreadCount = 0;
+    private volatile int modeSwitchCount = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new sampler for the default accelerometer.
+     *
+     * @param context  context used to access the sensor service
+     * @param listener listener which will receive all accelerometer events on the sensor thread
+     */
+    public AccelerometerSampler(Context context, SensorEventListener listener) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        this.listener = listener;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Starts the sensor thread and registers for accelerometer events in cruising mode. Does nothing
+     * if the sampler was already started. Must be called on the thread which calls {@link #stop()}.
+     *
+     * @return true if the sampler is running
+     */
+    public boolean start() {
+        if (sensorThread != null) return true;
+        if (sensor == null) return false;
+
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+
+        fast = false;
+        flushing = false;
+        lastTimestampNanos = Long.MIN_VALUE;
+        registration = new Registration();
+        if (!register(registration)) {
+            stop();
+            return false;
+        }
+        Log.d(TAG, "Sensor FIFO holds " + sensor.getFifoMaxEventCount() + " events");
+        return true;
+    }
+
+    /**
+     * Unregisters from accelerometer events and stops the sensor thread. No events will be
+     * delivered after this method returned.
+     */
+    public void stop() {
+        if (sensorThread == null) return;
+
+        sensorManager.unregisterListener(registration);
+        sensorThread.quitSafely();
+        try {
+            sensorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sensorThread = null;
+        sensorHandler = null;
+        registration = null;
+
+        Log.i(TAG, "samples: " + sampleCount + ", deliveries: " + deliveryCount
+                + ", on main thread: " + mainThreadCount + ", mode switches: " + modeSwitchCount);
+    }
+
+    /**
+     * Reports the current jerk. Must be called on the sensor thread, usually from within the
+     * listener's {@link SensorEventListener#onSensorChanged(SensorEvent)}.
+     *
+     * @param jerk           current jerk in g/s
+     * @param timestampNanos timestamp of the sample the jerk was computed for
+     */
+    public void onJerk(float jerk, long timestampNanos) {
+        if (jerk >= ACTIVE_JERK) {
+            lastActivityNanos = timestampNanos;
+            if (!fast) switchMode(true);
+        } else if (fast && timestampNanos - lastActivityNanos > CALM_PERIOD_NANOS) {
+            switchMode(false);
+        }
+    }
+
+    private void switchMode(boolean fast) {
+        if (sensorThread == null) return;
+        this.fast = fast;
+        modeSwitchCount++;
+        // the registration is replaced with the current mode once the flush completed
+        if (flushing) return;
+        if (sensorManager.flush(registration)) {
+            flushing = true;
+        } else {
+            replaceRegistration();
+        }
+    }
+
+    /**
+     * Registers for the current mode and unregisters the previous registration afterwards, so
+     * that events are delivered without a gap.
+     */
+    private void replaceRegistration() {
+        Registration previous = registration;
+        registration = new Registration();
+        if (!register(registration)) {
+            Log.w(TAG, "Re-registering accelerometer listener failed");
+            registration = previous;
+            return;
+        }
+        sensorManager.unregisterListener(previous);
+        Log.d(TAG, fast ? "Switched to fast sampling" : "Switched to cruising");
+    }
+
+    private boolean register(Registration registration) {
+        if (fast) {
+            return sensorManager.registerListener(registration, sensor,
+                    SensorManager.SENSOR_DELAY_FASTEST, 0, sensorHandler);
+        }
+        return sensorManager.registerListener(registration, sensor, CRUISING_SAMPLING_PERIOD_US,
+                CRUISING_REPORT_LATENCY_US, sensorHandler);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // both registrations deliver events for a short time during a mode switch
+        if (event.timestamp <= lastTimestampNanos) return;
+        lastTimestampNanos = event.timestamp;
+        sampleCount++;
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (now - lastDeliveryNanos > DELIVERY_GAP_NANOS) deliveryCount++;
+        lastDeliveryNanos = now;
+        if (Looper.myLooper() == Looper.getMainLooper()) mainThreadCount++;
+
+        listener.onSensorChanged(event);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        listener.onAccuracyChanged(sensor, accuracy);
+    }
+
+    /**
+     * Registration at the sensor manager. A new instance is used for each mode, so that the
+     * previous registration can keep delivering until the new one is active.
+     */
+    private class Registration implements SensorEventListener2 {
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            AccelerometerSampler.this.onSensorChanged(event);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            AccelerometerSampler.this.onAccuracyChanged(sensor, accuracy);
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            // all events held back for this registration were delivered
+            if (this != registration || !flushing) return;
+            flushing = false;
+            replaceRegistration();
+        }
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * @return true if the sampler was started and not stopped since
+     */
+    public boolean isRunning() {
+        return sensorThread != null;
+    }
+
+    public boolean isFast() {
+        return fast;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return number of times events were delivered to the app, which is roughly the number of
+     * wakeups caused by the sensor
+     */
+    public long getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    public long getMainThreadCount() {
+        return mainThreadCount;
+    }
+
+    public int getModeSwitchCount() {
+        return modeSwitchCount;
+    }
+}
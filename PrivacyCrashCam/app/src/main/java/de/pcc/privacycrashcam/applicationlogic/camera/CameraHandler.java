@@ -79,6 +79,30 @@ public abstract class CameraHandler {
      */
     abstract void schedulePersisting() throws NullPointerException;
 
+    /**
+     * Adds an acceleration sample to the trace which is persisted along with the recordings.
+     * Called on the sensor thread. Does nothing by default.
+     *
+     * @param timestampNanos sample timestamp
+     * @param x              acceleration on the x axis in m/s^2
+     * @param y              acceleration on the y axis in m/s^2
+     * @param z              acceleration on the z axis in m/s^2
+     */
+    void recordAcceleration(long timestampNanos, float x, float y, float z) {
+    }
+
+    /**
+     * Relates the clock of the acceleration timestamps to the system clocks. Called on the sensor
+     * thread. Does nothing by default.
+     *
+     * @param timestampNanos       timestamp of a sample
+     * @param elapsedRealtimeNanos elapsed realtime when the sample was received
+     * @param wallClockMillis      wall clock time when the sample was received
+     */
+    void recordClockReference(long timestampNanos, long elapsedRealtimeNanos,
+                              long wallClockMillis) {
+    }
+
     /**
      * Pauses the handler. Called when the UI becomes invisible to the user. Releases camera and
      * recorder and stops buffering video chunks.
@@ -26,7 +26,9 @@ import android.util.Log;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Camera related utilities.
@@ -61,6 +63,8 @@ public class CameraHelper {
         } else {
             videoSizes = previewSizes;
         }
+        // hash lookups instead of scanning the preview sizes for every video size
+        Set<Camera.Size> previewSizeSet = new HashSet<>(previewSizes);
         Camera.Size optimalSize = null;
 
         // Start with max value and refine as we iterate over available video sizes. This is the
@@ -77,7 +81,7 @@ public class CameraHelper {
             double ratio = (double) size.width / size.height;
             if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE)
                 continue;
-            if (Math.abs(size.height - targetHeight) < minDiff && previewSizes.contains(size)) {
+            if (Math.abs(size.height - targetHeight) < minDiff && previewSizeSet.contains(size)) {
                 optimalSize = size;
                 minDiff = Math.abs(size.height - targetHeight);
             }
@@ -87,7 +91,7 @@ public class CameraHelper {
         if (optimalSize == null) {
             minDiff = Double.MAX_VALUE;
             for (Camera.Size size : videoSizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff && previewSizes.contains(size)) {
+                if (Math.abs(size.height - targetHeight) < minDiff && previewSizeSet.contains(size)) {
                     optimalSize = size;
                     minDiff = Math.abs(size.height - targetHeight);
                 }
@@ -207,6 +211,25 @@ public class CameraHelper {
         return info;
     }
 
+    /**
+     * Chooses the frame rate of the recording. Uses the desired frame rate if one of the supported
+     * preview fps ranges contains it and the maximum of the first range otherwise.
+     *
+     * @param fpsRanges  supported preview fps ranges, scaled by 1000
+     * @param desiredFps desired frame rate in frames per second
+     * @return frame rate in frames per second
+     */
+    public static int getFrameRate(List<int[]> fpsRanges, int desiredFps) {
+        for (int[] range : fpsRanges) {
+            int min = (int) Math.ceil((double) range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / (double) 1000);
+            int max = (int) Math.floor((double) range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / (double) 1000);
+            if (min <= desiredFps && max >= desiredFps) {
+                return desiredFps;
+            }
+        }
+        return (int) Math.floor((double) fpsRanges.get(0)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / (double) 1000);
+    }
+
     public static Camera.Size getDefaultVideoSize(List<Camera.Size> supportedVideoSizes,
                                                   List<Camera.Size> previewSizes) {
         if(supportedVideoSizes != null && supportedVideoSizes.size() > 0) {
@@ -0,0 +1,537 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceView;
+import android.view.WindowManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import de.pcc.privacycrashcam.R;
+import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.Settings;
+import de.pcc.privacycrashcam.data.Video;
+import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
+import de.pcc.privacycrashcam.utils.dataprocessing.AsyncPersistor;
+import de.pcc.privacycrashcam.utils.dataprocessing.CaptureWindow;
+import de.pcc.privacycrashcam.utils.dataprocessing.FrameWindowMuxer;
+import de.pcc.privacycrashcam.utils.dataprocessing.NalUnits;
+import de.pcc.privacycrashcam.utils.dataprocessing.PersistCallback;
+import de.pcc.privacycrashcam.utils.dataprocessing.TriggerCoordinator;
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
+import de.pcc.privacycrashcam.utils.datastructures.EncodedFrameRingBuffer;
+import de.pcc.privacycrashcam.utils.datastructures.VideoRingBuffer;
+
+import static android.content.Context.WINDOW_SERVICE;
+
+/**
+ * Camera handler which encodes the camera preview with a {@link MediaCodec} and keeps the encoded
+ * frames in memory instead of recording video chunks to files. Only the window of a recording is
+ * muxed into an mp4 file, see {@link FrameWindowMuxer}. The file is then persisted by an
+ * {@link AsyncPersistor} like the chunks of the {@link CompatCameraHandler}.
+ * <p>The acceleration trace is persisted along with each recording. It covers the longest window
+ * a recording can have, a new trace is started when a window closed.</p>
+ * <p>Camera and encoder are operated on a dedicated codec thread, muxing is done on a separate
+ * muxer thread so that encoding continues while a recording is written. Lifecycle calls return
+ * immediately.</p>
+ *
+ * @author Giorgio Gross
+ */
+@SuppressWarnings("deprecation")
+public class CodecCameraHandler extends CameraHandler implements Camera.PreviewCallback {
+    private final static String TAG = "CODEC_CAM_HANDLER";
+    private final static String MIME_TYPE = "video/avc";
+    private final static int KEY_FRAME_INTERVAL_SEC = 1;
+    private final static int PREVIEW_CALLBACK_BUFFERS = 3;
+    private final static long INPUT_TIMEOUT_US = 10000;
+    // encoded frames may use this fraction of the app's heap, see getMaxFrameBufferBytes()
+    private final static int FRAME_BUFFER_HEAP_SHARE = 4;
+    private final static int ORIENTATION_HINT = 90;
+
+    private final Context context;
+    private final SurfaceView previewView;
+    private final RecordCallback recordCallback;
+    private final RecordCallback uiCallback;
+
+    private Settings settings;
+    private Metadata metadata;
+    private CamcorderProfile camcorderProfile;
+    private TriggerCoordinator triggerCoordinator;
+
+    private HandlerThread codecThread;
+    private Handler codecHandler;
+    private HandlerThread muxerThread;
+
+    // owned by the codec thread
+    private Camera camera = null;
+    private MediaCodec encoder = null;
+    private ByteBuffer[] encoderInputBuffers;
+    private ByteBuffer[] encoderOutputBuffers;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private int colorFormat;
+    private int frameWidth;
+    private int frameHeight;
+    private byte[] convertedFrame;
+
+    private volatile EncodedFrameRingBuffer frames;
+    private volatile AccelerationTraceBuffer traceBuffer;
+    private int traceSeconds;
+    private volatile MediaFormat encoderFormat = null;
+
+    /**
+     * Creates a new camera handler with the passed parameters.
+     *
+     * @param context        application context
+     * @param previewView    view to be used as preview for the camera
+     * @param recordCallback callback to be notified about recording state
+     */
+    public CodecCameraHandler(Context context, SurfaceView previewView,
+                              RecordCallback recordCallback) {
+        this.context = context;
+        this.previewView = previewView;
+        this.recordCallback = recordCallback;
+        this.uiCallback = new MainThreadRecordCallback(recordCallback);
+    }
+
+    @Override
+    public void createHandler() {
+        super.createHandler();
+        MemoryManager memoryManager = new MemoryManager(context);
+        // clean up all temporary data which was not deleted when exiting the app
+        memoryManager.deleteAllTempData();
+
+        this.settings = memoryManager.getSettings();
+        this.camcorderProfile = CamcorderProfile.get(settings.getQuality());
+        this.metadata = new Metadata();
+        this.triggerCoordinator = new TriggerCoordinator(settings.getBufferSizeSec() * 1000 / 2,
+                settings.getBufferSizeSec() * 1000L);
+
+        // a window covers the buffer size and may be extended by the buffer size. Reserve one
+        // key frame interval in front of the window
+        int seconds = 2 * settings.getBufferSizeSec() + KEY_FRAME_INTERVAL_SEC;
+        this.traceSeconds = seconds;
+        this.traceBuffer = createTraceBuffer();
+        long bytes = (long) camcorderProfile.videoBitRate / 8 * seconds * 3 / 2;
+        int maxBytes = getMaxFrameBufferBytes();
+        this.frames = new EncodedFrameRingBuffer((int) Math.min(bytes, maxBytes),
+                2 * seconds * Math.max(settings.getFps(), camcorderProfile.videoFrameRate));
+        if (bytes > maxBytes) {
+            // recordings would silently miss the beginning of their window
+            Log.w(TAG, "Frame buffer limited to " + maxBytes + " bytes");
+            recordCallback.onError(context.getString(R.string.error_frame_buffer_limited));
+        }
+
+        codecThread = new HandlerThread("CodecThread", Process.THREAD_PRIORITY_DISPLAY);
+        codecThread.start();
+        codecHandler = new Handler(codecThread.getLooper());
+        muxerThread = new HandlerThread("MuxerThread", Process.THREAD_PRIORITY_BACKGROUND);
+        muxerThread.start();
+    }
+
+    private AccelerationTraceBuffer createTraceBuffer() {
+        return new AccelerationTraceBuffer(traceSeconds * CompatCameraHandler.MAX_TRACE_SAMPLE_RATE,
+                traceSeconds * 1000L * 1000000L);
+    }
+
+    /**
+     * The frame buffer is a direct buffer, which is backed by the managed heap on Android. It
+     * therefore gets a share of the heap the device grants to the app.
+     *
+     * @return maximum number of bytes of the frame buffer
+     */
+    private int getMaxFrameBufferBytes() {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / FRAME_BUFFER_HEAP_SHARE;
+    }
+
+    @Override
+    public void resumeHandler() {
+        super.resumeHandler();
+
+        // views may only be accessed on the main thread
+        final int rotation = ((WindowManager) context.getSystemService(WINDOW_SERVICE))
+                .getDefaultDisplay().getRotation();
+        codecHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (camera != null) return;
+                if (!openCamera(rotation) || !startEncoder()) closeCamera();
+            }
+        });
+    }
+
+    @Override
+    void recordAcceleration(long timestampNanos, float x, float y, float z) {
+        AccelerationTraceBuffer buffer = traceBuffer;
+        if (buffer != null) buffer.put(timestampNanos, x, y, z);
+    }
+
+    @Override
+    void recordClockReference(long timestampNanos, long elapsedRealtimeNanos,
+                              long wallClockMillis) {
+        AccelerationTraceBuffer buffer = traceBuffer;
+        if (buffer != null)
+            buffer.setClockReference(timestampNanos, elapsedRealtimeNanos, wallClockMillis);
+    }
+
+    @Override
+    public void updateMetadata(Metadata metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Schedules persisting the current metadata's recording. Triggers arriving while a recording
+     * is being captured are merged or queued, see {@link TriggerCoordinator}.
+     */
+    @Override
+    public void schedulePersisting() {
+        if (metadata == null) {
+            // let the persistor report the missing metadata
+            recordCallback.onRecordingStarted();
+            startPersisting(null);
+            return;
+        }
+        CaptureWindow window = triggerCoordinator.onTrigger(metadata);
+        if (window != null) {
+            recordCallback.onRecordingStarted();
+            startPersisting(window);
+        }
+    }
+
+    @Override
+    public void pauseHandler() {
+        super.pauseHandler();
+        codecHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeCamera();
+            }
+        });
+    }
+
+    @Override
+    public void destroyHandler() {
+        super.destroyHandler();
+        codecThread.quitSafely();
+        // pending recordings are still muxed
+        muxerThread.quitSafely();
+    }
+
+    /**
+     * Creates an async task which persists the passed window as soon as it closed. The window is
+     * muxed into a file on the muxer thread.
+     *
+     * @param window window of the recording or null to persist without metadata
+     */
+    private void startPersisting(@Nullable final CaptureWindow window) {
+        // each persistor operates on its own temp directory
+        final MemoryManager memoryManager = new MemoryManager(context);
+        File someTempFile = memoryManager.getTempVideoFile();
+        if (someTempFile == null) {
+            uiCallback.onError(context.getString(R.string.error_memory));
+            return;
+        }
+        final VideoRingBuffer windowBuffer = new VideoRingBuffer(1,
+                someTempFile.getParentFile(), Video.SUFFIX);
+
+        PersistCallback persistCallback = new PersistCallback() {
+            @Override
+            public void onPersistingStarted() {
+                uiCallback.onRecordingStopped();
+                // the persistor keeps the trace of the closed window
+                traceBuffer = createTraceBuffer();
+                File output = memoryManager.getTempVideoFile();
+                if (output != null && muxWindow(window, output)) {
+                    windowBuffer.put(output);
+                } else {
+                    Log.w(TAG, "Could not mux the recording");
+                }
+
+                CaptureWindow next = triggerCoordinator.onWindowClosed();
+                if (next != null) {
+                    uiCallback.onRecordingStarted();
+                    startPersisting(next);
+                }
+            }
+
+            @Override
+            public void onPersistingStopped(boolean success) {
+                if (!success) recordCallback.onError(context.getString(R.string.error_recorder));
+            }
+        };
+
+        AsyncPersistor mPersistor = new AsyncPersistor(windowBuffer, traceBuffer, memoryManager,
+                persistCallback, context);
+        mPersistor.setCaptureWindow(window);
+        mPersistor.setHandoffLooper(muxerThread.getLooper());
+        mPersistor.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                window == null ? null : window.getMetadata());
+    }
+
+    /**
+     * Muxes the frames of the passed window which ends now.
+     *
+     * @param window the window or null to mux the last buffer size
+     * @param output the mp4 file to be written
+     * @return true if muxing succeeded
+     */
+    private boolean muxWindow(@Nullable CaptureWindow window, File output) {
+        MediaFormat format = encoderFormat;
+        long endUs = frames.getNewestTimestampUs();
+        if (format == null || endUs < 0) return false;
+        long lengthMillis = settings.getBufferSizeSec() * 1000L
+                + (window == null ? 0 : window.getExtensionMillis());
+        return FrameWindowMuxer.Mux(frames, format, endUs - lengthMillis * 1000, endUs,
+                ORIENTATION_HINT, output);
+    }
+
+    /* #############################################################################################
+     *                                  codec thread
+     * ###########################################################################################*/
+
+    /**
+     * Opens the camera and starts the preview. Preview frames are delivered to the codec thread.
+     *
+     * @param rotation rotation of the display
+     * @return true if the preview was started
+     */
+    private boolean openCamera(int rotation) {
+        if (!CameraHelper.hasCameraHardware(context)) {
+            uiCallback.onError(context.getString(R.string.error_no_camera));
+            return false;
+        }
+        camera = CameraHelper.getDefaultBackFacingCameraInstance();
+        if (camera == null) {
+            uiCallback.onError(context.getString(R.string.error_camera_unavailable));
+            return false;
+        }
+
+        Camera.Parameters parameters = camera.getParameters();
+        List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
+        Camera.Size size = CameraHelper.getOptimalVideoSize(null, previewSizes,
+                camcorderProfile.videoFrameWidth, camcorderProfile.videoFrameHeight);
+        frameWidth = size.width;
+        frameHeight = size.height;
+        parameters.setPreviewSize(frameWidth, frameHeight);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        for (int[] range : parameters.getSupportedPreviewFpsRange()) {
+            int fps = settings.getFps() * 1000;
+            if (range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] <= fps
+                    && range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] >= fps) {
+                parameters.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+                break;
+            }
+        }
+        camera.setParameters(parameters);
+
+        int deviceAngle = 0;
+        switch (rotation) {
+            case Surface.ROTATION_90:
+                deviceAngle = 90;
+                break;
+            case Surface.ROTATION_180:
+                deviceAngle = 180;
+                break;
+            case Surface.ROTATION_270:
+                deviceAngle = 270;
+                break;
+        }
+        Camera.CameraInfo info = CameraHelper.getDefaultBackFacingCameraInfo();
+        camera.setDisplayOrientation((info.orientation - deviceAngle + 360) % 360);
+
+        int frameSize = frameWidth * frameHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < PREVIEW_CALLBACK_BUFFERS; i++) {
+            camera.addCallbackBuffer(new byte[frameSize]);
+        }
+        convertedFrame = new byte[frameSize];
+        camera.setPreviewCallbackWithBuffer(this);
+
+        try {
+            camera.setPreviewDisplay(previewView.getHolder());
+            camera.startPreview();
+        } catch (IOException e) {
+            Log.d(TAG, "Error setting camera preview: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates and starts the H.264 encoder.
+     *
+     * @return true if the encoder was started
+     */
+    private boolean startEncoder() {
+        colorFormat = selectColorFormat();
+        if (colorFormat < 0) {
+            uiCallback.onError(context.getString(R.string.error_recorder));
+            return false;
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, frameWidth, frameHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, camcorderProfile.videoBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, settings.getFps());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, KEY_FRAME_INTERVAL_SEC);
+        try {
+            encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not start encoder: " + e.getMessage());
+            uiCallback.onError(context.getString(R.string.error_recorder));
+            return false;
+        }
+        encoderInputBuffers = encoder.getInputBuffers();
+        encoderOutputBuffers = encoder.getOutputBuffers();
+        return true;
+    }
+
+    /**
+     * Selects a YUV 4:2:0 input format supported by the device's H.264 encoder.
+     *
+     * @return the color format or -1 if there is no suitable encoder
+     */
+    private static int selectColorFormat() {
+        for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+            MediaCodecInfo info = MediaCodecList.getCodecInfoAt(i);
+            if (!info.isEncoder()) continue;
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(MIME_TYPE)) continue;
+                int[] formats = info.getCapabilitiesForType(MIME_TYPE).colorFormats;
+                // prefer semi planar as it only differs from the preview format in byte order
+                for (int format : formats) {
+                    if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar)
+                        return format;
+                }
+                for (int format : formats) {
+                    if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar)
+                        return format;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (encoder == null) {
+            camera.addCallbackBuffer(data);
+            return;
+        }
+        long ptsUs = System.nanoTime() / 1000;
+        try {
+            int index = encoder.dequeueInputBuffer(INPUT_TIMEOUT_US);
+            if (index >= 0) {
+                convertFrame(data, convertedFrame);
+                ByteBuffer input = encoderInputBuffers[index];
+                input.clear();
+                input.put(convertedFrame);
+                encoder.queueInputBuffer(index, 0, convertedFrame.length, ptsUs, 0);
+            } else {
+                Log.d(TAG, "Encoder is busy, dropping preview frame");
+            }
+            drainEncoder();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Encoder failed: " + e.getMessage());
+            uiCallback.onError(context.getString(R.string.error_recorder));
+            closeCamera();
+            return;
+        }
+        camera.addCallbackBuffer(data);
+    }
+
+    /**
+     * Converts a NV21 preview frame into the encoder's color format.
+     */
+    private void convertFrame(byte[] nv21, byte[] output) {
+        int lumaSize = frameWidth * frameHeight;
+        System.arraycopy(nv21, 0, output, 0, lumaSize);
+        int chromaSize = lumaSize / 4;
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+            // NV21 is V/U interleaved, NV12 is U/V interleaved
+            for (int i = 0; i < chromaSize; i++) {
+                output[lumaSize + 2 * i] = nv21[lumaSize + 2 * i + 1];
+                output[lumaSize + 2 * i + 1] = nv21[lumaSize + 2 * i];
+            }
+        } else {
+            // I420 stores the U plane followed by the V plane
+            for (int i = 0; i < chromaSize; i++) {
+                output[lumaSize + i] = nv21[lumaSize + 2 * i + 1];
+                output[lumaSize + chromaSize + i] = nv21[lumaSize + 2 * i];
+            }
+        }
+    }
+
+    /**
+     * Moves all encoded frames which are available into the frame buffer.
+     */
+    private void drainEncoder() {
+        while (true) {
+            int index = encoder.dequeueOutputBuffer(bufferInfo, 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) return;
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // contains the codec specific data needed by the muxer
+                encoderFormat = encoder.getOutputFormat();
+                continue;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                encoderOutputBuffers = encoder.getOutputBuffers();
+                continue;
+            }
+            if (index < 0) continue;
+
+            ByteBuffer output = encoderOutputBuffers[index];
+            output.limit(bufferInfo.offset + bufferInfo.size);
+            output.position(bufferInfo.offset);
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                frames.setCodecConfig(output);
+            } else if (bufferInfo.size > 0) {
+                boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0
+                        || NalUnits.ContainsIdr(output);
+                frames.put(output, bufferInfo.presentationTimeUs, keyFrame);
+            }
+            encoder.releaseOutputBuffer(index, false);
+        }
+    }
+
+    /**
+     * Stops preview and encoder and releases the camera. Buffered frames are kept so that pending
+     * recordings can still be muxed.
+     */
+    private void closeCamera() {
+        if (camera != null) {
+            camera.setPreviewCallbackWithBuffer(null);
+            camera.stopPreview();
+            camera.release();
+            camera = null;
+        }
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Could not stop encoder: " + e.getMessage());
+            }
+            encoder.release();
+            encoder = null;
+        }
+    }
+}
@@ -4,6 +4,13 @@ import android.content.Context;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Display;
@@ -15,14 +22,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import de.pcc.privacycrashcam.R;
+import de.pcc.privacycrashcam.data.CameraCapabilities;
 import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.RecordingStats;
 import de.pcc.privacycrashcam.data.Settings;
 import de.pcc.privacycrashcam.data.Video;
 import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
+import de.pcc.privacycrashcam.data.memoryaccess.SettingsChangeListener;
 import de.pcc.privacycrashcam.utils.dataprocessing.AsyncPersistor;
+import de.pcc.privacycrashcam.utils.dataprocessing.CaptureWindow;
 import de.pcc.privacycrashcam.utils.dataprocessing.PersistCallback;
+import de.pcc.privacycrashcam.utils.dataprocessing.RecordingDiagnostics;
+import de.pcc.privacycrashcam.utils.dataprocessing.SegmentLengthController;
+import de.pcc.privacycrashcam.utils.dataprocessing.TriggerCoordinator;
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
 import de.pcc.privacycrashcam.utils.datastructures.VideoRingBuffer;
 
 import static android.content.Context.WINDOW_SERVICE;
@@ -30,34 +47,142 @@ import static android.content.Context.WINDOW_SERVICE;
 /**
  * Camera handler which uses the old Camera API. Handles access to the camera, displaying the
  * preview and writing the buffer. Also manages persisting the buffer's content.
+ * <p>All camera and media recorder operations run on a dedicated camera thread. Lifecycle calls
+ * and triggers only enqueue commands for this thread and return immediately. The camera thread
+ * executes the commands one after another and keeps track of the recorder's state, see
+ * {@link RecorderState}. Commands which are not valid in the current state are ignored. State
+ * changes are reported to the {@link RecordCallback} on the main thread.</p>
  *
  * @author Giorgio Gross
  */
 @SuppressWarnings("deprecation")
-public class CompatCameraHandler extends CameraHandler implements MediaRecorder.OnInfoListener {
+public class CompatCameraHandler extends CameraHandler implements MediaRecorder.OnInfoListener,
+        MediaRecorder.OnErrorListener {
     private final static String TAG = "CMP_CAM_HANDLER";
-    private final static int VIDEO_CHUNK_LENGTH = 5; // length of video chunks in seconds
+    // highest accelerometer rate we keep samples for, in Hz
+    final static int MAX_TRACE_SAMPLE_RATE = 500;
 
+    // commands executed by the camera thread
+    private final static int CMD_OPEN = 1;
+    private final static int CMD_CLOSE = 2;
+    private final static int CMD_ROLLOVER = 3;
+    private final static int CMD_PERSIST = 4;
+    private final static int CMD_GROW_BUFFERS = 5;
+    private final static int CMD_DESTROY = 6;
+    private final static int CMD_STORAGE_MEASURED = 7;
+    private final static int CMD_APPLY_SETTINGS = 8;
+    private final static int CMD_RECORDER_ERROR = 9;
+    private final static int CMD_CREATE = 10;
+
+    /**
+     * State of camera and media recorder. Only accessed on the camera thread.
+     */
+    private enum RecorderState {
+        /**
+         * Camera and media recorder are released.
+         */
+        CLOSED,
+        /**
+         * The camera is open and the media recorder writes video chunks into the buffer.
+         */
+        RECORDING
+    }
+
+    // owned by the camera thread
     private Camera camera = null;
     private CamcorderProfile camcorderProfile = null;
     private MediaRecorder mediaRecorder = null;
+    private boolean cameraLocked = true;
+    private RecorderState recorderState = RecorderState.CLOSED;
+    /**
+     * Recorder of the next chunk, configured but not prepared yet.
+     */
+    private MediaRecorder stagedMediaRecorder = null;
+    private File stagedOutputFile = null;
+    /**
+     * File the media recorder switches to at the end of the current chunk.
+     */
+    private File nextOutputFile = null;
+
+    /**
+     * Whether the media recorder switches chunks without stopping. Chunks are limited by size
+     * instead of duration in this case.
+     */
+    private boolean seamlessRollover;
+    private long chunkFileSize;
+    /**
+     * Length of the video chunks of this session in seconds, see {@link SegmentLengthController}.
+     */
+    private int segmentLengthSec = Video.VIDEO_CHUNK_LENGTH;
+    /**
+     * Write throughput measured in this session or -1.
+     */
+    private double storageThroughput = -1;
+    /**
+     * Whether the storage was measured or is being measured in this session.
+     */
+    private boolean storageProbeStarted = false;
+    /**
+     * Camera configurations resolved in this or previous sessions.
+     */
+    private CameraCapabilities cameraCapabilities;
+    /**
+     * Geometry the camera was opened with or null if it was not opened yet.
+     */
+    private PreviewGeometry previewGeometry;
+    /**
+     * Whether the recorder settings changed and the current recorder needs to be replaced at the
+     * end of its chunk.
+     */
+    private boolean recorderSettingsPending = false;
+    private final RecordingDiagnostics diagnostics = new RecordingDiagnostics();
+
+    private HandlerThread cameraThread;
+    private Handler commandHandler;
+    /**
+     * Starts the async tasks of the camera thread, which may only be executed on the main thread.
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    private boolean isHandlerRunning = false;
-    private boolean isRecording = false;
-    private boolean canOperate = true;
+    private volatile boolean canOperate = true;
 
     private Context context;
     private SurfaceView previewView;
 
-    private Settings settings;
+    private volatile Settings settings;
+    /**
+     * Whether the UI is visible. The recorder keeps running for a grace period after the UI was
+     * paused, see {@link Settings#getPauseGraceSec()}.
+     */
+    private volatile boolean resumed = false;
     private Metadata metadata;
     private MemoryManager memoryManager;
 
     private RecordCallback recordCallback;
+    /**
+     * Reports to {@link #recordCallback} on the main thread. Used on the camera thread.
+     */
+    private RecordCallback uiCallback;
     private File currentOutputFile;
     private VideoRingBuffer videoRingBuffer;
+    private int bufferCapacity;
+    private volatile AccelerationTraceBuffer traceBuffer;
+    private TriggerCoordinator triggerCoordinator;
 
     private PersistCallback persistCallback;
+    /**
+     * Receives settings changes while the handler is alive and applies them on the camera thread.
+     */
+    private final SettingsChangeListener settingsListener = new SettingsChangeListener() {
+        @Override
+        public void onSettingsChanged(Settings settings) {
+            commandHandler.obtainMessage(CMD_APPLY_SETTINGS, settings).sendToTarget();
+        }
+    };
+    /**
+     * Memory manager the settings listener is registered at.
+     */
+    private MemoryManager settingsSource;
 
     /**
      * Creates a new camera handler with the passed parameters and sets up callbacks, camera, media
@@ -72,16 +197,18 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
         this.context = context;
         this.previewView = previewView;
         this.recordCallback = recordCallback;
+        this.uiCallback = new MainThreadRecordCallback(recordCallback);
 
-        // get notified about state changes during persisting a video
+        // get notified about state changes during persisting a video. onPersistingStarted is
+        // called on the camera thread, see startPersisting(..)
         this.persistCallback = new PersistCallback() {
             @Override
             public void onPersistingStarted() {
                 // update UI
-                CompatCameraHandler.this.recordCallback.onRecordingStopped();
+                uiCallback.onRecordingStopped();
 
                 // save current file and set up new one
-                forceStopMediaRecorder();
+                if (recorderState == RecorderState.RECORDING) forceStopMediaRecorder();
                 // use new memory manager to access new temp directory
                 memoryManager = new MemoryManager(CompatCameraHandler.this.context);
                 // use new ring buffer to avoid conflicts
@@ -89,32 +216,135 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
                     setUpBuffer();
                 } catch (FileNotFoundException e) {
                     e.printStackTrace();
-                    pauseHandler();
+                    closeRecorder();
                     return;
                 }
                 // restart media recorder to force the use of a new file
                 restartMediaRecorder();
+
+                // triggers which did not fit into the closed window are captured next
+                CaptureWindow next = triggerCoordinator.onWindowClosed();
+                if (next != null) {
+                    uiCallback.onRecordingStarted();
+                    executePersistor(next);
+                }
             }
 
             @Override
             public void onPersistingStopped(boolean success) {
                 if (!success) CompatCameraHandler.this.recordCallback.onError(
                         CompatCameraHandler.this.context.getString(R.string.error_recorder));
-
-                // allow user to save new video (Multiple async tasks are not allowed to run)
-                isRecording = false;
             }
         };
     }
 
     private void setUpBuffer() throws FileNotFoundException {
-        // +1 capacity to record at least the desired video length
-        int bufferCapacity = settings.getBufferSizeSec() / VIDEO_CHUNK_LENGTH + 1;
+        bufferCapacity = SegmentLengthController.GetCapacity(settings.getBufferSizeSec(),
+                segmentLengthSec);
 
         File someTempFile = memoryManager.getTempVideoFile();
         if (someTempFile == null) throw new FileNotFoundException();
         this.videoRingBuffer = new VideoRingBuffer(bufferCapacity,
                 someTempFile.getParentFile(), Video.SUFFIX);
+
+        this.traceBuffer = new AccelerationTraceBuffer(getTraceCapacity(), getTraceWindowNanos());
+    }
+
+    /**
+     * Acceleration samples cover the same window as the video chunks. Space is reserved for
+     * windows which are extended by further triggers.
+     *
+     * @return number of samples the trace buffer needs to hold
+     */
+    private int getTraceCapacity() {
+        int maxTraceSeconds = bufferCapacity * segmentLengthSec
+                + (int) (getMaxExtensionMillis() / 1000);
+        return maxTraceSeconds * MAX_TRACE_SAMPLE_RATE;
+    }
+
+    private long getTraceWindowNanos() {
+        return bufferCapacity * segmentLengthSec * 1000L * 1000000L;
+    }
+
+    /**
+     * Adapts the capacity of the buffers to the current buffer size and chunk length. The newest
+     * chunks and samples are kept.
+     */
+    private void resizeBuffers() {
+        bufferCapacity = SegmentLengthController.GetCapacity(settings.getBufferSizeSec(),
+                segmentLengthSec);
+        if (traceBuffer.getCapacity() < getTraceCapacity()) {
+            // grow in place, a persistor waiting for the open window holds the same buffer
+            traceBuffer.resize(getTraceCapacity());
+        }
+
+        CaptureWindow window = triggerCoordinator.getOpenWindow();
+        if (window != null && !window.isClosed()) {
+            // the open window still needs its footage
+            growBuffers(window);
+        } else {
+            videoRingBuffer.resize(bufferCapacity);
+            traceBuffer.setWindowNanos(getTraceWindowNanos());
+        }
+    }
+
+    /**
+     * Half of the buffer size is captured after a trigger.
+     */
+    private long getPostTriggerMillis() {
+        return settings.getBufferSizeSec() * 1000 / 2;
+    }
+
+    /**
+     * A capture window may at most be extended by the buffer size, so that a recording covers at
+     * most twice the buffer size.
+     */
+    private long getMaxExtensionMillis() {
+        return settings.getBufferSizeSec() * 1000L;
+    }
+
+    /**
+     * Grows the buffers so that they hold the whole capture window including its extension.
+     *
+     * @param window the open capture window
+     */
+    private void growBuffers(CaptureWindow window) {
+        long extension = window.getExtensionMillis();
+        int extraChunks = (int) ((extension + segmentLengthSec * 1000 - 1)
+                / (segmentLengthSec * 1000));
+        videoRingBuffer.resize(bufferCapacity + extraChunks);
+        traceBuffer.setWindowNanos(getTraceWindowNanos() + extension * 1000000L);
+    }
+
+    /**
+     * Adds an acceleration sample to the trace which will be persisted along with the video.
+     * Does not allocate memory.
+     *
+     * @param timestampNanos sample timestamp
+     * @param x              acceleration on the x axis in m/s^2
+     * @param y              acceleration on the y axis in m/s^2
+     * @param z              acceleration on the z axis in m/s^2
+     */
+    @Override
+    protected void recordAcceleration(long timestampNanos, float x, float y, float z) {
+        AccelerationTraceBuffer buffer = traceBuffer;
+        if (buffer != null) buffer.put(timestampNanos, x, y, z);
+    }
+
+    /**
+     * Relates the clock of the acceleration timestamps to the system clocks, so that the persisted
+     * trace can be aligned with the video.
+     *
+     * @param timestampNanos       timestamp of a sample
+     * @param elapsedRealtimeNanos elapsed realtime when the sample was received
+     * @param wallClockMillis      wall clock time when the sample was received
+     */
+    @Override
+    protected void recordClockReference(long timestampNanos, long elapsedRealtimeNanos,
+                                        long wallClockMillis) {
+        AccelerationTraceBuffer buffer = traceBuffer;
+        if (buffer != null)
+            buffer.setClockReference(timestampNanos, elapsedRealtimeNanos, wallClockMillis);
     }
 
     /**
@@ -127,82 +357,69 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
         // Set camcorder profile's video width, height, fps which will be applied to the
         // mediaRecorder by MediaRecorder.setProfile(..);
         camcorderProfile.fileFormat = MediaRecorder.OutputFormat.MPEG_4;
+
+        seamlessRollover = MediaRecorderHelper.supportsNextOutputFile();
+        chooseSegmentLength();
+        chunkFileSize = MediaRecorderHelper.getFileSizeForDuration(camcorderProfile,
+                segmentLengthSec);
     }
 
     /**
      * Sets up the camera with respect to the user's settings
+     *
+     * @param geometry size and rotation of the preview
      */
-    private boolean prepareCamera() {
+    private boolean prepareCamera(PreviewGeometry geometry) {
         Log.d(TAG, "preparing camera");
         if (!CameraHelper.hasCameraHardware(context)) {
-            recordCallback.onError(context.getResources().getString(R.string.error_no_camera));
+            uiCallback.onError(context.getResources().getString(R.string.error_no_camera));
             return false;
         }
 
         // set up camera
         camera = getCameraInstance();
+        cameraLocked = true;
         Log.d(TAG, "cam instance " + camera);
         if (camera == null) {
             // camera was not available
-            recordCallback.onError(context.getResources().
+            uiCallback.onError(context.getResources().
                     getString(R.string.error_camera_unavailable));
             return false;
         }
 
         // set up camera parameters
         Camera.Parameters cameraParameters = camera.getParameters();
-
-        // choose suitable fps rate
-        int desiredFps = settings.getFps();
-        List<int[]> fpsRanges = cameraParameters.getSupportedPreviewFpsRange();
-        camcorderProfile.videoFrameRate = (int) Math.floor((double) fpsRanges.get(0)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / (double) 1000);
-        for (int[] range : fpsRanges) {
-            int min = (int) Math.ceil((double) range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / (double) 1000);
-            int max = (int) Math.floor((double) range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / (double) 1000);
-            if (min <= desiredFps && max >= desiredFps) {
-                camcorderProfile.videoFrameRate = desiredFps;
-                break;
-            }
-        }
-
-        // choose best video preview size
-        List<Camera.Size> mSupportedPreviewSizes = cameraParameters.getSupportedPreviewSizes();
-        List<Camera.Size> mSupportedVideoSizes = cameraParameters.getSupportedVideoSizes();
+        CameraCapabilities.Configuration configuration = getCameraConfiguration(cameraParameters,
+                geometry);
+        previewGeometry = geometry;
+        camcorderProfile.videoFrameRate = configuration.frameRate;
+        cameraParameters.setPreviewSize(configuration.previewWidth, configuration.previewHeight);
 
         // pay attention to screen orientation
-        Camera.CameraInfo info = CameraHelper.getDefaultBackFacingCameraInfo();
-        Display display = ((WindowManager) context.getSystemService(WINDOW_SERVICE))
-                .getDefaultDisplay();
-        Camera.Size optimalSize;
         int deviceAngle = 0;
-        switch (display.getRotation()) {
+        switch (geometry.rotation) {
             case Surface.ROTATION_0:
-                optimalSize = CameraHelper.getOptimalVideoSize(mSupportedVideoSizes,
-                        mSupportedPreviewSizes, previewView.getWidth(), previewView.getHeight());
-                cameraParameters.setPreviewSize(optimalSize.width, optimalSize.height);
                 deviceAngle = 0;
                 break;
             case Surface.ROTATION_90:
-                optimalSize = CameraHelper.getOptimalVideoSize(mSupportedVideoSizes,
-                        mSupportedPreviewSizes, previewView.getHeight(), previewView.getWidth());
-                cameraParameters.setPreviewSize(optimalSize.width, optimalSize.height);
                 deviceAngle = 90;
                 break;
             case Surface.ROTATION_180:
-                optimalSize = CameraHelper.getOptimalVideoSize(mSupportedVideoSizes,
-                        mSupportedPreviewSizes, previewView.getWidth(), previewView.getHeight());
-                cameraParameters.setPreviewSize(optimalSize.width, optimalSize.height);
                 deviceAngle = 180;
                 break;
             case Surface.ROTATION_270:
-                optimalSize = CameraHelper.getOptimalVideoSize(mSupportedVideoSizes,
-                        mSupportedPreviewSizes, previewView.getHeight(), previewView.getWidth());
-                cameraParameters.setPreviewSize(optimalSize.width, optimalSize.height);
                 deviceAngle = 270;
                 break;
         }
-        camera.setDisplayOrientation((info.orientation - deviceAngle + 360) % 360);
+        camera.setDisplayOrientation((configuration.cameraOrientation - deviceAngle + 360) % 360);
         camera.setParameters(cameraParameters);
+        // another app may take over the camera while we record in the background
+        camera.setErrorCallback(new Camera.ErrorCallback() {
+            @Override
+            public void onError(int error, Camera camera) {
+                commandHandler.obtainMessage(CMD_RECORDER_ERROR, error, 0).sendToTarget();
+            }
+        });
 
         try {
             camera.setPreviewDisplay(previewView.getHolder());
@@ -217,6 +434,44 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
         return true;
     }
 
+    /**
+     * Resolves preview size, frame rate and camera orientation for the passed geometry and the
+     * current settings. Uses the stored configuration if the camera capabilities were queried
+     * before.
+     *
+     * @param cameraParameters parameters of the opened camera
+     * @param geometry         size and rotation of the preview
+     * @return the configuration
+     */
+    private CameraCapabilities.Configuration getCameraConfiguration(
+            Camera.Parameters cameraParameters, PreviewGeometry geometry) {
+        String key = CameraCapabilities.GetKey(Camera.CameraInfo.CAMERA_FACING_BACK,
+                geometry.rotation, geometry.width, geometry.height, settings.getQuality(),
+                settings.getFps());
+        CameraCapabilities.Configuration configuration = cameraCapabilities.get(key);
+        if (configuration != null) return configuration;
+
+        // choose suitable fps rate
+        int frameRate = CameraHelper.getFrameRate(cameraParameters.getSupportedPreviewFpsRange(),
+                settings.getFps());
+
+        // choose best video preview size. Swap the view's sides if the device is in landscape
+        List<Camera.Size> mSupportedPreviewSizes = cameraParameters.getSupportedPreviewSizes();
+        List<Camera.Size> mSupportedVideoSizes = cameraParameters.getSupportedVideoSizes();
+        boolean landscape = geometry.rotation == Surface.ROTATION_90
+                || geometry.rotation == Surface.ROTATION_270;
+        Camera.Size optimalSize = CameraHelper.getOptimalVideoSize(mSupportedVideoSizes,
+                mSupportedPreviewSizes, landscape ? geometry.height : geometry.width,
+                landscape ? geometry.width : geometry.height);
+
+        Camera.CameraInfo info = CameraHelper.getDefaultBackFacingCameraInfo();
+        configuration = new CameraCapabilities.Configuration(optimalSize.width,
+                optimalSize.height, frameRate, info.orientation);
+        cameraCapabilities.put(key, configuration);
+        memoryManager.saveCameraCapabilities(cameraCapabilities);
+        return configuration;
+    }
+
     /**
      * Get an instance of the Camera object.
      *
@@ -242,50 +497,132 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
     }
 
     /**
-     * Sets up the media recorder with respect to the user's settings
+     * Allocates a new output file for a video chunk.
+     *
+     * @return the file or null if no file could be allocated
      */
-    private boolean prepareMediaRecorder() {
+    @Nullable
+    private File allocateOutputFile() {
+        File file = memoryManager.getTempVideoFile();
+        // file names have millisecond resolution but chunks are allocated ahead of time
+        while (file != null && (file.equals(currentOutputFile) || file.equals(stagedOutputFile)
+                || file.equals(nextOutputFile))) {
+            SystemClock.sleep(1);
+            file = memoryManager.getTempVideoFile();
+        }
+        return file;
+    }
+
+    /**
+     * Configures a media recorder for the next chunk with respect to the user's settings, so that
+     * only preparing and starting is left when the current chunk ends. Preparing is not done
+     * ahead of time as the camera can only be used by one prepared recorder.
+     *
+     * @return true if staging succeeded
+     */
+    private boolean stageMediaRecorder() {
+        if (stagedMediaRecorder != null) return true;
+
         // MutedMediaRecorder(); is not suitable for some devices
-        mediaRecorder = new MediaRecorder();
+        MediaRecorder recorder = new MediaRecorder();
 
-        camera.unlock();
-        mediaRecorder.setCamera(camera);
+        if (cameraLocked) {
+            camera.unlock();
+            cameraLocked = false;
+        }
+        recorder.setCamera(camera);
 
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
-        mediaRecorder.setProfile(camcorderProfile);
+        recorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
+        recorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+        recorder.setProfile(camcorderProfile);
 
         // get new file and add it to buffer and media recorder
-        currentOutputFile = memoryManager.getTempVideoFile();
-        if (currentOutputFile == null)
+        File outputFile = allocateOutputFile();
+        if (outputFile == null) {
+            recorder.release();
             return false;
-        mediaRecorder.setOutputFile(currentOutputFile.getPath());
+        }
+        recorder.setOutputFile(outputFile.getPath());
 
-        mediaRecorder.setMaxDuration(VIDEO_CHUNK_LENGTH * 1000);
-        mediaRecorder.setOrientationHint(90);
-        mediaRecorder.setOnInfoListener(this);
+        if (seamlessRollover) {
+            // chunks end when reaching their size so that the recorder can switch files
+            recorder.setMaxFileSize(chunkFileSize);
+        } else {
+            recorder.setMaxDuration(segmentLengthSec * 1000);
+        }
+        recorder.setOrientationHint(90);
+        recorder.setOnInfoListener(this);
+        recorder.setOnErrorListener(this);
+
+        stagedMediaRecorder = recorder;
+        stagedOutputFile = outputFile;
+        return true;
+    }
+
+    /**
+     * Sets up the media recorder with respect to the user's settings. Uses the recorder which was
+     * staged ahead of time if there is one.
+     */
+    private boolean prepareMediaRecorder() {
+        if (!stageMediaRecorder()) return false;
+        mediaRecorder = stagedMediaRecorder;
+        currentOutputFile = stagedOutputFile;
+        stagedMediaRecorder = null;
+        stagedOutputFile = null;
 
         try {
-            // this can be put in an async task if performance turns out to be poor
             mediaRecorder.prepare();
+            diagnostics.onChunkPrepared(currentOutputFile, System.nanoTime());
             Log.d(TAG, "Media Recorder is prepared");
         } catch (IOException e) {
             e.printStackTrace();
-            recordCallback.onError(context.getResources().getString(R.string.error_recorder));
+            uiCallback.onError(context.getResources().getString(R.string.error_recorder));
             return false;
         } catch (IllegalStateException e) {
             e.printStackTrace();
-            recordCallback.onError(context.getResources().getString(R.string.error_undefined));
-            pauseHandler();
+            uiCallback.onError(context.getResources().getString(R.string.error_undefined));
             return false;
         }
+        if (seamlessRollover) queueNextOutputFile();
         return true;
     }
 
     /**
-     * Releases the media recorder and locks the camera
+     * Tells the media recorder which file to continue with when the current chunk is full. The
+     * recorder will stop at the end of the chunk if this fails.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void queueNextOutputFile() {
+        // let the recorder stop at the end of the chunk so that it can be replaced
+        if (nextOutputFile != null || recorderSettingsPending) return;
+        File outputFile = allocateOutputFile();
+        if (outputFile == null) return;
+        if (MediaRecorderHelper.setNextOutputFile(mediaRecorder, outputFile)) {
+            nextOutputFile = outputFile;
+        } else if (outputFile.exists()) {
+            outputFile.delete();
+        }
+    }
+
+    /**
+     * Releases the media recorder and the staged one and locks the camera
      */
     private void releaseMediaRecorder() {
+        releaseCurrentMediaRecorder();
+        discardStagedMediaRecorder();
+        if (camera != null) {
+            Log.d(TAG, "LOCKING CAMERA");
+            camera.lock();
+            cameraLocked = true;
+        }
+    }
+
+    /**
+     * Releases the media recorder but keeps the camera unlocked for the next recorder. Deletes the
+     * queued next output file as the recorder did not write to it.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void releaseCurrentMediaRecorder() {
         if (mediaRecorder != null) {
             // Clear recorder configuration.
             mediaRecorder.reset();
@@ -293,14 +630,24 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
             mediaRecorder.release();
             mediaRecorder = null;
         }
-        if (camera != null) {
-            Log.d(TAG, "LOCKING CAMERA");
-            camera.lock();
+        if (nextOutputFile != null) {
+            if (nextOutputFile.exists()) nextOutputFile.delete();
+            nextOutputFile = null;
         }
     }
 
     /**
-     * Starts recording and writing into buffer
+     * Releases the staged media recorder.
+     */
+    private void discardStagedMediaRecorder() {
+        if (stagedMediaRecorder == null) return;
+        stagedMediaRecorder.release();
+        stagedMediaRecorder = null;
+        stagedOutputFile = null;
+    }
+
+    /**
+     * Starts recording and writing into buffer. Stages the recorder of the next chunk afterwards.
      *
      * @return true if starting succeeded
      */
@@ -312,11 +659,13 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
             // certain fps value. The catch block will make sure that our app doesn't bother
             // other apps if it crashes as we ensure by this routine to release the camera on crash
             e.printStackTrace();
-            pauseHandler();
-            recordCallback.onError(context.getResources().getString((R.string.error_undefined)));
+            uiCallback.onError(context.getResources().getString((R.string.error_undefined)));
             return false;
         }
+        diagnostics.onChunkStarted(currentOutputFile, System.nanoTime());
 
+        // configure the next chunk's recorder while this chunk is being recorded
+        if (!seamlessRollover) stageMediaRecorder();
         return true;
     }
 
@@ -330,90 +679,410 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
     @Override
     public void createHandler() {
         super.createHandler();
+        startCameraThread();
+        settingsSource = new MemoryManager(context);
+
+        // Load settings, the camera thread applies them to recorder and buffers
+        this.settings = settingsSource.getSettings();
+        canOperate = true;
+        commandHandler.sendEmptyMessage(CMD_CREATE);
+
+        // avoid NPE's if a client forgets to set the metadata
+        this.metadata = new Metadata();
+
+        this.triggerCoordinator = new TriggerCoordinator(getPostTriggerMillis(),
+                getMaxExtensionMillis());
+
+        // apply settings changes without recreating the handler
+        settingsSource.registerSettingsListener(settingsListener);
+    }
+
+    /**
+     * Sets up camcorder profile and buffers of a new life cycle on the camera thread.
+     */
+    private void setUpSession() {
         this.memoryManager = new MemoryManager(context);
+        storageProbeStarted = false;
 
         // clean up all temporary data which was not deleted when exiting the app. This happens
         // sometimes as onDestroy of the Activity is not called and we have no other option left
         // to get notified when the app is closed.
         memoryManager.deleteAllTempData();
 
-        // Load and apply settings
-        this.settings = memoryManager.getSettings();
+        this.cameraCapabilities = memoryManager.getCameraCapabilities();
+        // chunk length depends on the bit rate of the profile and determines the buffer capacity
+        setUpCamcorderProfile();
         try {
             setUpBuffer();
         } catch (FileNotFoundException e) {
-            recordCallback.onError(context.getResources().getString(R.string.error_memory));
+            uiCallback.onError(context.getResources().getString(R.string.error_memory));
             canOperate = false;
         }
-        setUpCamcorderProfile();
+    }
 
-        // avoid NPE's if a client forgets to set the metadata
-        this.metadata = new Metadata();
+    /**
+     * Applies new settings to the running handler. Buffers are resized right away, keeping the
+     * newest footage. A new quality or frame rate needs a new media recorder which replaces the
+     * current one at the end of its chunk.
+     *
+     * @param newSettings the new settings
+     */
+    private void applySettings(Settings newSettings) {
+        boolean bufferChanged = newSettings.getBufferSizeSec() != settings.getBufferSizeSec();
+        boolean recorderChanged = newSettings.getQuality() != settings.getQuality()
+                || newSettings.getFps() != settings.getFps();
+        settings = newSettings;
+        if (!bufferChanged && !recorderChanged) return;
+
+        int previousSegmentLength = segmentLengthSec;
+        if (recorderChanged) {
+            setUpCamcorderProfile();
+            if (recorderState == RecorderState.RECORDING) {
+                // the camera may be used while recording, so the frame rate is resolved now
+                camcorderProfile.videoFrameRate = getCameraConfiguration(camera.getParameters(),
+                        previewGeometry).frameRate;
+                recorderSettingsPending = true;
+            }
+        }
+        if (bufferChanged || segmentLengthSec != previousSegmentLength) resizeBuffers();
+        triggerCoordinator.setWindowLimits(getPostTriggerMillis(), getMaxExtensionMillis());
+    }
+
+    /**
+     * Chooses the chunk length of this session from the measurements of previous sessions.
+     */
+    private void chooseSegmentLength() {
+        long bytesPerSecond = ((long) camcorderProfile.videoBitRate
+                + camcorderProfile.audioBitRate) / 8;
+        segmentLengthSec = new SegmentLengthController(settings.getBufferSizeSec(), bytesPerSecond)
+                .chooseSegmentLength(memoryManager.getRecordingStats());
+        Log.d(TAG, "Using video chunks of " + segmentLengthSec + "s");
+    }
+
+    /**
+     * Merges the measurements of this session into the recording stats used to choose the chunk
+     * length of the next sessions.
+     */
+    private void saveRecordingStats() {
+        RecordingStats stats = memoryManager.getRecordingStats();
+        if (diagnostics.getGapMillis().getCount() > 0)
+            stats.addRolloverGap(diagnostics.getGapMillis().getMean());
+        if (storageThroughput > 0) stats.addStorageThroughput(storageThroughput);
+        memoryManager.saveRecordingStats(stats);
+    }
+
+    /**
+     * Starts the thread which executes all camera and media recorder commands.
+     */
+    private void startCameraThread() {
+        final HandlerThread previousThread = cameraThread;
+        cameraThread = new HandlerThread("CameraThread", Process.THREAD_PRIORITY_DISPLAY);
+        cameraThread.start();
+        commandHandler = new Handler(cameraThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                executeCommand(msg);
+                return true;
+            }
+        });
+        if (previousThread != null) {
+            // the thread of the previous life cycle releases the camera and the buffer before it
+            // terminates. Wait for it on the new thread, so that the main thread is not blocked
+            commandHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        previousThread.join();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
     }
 
     @Override
     public void resumeHandler() {
         super.resumeHandler();
-        if (!canOperate || isHandlerRunning) return;
+        if (!canOperate) return;
 
-        // take care of setting up camera, media recorder and recording
-        if (!prepareCamera() || !prepareMediaRecorder() || !startRecordingChunk()) {
-            pauseHandler();
-            return;
-        }
-        isHandlerRunning = true;
+        // views may only be accessed on the main thread
+        Display display = ((WindowManager) context.getSystemService(WINDOW_SERVICE))
+                .getDefaultDisplay();
+        PreviewGeometry geometry = new PreviewGeometry(previewView.getWidth(),
+                previewView.getHeight(), display.getRotation());
+        resumed = true;
+        // keep the recorder if it is still running in its grace period
+        commandHandler.removeMessages(CMD_CLOSE);
+        commandHandler.obtainMessage(CMD_OPEN, geometry).sendToTarget();
     }
 
+    /**
+     * Schedules persisting the current metadata's recording. If a recording is being captured
+     * already the trigger is merged into it or queued as next recording, see
+     * {@link TriggerCoordinator}.
+     */
     @Override
     public void schedulePersisting() {
-        // don't start recording if we already record
-        if (isRecording) return;
-        isRecording = true;
+        if (metadata == null) {
+            // let the persistor report the missing metadata
+            startPersisting(null);
+            return;
+        }
+        CaptureWindow window = triggerCoordinator.onTrigger(metadata);
+        if (window != null) {
+            startPersisting(window);
+        } else if (triggerCoordinator.getOpenWindow() != null) {
+            commandHandler.obtainMessage(CMD_GROW_BUFFERS, triggerCoordinator.getOpenWindow())
+                    .sendToTarget();
+        }
+    }
 
+    /**
+     * Notifies the UI and lets the camera thread create an async task which persists the buffer
+     * as soon as the passed window closed.
+     *
+     * @param window window of the recording or null to persist without metadata
+     */
+    private void startPersisting(@Nullable CaptureWindow window) {
         recordCallback.onRecordingStarted();
-
-        // create async task to persist the buffer
-        AsyncPersistor mPersistor = new AsyncPersistor(videoRingBuffer, memoryManager,
-                persistCallback, context);
-        mPersistor.execute(metadata);
+        commandHandler.obtainMessage(CMD_PERSIST, window).sendToTarget();
     }
 
-
     @Override
     public void updateMetadata(Metadata metadata) {
         this.metadata = metadata;
     }
 
+    /**
+     * Pauses the handler. Camera and recorder are released after the grace period of the settings,
+     * so that resuming within it only needs to reattach the preview.
+     */
     @Override
     public void pauseHandler() {
         super.pauseHandler();
-        if (isHandlerRunning) {
-            // take care of stopping recording
-            forceStopMediaRecorder();
-        }
-        isHandlerRunning = false;
-        // take care of stopping preview
-        releaseMediaRecorder();
-        releaseCamera();
+        resumed = false;
+        // short interruptions do not cost a camera reopen and a gap in the buffer
+        commandHandler.sendEmptyMessageDelayed(CMD_CLOSE, settings.getPauseGraceSec() * 1000L);
     }
 
     @Override
     public void destroyHandler() {
         super.destroyHandler();
-        tearDownBuffer();
-        memoryManager.deleteCurrentTempData();
+        settingsSource.unregisterSettingsListener(settingsListener);
+        commandHandler.sendEmptyMessage(CMD_DESTROY);
+        cameraThread.quitSafely();
     }
 
-    private void tearDownBuffer() {
-        videoRingBuffer.destroy();
+    @Override
+    public void onInfo(MediaRecorder mr, int what, int extra) {
+        commandHandler.obtainMessage(CMD_ROLLOVER, what, extra).sendToTarget();
     }
 
     @Override
-    public void onInfo(MediaRecorder mr, int what, int extra) {
-        // Video is saved automatically, no need to call stopRecordingChunk() here.
-        videoRingBuffer.put(currentOutputFile);
-        // Just clean up last recording and restart recording
-        restartMediaRecorder();
+    public void onError(MediaRecorder mr, int what, int extra) {
+        commandHandler.obtainMessage(CMD_RECORDER_ERROR, what, extra).sendToTarget();
+    }
+
+    /**
+     * @return continuity diagnostics of the recording
+     */
+    public RecordingDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Blocks until the camera thread executed all commands which were enqueued before this call.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return false if the commands were not executed in time
+     */
+    boolean awaitCommands(long timeoutMillis) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        if (!commandHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        })) return false;
+        return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* #############################################################################################
+     *                                  camera thread
+     * ###########################################################################################*/
+
+    /**
+     * Executes a command on the camera thread.
+     *
+     * @param msg message holding the command
+     */
+    private void executeCommand(Message msg) {
+        switch (msg.what) {
+            case CMD_CREATE:
+                setUpSession();
+                break;
+            case CMD_OPEN:
+                // the buffer could not be set up
+                if (!canOperate) break;
+                if (recorderState == RecorderState.CLOSED) {
+                    openRecorder((PreviewGeometry) msg.obj);
+                } else {
+                    reattachPreview((PreviewGeometry) msg.obj);
+                }
+                onRecordingResumed();
+                break;
+            case CMD_CLOSE:
+                closeRecorder();
+                onRecordingPaused();
+                break;
+            case CMD_ROLLOVER:
+                if (recorderState != RecorderState.RECORDING) break;
+                onRecorderInfo(msg.arg1);
+                break;
+            case CMD_PERSIST:
+                executePersistor((CaptureWindow) msg.obj);
+                break;
+            case CMD_GROW_BUFFERS:
+                CaptureWindow window = (CaptureWindow) msg.obj;
+                // the buffers were swapped already if the window is closed
+                if (!window.isClosed()) growBuffers(window);
+                break;
+            case CMD_DESTROY:
+                closeRecorder();
+                // a pending close of the grace period is dropped when the thread quits
+                onRecordingPaused();
+                saveRecordingStats();
+                videoRingBuffer.destroy();
+                memoryManager.deleteCurrentTempData();
+                break;
+            case CMD_RECORDER_ERROR:
+                Log.w(TAG, "Camera or recorder failed with error " + msg.arg1);
+                closeRecorder();
+                // the camera is reopened when the UI resumes if it was released in background
+                if (resumed && previewGeometry != null) openRecorder(previewGeometry);
+                break;
+            case CMD_APPLY_SETTINGS:
+                applySettings((Settings) msg.obj);
+                break;
+            case CMD_STORAGE_MEASURED:
+                storageThroughput = (Double) msg.obj;
+                break;
+            default:
+                Log.w(TAG, "Unknown command " + msg.what);
+        }
+    }
+
+    /**
+     * Called on the camera thread after the handler was resumed, also if the recorder kept
+     * running during the pause grace period. Does nothing by default.
+     */
+    protected void onRecordingResumed() {
+    }
+
+    /**
+     * Called on the camera thread after the recorder was released because the pause grace period
+     * ran out or the handler was destroyed. Does nothing by default.
+     */
+    protected void onRecordingPaused() {
+    }
+
+    /**
+     * Opens the camera and starts recording.
+     *
+     * @param geometry size and rotation of the preview
+     */
+    private void openRecorder(PreviewGeometry geometry) {
+        long beginNanos = System.nanoTime();
+        // take care of setting up camera, media recorder and recording
+        if (!prepareCamera(geometry) || !prepareMediaRecorder() || !startRecordingChunk()) {
+            closeRecorder();
+            return;
+        }
+        diagnostics.onRecorderOpened(beginNanos, System.nanoTime());
+        recorderState = RecorderState.RECORDING;
+        // measure storage once the first chunk is recording, so that it does not delay the preview
+        if (!storageProbeStarted) probeStorage();
+    }
+
+    /**
+     * Measures the write throughput of the temp directory in the background. The result is passed
+     * to the camera thread and merged into the recording stats when the handler is destroyed.
+     */
+    private void probeStorage() {
+        storageProbeStarted = true;
+        File tempFile = memoryManager.getTempVideoFile();
+        if (tempFile == null) return;
+        final File directory = tempFile.getParentFile();
+        final Handler resultHandler = commandHandler;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                double throughput = SegmentLengthController.MeasureStorageThroughput(directory);
+                resultHandler.obtainMessage(CMD_STORAGE_MEASURED, throughput).sendToTarget();
+            }
+        });
+    }
+
+    /**
+     * Shows the preview of the recorder which kept running during the pause grace period on the
+     * new surface. Reopens the recorder if the geometry changed or the surface cannot be used.
+     *
+     * @param geometry size and rotation of the preview
+     */
+    private void reattachPreview(PreviewGeometry geometry) {
+        if (geometry.matches(previewGeometry)) {
+            try {
+                camera.setPreviewDisplay(previewView.getHolder());
+                Log.d(TAG, "Reattached preview");
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Could not reattach preview: " + e.getMessage());
+            }
+        }
+        closeRecorder();
+        openRecorder(geometry);
+    }
+
+    /**
+     * Stops recording and releases media recorder and camera. Does nothing if they are released
+     * already.
+     */
+    private void closeRecorder() {
+        if (recorderState == RecorderState.RECORDING) {
+            // take care of stopping recording
+            forceStopMediaRecorder();
+        }
+        recorderState = RecorderState.CLOSED;
+        diagnostics.onRecordingClosed();
+        // the next recorder is configured with the current settings anyway
+        recorderSettingsPending = false;
+        // take care of stopping preview
+        releaseMediaRecorder();
+        releaseCamera();
+    }
+
+    /**
+     * Creates an async task which persists the buffer as soon as the passed window closed. The
+     * window is closed and the buffers are swapped on the camera thread. The task is started on
+     * the main thread.
+     *
+     * @param window window of the recording or null to persist without metadata
+     */
+    private void executePersistor(@Nullable final CaptureWindow window) {
+        final AsyncPersistor mPersistor = new AsyncPersistor(videoRingBuffer, traceBuffer,
+                memoryManager, persistCallback, context);
+        mPersistor.setCaptureWindow(window);
+        mPersistor.setHandoffLooper(cameraThread.getLooper());
+        mPersistor.setDiagnostics(diagnostics);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // persistors of consecutive windows must not wait for each other
+                mPersistor.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                        window == null ? null : window.getMetadata());
+            }
+        });
     }
 
     /**
@@ -425,28 +1094,109 @@ public class CompatCameraHandler extends CameraHandler implements MediaRecorder.
     private void forceStopMediaRecorder() {
         try {
             stopRecordingChunk(); // try to stop recording BEFORE inserting file into buffer
+            diagnostics.onChunkStopped(currentOutputFile, System.nanoTime());
             videoRingBuffer.put(currentOutputFile);
         } catch (RuntimeException re) {
             // No valid data was recorded as MediaRecorder.stop() was called before or right after
             // MediaRecorder.start(). Remove the incomplete file from the buffer and delete it;
             // a new one will be allocated as soon as the Handler is resumed
+            diagnostics.onChunkStopped(currentOutputFile, System.nanoTime());
             if (currentOutputFile != null && currentOutputFile.exists()) currentOutputFile.delete();
             re.printStackTrace();
         }
     }
 
     /**
-     * Restarts the media recorder.
+     * Handles an info event of the recording media recorder.
+     *
+     * @param what type of the event
+     */
+    private void onRecorderInfo(int what) {
+        switch (what) {
+            case MediaRecorderHelper.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                if (nextOutputFile == null) break;
+                // the previous chunk is complete and the recorder continues without a gap
+                long switchTime = System.nanoTime();
+                diagnostics.onChunkStopped(currentOutputFile, switchTime);
+                videoRingBuffer.put(currentOutputFile);
+                currentOutputFile = nextOutputFile;
+                nextOutputFile = null;
+                diagnostics.onChunkStarted(currentOutputFile, switchTime);
+                queueNextOutputFile();
+                diagnostics.onRolloverHandled(switchTime, System.nanoTime(), true);
+                break;
+            case MediaRecorderHelper.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                // retry in case the next file could not be queued before
+                queueNextOutputFile();
+                break;
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED:
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                // Video is saved automatically, no need to call stopRecordingChunk() here.
+                rolloverMediaRecorder();
+                break;
+            default:
+                Log.w(TAG, "Unhandled media recorder info " + what);
+        }
+    }
+
+    /**
+     * Continues recording with the staged media recorder after the current one stopped at the
+     * end of its chunk. The gap is measured from the moment the recorder reported the end of the
+     * chunk until the next recorder started. Closes the recorder if switching failed.
+     */
+    private void rolloverMediaRecorder() {
+        long stopTime = System.nanoTime();
+        diagnostics.onChunkStopped(currentOutputFile, stopTime);
+        videoRingBuffer.put(currentOutputFile);
+        releaseCurrentMediaRecorder();
+        if (recorderSettingsPending) {
+            // the staged recorder was configured with the previous profile
+            discardStagedMediaRecorder();
+            recorderSettingsPending = false;
+        }
+        if (!prepareMediaRecorder() || !startRecordingChunk()) {
+            recorderState = RecorderState.CLOSED;
+            closeRecorder();
+            return;
+        }
+        diagnostics.onRolloverHandled(stopTime, System.nanoTime(), false);
+    }
+
+    /**
+     * Restarts the media recorder with a new output file. Closes the recorder if restarting
+     * failed.
      */
     private void restartMediaRecorder() {
-        // Maybe we will need to synchronize this method. (Calls to this method will be made in a
-        // non predictable manner). Tough, all calls are stable and can be called safely in any
-        // state but we might get some warnings.
-        if (!isHandlerRunning) return;
-        releaseMediaRecorder();
+        if (recorderState != RecorderState.RECORDING) return;
+        releaseCurrentMediaRecorder();
+        // the staged recorder might write to a file of the previous buffer
+        discardStagedMediaRecorder();
+        recorderSettingsPending = false;
+        diagnostics.onForcedRestart();
         // start recording new chunk
         if (!prepareMediaRecorder() || !startRecordingChunk()) { // will allocate also a new output file
-            pauseHandler();
+            recorderState = RecorderState.CLOSED;
+            closeRecorder();
+        }
+    }
+
+    /**
+     * Size of the preview view and rotation of the display, read on the main thread.
+     */
+    private static class PreviewGeometry {
+        private final int width;
+        private final int height;
+        private final int rotation;
+
+        PreviewGeometry(int width, int height, int rotation) {
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+        }
+
+        boolean matches(PreviewGeometry other) {
+            return other != null && width == other.width && height == other.height
+                    && rotation == other.rotation;
         }
     }
 }
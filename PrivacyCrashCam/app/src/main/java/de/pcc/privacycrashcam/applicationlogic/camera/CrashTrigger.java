@@ -0,0 +1,218 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import de.pcc.privacycrashcam.R;
+import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.utils.dataprocessing.CrashDetector;
+import de.pcc.privacycrashcam.utils.dataprocessing.TriggerCallback;
+
+/**
+ * Triggers recordings of a {@link CameraHandler} after recognizing a double tap or after measured
+ * acceleration force exceeds the set maximum. Also feeds the acceleration trace of the handler.
+ * <p>Sensor events are processed on the sensor thread of an {@link AccelerometerSampler}. Triggers
+ * are forwarded to the main thread.</p>
+ *
+ * @author Giorgio Gross
+ */
+class CrashTrigger implements SensorEventListener, View.OnClickListener, TriggerCallback {
+    private final static String TAG = "CRASH_TRIGGER";
+    private static final long DOUBLE_TAP_TIME_SPAN = 700; // 700ms to double tap
+    /**
+     * Interval in which the clock reference of the trace is renewed, so that buffers which were
+     * swapped in get one as well.
+     */
+    private static final long CLOCK_REFERENCE_INTERVAL_NANOS = 1000L * 1000000L;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final CameraHandler handler;
+    private final Context context;
+    private final RecordCallback recordCallback;
+    /**
+     * Latest sample, written on the sensor thread and read by touch triggers on the main thread.
+     * Guarded by its own lock.
+     */
+    private final float[] accelValues = {0f, 0f, 0f};
+    private final CrashDetector crashDetector = new CrashDetector(this);
+    private final AccelerometerSampler accelerometerSampler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long lastTap = 0;
+    /**
+     * Sample timestamp of the last clock reference or -1. Only used on the sensor thread.
+     */
+    private long clockReferenceNanos = -1;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new trigger. Call {@link #start()} to start sampling.
+     *
+     * @param context        application context
+     * @param handler        handler which is triggered and receives the acceleration trace
+     * @param recordCallback callback to be notified about errors
+     */
+    CrashTrigger(Context context, CameraHandler handler, RecordCallback recordCallback) {
+        this.context = context;
+        this.handler = handler;
+        this.recordCallback = recordCallback;
+        this.accelerometerSampler = new AccelerometerSampler(context, this);
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Starts sampling. Does nothing if the sampler is running already. Must be called on the
+     * thread which calls {@link #stop()}.
+     */
+    void start() {
+        if (!accelerometerSampler.start()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    recordCallback.onError(context.getString(R.string.error_sensor));
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops sampling and forgets about previous samples.
+     */
+    void stop() {
+        accelerometerSampler.stop();
+        // no more samples will arrive, so we can safely access the detector from this thread
+        crashDetector.reset();
+    }
+
+    /**
+     * Called when sensor values have changed.
+     * <p>See {@link SensorManager SensorManager}
+     * for details on possible sensor types.
+     * <p>See also {@link SensorEvent SensorEvent}.
+     * <p>
+     * <p><b>NOTE:</b> The application doesn't own the
+     * {@link SensorEvent event}
+     * object passed as a parameter and therefore cannot hold on to it.
+     * The object may be part of an internal pool and may be reused by
+     * the framework.
+     *
+     * @param event the {@link SensorEvent SensorEvent}.
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) return;
+        if (event.values == null) return;
+
+        // the event object is reused by the framework, copy values instead of referencing them
+        synchronized (accelValues) {
+            System.arraycopy(event.values, 0, accelValues, 0, accelValues.length);
+        }
+        handler.recordAcceleration(event.timestamp, accelValues[0], accelValues[1],
+                accelValues[2]);
+        if (clockReferenceNanos < 0
+                || event.timestamp - clockReferenceNanos > CLOCK_REFERENCE_INTERVAL_NANOS) {
+            updateClockReference(event.timestamp);
+        }
+        crashDetector.onSample(event.timestamp, accelValues[0], accelValues[1], accelValues[2]);
+        accelerometerSampler.onJerk(crashDetector.getJerk(), event.timestamp);
+    }
+
+    /**
+     * Called once per impact recognized by the crash detector.
+     *
+     * @param timestampNanos timestamp of the sample which caused the trigger
+     * @param gForce         highest dynamic acceleration in the detection window, in g
+     * @param x              acceleration on the x axis of the strongest sample, in m/s^2
+     * @param y              acceleration on the y axis of the strongest sample, in m/s^2
+     * @param z              acceleration on the z axis of the strongest sample, in m/s^2
+     */
+    @Override
+    public void onTrigger(long timestampNanos, float gForce, float x, float y, float z) {
+        Log.i(TAG, "Impact detected with " + gForce + "g");
+        // the trigger is detected while its sample is processed, so the clocks are read right now
+        updateClockReference(timestampNanos);
+        final Metadata metadata = new Metadata(System.currentTimeMillis(),
+                Metadata.TRIGGER_TYPE_SENSOR, new float[]{x, y, z});
+        // camera and UI must only be accessed from the main thread
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.updateMetadata(metadata);
+                handler.schedulePersisting();
+            }
+        });
+    }
+
+    /**
+     * Relates the passed sample timestamp to the current system clocks. Call this on the sensor
+     * thread right after the sample was received.
+     *
+     * @param timestampNanos timestamp of the sample
+     */
+    private void updateClockReference(long timestampNanos) {
+        clockReferenceNanos = timestampNanos;
+        handler.recordClockReference(timestampNanos, SystemClock.elapsedRealtimeNanos(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Called when the accuracy of the registered sensor has changed.
+     * <p>
+     * <p>See the SENSOR_STATUS_* constants in
+     * {@link SensorManager SensorManager} for details.
+     *
+     * @param sensor   acceleration sensor
+     * @param accuracy The new accuracy of this sensor, one of
+     *                 {@code SensorManager.SENSOR_STATUS_*}
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // ignored
+    }
+
+    /**
+     * Called when a view has been clicked.
+     *
+     * @param v The view that was clicked.
+     */
+    @Override
+    public void onClick(View v) {
+        long tapTime = System.currentTimeMillis();
+        if (tapTime - lastTap <= DOUBLE_TAP_TIME_SPAN) {
+            // double tap
+            float[] sample;
+            synchronized (accelValues) {
+                sample = accelValues.clone();
+            }
+            Metadata metadata = new Metadata(System.currentTimeMillis(),
+                    Metadata.TRIGGER_TYPE_TOUCH, sample);
+            handler.updateMetadata(metadata);
+            handler.schedulePersisting();
+        }
+        lastTap = tapTime;
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    AccelerometerSampler getAccelerometerSampler() {
+        return accelerometerSampler;
+    }
+}
@@ -0,0 +1,54 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Forwards all calls to another {@link RecordCallback} on the main thread. Used to report state
+ * changes which happen on the camera thread to the UI.
+ *
+ * @author Giorgio Gross
+ */
+class MainThreadRecordCallback implements RecordCallback {
+    private final RecordCallback callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Creates a new callback.
+     *
+     * @param callback callback to be called on the main thread
+     */
+    MainThreadRecordCallback(RecordCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void onRecordingStarted() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRecordingStarted();
+            }
+        });
+    }
+
+    @Override
+    public void onRecordingStopped() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRecordingStopped();
+            }
+        });
+    }
+
+    @Override
+    public void onError(final String errorMessage) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(errorMessage);
+            }
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.media.CamcorderProfile;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Media recorder related utilities. Gives access to {@link MediaRecorder} features of newer
+ * platform versions which are not part of the SDK the app is compiled against.
+ *
+ * @author Giorgio Gross
+ */
+public class MediaRecorderHelper {
+    private final static String TAG = "MEDIA_RECORDER_HELPER";
+
+    /**
+     * The recorder will soon reach its maximum file size. See
+     * MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING, API level 26.
+     */
+    public final static int MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING = 802;
+    /**
+     * The recorder switched to the file set by {@link #setNextOutputFile(MediaRecorder, File)}.
+     * See MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED, API level 26.
+     */
+    public final static int MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED = 803;
+
+    private final static Method SET_NEXT_OUTPUT_FILE = findSetNextOutputFile();
+
+    private static Method findSetNextOutputFile() {
+        if (Build.VERSION.SDK_INT < 26) return null;
+        try {
+            return MediaRecorder.class.getMethod("setNextOutputFile", File.class);
+        } catch (NoSuchMethodException e) {
+            Log.w(TAG, "setNextOutputFile is not available");
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the platform's media recorder can switch to a new output file without
+     * stopping.
+     *
+     * @return true if {@link #setNextOutputFile(MediaRecorder, File)} can be used
+     */
+    public static boolean supportsNextOutputFile() {
+        return SET_NEXT_OUTPUT_FILE != null;
+    }
+
+    /**
+     * Sets the file the recorder switches to as soon as the current file reached its maximum
+     * size. Must be called after {@link MediaRecorder#prepare()}.
+     *
+     * @param recorder the prepared recorder
+     * @param file     the next output file
+     * @return true if the file was set
+     */
+    public static boolean setNextOutputFile(MediaRecorder recorder, File file) {
+        if (SET_NEXT_OUTPUT_FILE == null) return false;
+        try {
+            SET_NEXT_OUTPUT_FILE.invoke(recorder, file);
+            return true;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            Log.w(TAG, "Could not set next output file: " + e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Calculates the file size which holds the passed duration of a recording with the passed
+     * profile's bit rates.
+     *
+     * @param profile         profile of the recording
+     * @param durationSeconds duration of the recording
+     * @return file size in bytes
+     */
+    public static long getFileSizeForDuration(CamcorderProfile profile, int durationSeconds) {
+        long bitsPerSecond = (long) profile.videoBitRate + profile.audioBitRate;
+        return bitsPerSecond * durationSeconds / 8;
+    }
+}
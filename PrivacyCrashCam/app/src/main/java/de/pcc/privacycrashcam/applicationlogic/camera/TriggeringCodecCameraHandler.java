@@ -0,0 +1,53 @@
+package de.pcc.privacycrashcam.applicationlogic.camera;
+
+import android.content.Context;
+import android.view.SurfaceView;
+import android.view.View;
+
+/**
+ * Decorates the CodecCameraHandler so that it triggers recording on its own after recognizing a
+ * button click or after measured acceleration force exceeds the set maximum, see
+ * {@link CrashTrigger}.
+ * <p>The sampler runs while the handler is resumed.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class TriggeringCodecCameraHandler extends CodecCameraHandler implements
+        View.OnClickListener {
+
+    private final CrashTrigger crashTrigger;
+
+    /**
+     * Creates a new camera handler with the passed parameters. Also sets up the sensor.
+     *
+     * @param context        application context
+     * @param previewView    view to be used as preview for the camera
+     * @param recordCallback callback to be notified about recording state
+     */
+    public TriggeringCodecCameraHandler(Context context, SurfaceView previewView,
+                                        RecordCallback recordCallback) {
+        super(context, previewView, recordCallback);
+        this.crashTrigger = new CrashTrigger(context, this, recordCallback);
+    }
+
+    @Override
+    public void resumeHandler() {
+        super.resumeHandler();
+        crashTrigger.start();
+    }
+
+    @Override
+    public void pauseHandler() {
+        super.pauseHandler();
+        crashTrigger.stop();
+    }
+
+    AccelerometerSampler getAccelerometerSampler() {
+        return crashTrigger.getAccelerometerSampler();
+    }
+
+    @Override
+    public void onClick(View v) {
+        crashTrigger.onClick(v);
+    }
+}
@@ -0,0 +1,195 @@
+package de.pcc.privacycrashcam.data;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Camera configurations resolved from the capabilities of the device's camera. Querying the
+ * capabilities and choosing the preview size is slow, so the result is stored per camera,
+ * rotation, preview size and recording settings. All configurations are discarded when the build
+ * of the OS changes, as camera drivers may change with it.
+ *
+ * @author Giorgio Gross
+ */
+public class CameraCapabilities {
+    private final static String TAG = CameraCapabilities.class.getName();
+
+    public final static String CAMERA_CAPABILITIES_MAIN_KEY = "CAMERA_CAPABILITIES";
+    // JSON keys
+    public final static String JSON_KEY_FINGERPRINT = "fingerprint";
+    public final static String JSON_KEY_CONFIGURATIONS = "configurations";
+    public final static String JSON_KEY_PREVIEW_WIDTH = "previewWidth";
+    public final static String JSON_KEY_PREVIEW_HEIGHT = "previewHeight";
+    public final static String JSON_KEY_FRAME_RATE = "frameRate";
+    public final static String JSON_KEY_CAMERA_ORIENTATION = "cameraOrientation";
+
+    /**
+     * Maximum number of stored configurations. The least recently stored one is dropped first.
+     */
+    public final static int MAX_CONFIGURATIONS = 16;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    /**
+     * Build of the OS the configurations were resolved on.
+     */
+    private final String fingerprint;
+    private final LinkedHashMap<String, Configuration> configurations = new LinkedHashMap<>();
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates new capabilities without configurations.
+     *
+     * @param fingerprint build of the OS
+     */
+    public CameraCapabilities(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Creates capabilities from the passed json string. The stored configurations are dropped if
+     * they were resolved on another build of the OS.
+     *
+     * @param json        capabilities in JSON string
+     * @param fingerprint build of the OS
+     */
+    public CameraCapabilities(String json, String fingerprint) throws JSONException {
+        this.fingerprint = fingerprint;
+        JSONObject jsonCapabilities = new JSONObject(json);
+        if (!fingerprint.equals(jsonCapabilities.optString(JSON_KEY_FINGERPRINT))) return;
+
+        JSONObject jsonConfigurations = jsonCapabilities.getJSONObject(JSON_KEY_CONFIGURATIONS);
+        Iterator<String> keys = jsonConfigurations.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            JSONObject jsonConfiguration = jsonConfigurations.getJSONObject(key);
+            configurations.put(key, new Configuration(
+                    jsonConfiguration.getInt(JSON_KEY_PREVIEW_WIDTH),
+                    jsonConfiguration.getInt(JSON_KEY_PREVIEW_HEIGHT),
+                    jsonConfiguration.getInt(JSON_KEY_FRAME_RATE),
+                    jsonConfiguration.getInt(JSON_KEY_CAMERA_ORIENTATION)));
+        }
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Creates the key of a configuration.
+     *
+     * @param cameraId id of the camera
+     * @param rotation rotation of the display
+     * @param width    width of the preview view
+     * @param height   height of the preview view
+     * @param quality  quality of the recording
+     * @param fps      desired frame rate of the recording
+     * @return the key
+     */
+    public static String GetKey(int cameraId, int rotation, int width, int height, int quality,
+                                int fps) {
+        return cameraId + "_" + rotation + "_" + width + "x" + height + "_" + quality + "_" + fps;
+    }
+
+    /**
+     * @param key key of the configuration, see {@link #GetKey(int, int, int, int, int, int)}
+     * @return the stored configuration or null if there is none
+     */
+    public Configuration get(String key) {
+        return configurations.get(key);
+    }
+
+    /**
+     * Stores a configuration, replacing the previous one with the same key.
+     *
+     * @param key           key of the configuration, see
+     *                      {@link #GetKey(int, int, int, int, int, int)}
+     * @param configuration the configuration
+     */
+    public void put(String key, Configuration configuration) {
+        configurations.remove(key);
+        configurations.put(key, configuration);
+        Iterator<String> oldest = configurations.keySet().iterator();
+        while (configurations.size() > MAX_CONFIGURATIONS) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @return number of stored configurations
+     */
+    public int size() {
+        return configurations.size();
+    }
+
+    /**
+     * Returns the capabilities as JSON string
+     *
+     * @return capabilities as JSON string
+     */
+    public String getAsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject jsonConfigurations = new JSONObject();
+            for (Map.Entry<String, Configuration> entry : configurations.entrySet()) {
+                Configuration configuration = entry.getValue();
+                JSONObject jsonConfiguration = new JSONObject();
+                jsonConfiguration.put(JSON_KEY_PREVIEW_WIDTH, configuration.previewWidth);
+                jsonConfiguration.put(JSON_KEY_PREVIEW_HEIGHT, configuration.previewHeight);
+                jsonConfiguration.put(JSON_KEY_FRAME_RATE, configuration.frameRate);
+                jsonConfiguration.put(JSON_KEY_CAMERA_ORIENTATION,
+                        configuration.cameraOrientation);
+                jsonConfigurations.put(entry.getKey(), jsonConfiguration);
+            }
+            json.put(JSON_KEY_FINGERPRINT, fingerprint);
+            json.put(JSON_KEY_CONFIGURATIONS, jsonConfigurations);
+        } catch (JSONException e) {
+            Log.w(TAG, "Error creating camera capabilities json");
+        }
+        return json.toString();
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Camera configuration resolved for one key.
+     */
+    public static class Configuration {
+        public final int previewWidth;
+        public final int previewHeight;
+        /**
+         * Frame rate of the recording in frames per second.
+         */
+        public final int frameRate;
+        /**
+         * Orientation of the camera image, see {@link android.hardware.Camera.CameraInfo}.
+         */
+        public final int cameraOrientation;
+
+        public Configuration(int previewWidth, int previewHeight, int frameRate,
+                             int cameraOrientation) {
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            this.frameRate = frameRate;
+            this.cameraOrientation = cameraOrientation;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package de.pcc.privacycrashcam.data;
 
+import android.hardware.SensorManager;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -11,6 +13,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Data container storing the metadata to the video recording.
@@ -27,6 +31,10 @@ public class Metadata {
     public final static String TRIGGER_TYPE_DEFAULT = "NONE";
     public final static String TRIGGER_TYPE_SENSOR = "SENSOR_INPUT";
     public final static String TRIGGER_TYPE_TOUCH = "TOUCH_INPUT";
+    /**
+     * Severity of recordings which were not triggered by the sensor.
+     */
+    public final static float SEVERITY_MANUAL = 0f;
     private final static String TAG = Metadata.class.getName();
     // JSON keys
     private final static String JSON_KEY_DATE = "date";
@@ -34,6 +42,7 @@ public class Metadata {
     private final static String JSON_KEY_TRIGGER_FORCE_X = "triggerForceX";
     private final static String JSON_KEY_TRIGGER_FORCE_Y = "triggerForceY";
     private final static String JSON_KEY_TRIGGER_FORCE_Z = "triggerForceZ";
+    private final static String JSON_KEY_ADDITIONAL_TRIGGERS = "additionalTriggers";
 
     /* #############################################################################################
      *                                  attributes
@@ -51,6 +60,10 @@ public class Metadata {
      * G-Force values in the moment the recording is triggered.
      */
     private float[] gForce = new float[3];
+    /**
+     * Triggers which occurred while the recording was captured and which were merged into it.
+     */
+    private List<Metadata> additionalTriggers = new ArrayList<>();
 
     /* #############################################################################################
      *                                  constructor
@@ -91,6 +104,7 @@ public class Metadata {
         this.gForce[0] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_X);
         this.gForce[1] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_Y);
         this.gForce[2] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_Z);
+        readAdditionalTriggers(metadata);
     }
 
     public Metadata(File metaFile) throws JSONException, IOException {
@@ -118,6 +132,7 @@ public class Metadata {
             this.gForce[0] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_X);
             this.gForce[1] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_Y);
             this.gForce[2] = (float) metadata.getDouble(JSON_KEY_TRIGGER_FORCE_Z);
+            readAdditionalTriggers(metadata);
         } else {
 
             // retrieve json data
@@ -129,6 +144,63 @@ public class Metadata {
         }
     }
 
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Adds a trigger which occurred while this recording was captured. Each additional trigger is
+     * persisted as a separate record inside this metadata.
+     *
+     * @param trigger metadata of the additional trigger
+     */
+    public void addAdditionalTrigger(Metadata trigger) {
+        if (trigger == this || additionalTriggers.contains(trigger)) return;
+        additionalTriggers.add(trigger);
+    }
+
+    /**
+     * Gets the severity of the recording, which is used to rank recordings when persisting and
+     * uploading. Sensor triggers have a severity of 1 + the dynamic acceleration in g, all other
+     * triggers have a severity of {@link #SEVERITY_MANUAL}. The highest severity of this and all
+     * additional triggers is used.
+     *
+     * @return the severity, higher is more severe
+     */
+    public float getSeverity() {
+        float severity = getTriggerSeverity();
+        for (Metadata trigger : additionalTriggers) {
+            severity = Math.max(severity, trigger.getTriggerSeverity());
+        }
+        return severity;
+    }
+
+    private float getTriggerSeverity() {
+        if (!TRIGGER_TYPE_SENSOR.equals(triggerType) || gForce == null) return SEVERITY_MANUAL;
+        float magnitude = (float) Math.sqrt(gForce[0] * gForce[0] + gForce[1] * gForce[1]
+                + gForce[2] * gForce[2]);
+        return 1f + Math.abs(magnitude - SensorManager.GRAVITY_EARTH) / SensorManager.GRAVITY_EARTH;
+    }
+
+    /**
+     * @return true if this and all additional triggers were triggered manually by the user
+     */
+    public boolean isManual() {
+        if (!TRIGGER_TYPE_TOUCH.equals(triggerType)) return false;
+        for (Metadata trigger : additionalTriggers) {
+            if (!trigger.isManual()) return false;
+        }
+        return true;
+    }
+
+    private void readAdditionalTriggers(JSONObject metadata) throws JSONException {
+        JSONArray jTriggers = metadata.optJSONArray(JSON_KEY_ADDITIONAL_TRIGGERS);
+        if (jTriggers == null) return;
+        for (int i = 0; i < jTriggers.length(); i++) {
+            additionalTriggers.add(new Metadata(jTriggers.getJSONObject(i).toString()));
+        }
+    }
+
     /* #############################################################################################
      *                                  getter/ setter
      * ###########################################################################################*/
@@ -145,12 +217,20 @@ public class Metadata {
         return gForce;
     }
 
+    public List<Metadata> getAdditionalTriggers() {
+        return additionalTriggers;
+    }
+
     /**
      * returns JSON String of metadata info
      *
      * @return json String
      */
     public String getAsJSON() {
+        return getAsJSONObject().toString();
+    }
+
+    private JSONObject getAsJSONObject() {
         JSONObject json = new JSONObject();
         try {
             json.put(JSON_KEY_DATE, this.date);
@@ -158,9 +238,16 @@ public class Metadata {
             json.put(JSON_KEY_TRIGGER_FORCE_X, this.gForce[0]);
             json.put(JSON_KEY_TRIGGER_FORCE_Y, this.gForce[1]);
             json.put(JSON_KEY_TRIGGER_FORCE_Z, this.gForce[2]);
+            if (!additionalTriggers.isEmpty()) {
+                JSONArray jTriggers = new JSONArray();
+                for (Metadata trigger : additionalTriggers) {
+                    jTriggers.put(trigger.getAsJSONObject());
+                }
+                json.put(JSON_KEY_ADDITIONAL_TRIGGERS, jTriggers);
+            }
         } catch (JSONException e) {
             Log.w(TAG, "Error creating metadata json");
         }
-        return json.toString();
+        return json;
     }
 }
@@ -0,0 +1,115 @@
+package de.pcc.privacycrashcam.data;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measurements of the device's recording performance collected in previous sessions. Used to
+ * adapt the recording to the device.
+ *
+ * @author Giorgio Gross
+ */
+public class RecordingStats {
+    private final static String TAG = RecordingStats.class.getName();
+
+    public final static String RECORDING_STATS_MAIN_KEY = "RECORDING_STATS";
+    // JSON keys
+    public final static String JSON_KEY_ROLLOVER_GAP_MILLIS = "rolloverGapMillis";
+    public final static String JSON_KEY_STORAGE_THROUGHPUT = "storageThroughput";
+
+    /**
+     * Weight of a new measurement when it is merged with the previous ones.
+     */
+    private final static double MEASUREMENT_WEIGHT = 0.3;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    /**
+     * Mean gap between two video chunks in milliseconds or -1 if it was not measured yet.
+     */
+    private double rolloverGapMillis = -1;
+    /**
+     * Write throughput of the app's storage in bytes per second or -1 if it was not measured yet.
+     */
+    private double storageThroughput = -1;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates new stats without measurements.
+     */
+    public RecordingStats() {
+    }
+
+    /**
+     * Creates stats from the passed json string.
+     *
+     * @param json stats in JSON string
+     */
+    public RecordingStats(String json) throws JSONException {
+        JSONObject jsonStats = new JSONObject(json);
+        this.rolloverGapMillis = jsonStats.optDouble(JSON_KEY_ROLLOVER_GAP_MILLIS, -1);
+        this.storageThroughput = jsonStats.optDouble(JSON_KEY_STORAGE_THROUGHPUT, -1);
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Merges a new measurement of the rollover gap into the stats.
+     *
+     * @param gapMillis mean gap between two chunks of a session
+     */
+    public void addRolloverGap(double gapMillis) {
+        rolloverGapMillis = merge(rolloverGapMillis, gapMillis);
+    }
+
+    /**
+     * Merges a new measurement of the storage throughput into the stats.
+     *
+     * @param bytesPerSecond measured write throughput
+     */
+    public void addStorageThroughput(double bytesPerSecond) {
+        storageThroughput = merge(storageThroughput, bytesPerSecond);
+    }
+
+    private static double merge(double previous, double measurement) {
+        if (previous < 0) return measurement;
+        return previous + MEASUREMENT_WEIGHT * (measurement - previous);
+    }
+
+    /**
+     * Returns the stats as JSON string
+     *
+     * @return stats as JSON string
+     */
+    public String getAsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(JSON_KEY_ROLLOVER_GAP_MILLIS, rolloverGapMillis);
+            json.put(JSON_KEY_STORAGE_THROUGHPUT, storageThroughput);
+        } catch (JSONException e) {
+            Log.w(TAG, "Error creating recording stats json");
+        }
+        return json.toString();
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public double getRolloverGapMillis() {
+        return rolloverGapMillis;
+    }
+
+    public double getStorageThroughput() {
+        return storageThroughput;
+    }
+}
@@ -0,0 +1,146 @@
+package de.pcc.privacycrashcam.data;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data container describing a video which was persisted as individually encrypted segments and
+ * still needs to be assembled into one video file.
+ * <p>The manifest is written after all segments were persisted and therefore marks a complete set
+ * of segments. Segments are listed in recording order.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class SegmentManifest {
+
+    // File names inside a pending video directory
+    public static final String FILE_NAME = "manifest.json";
+    public static final String SESSION_KEY_FILE_NAME = "session.key";
+    public static final String SEGMENT_PREFIX = "SEGMENT_";
+    private final static String TAG = SegmentManifest.class.getName();
+    // JSON keys
+    private final static String JSON_KEY_VIDEO_TAG = "videoTag";
+    private final static String JSON_KEY_CREATED = "created";
+    private final static String JSON_KEY_SEGMENTS = "segments";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    /**
+     * Tag of the video the segments belong to.
+     */
+    private String videoTag;
+    /**
+     * Date when the segments were persisted.
+     */
+    private long created;
+    /**
+     * File names of the encrypted segments in recording order.
+     */
+    private List<String> segments;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new manifest for the passed video tag.
+     *
+     * @param videoTag Tag of the video the segments belong to.
+     * @param segments File names of the encrypted segments in recording order.
+     */
+    public SegmentManifest(String videoTag, List<String> segments) {
+        this.videoTag = videoTag;
+        this.created = System.currentTimeMillis();
+        this.segments = segments;
+    }
+
+    /**
+     * Creates a new manifest with values read from the passed manifest file.
+     *
+     * @param manifestFile file containing the manifest as json
+     * @throws JSONException if the file does not contain a valid manifest
+     * @throws IOException   if the file could not be read
+     */
+    public SegmentManifest(File manifestFile) throws JSONException, IOException {
+        StringBuilder stringBuilder = new StringBuilder();
+        BufferedReader bufferedReader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(manifestFile)));
+        try {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                stringBuilder.append(line);
+            }
+        } finally {
+            bufferedReader.close();
+        }
+
+        JSONObject manifest = new JSONObject(stringBuilder.toString());
+        this.videoTag = manifest.getString(JSON_KEY_VIDEO_TAG);
+        this.created = manifest.getLong(JSON_KEY_CREATED);
+        JSONArray jSegments = manifest.getJSONArray(JSON_KEY_SEGMENTS);
+        this.segments = new ArrayList<>(jSegments.length());
+        for (int i = 0; i < jSegments.length(); i++) {
+            segments.add(jSegments.getString(i));
+        }
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Gets the file name of the segment with the passed index.
+     *
+     * @param index position of the segment in recording order
+     * @return the file name for the segment
+     */
+    public static String GetSegmentName(int index) {
+        return SEGMENT_PREFIX + index + "." + Video.SUFFIX;
+    }
+
+    /**
+     * Returns the manifest as JSON string
+     *
+     * @return manifest as JSON string
+     */
+    public String getAsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(JSON_KEY_VIDEO_TAG, this.videoTag);
+            json.put(JSON_KEY_CREATED, this.created);
+            json.put(JSON_KEY_SEGMENTS, new JSONArray(this.segments));
+        } catch (JSONException e) {
+            Log.w(TAG, "Error creating manifest json");
+        }
+        return json.toString();
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public String getVideoTag() {
+        return videoTag;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public List<String> getSegments() {
+        return segments;
+    }
+}
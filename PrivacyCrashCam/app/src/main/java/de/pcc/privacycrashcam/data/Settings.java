@@ -19,6 +19,8 @@ public class Settings {
     public static final String JSON_KEY_FPS = "fps";
     public static final String JSON_KEY_BUFFER_SIZE_SEC = "bufferSizeSec";
     public static final String JSON_KEY_QUALITY = "quality";
+    public static final String JSON_KEY_DEFERRED_ASSEMBLY = "deferredAssembly";
+    public static final String JSON_KEY_PAUSE_GRACE_SEC = "pauseGraceSec";
 
     // default values
     public static final int FPS_DEFAULT = 10;
@@ -27,6 +29,8 @@ public class Settings {
     public static final int QUALITY_HIGH = CamcorderProfile.QUALITY_720P;
     public static final int QUALITY_MEDIUM = CamcorderProfile.QUALITY_480P;
     public static final int QUALITY_LOW = CamcorderProfile.QUALITY_LOW;
+    public static final boolean DEFERRED_ASSEMBLY_DEFAULT = true;
+    public static final int PAUSE_GRACE_SEC_DEFAULT = 5;
     private final static String TAG = Settings.class.getName();
 
     /* #############################################################################################
@@ -45,6 +49,16 @@ public class Settings {
      * Quality of the video recording. Uses the CamcorderProfile.QUALITY values.
      */
     private int quality;
+    /**
+     * Whether recorded video chunks are persisted as encrypted segments and assembled later or
+     * concatenated right away.
+     */
+    private boolean deferredAssembly = DEFERRED_ASSEMBLY_DEFAULT;
+    /**
+     * Time in seconds the camera keeps recording after the UI was paused. 0 releases the camera
+     * right away.
+     */
+    private int pauseGraceSec = PAUSE_GRACE_SEC_DEFAULT;
 
     /* #############################################################################################
      *                                  constructors
@@ -81,6 +95,11 @@ public class Settings {
         this.fps = mJsonSettings.getInt(JSON_KEY_FPS);
         this.bufferSizeSec = mJsonSettings.getInt(JSON_KEY_BUFFER_SIZE_SEC);
         this.quality = mJsonSettings.getInt(JSON_KEY_QUALITY);
+        // settings saved by older versions do not contain this key
+        this.deferredAssembly = mJsonSettings.optBoolean(JSON_KEY_DEFERRED_ASSEMBLY,
+                DEFERRED_ASSEMBLY_DEFAULT);
+        this.pauseGraceSec = mJsonSettings.optInt(JSON_KEY_PAUSE_GRACE_SEC,
+                PAUSE_GRACE_SEC_DEFAULT);
     }
 
     /* #############################################################################################
@@ -98,6 +117,8 @@ public class Settings {
             json.put(JSON_KEY_FPS, this.fps);
             json.put(JSON_KEY_BUFFER_SIZE_SEC, this.bufferSizeSec);
             json.put(JSON_KEY_QUALITY, this.quality);
+            json.put(JSON_KEY_DEFERRED_ASSEMBLY, this.deferredAssembly);
+            json.put(JSON_KEY_PAUSE_GRACE_SEC, this.pauseGraceSec);
         } catch (JSONException e) {
             Log.w(TAG, "Error creating settings json");
         }
@@ -131,4 +152,20 @@ public class Settings {
     public void setQuality(int quality) {
         this.quality = quality;
     }
+
+    public boolean isDeferredAssembly() {
+        return deferredAssembly;
+    }
+
+    public void setDeferredAssembly(boolean deferredAssembly) {
+        this.deferredAssembly = deferredAssembly;
+    }
+
+    public int getPauseGraceSec() {
+        return pauseGraceSec;
+    }
+
+    public void setPauseGraceSec(int pauseGraceSec) {
+        this.pauseGraceSec = pauseGraceSec;
+    }
 }
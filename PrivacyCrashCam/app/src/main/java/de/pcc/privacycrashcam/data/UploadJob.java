@@ -0,0 +1,194 @@
+package de.pcc.privacycrashcam.data;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Upload of a video which is waiting in the upload queue, running or finished. Jobs are persisted,
+ * so that they continue after the app was killed.
+ *
+ * @author Giorgio Gross
+ */
+public class UploadJob {
+    private final static String TAG = UploadJob.class.getName();
+
+    public final static String UPLOAD_QUEUE_MAIN_KEY = "UPLOAD_QUEUE";
+
+    // JSON keys
+    public final static String JSON_KEY_VIDEO_TAG = "videoTag";
+    public final static String JSON_KEY_PRIORITY = "priority";
+    public final static String JSON_KEY_STATE = "state";
+    public final static String JSON_KEY_ATTEMPTS = "attempts";
+    public final static String JSON_KEY_NEXT_ATTEMPT_AT = "nextAttemptAt";
+    public final static String JSON_KEY_LAST_ERROR = "lastError";
+
+    /**
+     * States of a job.
+     */
+    public enum State {
+        /**
+         * Waiting for a free upload slot.
+         */
+        QUEUED,
+        /**
+         * Being uploaded.
+         */
+        RUNNING,
+        /**
+         * Failed and waiting to be retried.
+         */
+        WAITING_FOR_RETRY,
+        /**
+         * Uploaded successfully.
+         */
+        SUCCEEDED,
+        /**
+         * Failed and not retried unless the user asks for it.
+         */
+        FAILED
+    }
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final String videoTag;
+    private final float priority;
+    private State state = State.QUEUED;
+    private int attempts = 0;
+    /**
+     * Wall clock time in milliseconds at which a job waiting for retry is queued again.
+     */
+    private long nextAttemptAt = 0;
+    /**
+     * Result of the last failed attempt or null.
+     */
+    private String lastError = null;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new queued job.
+     *
+     * @param videoTag tag of the video to be uploaded
+     * @param priority priority of the upload, usually the severity of the video's metadata
+     */
+    public UploadJob(String videoTag, float priority) {
+        this.videoTag = videoTag;
+        this.priority = priority;
+    }
+
+    /**
+     * Creates a copy of the passed job.
+     *
+     * @param job the job
+     */
+    public UploadJob(UploadJob job) {
+        this.videoTag = job.videoTag;
+        this.priority = job.priority;
+        this.state = job.state;
+        this.attempts = job.attempts;
+        this.nextAttemptAt = job.nextAttemptAt;
+        this.lastError = job.lastError;
+    }
+
+    /**
+     * Creates a job from the passed json string.
+     *
+     * @param json job in JSON string
+     */
+    public UploadJob(String json) throws JSONException {
+        JSONObject jsonJob = new JSONObject(json);
+        this.videoTag = jsonJob.getString(JSON_KEY_VIDEO_TAG);
+        this.priority = (float) jsonJob.getDouble(JSON_KEY_PRIORITY);
+        try {
+            this.state = State.valueOf(jsonJob.getString(JSON_KEY_STATE));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown state " + jsonJob.getString(JSON_KEY_STATE));
+        }
+        this.attempts = jsonJob.getInt(JSON_KEY_ATTEMPTS);
+        this.nextAttemptAt = jsonJob.getLong(JSON_KEY_NEXT_ATTEMPT_AT);
+        this.lastError = jsonJob.optString(JSON_KEY_LAST_ERROR, null);
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Checks whether the job is done, successfully or not.
+     *
+     * @return true if the job succeeded or failed
+     */
+    public boolean isFinished() {
+        return state == State.SUCCEEDED || state == State.FAILED;
+    }
+
+    /**
+     * Returns the job as JSON string
+     *
+     * @return job as JSON string
+     */
+    public String getAsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(JSON_KEY_VIDEO_TAG, videoTag);
+            json.put(JSON_KEY_PRIORITY, priority);
+            json.put(JSON_KEY_STATE, state.name());
+            json.put(JSON_KEY_ATTEMPTS, attempts);
+            json.put(JSON_KEY_NEXT_ATTEMPT_AT, nextAttemptAt);
+            if (lastError != null) json.put(JSON_KEY_LAST_ERROR, lastError);
+        } catch (JSONException e) {
+            Log.w(TAG, "Error creating upload job json");
+        }
+        return json.toString();
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public String getVideoTag() {
+        return videoTag;
+    }
+
+    public float getPriority() {
+        return priority;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(long nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
@@ -0,0 +1,106 @@
+package de.pcc.privacycrashcam.data;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+
+/**
+ * State of a resumable upload which is kept across app restarts. The upload is identified by the
+ * hash of the file's content, so that the server can tell how much of it was committed already.
+ *
+ * @author Giorgio Gross
+ */
+public class UploadSession {
+    private final static String TAG = UploadSession.class.getName();
+
+    // JSON keys
+    public final static String JSON_KEY_UPLOAD_ID = "uploadId";
+    public final static String JSON_KEY_LENGTH = "length";
+    public final static String JSON_KEY_LAST_MODIFIED = "lastModified";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    /**
+     * Hex encoded SHA-256 hash of the file's content.
+     */
+    private final String uploadId;
+    private final long length;
+    private final long lastModified;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new session for the passed file.
+     *
+     * @param uploadId hash of the file's content
+     * @param file     the file to be uploaded
+     */
+    public UploadSession(String uploadId, File file) {
+        this.uploadId = uploadId;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Creates a session from the passed json string.
+     *
+     * @param json session in JSON string
+     */
+    public UploadSession(String json) throws JSONException {
+        JSONObject jsonSession = new JSONObject(json);
+        this.uploadId = jsonSession.getString(JSON_KEY_UPLOAD_ID);
+        this.length = jsonSession.getLong(JSON_KEY_LENGTH);
+        this.lastModified = jsonSession.getLong(JSON_KEY_LAST_MODIFIED);
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Checks whether the session still belongs to the passed file, so that its hash does not need
+     * to be computed again.
+     *
+     * @param file the file to be uploaded
+     * @return true if the file was not changed since the session was created
+     */
+    public boolean matches(File file) {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Returns the session as JSON string
+     *
+     * @return session as JSON string
+     */
+    public String getAsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(JSON_KEY_UPLOAD_ID, uploadId);
+            json.put(JSON_KEY_LENGTH, length);
+            json.put(JSON_KEY_LAST_MODIFIED, lastModified);
+        } catch (JSONException e) {
+            Log.w(TAG, "Error creating upload session json");
+        }
+        return json.toString();
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -12,7 +12,8 @@ public class Video {
     public static final String PREFIX = "VIDEO_";
     public static final String SUFFIX = "mp4";
 
-    public final static int VIDEO_CHUNK_LENGTH = 5; // length of video chunks in seconds
+    // default length of video chunks in seconds, see SegmentLengthController
+    public final static int VIDEO_CHUNK_LENGTH = 5;
 
     /* #############################################################################################
      *                                  attributes
@@ -23,6 +24,11 @@ public class Video {
     private File encMetaFile;
     private File encSymKeyFile;
     private Metadata readableMetadata;
+    /**
+     * True if the video was persisted as encrypted segments which were not assembled yet. The
+     * encrypted video file will not exist until the video was assembled.
+     */
+    private boolean pending = false;
 
     /* #############################################################################################
      *                                  constructors
@@ -36,6 +42,12 @@ public class Video {
         this.encSymKeyFile = encSymKeyFile;
     }
 
+    public Video(String name, File encVideoFile, File encMetaFile, File encSymKeyFile,
+                 Metadata readableMetadata, boolean pending) {
+        this(name, encVideoFile, encMetaFile, encSymKeyFile, readableMetadata);
+        this.pending = pending;
+    }
+
     /* #############################################################################################
      *                                  methods
      * ###########################################################################################*/
@@ -81,4 +93,12 @@ public class Video {
     public File getEncSymKeyFile() {
         return encSymKeyFile;
     }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
 }
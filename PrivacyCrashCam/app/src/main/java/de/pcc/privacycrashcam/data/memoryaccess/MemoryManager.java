@@ -2,10 +2,12 @@ package de.pcc.privacycrashcam.data.memoryaccess;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Environment;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 
 import java.io.File;
@@ -13,14 +15,21 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
 import de.pcc.privacycrashcam.data.Account;
+import de.pcc.privacycrashcam.data.CameraCapabilities;
 import de.pcc.privacycrashcam.data.MemoryKeys;
 import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.RecordingStats;
+import de.pcc.privacycrashcam.data.SegmentManifest;
 import de.pcc.privacycrashcam.data.Settings;
+import de.pcc.privacycrashcam.data.UploadJob;
 import de.pcc.privacycrashcam.data.Video;
+import de.pcc.privacycrashcam.utils.dataprocessing.RecordingDiagnostics;
+import de.pcc.privacycrashcam.utils.dataprocessing.TraceEncoder;
 
 /**
  * Handles access to the device storage.
@@ -57,6 +66,7 @@ public class MemoryManager {
     private static final String KEY_DIR = "keys";
     private static final String VIDEO_DIR = "videos";
     private static final String META_DIR = "meta";
+    private static final String PENDING_DIR = "pending";
 
     private static final String KEY_PREFIX = "KEY_";
     private static final String KEY_SUFFIX = "key";
@@ -68,6 +78,12 @@ public class MemoryManager {
     private Context context;
     private String tempDirName = TEMP_DIR_PREFIX + "_0"; // default temp dir name
     private SharedPreferences appPreferences;
+    /**
+     * Registered settings listeners. Shared preferences only keep weak references to their
+     * listeners, so the wrappers are held here.
+     */
+    private final HashMap<SettingsChangeListener, SharedPreferences.OnSharedPreferenceChangeListener>
+            settingsListeners = new HashMap<>();
 
     /**
      * if we test, we need access to the files, so here is a boolean to change between
@@ -144,6 +160,134 @@ public class MemoryManager {
         mAppPrefEditor.apply();
     }
 
+    /**
+     * Registers a listener which is notified each time new settings are saved. The listener must
+     * be unregistered through the same MemoryManager instance.
+     *
+     * @param listener the listener to be registered
+     */
+    public void registerSettingsListener(final SettingsChangeListener listener) {
+        if (settingsListeners.containsKey(listener)) return;
+        SharedPreferences.OnSharedPreferenceChangeListener wrapper =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        if (Settings.SETTINGS_MAIN_KEY.equals(key))
+                            listener.onSettingsChanged(getSettings());
+                    }
+                };
+        settingsListeners.put(listener, wrapper);
+        appPreferences.registerOnSharedPreferenceChangeListener(wrapper);
+    }
+
+    /**
+     * Unregisters a listener which was registered with
+     * {@link #registerSettingsListener(SettingsChangeListener)}.
+     *
+     * @param listener the listener to be unregistered
+     */
+    public void unregisterSettingsListener(SettingsChangeListener listener) {
+        SharedPreferences.OnSharedPreferenceChangeListener wrapper =
+                settingsListeners.remove(listener);
+        if (wrapper != null) appPreferences.unregisterOnSharedPreferenceChangeListener(wrapper);
+    }
+
+    /**
+     * Gets the recording stats of previous sessions. Returns empty stats if there are none.
+     *
+     * @return recording stats of the device
+     */
+    public RecordingStats getRecordingStats() {
+        String jStats = appPreferences.getString(RecordingStats.RECORDING_STATS_MAIN_KEY, null);
+        if (jStats == null) return new RecordingStats();
+        try {
+            return new RecordingStats(jStats);
+        } catch (JSONException e) {
+            return new RecordingStats();
+        }
+    }
+
+    /**
+     * Saves a RecordingStats instance by overriding the previous stats in memory.
+     *
+     * @param stats the RecordingStats instance to be saved
+     */
+    public void saveRecordingStats(RecordingStats stats) {
+        SharedPreferences.Editor mAppPrefEditor = appPreferences.edit();
+        mAppPrefEditor.putString(RecordingStats.RECORDING_STATS_MAIN_KEY, stats.getAsJSON());
+        mAppPrefEditor.apply();
+    }
+
+    /**
+     * Gets the camera configurations resolved on this build of the OS. Returns empty capabilities
+     * if there are none or if they were resolved on another build.
+     *
+     * @return camera capabilities of the device
+     */
+    public CameraCapabilities getCameraCapabilities() {
+        String jCapabilities = appPreferences.getString(
+                CameraCapabilities.CAMERA_CAPABILITIES_MAIN_KEY, null);
+        if (jCapabilities == null) return new CameraCapabilities(Build.FINGERPRINT);
+        try {
+            return new CameraCapabilities(jCapabilities, Build.FINGERPRINT);
+        } catch (JSONException e) {
+            return new CameraCapabilities(Build.FINGERPRINT);
+        }
+    }
+
+    /**
+     * Saves a CameraCapabilities instance by overriding the previous capabilities in memory.
+     *
+     * @param capabilities the CameraCapabilities instance to be saved
+     */
+    public void saveCameraCapabilities(CameraCapabilities capabilities) {
+        SharedPreferences.Editor mAppPrefEditor = appPreferences.edit();
+        mAppPrefEditor.putString(CameraCapabilities.CAMERA_CAPABILITIES_MAIN_KEY,
+                capabilities.getAsJSON());
+        mAppPrefEditor.apply();
+    }
+
+    /**
+     * Gets the jobs of the upload queue. Skips jobs which cannot be read.
+     *
+     * @return the persisted upload jobs
+     */
+    public ArrayList<UploadJob> getUploadJobs() {
+        ArrayList<UploadJob> jobs = new ArrayList<>();
+        String jJobs = appPreferences.getString(UploadJob.UPLOAD_QUEUE_MAIN_KEY, null);
+        if (jJobs == null) return jobs;
+        try {
+            JSONArray array = new JSONArray(jJobs);
+            for (int i = 0; i < array.length(); i++) {
+                try {
+                    jobs.add(new UploadJob(array.getString(i)));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Dropping unreadable upload job");
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Error reading upload queue");
+        }
+        return jobs;
+    }
+
+    /**
+     * Saves the jobs of the upload queue by overriding the previous jobs in memory. Writes
+     * synchronously, so that no job is lost if the app gets killed. Do not use this on UI thread.
+     *
+     * @param jobs the jobs to be saved
+     */
+    public void saveUploadJobs(List<UploadJob> jobs) {
+        JSONArray array = new JSONArray();
+        for (UploadJob job : jobs) {
+            array.put(job.getAsJSON());
+        }
+        SharedPreferences.Editor mAppPrefEditor = appPreferences.edit();
+        mAppPrefEditor.putString(UploadJob.UPLOAD_QUEUE_MAIN_KEY, array.toString());
+        if (!mAppPrefEditor.commit()) Log.w(TAG, "Error saving upload queue");
+    }
+
     /**
      * Saves an Account instance by overriding the previous Account values in memory.
      *
@@ -415,6 +559,39 @@ public class MemoryManager {
         return false;
     }
 
+    /**
+     * Deletes the file containing the recording diagnostics associated with the passed video tag.
+     *
+     * @param videoTag Tag of the video the file is associated with
+     */
+    public boolean deleteDiagnosticsFile(String videoTag) {
+        File file = new File(getFilesDir(File.separator + META_DIR),
+                RecordingDiagnostics.PREFIX + videoTag + "." + RecordingDiagnostics.SUFFIX);
+        if (file.exists()) {
+            file.delete();
+            return true;
+        }
+        Log.d(TAG, "File: " + file.getName() + " in dir: " + META_DIR + " does not exist!");
+        return false;
+    }
+
+    /**
+     * Deletes the file containing the encrypted acceleration trace associated with the passed video
+     * tag.
+     *
+     * @param videoTag Tag of the video the file is associated with
+     */
+    public boolean deleteEncryptedTraceFile(String videoTag) {
+        File file = new File(getFilesDir(File.separator + META_DIR),
+                TraceEncoder.PREFIX + videoTag + "." + TraceEncoder.SUFFIX);
+        if (file.exists()) {
+            file.delete();
+            return true;
+        }
+        Log.d(TAG, "File: " + file.getName() + " in dir: " + META_DIR + " does not exist!");
+        return false;
+    }
+
     /**
      * Adds a suiting prefix to the video name and uses that String to create a new file inside the
      * key folder. The file may be used to write the encrypted symmetric
@@ -506,13 +683,121 @@ public class MemoryManager {
         return new File(metaDir, Metadata.PREFIX_READABLE + videoTag + "." + Metadata.SUFFIX);
     }
 
+    /**
+     * Adds a suiting prefix to the video name and uses that String to create a new file inside the
+     * metadata folder. The file may be used to write the recording diagnostics.
+     * <p>
+     * <p>The file name will be {@link RecordingDiagnostics#PREFIX DIAG_}<@param videoTag> where the
+     * tag resembles the ending of the file name, e.g. a date</p>
+     *
+     * @param videoTag Tag of the video this file will be associated with
+     */
+    public File createDiagnosticsFile(String videoTag) {
+        File metaDir = getFilesDir(File.separator + META_DIR);
+        // if dir is not existing, create dir
+        if(!metaDir.exists()) {
+            if(!metaDir.mkdir()){
+                Log.d(TAG, "failed to create meta directory");
+                return null;
+            }
+        }
+        return new File(metaDir,
+                RecordingDiagnostics.PREFIX + videoTag + "." + RecordingDiagnostics.SUFFIX);
+    }
+
+    /**
+     * Adds a suiting prefix to the video name and uses that String to create a new file inside the
+     * metadata folder. The file may be used to write the encrypted acceleration trace.
+     * <p>
+     * <p>The file name will be {@link TraceEncoder#PREFIX TRACE_}<@param videoTag> where the tag
+     * resembles the ending of the file name, e.g. a date</p>
+     *
+     * @param videoTag Tag of the video this file will be associated with
+     */
+    public File createEncryptedTraceFile(String videoTag) {
+        File metaDir = getFilesDir(File.separator + META_DIR);
+        // if dir is not existing, create dir
+        if(!metaDir.exists()) {
+            if(!metaDir.mkdir()){
+                Log.d(TAG, "failed to create meta directory");
+                return null;
+            }
+        }
+        return new File(metaDir, TraceEncoder.PREFIX + videoTag + "." + TraceEncoder.SUFFIX);
+    }
+
+    /**
+     * Gets the directory which holds the encrypted segments, the session key and the
+     * {@link SegmentManifest} of a video which was not assembled yet. The directory will be created
+     * if it does not exist.
+     *
+     * @param videoTag Tag of the video the directory is associated with
+     * @return the directory or null if it could not be created
+     */
+    @Nullable
+    public File createPendingDir(String videoTag) {
+        File pendingDir = getFilesDir(File.separator + PENDING_DIR + File.separator + videoTag);
+        if (!pendingDir.exists()) {
+            if (!pendingDir.mkdirs()) {
+                Log.d(TAG, "failed to create pending directory");
+                return null;
+            }
+        }
+        return pendingDir;
+    }
+
+    /**
+     * Gets the directory holding the pending data of the passed video tag.
+     *
+     * @param videoTag Tag of the video the directory is associated with
+     * @return the directory or null if there is no complete set of pending data for the video
+     */
+    @Nullable
+    public File getPendingDir(String videoTag) {
+        File pendingDir = getFilesDir(File.separator + PENDING_DIR + File.separator + videoTag);
+        if (!new File(pendingDir, SegmentManifest.FILE_NAME).exists()) return null;
+        return pendingDir;
+    }
+
+    /**
+     * Gets the tags of all videos which were persisted as segments and still need to be
+     * assembled. Only videos with a written {@link SegmentManifest} are returned.
+     *
+     * @return list of video tags
+     */
+    public ArrayList<String> getAllPendingVideoTags() {
+        ArrayList<String> tags = new ArrayList<>();
+        File[] pendingDirs = getFilesDir(File.separator + PENDING_DIR).listFiles();
+        if (pendingDirs == null) return tags;
+        for (File dir : pendingDirs) {
+            if (dir.isDirectory() && new File(dir, SegmentManifest.FILE_NAME).exists()) {
+                tags.add(dir.getName());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Deletes the pending directory of the passed video tag along with all segments inside.
+     *
+     * @param videoTag Tag of the video the directory is associated with
+     * @return true if there was a pending directory which was deleted
+     */
+    public boolean deletePendingData(String videoTag) {
+        File pendingDir = getFilesDir(File.separator + PENDING_DIR + File.separator + videoTag);
+        if (!pendingDir.exists()) return false;
+        recDeleteDir(pendingDir);
+        return true;
+    }
+
     // todo add convenience method to delete all files associated with one video which will call
     // deleteEncryptedSymmetricKeyFile, deleteEncryptedVideoFile, deleteEncryptedMetadataFile and
     // deleteReadableMetadata (nice to have)
 
 
     /**
-     * Creates and returns a list containing all encrypted videos saved in the video directory
+     * Creates and returns a list containing all encrypted videos saved in the video directory and
+     * all videos which still need to be assembled.
      * <p>
      * <p>See {@link Video}</p>
      *
@@ -542,6 +827,22 @@ public class MemoryManager {
                     readableMetadata
                     ));
         }
+        // add videos which were not assembled yet
+        for (String videoTag : getAllPendingVideoTags()) {
+            File videoFile = new File(videosDir, Video.PREFIX + videoTag + "." + Video.SUFFIX);
+            if (videoFile.exists()) continue;
+            Metadata readableMetadata = null;
+            try {
+                readableMetadata = new Metadata(getReadableMetadata(videoTag));
+            } catch (JSONException|IOException e) {
+                Log.d(TAG, "Error reading metadata file!");
+            }
+            allVideos.add(new Video(videoFile.getName(), videoFile,
+                    getEncryptedMetadata(videoTag),
+                    getEncryptedSymmetricKey(videoTag),
+                    readableMetadata,
+                    true));
+        }
         return allVideos;
     }
 
@@ -607,6 +908,34 @@ public class MemoryManager {
         return null;
     }
 
+    /**
+     * Gets the file containing the recording diagnostics from the meta directory.
+     *
+     * @param videoTag Tag of the video the file is associated with
+     * @return the diagnostics as a file or null if there are none
+     */
+    @Nullable
+    public File getDiagnostics(String videoTag) {
+        File diagnosticsFile = new File(getFilesDir(File.separator + META_DIR),
+                RecordingDiagnostics.PREFIX + videoTag + "." + RecordingDiagnostics.SUFFIX);
+        if (diagnosticsFile.exists()) return diagnosticsFile;
+        return null;
+    }
+
+    /**
+     * Gets the file containing the encrypted acceleration trace from the meta directory.
+     *
+     * @param videoTag Tag of the video the file is associated with
+     * @return the encrypted trace as a file or null if there is none
+     */
+    @Nullable
+    public File getEncryptedTrace(String videoTag) {
+        File traceFile = new File(getFilesDir(File.separator + META_DIR),
+                TraceEncoder.PREFIX + videoTag + "." + TraceEncoder.SUFFIX);
+        if (traceFile.exists()) return traceFile;
+        return null;
+    }
+
     /**
      * Gets the file containing the readable metadata from the key directory located on the
      * external memory.
@@ -0,0 +1,18 @@
+package de.pcc.privacycrashcam.data.memoryaccess;
+
+import de.pcc.privacycrashcam.data.Settings;
+
+/**
+ * Observes the user settings. Gets notified each time new settings are saved.
+ *
+ * @author Giorgio Gross
+ */
+public interface SettingsChangeListener {
+
+    /**
+     * Called on the main thread after new settings were saved.
+     *
+     * @param settings the new settings
+     */
+    void onSettingsChanged(Settings settings);
+}
@@ -4,13 +4,7 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Form;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import java.io.IOException;
 
 import de.pcc.privacycrashcam.data.Account;
 
@@ -23,10 +17,6 @@ import de.pcc.privacycrashcam.data.Account;
 public class AuthenticateTask extends AsyncTask<String, Integer, AuthenticationState> {
     private final static String TAG = AuthenticateTask.class.getName();
 
-    /**
-     * Function call which will be appended to the domain name
-     */
-    private static final String API_CALL = "authenticate";
     // responses to be expected
     private static final String API_RESPONSE_FAILURE_MISSING = "NOT EXISTING";
     private static final String API_RESPONSE_FAILURE_MISMATCH = "WRONG PASSWORD";
@@ -56,20 +46,20 @@ public class AuthenticateTask extends AsyncTask<String, Integer, AuthenticationS
      */
     @Override
     protected AuthenticationState doInBackground(String... params) {
-        if (!ServerHelper.IsNetworkAvailable())
+        if (!ServerHelper.IsNetworkAvailable(context))
             return AuthenticationState.FAILURE_NETWORK;
 
         AuthenticationState resultState;
         String domain = params[0];
 
-        Form form = new Form();
-        form.param("account", account.getAsJSON());
-        Client client = ClientBuilder.newClient();
-        WebTarget webTarget = client.target(domain).path(API_CALL);
-        Log.i(TAG, "URI: " + webTarget.getUri().toASCIIString());
-        Response response = webTarget.request().post(Entity.entity(form,
-                MediaType.APPLICATION_FORM_URLENCODED_TYPE), Response.class);
-        String responseContent = response.readEntity(String.class);
+        String responseContent;
+        try {
+            responseContent = TransportProvider.GetTransport().authenticate(domain,
+                    account.getAsJSON());
+        } catch (IOException e) {
+            Log.w(TAG, "Failure on getting response: " + e.getMessage());
+            return AuthenticationState.FAILURE_OTHER;
+        }
         Log.d(responseContent, responseContent);
         Log.i(TAG, "response: " + responseContent);
 
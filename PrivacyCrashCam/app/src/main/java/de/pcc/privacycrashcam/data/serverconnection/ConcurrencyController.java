@@ -0,0 +1,103 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Chooses the number of parallel upload streams from the throughput each stream achieves.
+ * <p>The throughput of a number of streams is estimated as the number of streams times the mean
+ * throughput of the ranges they uploaded. Once every stream uploaded a range, the controller adds
+ * a stream while that improved the estimate and drops one if fewer streams did as well. Estimates
+ * are smoothed, so that they follow a changing link.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class ConcurrencyController {
+    /**
+     * Relative difference of two estimates which counts as improvement.
+     */
+    static final double THRESHOLD = 0.1;
+    /**
+     * Weight of a new measurement in the estimate.
+     */
+    static final double ALPHA = 0.5;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final int maxConcurrency;
+    private int concurrency;
+    /**
+     * Estimated throughput in bytes per millisecond for each number of streams or -1 if it was
+     * not measured yet.
+     */
+    private final double[] throughput;
+
+    private long rangeBytes = 0;
+    private long rangeMillis = 0;
+    private int ranges = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new controller.
+     *
+     * @param initialConcurrency number of streams to start with
+     * @param maxConcurrency     maximum number of streams
+     */
+    public ConcurrencyController(int initialConcurrency, int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.concurrency = Math.max(1, Math.min(initialConcurrency, this.maxConcurrency));
+        this.throughput = new double[this.maxConcurrency + 2];
+        for (int i = 0; i < throughput.length; i++) {
+            throughput[i] = -1;
+        }
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Reports that a stream uploaded a range.
+     *
+     * @param bytes         length of the range
+     * @param elapsedMillis time it took to upload the range
+     */
+    public synchronized void onRangeCompleted(long bytes, long elapsedMillis) {
+        rangeBytes += bytes;
+        rangeMillis += Math.max(1, elapsedMillis);
+        if (++ranges < concurrency) return;
+
+        double measured = concurrency * (rangeBytes / (double) rangeMillis);
+        throughput[concurrency] = throughput[concurrency] < 0
+                ? measured : (1 - ALPHA) * throughput[concurrency] + ALPHA * measured;
+        rangeBytes = 0;
+        rangeMillis = 0;
+        ranges = 0;
+
+        double current = throughput[concurrency];
+        double more = throughput[concurrency + 1];
+        double fewer = throughput[concurrency - 1];
+        if (concurrency < maxConcurrency && (more < 0
+                ? fewer < 0 || current > fewer * (1 + THRESHOLD)
+                : more > current * (1 + THRESHOLD))) {
+            // the last stream paid off, so try another one
+            concurrency++;
+        } else if (concurrency > 1 && (fewer < 0 || fewer >= current * (1 - THRESHOLD))) {
+            // fewer streams might do as well
+            concurrency--;
+        }
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * @return number of streams to use
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+}
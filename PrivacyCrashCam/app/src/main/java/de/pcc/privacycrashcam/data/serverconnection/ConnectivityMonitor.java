@@ -0,0 +1,250 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps track of whether the service host is reachable. The state is refreshed whenever the
+ * device's connectivity changes and when it gets older than {@link #MAX_AGE_MILLIS}, so that
+ * reading it is cheap.
+ * <p>Reachability is probed by opening a TCP connection to the service's port, which tests the
+ * actual host instead of relying on ICMP to an unrelated one.</p>
+ * <p>Each connectivity change starts a new generation. Results of probes which were started in an
+ * older generation are discarded, so a probe over a network which is gone cannot override the
+ * current state.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class ConnectivityMonitor {
+    private final static String TAG = ConnectivityMonitor.class.getName();
+
+    static final int PROBE_TIMEOUT_MILLIS = 3000;
+    /**
+     * Age after which the state is refreshed in background when it is read.
+     */
+    static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private static ConnectivityMonitor instance;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final String host;
+    private final int port;
+    private final ExecutorService probeExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Incremented on every connectivity change. Guarded by this monitor.
+     */
+    private int generation = 0;
+    /**
+     * Generation of the probe which is queued or running or -1. Guarded by this monitor.
+     */
+    private int probingGeneration = -1;
+
+    /**
+     * Whether the state was determined at least once.
+     */
+    private volatile boolean known = false;
+    private volatile boolean reachable = false;
+    private volatile long checkedAt = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a monitor which is not registered for connectivity events.
+     *
+     * @param host host name of the service
+     * @param port port of the service
+     */
+    ConnectivityMonitor(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Gets the monitor of the service host. Creates it and registers it for connectivity events on
+     * first use.
+     *
+     * @param context any context, the application context is used for the registration
+     * @return the monitor
+     */
+    public static synchronized ConnectivityMonitor GetInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityMonitor(ServerHelper.HOST_NAME, ServerHelper.PORT_NUMBER);
+            instance.register(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    private void register(final Context context) {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        // a sticky broadcast is delivered right away, so the state is probed initially
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+                onConnectivityChanged(network != null && network.isConnected());
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Updates the state after the device's connectivity changed.
+     *
+     * @param connected whether the device has an active network connection
+     */
+    void onConnectivityChanged(boolean connected) {
+        int current;
+        synchronized (this) {
+            current = ++generation;
+        }
+        if (connected) {
+            refresh();
+        } else {
+            // no need to probe without network
+            update(current, false);
+        }
+    }
+
+    /**
+     * Probes the service host in background. Does nothing if a probe of the current generation is
+     * queued or running already.
+     */
+    void refresh() {
+        final int current;
+        synchronized (this) {
+            if (probingGeneration == generation) return;
+            current = probingGeneration = generation;
+        }
+        probeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    update(current, probe());
+                } finally {
+                    synchronized (ConnectivityMonitor.this) {
+                        if (probingGeneration == current) probingGeneration = -1;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the result of a check unless the connectivity changed since the check started.
+     *
+     * @param generation generation the check was started in
+     * @param reachable  whether the service host was reachable
+     */
+    private synchronized void update(int generation, boolean reachable) {
+        if (generation != this.generation) return;
+        this.reachable = reachable;
+        this.checkedAt = System.nanoTime() / 1000000;
+        this.known = true;
+    }
+
+    private synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the service host accepted a connection
+     */
+    boolean probe() {
+        return Probe(host, port, PROBE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Blocks until the probes which were started before this call finished.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return false if the probes did not finish in time
+     */
+    boolean awaitProbes(long timeoutMillis) throws InterruptedException {
+        try {
+            probeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the service host is reachable. Returns the cached state and refreshes it in
+     * background if it is outdated. Only probes synchronously if the state was never determined,
+     * so do not use this on UI thread.
+     *
+     * @return true if the service host was reachable at the last check
+     */
+    public boolean isServiceReachable() {
+        if (!known) {
+            int current = getGeneration();
+            update(current, probe());
+        } else if (System.nanoTime() / 1000000 - checkedAt > MAX_AGE_MILLIS) {
+            refresh();
+        }
+        return reachable;
+    }
+
+    /**
+     * Checks without blocking whether the service host might be reachable. Returns the cached
+     * state and refreshes it in background if it is outdated or was never determined.
+     *
+     * @return false if the service host was unreachable at the last check, true otherwise
+     */
+    public boolean mightReachService() {
+        if (!known || System.nanoTime() / 1000000 - checkedAt > MAX_AGE_MILLIS) refresh();
+        return !known || reachable;
+    }
+
+    /**
+     * Opens and closes a TCP connection to the passed address.
+     *
+     * @param host          host name
+     * @param port          port
+     * @param timeoutMillis time to wait for the connection
+     * @return true if the connection was established
+     */
+    static boolean Probe(String host, int port, int timeoutMillis) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            return true;
+        } catch (IOException e) {
+            Log.i(TAG, "Service host not reachable: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Stream which counts the bytes written to the underlying stream and reports the progress to a
+ * {@link TransferObserver}. Reports are throttled to one per {@link #MIN_INTERVAL_MILLIS} unless the
+ * transfer completed. Writes fail with an {@link InterruptedIOException} once the observer
+ * cancelled the transfer.
+ *
+ * @author Giorgio Gross
+ */
+public class ProgressOutputStream extends FilterOutputStream {
+    /**
+     * Minimum time between two progress reports.
+     */
+    static final long MIN_INTERVAL_MILLIS = 250;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final long totalBytes;
+    private final long intervalMillis;
+    private final TransferObserver observer;
+
+    private long sentBytes = 0;
+    private int reportedPercent = -1;
+    private long reportedAt = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a stream which reports at most every {@link #MIN_INTERVAL_MILLIS}.
+     *
+     * @param out        the underlying stream
+     * @param totalBytes expected number of bytes or a value below 1 if it is unknown
+     * @param observer   observer of the transfer
+     */
+    public ProgressOutputStream(OutputStream out, long totalBytes, TransferObserver observer) {
+        this(out, totalBytes, observer, MIN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates a new stream.
+     *
+     * @param out            the underlying stream
+     * @param totalBytes     expected number of bytes or a value below 1 if it is unknown
+     * @param observer       observer of the transfer
+     * @param intervalMillis minimum time between two progress reports
+     */
+    ProgressOutputStream(OutputStream out, long totalBytes, TransferObserver observer,
+                         long intervalMillis) {
+        super(out);
+        this.totalBytes = totalBytes;
+        this.observer = observer;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    @Override
+    public void write(int b) throws IOException {
+        checkCancelled();
+        out.write(b);
+        count(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkCancelled();
+        // FilterOutputStream would write byte by byte
+        out.write(b, off, len);
+        count(len);
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (observer.isCancelled()) throw new InterruptedIOException("Transfer cancelled");
+    }
+
+    private void count(long bytes) {
+        sentBytes += bytes;
+        int percent = GetPercent(sentBytes, totalBytes);
+        if (percent <= reportedPercent) return;
+        long now = System.nanoTime() / 1000000;
+        if (percent < 100 && reportedPercent >= 0 && now - reportedAt < intervalMillis) return;
+        reportedPercent = percent;
+        reportedAt = now;
+        observer.onProgress(percent);
+    }
+
+    /**
+     * Calculates the progress of a transfer. Bytes beyond the expected number, e.g. multipart
+     * boundaries, are not counted.
+     *
+     * @param sentBytes  bytes sent so far
+     * @param totalBytes expected number of bytes
+     * @return percentage of the bytes which were sent or 0 if the number of bytes is unknown
+     */
+    static int GetPercent(long sentBytes, long totalBytes) {
+        if (totalBytes <= 0) return 0;
+        return (int) (Math.min(sentBytes, totalBytes) * 100 / totalBytes);
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * @return number of bytes written so far
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+}
@@ -36,5 +36,10 @@ public enum RequestState {
     /**
      * Something unexpected went wrong.
      */
-    FAILURE_OTHER
+    FAILURE_OTHER,
+
+    /**
+     * The request was cancelled by the user.
+     */
+    CANCELLED
 }
@@ -0,0 +1,497 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.pcc.privacycrashcam.data.UploadSession;
+
+/**
+ * Uploads files in fixed-size chunks so that an interrupted upload continues where it stopped
+ * instead of starting over.
+ * <p>The protocol works as follows:</p>
+ * <ul>
+ * <li><code>POST uploads</code> with the headers {@value #HEADER_UPLOAD_ID} and
+ * {@value #HEADER_UPLOAD_LENGTH} opens an upload or returns the existing one. The upload id is the
+ * hex encoded SHA-256 hash of the file's content. The response holds the committed offset in
+ * {@value #HEADER_UPLOAD_OFFSET}.</li>
+ * <li><code>PUT uploads/&lt;id&gt;</code> with the header {@value #HEADER_UPLOAD_OFFSET} appends a
+ * chunk at that offset. The server answers with the new committed offset, or with
+ * {@link #STATUS_CONFLICT} and its committed offset if the client's offset was wrong. The server
+ * verifies the hash once all bytes were committed and answers with
+ * {@link #STATUS_HASH_MISMATCH} if it does not match.</li>
+ * <li>Large files can be uploaded in parts over several connections at once. Part <i>n</i> is
+ * an upload of its own with the id <code>&lt;id&gt;-&lt;n&gt;</code> whose hash is not verified.
+ * Once all parts were committed, <code>POST uploads</code> with the additional header
+ * {@value #HEADER_UPLOAD_PARTS} makes the server concatenate them in order and verify the hash
+ * of the result.</li>
+ * </ul>
+ * <p>The session of an upload is stored in the session directory, so that uploads can be resumed
+ * after an app restart without hashing the file again.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class ResumableUploadClient {
+    private final static String TAG = ResumableUploadClient.class.getName();
+
+    public static final String PATH_UPLOADS = "uploads";
+    public static final String HEADER_UPLOAD_ID = "Upload-Id";
+    public static final String HEADER_UPLOAD_LENGTH = "Upload-Length";
+    public static final String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+    public static final String HEADER_UPLOAD_PARTS = "Upload-Parts";
+    public static final int STATUS_CONFLICT = 409;
+    public static final int STATUS_HASH_MISMATCH = 422;
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * Number of consecutive failed requests after which the upload is given up. The session is
+     * kept, so that it can be resumed later.
+     */
+    static final int MAX_ATTEMPTS = 5;
+    static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+    /**
+     * Number of parts per stream. Having more parts than streams lets the number of streams change
+     * while the upload is running.
+     */
+    static final int PARTS_PER_STREAM = 4;
+    static final int INITIAL_STREAMS = 2;
+    private static final String SESSION_SUFFIX = ".session";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final String uploadsUrl;
+    private final File sessionDir;
+    private final int chunkSize;
+    private long retryDelayMillis = 1000;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new client.
+     *
+     * @param domain     domain of the API
+     * @param sessionDir directory to store the sessions of unfinished uploads in
+     * @param chunkSize  size of the chunks in bytes
+     */
+    public ResumableUploadClient(String domain, File sessionDir, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException();
+        this.uploadsUrl = (domain.endsWith("/") ? domain : domain + "/") + PATH_UPLOADS;
+        this.sessionDir = sessionDir;
+        this.chunkSize = chunkSize;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Uploads the passed file. Continues a previous upload of the file if there is one. Do not
+     * use this on UI thread.
+     *
+     * @param file the file to be uploaded
+     * @return {@link RequestState#SUCCESS} if the server committed the whole file,
+     * {@link RequestState#NETWORK_FAILURE} if the server could not be reached repeatedly and the
+     * upload can be resumed later, {@link RequestState#INPUT_FAILURE} if the file could not be
+     * read or the server rejected it
+     */
+    public RequestState upload(File file) {
+        return upload(file, 1);
+    }
+
+    /**
+     * Uploads the passed file in parts over up to the passed number of connections at once. The
+     * number of connections in use is adapted to the throughput they achieve. Continues a previous
+     * upload of the file if there is one. Do not use this on UI thread.
+     *
+     * @param file       the file to be uploaded
+     * @param maxStreams maximum number of connections to use
+     * @return see {@link #upload(File)}
+     */
+    public RequestState upload(final File file, int maxStreams) {
+        final UploadSession session = getSession(file);
+        if (session == null) return RequestState.INPUT_FAILURE;
+
+        final long length = session.getLength();
+        final long partSize = GetPartSize(length, chunkSize, maxStreams);
+        final int parts = (int) ((length + partSize - 1) / partSize);
+        if (maxStreams <= 1 || parts <= 1) {
+            return finish(file, uploadRange(session.getUploadId(), file, 0, length));
+        }
+
+        final ConcurrencyController controller = new ConcurrencyController(
+                Math.min(INITIAL_STREAMS, maxStreams), maxStreams);
+        ExecutorService executor = Executors.newFixedThreadPool(maxStreams);
+        CompletionService<RequestState> completion = new ExecutorCompletionService<>(executor);
+        RequestState result = RequestState.SUCCESS;
+        int next = 0;
+        int running = 0;
+        try {
+            while (next < parts || running > 0) {
+                // stop starting parts after a failure, but let the running ones finish
+                while (result == RequestState.SUCCESS && next < parts
+                        && running < controller.getConcurrency()) {
+                    final int index = next++;
+                    completion.submit(new Callable<RequestState>() {
+                        @Override
+                        public RequestState call() throws Exception {
+                            long start = index * partSize;
+                            long partLength = Math.min(partSize, length - start);
+                            long begin = Now();
+                            RequestState state = uploadRange(
+                                    GetPartId(session.getUploadId(), index), file, start, partLength);
+                            if (state == RequestState.SUCCESS)
+                                controller.onRangeCompleted(partLength, Now() - begin);
+                            return state;
+                        }
+                    });
+                    running++;
+                }
+                if (running == 0) break;
+                RequestState state = completion.take().get();
+                running--;
+                if (state != RequestState.SUCCESS && result == RequestState.SUCCESS)
+                    result = state;
+            }
+            if (result == RequestState.SUCCESS) result = concatenate(session, parts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = RequestState.FAILURE_OTHER;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Part upload failed: " + e.getCause());
+            result = RequestState.FAILURE_OTHER;
+        } finally {
+            executor.shutdownNow();
+        }
+        return finish(file, result);
+    }
+
+    private RequestState finish(File file, RequestState state) {
+        // a rejected upload starts over next time
+        if (state == RequestState.SUCCESS || state == RequestState.INPUT_FAILURE)
+            deleteSession(file);
+        return state;
+    }
+
+    /**
+     * Uploads a range of the passed file as an upload of its own. Retries failed requests and
+     * responses which do not advance the committed offset.
+     *
+     * @param uploadId id of the upload
+     * @param file     the file to be uploaded
+     * @param start    offset of the range in the file
+     * @param length   length of the range
+     * @return see {@link #upload(File)}
+     */
+    private RequestState uploadRange(String uploadId, File file, long start, long length) {
+        byte[] buffer = new byte[chunkSize];
+        int failures = 0;
+        while (true) {
+            try {
+                long offset = openUpload(uploadId, length, 0);
+                while (offset < length) {
+                    long committed = putChunk(uploadId, file, start, offset, length, buffer);
+                    if (committed < 0) {
+                        // the server lost the upload
+                        committed = openUpload(uploadId, length, 0);
+                    }
+                    if (committed <= offset) {
+                        // the server did not store the chunk. Sending it again right away would
+                        // loop as long as the server does not make progress
+                        throw new IOException("No progress at offset " + offset);
+                    }
+                    failures = 0;
+                    offset = committed;
+                }
+                return RequestState.SUCCESS;
+            } catch (UploadRejectedException e) {
+                Log.w(TAG, "Upload rejected: " + e.getMessage());
+                return RequestState.INPUT_FAILURE;
+            } catch (IOException e) {
+                Log.i(TAG, "Upload interrupted: " + e.getMessage());
+                if (++failures >= MAX_ATTEMPTS) return RequestState.NETWORK_FAILURE;
+                try {
+                    Thread.sleep(retryDelayMillis * failures);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return RequestState.FAILURE_OTHER;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the server concatenate the committed parts of the upload.
+     *
+     * @param session session of the upload
+     * @param parts   number of parts
+     * @return see {@link #upload(File)}
+     */
+    private RequestState concatenate(UploadSession session, int parts) {
+        int failures = 0;
+        while (true) {
+            try {
+                long committed = openUpload(session.getUploadId(), session.getLength(), parts);
+                if (committed == session.getLength()) return RequestState.SUCCESS;
+                throw new IOException("Incomplete concatenation " + committed);
+            } catch (UploadRejectedException e) {
+                Log.w(TAG, "Concatenation rejected: " + e.getMessage());
+                return RequestState.INPUT_FAILURE;
+            } catch (IOException e) {
+                Log.i(TAG, "Concatenation interrupted: " + e.getMessage());
+                if (++failures >= MAX_ATTEMPTS) return RequestState.NETWORK_FAILURE;
+                try {
+                    Thread.sleep(retryDelayMillis * failures);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return RequestState.FAILURE_OTHER;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the upload on the server or gets the existing one.
+     *
+     * @param uploadId id of the upload
+     * @param length   length of the upload
+     * @param parts    number of parts to concatenate or 0 to open a regular upload
+     * @return the offset committed by the server
+     */
+    private long openUpload(String uploadId, long length, int parts) throws IOException {
+        HttpURLConnection connection = openConnection(uploadsUrl, "POST");
+        try {
+            connection.setRequestProperty(HEADER_UPLOAD_ID, uploadId);
+            connection.setRequestProperty(HEADER_UPLOAD_LENGTH, Long.toString(length));
+            if (parts > 0) connection.setRequestProperty(HEADER_UPLOAD_PARTS, Integer.toString(parts));
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_CREATED)
+                return getOffset(connection);
+            if (status >= 400 && status < 500) throw new UploadRejectedException(status);
+            throw new IOException("Unexpected response " + status);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * Sends the chunk starting at the passed offset.
+     *
+     * @param uploadId    id of the upload
+     * @param file        the file to be uploaded
+     * @param start       offset of the upload in the file
+     * @param offset      offset of the chunk in the upload
+     * @param totalLength length of the upload
+     * @param buffer      buffer of the chunk size
+     * @return the offset committed by the server or -1 if the server does not know the upload
+     */
+    private long putChunk(String uploadId, File file, long start, long offset, long totalLength,
+                          byte[] buffer) throws IOException {
+        int length = (int) Math.min(buffer.length, totalLength - offset);
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            input.seek(start + offset);
+            input.readFully(buffer, 0, length);
+        }
+
+        HttpURLConnection connection = openConnection(uploadsUrl + "/" + uploadId, "PUT");
+        try {
+            connection.setRequestProperty(HEADER_UPLOAD_OFFSET, Long.toString(offset));
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(buffer, 0, length);
+            }
+
+            int status = connection.getResponseCode();
+            switch (status) {
+                case HttpURLConnection.HTTP_OK:
+                case HttpURLConnection.HTTP_NO_CONTENT:
+                case STATUS_CONFLICT:
+                    // the server tells which offset to continue at
+                    return getOffset(connection);
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return -1;
+                case STATUS_HASH_MISMATCH:
+                    throw new UploadRejectedException(status);
+                default:
+                    throw new IOException("Unexpected response " + status);
+            }
+        } finally {
+            release(connection);
+        }
+    }
+
+    private HttpURLConnection openConnection(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(ServerHelper.CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private static long getOffset(HttpURLConnection connection) throws IOException {
+        String offset = connection.getHeaderField(HEADER_UPLOAD_OFFSET);
+        if (offset == null) throw new IOException("Missing " + HEADER_UPLOAD_OFFSET);
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + HEADER_UPLOAD_OFFSET + ": " + offset);
+        }
+    }
+
+    /**
+     * Reads the remaining response, so that the connection can be reused for the next request.
+     */
+    private static void release(HttpURLConnection connection) {
+        try {
+            InputStream response = connection.getResponseCode() >= 400
+                    ? connection.getErrorStream() : connection.getInputStream();
+            if (response != null) {
+                byte[] discard = new byte[1024];
+                //noinspection StatementWithEmptyBody
+                while (response.read(discard) != -1) ;
+                response.close();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Loads the stored session of the passed file or creates a new one.
+     *
+     * @param file the file to be uploaded
+     * @return the session or null if the file could not be read
+     */
+    UploadSession getSession(File file) {
+        File sessionFile = getSessionFile(file);
+        if (sessionFile.exists()) {
+            try (Scanner scanner = new Scanner(sessionFile, "UTF-8")) {
+                UploadSession session = new UploadSession(scanner.useDelimiter("\\A").next());
+                if (session.matches(file)) return session;
+            } catch (IOException | JSONException | RuntimeException e) {
+                Log.w(TAG, "Dropping unreadable upload session of " + file.getName());
+            }
+        }
+
+        String hash = Hash(file);
+        if (hash == null) return null;
+        UploadSession session = new UploadSession(hash, file);
+        if (!sessionDir.exists() && !sessionDir.mkdirs())
+            Log.w(TAG, "Could not create session directory");
+        try (FileOutputStream output = new FileOutputStream(sessionFile)) {
+            output.write(session.getAsJSON().getBytes("UTF-8"));
+        } catch (IOException e) {
+            // the upload still works, it just cannot be resumed without hashing the file again
+            Log.w(TAG, "Could not store upload session of " + file.getName());
+        }
+        return session;
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void deleteSession(File file) {
+        getSessionFile(file).delete();
+    }
+
+    private File getSessionFile(File file) {
+        return new File(sessionDir, file.getName() + SESSION_SUFFIX);
+    }
+
+    /**
+     * Calculates the size of the parts of a parallel upload.
+     *
+     * @param length    length of the file
+     * @param chunkSize size of the chunks
+     * @param streams   maximum number of streams
+     * @return part size, a multiple of the chunk size
+     */
+    static long GetPartSize(long length, int chunkSize, int streams) {
+        long parts = (long) Math.max(1, streams) * PARTS_PER_STREAM;
+        long chunks = ((length + parts - 1) / parts + chunkSize - 1) / chunkSize;
+        return Math.max(1, chunks) * chunkSize;
+    }
+
+    static String GetPartId(String uploadId, int index) {
+        return uploadId + "-" + index;
+    }
+
+    private static long Now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Calculates the upload id of the passed file.
+     *
+     * @param file the file
+     * @return hex encoded SHA-256 hash of the file's content or null if it could not be read
+     */
+    static String Hash(File file) {
+        try (InputStream input = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(TAG, "Could not hash " + file.getName());
+            return null;
+        }
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * Sets the delay before the first retry. Each further retry waits longer.
+     *
+     * @param retryDelayMillis delay in milliseconds
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Thrown if the server refuses the upload, so retrying it makes no sense.
+     */
+    private static class UploadRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UploadRejectedException(int status) {
+            super("Response " + status);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.pcc.privacycrashcam.data.serverconnection;
 
+import android.content.Context;
+
 /**
  * Static helper methods for server connection
  *
@@ -11,24 +13,40 @@ public class ServerHelper {
     /**
      * Domain to connect to the API
      */
-    static final String PORT = ":2222";
-    public static final String HOST = "http://laubenstone.de";
+    static final String HOST_NAME = "laubenstone.de";
+    static final int PORT_NUMBER = 2222;
+    static final String PORT = ":" + PORT_NUMBER;
+    public static final String HOST = "http://" + HOST_NAME;
     static final String URL = HOST + PORT + "/webservice/";
+    /**
+     * Time to establish a connection to the server.
+     */
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    /**
+     * Time to wait for data from the server. The server processes uploaded videos before it
+     * responds, so this is rather long.
+     */
+    static final int READ_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Checks if the server is reachable. Reads the state kept by the {@link ConnectivityMonitor},
+     * which only probes the server synchronously on first use. Do not use this on UI thread.
+     *
+     * @param context any context
+     * @return true when the server was reached, false otherwise
+     */
+    static boolean IsNetworkAvailable(Context context) {
+        return ConnectivityMonitor.GetInstance(context).isServiceReachable();
+    }
 
     /**
-     * Synchronous method which pings the server and checks if it is reachable. Do not use this on
-     * UI thread.
+     * Checks without blocking whether the server might be reachable. Assumes it is if the
+     * {@link ConnectivityMonitor} did not probe it yet.
      *
-     * @return true when network was reached, false otherwise
+     * @param context any context
+     * @return false if the server was unreachable at the last check, true otherwise
      */
-    static boolean IsNetworkAvailable() {
-        try {
-            Process p1 = java.lang.Runtime.getRuntime().exec("ping -c 1 google.com");
-            int returnVal = p1.waitFor();
-            return (returnVal==0);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return false;
+    static boolean MightReachServer(Context context) {
+        return ConnectivityMonitor.GetInstance(context).mightReachService();
     }
 }
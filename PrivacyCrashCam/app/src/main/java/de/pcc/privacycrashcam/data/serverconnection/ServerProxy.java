@@ -1,6 +1,7 @@
 package de.pcc.privacycrashcam.data.serverconnection;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 import java.io.File;
 
@@ -13,6 +14,11 @@ import de.pcc.privacycrashcam.data.Account;
  */
 
 public class ServerProxy {
+    /**
+     * Sessions shared by all proxies.
+     */
+    private static final SessionCache SESSIONS = new SessionCache(SessionCache.SESSION_TTL_MILLIS);
+
     private Context context;
 
     public ServerProxy(Context context) {
@@ -27,21 +33,100 @@ public class ServerProxy {
      * @param symKey    Key of the video and metadata
      * @param account   Account to link the files with
      * @param callback  Observer which will be notified about state changes of the upload
+     * @return handle to cancel the upload
+     */
+    public UploadHandle videoUpload(final File videoFile, final File metadata,
+                                    final File symKey, final Account account,
+                                    final ServerResponseCallback<RequestState> callback) {
+        return videoUpload(videoFile, metadata, symKey, account, 0, callback);
+    }
+
+    /**
+     * Uploads the passed video along with the passed metadata and key to the account. Uploads with
+     * higher priority are sent first. The callback is notified about the progress of the transfer
+     * and receives {@link RequestState#CANCELLED} if the upload is cancelled through the returned
+     * handle.
+     *
+     * @param videoFile Video to be uploaded
+     * @param metadata  Metadata of the video
+     * @param symKey    Key of the video and metadata
+     * @param account   Account to link the files with
+     * @param priority  Priority of the upload, usually the severity of the video's metadata
+     * @param callback  Observer which will be notified about state changes of the upload
+     * @return handle to cancel the upload
+     */
+    public UploadHandle videoUpload(final File videoFile, final File metadata,
+                                    final File symKey, final Account account, final float priority,
+                                    final ServerResponseCallback<RequestState> callback) {
+        UploadHandle handle = new UploadHandle();
+        videoUpload(videoFile, metadata, symKey, account, priority, callback, handle, true);
+        return handle;
+    }
+
+    /**
+     * Uploads the passed video like
+     * {@link #videoUpload(File, File, File, Account, float, ServerResponseCallback)}. The upload is
+     * cancelled through the passed handle, which may be cancelled before the upload started.
+     *
+     * @param handle handle to cancel the upload
+     */
+    void videoUpload(final File videoFile, final File metadata, final File symKey,
+                     final Account account, final float priority,
+                     final ServerResponseCallback<RequestState> callback,
+                     final UploadHandle handle) {
+        videoUpload(videoFile, metadata, symKey, account, priority, callback, handle, true);
+    }
+
+    /**
+     * Uploads the passed video once the account has a valid session.
+     *
+     * @param handle handle which receives the task uploading the video
+     * @param retry  whether the upload is retried with a new session if the server rejects the
+     *               account
      */
-    public void videoUpload(final File videoFile, final File metadata,
-                            final File symKey, final Account account,
-                            final ServerResponseCallback<RequestState> callback) {
-        // check if password and mail are still valid
-        authenticateUser(account, new ServerResponseCallback<AuthenticationState>() {
+    private void videoUpload(final File videoFile, final File metadata,
+                             final File symKey, final Account account, final float priority,
+                             final ServerResponseCallback<RequestState> callback,
+                             final UploadHandle handle, final boolean retry) {
+        // check if password and mail are still valid, reuses a recent authentication
+        requireSession(account, new ServerResponseCallback<AuthenticationState>() {
             @Override
             public void onResponse(AuthenticationState response) {
-                if (response == AuthenticationState.SUCCESS) {
-                    // we are logged in - proceed with file upload
-                    new VideoUploadTask(videoFile, metadata, symKey, account, callback, context)
-                            .execute(ServerHelper.URL);
-                } else {
-                    callback.onResponse(RequestState.ACCOUNT_FAILURE);
+                if (response != AuthenticationState.SUCCESS) {
+                    callback.onResponse(GetUploadState(response));
+                    return;
+                }
+                // we are logged in - proceed with file upload
+                // uploads wait for each other in order of their priority
+                VideoUploadTask task = new VideoUploadTask(videoFile, metadata, symKey, account,
+                        new ServerResponseCallback<RequestState>() {
+                            @Override
+                            public void onResponse(RequestState response) {
+                                if (response == RequestState.ACCOUNT_FAILURE && retry) {
+                                    // account data changed since the session was created
+                                    SESSIONS.invalidate();
+                                    videoUpload(videoFile, metadata, symKey, account, priority,
+                                            callback, handle, false);
+                                    return;
+                                }
+                                callback.onResponse(response);
+                            }
+
+                            @Override
+                            public void onProgress(int percent) {
+                                callback.onProgress(percent);
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                callback.onError(error);
+                            }
+                        }, context, priority);
+                if (!handle.attach(task)) {
+                    callback.onResponse(RequestState.CANCELLED);
+                    return;
                 }
+                task.execute(ServerHelper.URL);
             }
 
             @Override
@@ -57,13 +142,89 @@ public class ServerProxy {
     }
 
     /**
-     * Authenticate the user. This will check if the password and mail match.
+     * Makes sure the passed account has a valid session. Authenticates the account if its session
+     * expired. Concurrent requests share one authentication.
+     *
+     * @param account  Account which needs a session
+     * @param callback Observer which will be notified about the authentication state
+     */
+    private void requireSession(Account account,
+                                ServerResponseCallback<AuthenticationState> callback) {
+        if (SESSIONS.isValid(account, SystemClock.elapsedRealtime())) {
+            callback.onResponse(AuthenticationState.SUCCESS);
+        } else if (SESSIONS.awaitAuthentication(account, callback)) {
+            new AuthenticateTask(account, new SessionCallback(account, null), context)
+                    .execute(ServerHelper.URL);
+        }
+    }
+
+    /**
+     * Authenticate the user. This will check if the password and mail match. A successful
+     * authentication starts a new session for uploads.
      *
      * @param account  Account which needs to be authenticated.
      * @param callback Observer which will be notified about state changes of the authentication
      */
     public void authenticateUser(Account account,
                                  ServerResponseCallback<AuthenticationState> callback) {
-        new AuthenticateTask(account, callback, context).execute(ServerHelper.URL);
+        new AuthenticateTask(account, new SessionCallback(account, callback), context)
+                .execute(ServerHelper.URL);
+    }
+
+    /**
+     * Maps a failed authentication to the result of the upload which needed it. Only a rejected
+     * account is an account failure, the upload may succeed later after other failures.
+     *
+     * @param state result of the authentication
+     * @return the result of the upload
+     */
+    static RequestState GetUploadState(AuthenticationState state) {
+        switch (state) {
+            case SUCCESS:
+                return RequestState.SUCCESS;
+            case FAILURE_MISSING:
+            case FAILURE_MISMATCH:
+            case NOT_VERIFIED:
+                return RequestState.ACCOUNT_FAILURE;
+            case FAILURE_NETWORK:
+                return RequestState.NETWORK_FAILURE;
+            default:
+                return RequestState.FAILURE_OTHER;
+        }
+    }
+
+    /**
+     * Stores the result of an authentication in the session cache before passing it on.
+     */
+    private static class SessionCallback implements ServerResponseCallback<AuthenticationState> {
+        private final Account account;
+        private final ServerResponseCallback<AuthenticationState> callback;
+
+        /**
+         * @param account  the account being authenticated
+         * @param callback observer to pass the result to or null if only waiting requests are
+         *                 notified
+         */
+        SessionCallback(Account account, ServerResponseCallback<AuthenticationState> callback) {
+            this.account = account;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onResponse(AuthenticationState response) {
+            SESSIONS.onAuthenticated(account, response, SystemClock.elapsedRealtime());
+            if (callback != null) callback.onResponse(response);
+        }
+
+        @Override
+        public void onProgress(int percent) {
+            if (callback != null) callback.onProgress(percent);
+        }
+
+        @Override
+        public void onError(String error) {
+            SESSIONS.onAuthenticationFailed(account, error);
+            if (callback != null) callback.onError(error);
+        }
     }
 }
@@ -0,0 +1,52 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Sends the requests of the {@link ServerProxy} to the server. The tasks know the API calls and
+ * how to interpret the responses, the transport only knows how to send them.
+ * <p>The transport is chosen at build time, {@link TransportProvider} of the build flavor creates
+ * it. Both transports use {@link ServerHelper#CONNECT_TIMEOUT_MILLIS} and
+ * {@link ServerHelper#READ_TIMEOUT_MILLIS}.</p>
+ *
+ * @author Giorgio Gross
+ */
+public interface ServerTransport {
+    /**
+     * Function call which authenticates an account.
+     */
+    String API_CALL_AUTHENTICATE = "authenticate";
+    /**
+     * Function call which uploads a video.
+     */
+    String API_CALL_VIDEO_UPLOAD = "videoUpload";
+
+    /**
+     * Posts the account as form to the authentication call. Blocks until the server responded, so
+     * do not use this on UI thread.
+     *
+     * @param domain      Domain to access the API
+     * @param accountJSON the account as JSON string
+     * @return content of the response
+     * @throws IOException if the server could not be reached or did not respond in time
+     */
+    String authenticate(String domain, String accountJSON) throws IOException;
+
+    /**
+     * Posts the video, metadata, key and account as multipart form to the upload call. Returns
+     * right away, the request is streamed from the files on a thread of the transport.
+     *
+     * @param domain      Domain to access the API
+     * @param video       the encrypted video
+     * @param metadata    the encrypted metadata
+     * @param key         the encrypted key
+     * @param accountJSON the account as JSON string
+     * @param observer    receives the progress and aborts the transfer once it is cancelled
+     * @param callback    receives the response or the failure
+     * @return future to cancel the request
+     */
+    Future<?> uploadVideo(String domain, File video, File metadata, File key, String accountJSON,
+                          TransferObserver observer, TransportCallback callback);
+}
@@ -0,0 +1,148 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import de.pcc.privacycrashcam.data.Account;
+
+/**
+ * Remembers that an account was authenticated recently, so that uploads can skip the
+ * authentication round trip. A session expires after its time to live or when the server
+ * rejects the account.
+ * <p>Requests which need a session while an authentication is running wait for its result instead
+ * of authenticating again.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class SessionCache {
+    /**
+     * Time a successful authentication stays valid.
+     */
+    public static final long SESSION_TTL_MILLIS = 30 * 60 * 1000;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final long ttlMillis;
+    /**
+     * Account of the session or null if there is none.
+     */
+    private String sessionAccount = null;
+    private long expiresAt = 0;
+    /**
+     * Requests waiting for the running authentication of an account.
+     */
+    private final HashMap<String, List<ServerResponseCallback<AuthenticationState>>> waiting =
+            new HashMap<>();
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new cache without session.
+     *
+     * @param ttlMillis time a successful authentication stays valid
+     */
+    public SessionCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Checks whether the passed account has a valid session.
+     *
+     * @param account the account
+     * @param now     current time in milliseconds
+     * @return true if the account was authenticated and the session did not expire
+     */
+    public synchronized boolean isValid(Account account, long now) {
+        return GetKey(account).equals(sessionAccount) && now < expiresAt;
+    }
+
+    /**
+     * Waits for the authentication of the passed account. Starting the authentication is up to
+     * the caller if this returns true.
+     *
+     * @param account  account to be authenticated
+     * @param callback notified by {@link #onAuthenticated(Account, AuthenticationState, long)} or
+     *                 {@link #onAuthenticationFailed(Account, String)}
+     * @return true if no authentication of the account is running and the caller has to start one
+     */
+    public synchronized boolean awaitAuthentication(Account account,
+                                                    ServerResponseCallback<AuthenticationState> callback) {
+        String key = GetKey(account);
+        List<ServerResponseCallback<AuthenticationState>> callbacks = waiting.get(key);
+        boolean start = callbacks == null;
+        if (start) {
+            callbacks = new ArrayList<>();
+            waiting.put(key, callbacks);
+        }
+        callbacks.add(callback);
+        return start;
+    }
+
+    /**
+     * Stores the result of an authentication and notifies all requests waiting for it.
+     *
+     * @param account the authenticated account
+     * @param state   result of the authentication
+     * @param now     current time in milliseconds
+     */
+    public void onAuthenticated(Account account, AuthenticationState state, long now) {
+        List<ServerResponseCallback<AuthenticationState>> callbacks;
+        synchronized (this) {
+            String key = GetKey(account);
+            if (state == AuthenticationState.SUCCESS) {
+                sessionAccount = key;
+                expiresAt = now + ttlMillis;
+            } else if (key.equals(sessionAccount)) {
+                invalidate();
+            }
+            callbacks = takeWaiting(key);
+        }
+        for (ServerResponseCallback<AuthenticationState> callback : callbacks) {
+            callback.onResponse(state);
+        }
+    }
+
+    /**
+     * Notifies all requests waiting for the authentication of the passed account about an error.
+     *
+     * @param account the account
+     * @param error   error message
+     */
+    public void onAuthenticationFailed(Account account, String error) {
+        List<ServerResponseCallback<AuthenticationState>> callbacks;
+        synchronized (this) {
+            callbacks = takeWaiting(GetKey(account));
+        }
+        for (ServerResponseCallback<AuthenticationState> callback : callbacks) {
+            callback.onError(error);
+        }
+    }
+
+    private List<ServerResponseCallback<AuthenticationState>> takeWaiting(String key) {
+        List<ServerResponseCallback<AuthenticationState>> callbacks = waiting.remove(key);
+        return callbacks != null
+                ? callbacks : new ArrayList<ServerResponseCallback<AuthenticationState>>();
+    }
+
+    /**
+     * Drops the session, e.g. because the server rejected the account.
+     */
+    public synchronized void invalidate() {
+        sessionAccount = null;
+        expiresAt = 0;
+    }
+
+    private static String GetKey(Account account) {
+        // mail and password, so that changing the password ends the session
+        return account.getMail() + "\n" + account.getPassword();
+    }
+}
@@ -0,0 +1,24 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Observes a running transfer and decides whether it goes on.
+ *
+ * @author Giorgio Gross
+ */
+public interface TransferObserver {
+
+    /**
+     * Called on the thread writing the request whenever the transfer made some progress. Calls are
+     * throttled, so this may do some work.
+     *
+     * @param percent percentage of the bytes which were sent
+     */
+    void onProgress(int percent);
+
+    /**
+     * Called on the thread writing the request before each write.
+     *
+     * @return true if the transfer should be aborted
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,23 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Observer of a request sent by a {@link ServerTransport}. Called on a thread of the transport.
+ *
+ * @author Giorgio Gross
+ */
+public interface TransportCallback {
+
+    /**
+     * Called when the server responded.
+     *
+     * @param content content of the response
+     */
+    void onResponse(String content);
+
+    /**
+     * Called when the request failed or was cancelled.
+     *
+     * @param cause cause of the failure
+     */
+    void onFailure(Throwable cause);
+}
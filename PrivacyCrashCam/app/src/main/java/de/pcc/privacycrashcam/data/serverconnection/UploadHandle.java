@@ -0,0 +1,50 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+/**
+ * Handle of an upload started by the {@link ServerProxy}. Cancels the upload whether it is still
+ * waiting for its session, waiting for its turn or transferring the video.
+ *
+ * @author Giorgio Gross
+ */
+public class UploadHandle {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private VideoUploadTask task;
+    private boolean cancelled = false;
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Cancels the upload. The callback of the upload receives {@link RequestState#CANCELLED}
+     * unless the upload finished already.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (task != null) task.cancel();
+    }
+
+    /**
+     * Sets the task which currently uploads the video.
+     *
+     * @param task the task
+     * @return false if the upload was cancelled and the task must not be started
+     */
+    synchronized boolean attach(VideoUploadTask task) {
+        if (cancelled) return false;
+        this.task = task;
+        return true;
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,33 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import de.pcc.privacycrashcam.data.UploadJob;
+
+/**
+ * Observes the jobs of the {@link UploadQueue}.
+ *
+ * @author Giorgio Gross
+ */
+public interface UploadJobListener {
+
+    /**
+     * Called on a background thread whenever the state of a job changed.
+     *
+     * @param job copy of the job after the change
+     */
+    void onJobChanged(UploadJob job);
+
+    /**
+     * Called on a background thread whenever a running job made some progress. Calls are throttled.
+     *
+     * @param videoTag tag of the video the job uploads
+     * @param percent  percentage of the video which was sent
+     */
+    void onJobProgress(String videoTag, int percent);
+
+    /**
+     * Called on a background thread after a job was removed from the queue.
+     *
+     * @param videoTag tag of the video the job uploaded
+     */
+    void onJobRemoved(String videoTag);
+}
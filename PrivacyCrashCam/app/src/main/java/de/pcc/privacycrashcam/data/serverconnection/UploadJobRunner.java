@@ -0,0 +1,25 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import de.pcc.privacycrashcam.data.UploadJob;
+
+/**
+ * Does the actual work of a job of the {@link UploadQueue}.
+ *
+ * @author Giorgio Gross
+ */
+public interface UploadJobRunner {
+
+    /**
+     * Starts the upload of the video of the passed job and returns without waiting for the
+     * transfer. Called on a worker thread of the queue, so the upload may be prepared right away,
+     * e.g. by assembling the video.
+     *
+     * @param job      copy of the job
+     * @param handle   handle the queue cancels the upload with. The callback should receive
+     *                 {@link RequestState#CANCELLED} once the upload stopped.
+     * @param callback receives the progress and the result of the upload on any thread.
+     *                 {@link RequestState#NETWORK_FAILURE} and {@link RequestState#FAILURE_OTHER}
+     *                 are retried, errors count as network failures.
+     */
+    void start(UploadJob job, UploadHandle handle, ServerResponseCallback<RequestState> callback);
+}
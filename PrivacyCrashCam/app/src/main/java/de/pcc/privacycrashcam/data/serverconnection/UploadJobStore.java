@@ -0,0 +1,25 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import java.util.List;
+
+import de.pcc.privacycrashcam.data.UploadJob;
+
+/**
+ * Persists the jobs of the {@link UploadQueue}. Called on a single background thread of the queue.
+ *
+ * @author Giorgio Gross
+ */
+public interface UploadJobStore {
+
+    /**
+     * @return the persisted jobs
+     */
+    List<UploadJob> load();
+
+    /**
+     * Replaces the persisted jobs.
+     *
+     * @param jobs all jobs of the queue
+     */
+    void save(List<UploadJob> jobs);
+}
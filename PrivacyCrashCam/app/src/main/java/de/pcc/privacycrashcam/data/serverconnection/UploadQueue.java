@@ -0,0 +1,539 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.pcc.privacycrashcam.data.Account;
+import de.pcc.privacycrashcam.data.UploadJob;
+import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
+import de.pcc.privacycrashcam.utils.dataprocessing.DeferredAssembler;
+
+/**
+ * Queue of video uploads which runs independently of the UI. Jobs are persisted on every change,
+ * so that they continue when the app is started again after it was killed. Loading and saving is
+ * done on a thread of the queue, so its methods may be called on the UI thread.
+ * <p>Jobs run in order of their priority, at most {@link #MAX_RUNNING} at a time. Failed uploads
+ * are retried with exponential backoff unless the server rejected them. Succeeded jobs leave the
+ * queue, failed ones stay until they are retried or cancelled.</p>
+ * <p>Workers of the queue only prepare the uploads. Transfers run asynchronously and report their
+ * result through a callback, so no thread waits for them.</p>
+ * <p>The UI subscribes with an {@link UploadJobListener} to follow the jobs.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class UploadQueue {
+    private final static String TAG = UploadQueue.class.getName();
+
+    /**
+     * Number of jobs running at the same time. Transfers still pass the priority gate of the
+     * {@link VideoUploadTask}, the second job prepares its upload meanwhile, e.g. by assembling
+     * the video.
+     */
+    public static final int MAX_RUNNING = 2;
+    static final int MAX_ATTEMPTS = 8;
+    static final long BASE_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    private static UploadQueue instance;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final UploadJobStore store;
+    private final UploadJobRunner runner;
+    private final int maxRunning;
+    private final long baseBackoffMillis;
+    /**
+     * Prepares the uploads and starts them.
+     */
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Loads and saves the jobs in order, so that the callers do not wait for the storage.
+     */
+    private final ExecutorService persistence = Executors.newSingleThreadExecutor();
+    private final CopyOnWriteArrayList<UploadJobListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ArrayList<UploadJob> jobs = new ArrayList<>();
+    /**
+     * Tags of running jobs which were cancelled. They are removed once they finished.
+     */
+    private final HashSet<String> cancelled = new HashSet<>();
+    /**
+     * Handles of the running jobs by video tag.
+     */
+    private final HashMap<String, UploadHandle> handles = new HashMap<>();
+    private int running = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a queue. Call {@link #restore()} to continue the persisted jobs.
+     *
+     * @param store             persists the jobs
+     * @param runner            uploads the videos
+     * @param maxRunning        number of jobs running at the same time
+     * @param baseBackoffMillis delay before the first retry, doubled with each further retry
+     */
+    UploadQueue(UploadJobStore store, UploadJobRunner runner, int maxRunning,
+                long baseBackoffMillis) {
+        this.store = store;
+        this.runner = runner;
+        this.maxRunning = maxRunning;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.workers = Executors.newFixedThreadPool(maxRunning);
+    }
+
+    /**
+     * Gets the queue of the app. Creates it and continues the persisted jobs on first use.
+     *
+     * @param context any context, the application context is used by the queue
+     * @return the queue
+     */
+    public static synchronized UploadQueue GetInstance(Context context) {
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext();
+            final MemoryManager memoryManager = new MemoryManager(appContext);
+            instance = new UploadQueue(new UploadJobStore() {
+                @Override
+                public List<UploadJob> load() {
+                    return memoryManager.getUploadJobs();
+                }
+
+                @Override
+                public void save(List<UploadJob> jobs) {
+                    memoryManager.saveUploadJobs(jobs);
+                }
+            }, new ProxyRunner(appContext), MAX_RUNNING, BASE_BACKOFF_MILLIS);
+            instance.restore();
+        }
+        return instance;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Loads the persisted jobs and continues them in the background. Jobs which were running when
+     * the app was killed are started again. Jobs queued before the persisted ones were loaded take
+     * precedence over persisted jobs of the same video.
+     */
+    void restore() {
+        persistence.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<UploadJob> restored = new ArrayList<>();
+                synchronized (UploadQueue.this) {
+                    long now = System.currentTimeMillis();
+                    for (UploadJob job : store.load()) {
+                        if (find(job.getVideoTag()) != null) continue;
+                        if (job.getState() == UploadJob.State.RUNNING) {
+                            // the app was killed during the upload
+                            job.setState(UploadJob.State.QUEUED);
+                        } else if (job.getState() == UploadJob.State.WAITING_FOR_RETRY) {
+                            scheduleRetry(job.getNextAttemptAt() - now);
+                        }
+                        jobs.add(job);
+                        restored.add(new UploadJob(job));
+                    }
+                    // jobs queued in the meantime were saved without the restored ones
+                    if (!restored.isEmpty() && restored.size() < jobs.size()) save();
+                }
+                for (UploadJob job : restored) {
+                    notifyChanged(job);
+                }
+                dispatch();
+            }
+        });
+    }
+
+    /**
+     * Adds an upload of the passed video to the queue. Does nothing if the video is queued or
+     * being uploaded already. Queues a failed job again.
+     *
+     * @param videoTag tag of the video
+     * @param priority priority of the upload, usually the severity of the video's metadata
+     */
+    public void enqueue(String videoTag, float priority) {
+        UploadJob changed;
+        synchronized (this) {
+            UploadJob job = find(videoTag);
+            if (job != null && job.getState() != UploadJob.State.FAILED) return;
+            if (job != null) jobs.remove(job);
+            cancelled.remove(videoTag);
+            job = new UploadJob(videoTag, priority);
+            jobs.add(job);
+            save();
+            changed = new UploadJob(job);
+        }
+        notifyChanged(changed);
+        dispatch();
+    }
+
+    /**
+     * Queues a job which waits for its retry or failed right away.
+     *
+     * @param videoTag tag of the video
+     */
+    public void retry(String videoTag) {
+        UploadJob changed;
+        synchronized (this) {
+            UploadJob job = find(videoTag);
+            if (job == null) return;
+            if (job.getState() == UploadJob.State.FAILED) {
+                job.setAttempts(0);
+            } else if (job.getState() != UploadJob.State.WAITING_FOR_RETRY) {
+                return;
+            }
+            job.setState(UploadJob.State.QUEUED);
+            save();
+            changed = new UploadJob(job);
+        }
+        notifyChanged(changed);
+        dispatch();
+    }
+
+    /**
+     * Removes the job of the passed video from the queue. A running upload is aborted, its job is
+     * removed once the upload stopped.
+     *
+     * @param videoTag tag of the video
+     */
+    public void cancel(String videoTag) {
+        UploadHandle handle;
+        synchronized (this) {
+            UploadJob job = find(videoTag);
+            if (job == null) return;
+            handle = handles.get(videoTag);
+            if (handle != null) {
+                cancelled.add(videoTag);
+            } else {
+                jobs.remove(job);
+                save();
+            }
+        }
+        if (handle != null) {
+            // the callback of the upload finishes the job
+            handle.cancel();
+            return;
+        }
+        notifyRemoved(videoTag);
+    }
+
+    /**
+     * Starts queued jobs until the maximum number of jobs is running.
+     */
+    private void dispatch() {
+        List<UploadJob> started = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxRunning) {
+                UploadJob next = null;
+                for (UploadJob job : jobs) {
+                    // jobs of the same priority run in the order they were queued
+                    if (job.getState() == UploadJob.State.QUEUED
+                            && (next == null || job.getPriority() > next.getPriority())) {
+                        next = job;
+                    }
+                }
+                if (next == null) break;
+                next.setState(UploadJob.State.RUNNING);
+                next.setAttempts(next.getAttempts() + 1);
+                handles.put(next.getVideoTag(), new UploadHandle());
+                running++;
+                started.add(new UploadJob(next));
+            }
+            if (!started.isEmpty()) save();
+        }
+
+        for (final UploadJob job : started) {
+            notifyChanged(job);
+            final UploadHandle handle;
+            synchronized (this) {
+                handle = handles.get(job.getVideoTag());
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    JobCallback callback = new JobCallback(job.getVideoTag());
+                    try {
+                        runner.start(job, handle, callback);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Upload of " + job.getVideoTag() + " crashed: " + e);
+                        callback.onResponse(RequestState.FAILURE_OTHER);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onFinished(String videoTag, RequestState result) {
+        UploadJob changed = null;
+        synchronized (this) {
+            running--;
+            handles.remove(videoTag);
+            UploadJob job = find(videoTag);
+            if (job == null || cancelled.remove(videoTag)) {
+                if (job != null) jobs.remove(job);
+            } else if (result == RequestState.SUCCESS) {
+                job.setState(UploadJob.State.SUCCEEDED);
+                job.setLastError(null);
+                jobs.remove(job);
+                changed = new UploadJob(job);
+            } else {
+                job.setLastError(result.name());
+                if (IsRetryable(result) && job.getAttempts() < MAX_ATTEMPTS) {
+                    long delay = GetBackoffMillis(baseBackoffMillis, job.getAttempts());
+                    job.setState(UploadJob.State.WAITING_FOR_RETRY);
+                    job.setNextAttemptAt(System.currentTimeMillis() + delay);
+                    scheduleRetry(delay);
+                } else {
+                    job.setState(UploadJob.State.FAILED);
+                }
+                changed = new UploadJob(job);
+            }
+            save();
+        }
+
+        if (changed != null) notifyChanged(changed);
+        else notifyRemoved(videoTag);
+        dispatch();
+    }
+
+    private void scheduleRetry(long delayMillis) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                queueDueJobs();
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private void queueDueJobs() {
+        List<UploadJob> queued = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (UploadJob job : jobs) {
+                if (job.getState() != UploadJob.State.WAITING_FOR_RETRY) continue;
+                if (job.getNextAttemptAt() <= now) {
+                    job.setState(UploadJob.State.QUEUED);
+                    queued.add(new UploadJob(job));
+                }
+            }
+            if (!queued.isEmpty()) save();
+        }
+        for (UploadJob job : queued) {
+            notifyChanged(job);
+        }
+        dispatch();
+    }
+
+    /**
+     * Saves a copy of the jobs on the persistence thread. Must be called while holding the lock of
+     * the queue, so that the copies are saved in the order the jobs changed.
+     */
+    private void save() {
+        final List<UploadJob> copies = new ArrayList<>();
+        for (UploadJob job : jobs) {
+            copies.add(new UploadJob(job));
+        }
+        persistence.execute(new Runnable() {
+            @Override
+            public void run() {
+                store.save(copies);
+            }
+        });
+    }
+
+    /**
+     * Waits until all changes so far were saved.
+     */
+    void awaitSaved() throws InterruptedException {
+        try {
+            persistence.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private UploadJob find(String videoTag) {
+        for (UploadJob job : jobs) {
+            if (job.getVideoTag().equals(videoTag)) return job;
+        }
+        return null;
+    }
+
+    private void notifyChanged(UploadJob job) {
+        for (UploadJobListener listener : listeners) {
+            listener.onJobChanged(job);
+        }
+    }
+
+    private void notifyProgress(String videoTag, int percent) {
+        for (UploadJobListener listener : listeners) {
+            listener.onJobProgress(videoTag, percent);
+        }
+    }
+
+    private void notifyRemoved(String videoTag) {
+        for (UploadJobListener listener : listeners) {
+            listener.onJobRemoved(videoTag);
+        }
+    }
+
+    /**
+     * Checks whether an upload which ended with the passed state may succeed when it is retried.
+     *
+     * @param state result of the upload
+     * @return true if the upload should be retried
+     */
+    static boolean IsRetryable(RequestState state) {
+        return state == RequestState.NETWORK_FAILURE || state == RequestState.FAILURE_OTHER;
+    }
+
+    /**
+     * Calculates the delay before the next attempt of a job.
+     *
+     * @param baseMillis delay after the first attempt
+     * @param attempts   number of attempts so far
+     * @return the delay in milliseconds
+     */
+    static long GetBackoffMillis(long baseMillis, int attempts) {
+        long delay = baseMillis << Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(delay, Math.max(baseMillis, MAX_BACKOFF_MILLIS));
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * @return copies of all jobs in the queue
+     */
+    public synchronized List<UploadJob> getJobs() {
+        List<UploadJob> copies = new ArrayList<>();
+        for (UploadJob job : jobs) {
+            copies.add(new UploadJob(job));
+        }
+        return copies;
+    }
+
+    public void addListener(UploadJobListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(UploadJobListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Passes the progress of a running job to the listeners and finishes the job with its result.
+     * The progress is not persisted.
+     */
+    private class JobCallback implements ServerResponseCallback<RequestState> {
+        private final String videoTag;
+        private boolean finished = false;
+
+        JobCallback(String videoTag) {
+            this.videoTag = videoTag;
+        }
+
+        @Override
+        public void onResponse(RequestState response) {
+            finish(response);
+        }
+
+        @Override
+        public void onProgress(int percent) {
+            notifyProgress(videoTag, percent);
+        }
+
+        @Override
+        public void onError(String error) {
+            Log.w(TAG, "Upload of " + videoTag + " failed: " + error);
+            finish(RequestState.NETWORK_FAILURE);
+        }
+
+        private void finish(RequestState result) {
+            synchronized (this) {
+                // a job finishes only once
+                if (finished) return;
+                finished = true;
+            }
+            onFinished(videoTag, result);
+        }
+    }
+
+    /**
+     * Uploads videos through the {@link ServerProxy}. Assembles pending videos first.
+     */
+    private static class ProxyRunner implements UploadJobRunner {
+        private final Context context;
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        ProxyRunner(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void start(UploadJob job, final UploadHandle handle,
+                          final ServerResponseCallback<RequestState> callback) {
+            MemoryManager memoryManager = new MemoryManager(context);
+            final Account account = memoryManager.getAccountData();
+            if (account == null) {
+                callback.onResponse(RequestState.ACCOUNT_FAILURE);
+                return;
+            }
+
+            String videoTag = job.getVideoTag();
+            if (memoryManager.getPendingDir(videoTag) != null
+                    && !new DeferredAssembler(context).assemble(videoTag)) {
+                Log.w(TAG, "Assembling " + videoTag + " failed");
+                callback.onResponse(RequestState.INPUT_FAILURE);
+                return;
+            }
+            final File video = memoryManager.getEncryptedVideo(videoTag);
+            final File metadata = memoryManager.getEncryptedMetadata(videoTag);
+            final File key = memoryManager.getEncryptedSymmetricKey(videoTag);
+            if (video == null || metadata == null || key == null) {
+                callback.onResponse(RequestState.INPUT_FAILURE);
+                return;
+            }
+
+            final float priority = job.getPriority();
+            // the proxy authenticates with an AsyncTask, which has to be started on the UI thread
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (handle.isCancelled()) {
+                        callback.onResponse(RequestState.CANCELLED);
+                        return;
+                    }
+                    new ServerProxy(context).videoUpload(video, metadata, key, account, priority,
+                            callback, handle);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import de.pcc.privacycrashcam.utils.dataprocessing.FileTransfer;
+
+/**
+ * Transport which sends the requests with the platform's {@link HttpURLConnection}. It needs no
+ * library, so apps built with it do not ship the Jersey stack and its bytecode generation.
+ * <p>The multipart body of an upload is written by hand. Its length is computed up front, so the
+ * request is sent in fixed length streaming mode: the files are streamed from disk in large
+ * blocks and the server receives a Content-Length instead of chunks. Connections are kept alive
+ * and pooled by the platform as long as responses are read completely.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class UrlConnectionTransport implements ServerTransport {
+    private final static String TAG = UrlConnectionTransport.class.getName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CRLF = "\r\n";
+    private static final String TWO_HYPHENS = "--";
+
+    /**
+     * Threads sending uploads. Uploads pass a gate one at a time, so few threads suffice.
+     */
+    static final int UPLOAD_THREADS = 4;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    @Override
+    public String authenticate(String domain, String accountJSON) throws IOException {
+        byte[] form = ("account=" + URLEncoder.encode(accountJSON, "UTF-8")).getBytes(UTF_8);
+        HttpURLConnection connection = openConnection(domain, API_CALL_AUTHENTICATE);
+        try {
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setFixedLengthStreamingMode(form.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(form);
+            }
+            return ReadResponse(connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public Future<?> uploadVideo(final String domain, final File video, final File metadata,
+                                 final File key, final String accountJSON,
+                                 final TransferObserver observer,
+                                 final TransportCallback callback) {
+        final HttpURLConnection[] connection = new HttpURLConnection[1];
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                HttpURLConnection current = openConnection(domain, API_CALL_VIDEO_UPLOAD);
+                synchronized (connection) {
+                    connection[0] = current;
+                }
+                return upload(current, video, metadata, key, accountJSON, observer);
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                // a blocked read or write only returns once the socket is closed
+                synchronized (connection) {
+                    if (cancelled && connection[0] != null) connection[0].disconnect();
+                }
+                return cancelled;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    callback.onFailure(new InterruptedIOException("Upload cancelled"));
+                    return;
+                }
+                try {
+                    callback.onResponse(get());
+                } catch (Exception e) {
+                    callback.onFailure(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private String upload(HttpURLConnection connection, File video, File metadata, File key,
+                          String accountJSON, TransferObserver observer) throws IOException {
+        String boundary = "Boundary_" + UUID.randomUUID().toString().replace("-", "");
+        File[] files = {video, metadata, key};
+        String[] names = {"video", "metadata", "key"};
+        byte[][] headers = new byte[files.length][];
+        long length = 0;
+        for (int i = 0; i < files.length; i++) {
+            headers[i] = GetFilePartHeader(boundary, names[i], files[i]);
+            length += headers[i].length + files[i].length() + CRLF.length();
+        }
+        byte[] account = (GetPartHeader(boundary, "account", null, "text/plain")
+                + accountJSON + CRLF + TWO_HYPHENS + boundary + TWO_HYPHENS + CRLF).getBytes(UTF_8);
+        length += account.length;
+
+        try {
+            connection.setRequestProperty("Content-Type",
+                    "multipart/form-data; boundary=" + boundary);
+            connection.setFixedLengthStreamingMode(length);
+            try (OutputStream output = new ProgressOutputStream(connection.getOutputStream(),
+                    length, observer)) {
+                for (int i = 0; i < files.length; i++) {
+                    output.write(headers[i]);
+                    FileTransfer.Transfer(files[i], output);
+                    output.write(CRLF.getBytes(UTF_8));
+                }
+                output.write(account);
+            }
+            return ReadResponse(connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static HttpURLConnection openConnection(String domain, String apiCall)
+            throws IOException {
+        URL url = new URL(domain.endsWith("/") ? domain + apiCall : domain + "/" + apiCall);
+        Log.i(TAG, "URI: " + url);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(ServerHelper.CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(ServerHelper.READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Reads the whole response, so that the connection can be reused for the next request. Error
+     * responses are read as well, the tasks interpret their content.
+     *
+     * @param connection connection whose request was sent
+     * @return content of the response
+     * @throws IOException if the response could not be read
+     */
+    static String ReadResponse(HttpURLConnection connection) throws IOException {
+        InputStream input = connection.getResponseCode() >= 400
+                ? connection.getErrorStream() : connection.getInputStream();
+        if (input == null) return "";
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return new String(content.toByteArray(), UTF_8);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Creates the header of a part which contains the passed file, described like Jersey's
+     * FileDataBodyPart describes it.
+     *
+     * @param boundary boundary of the multipart body
+     * @param name     name of the form field
+     * @param file     the file
+     * @return header bytes, including the boundary before the part
+     */
+    static byte[] GetFilePartHeader(String boundary, String name, File file) {
+        return GetPartHeader(boundary, name, file.getName(), "application/octet-stream")
+                .getBytes(UTF_8);
+    }
+
+    private static String GetPartHeader(String boundary, String name, String fileName,
+                                        String contentType) {
+        StringBuilder header = new StringBuilder()
+                .append(TWO_HYPHENS).append(boundary).append(CRLF)
+                .append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (fileName != null) header.append("; filename=\"").append(fileName).append('"');
+        return header.append(CRLF)
+                .append("Content-Type: ").append(contentType).append(CRLF)
+                .append(CRLF)
+                .toString();
+    }
+}
@@ -2,44 +2,56 @@ package de.pcc.privacycrashcam.data.serverconnection;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import org.glassfish.jersey.media.multipart.FormDataBodyPart;
-import org.glassfish.jersey.media.multipart.MultiPart;
-import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
-
 import java.io.File;
-import java.util.concurrent.ExecutionException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
 import java.util.concurrent.Future;
 
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-
 import de.pcc.privacycrashcam.data.Account;
+import de.pcc.privacycrashcam.utils.dataprocessing.PriorityGate;
 
 /**
  * Task to asynchronously upload video files of the user. This class already knows hwo to pass the
  * params to the REST interface, the API method call and how to parse the result.
+ * <p>Only one video is uploaded at a time. Waiting tasks continue in order of their priority, so
+ * that the bandwidth is used for the most severe recordings first.</p>
+ * <p>The task does not block a thread of its own. It waits for its turn with a callback at the
+ * gate, the request is sent by the {@link ServerTransport} of the build flavor and the response is
+ * delivered through a {@link TransportCallback}. Only the transfer itself occupies a thread of the
+ * transport. The request is streamed from the files instead of being buffered in memory. Progress
+ * and result are delivered to the callback on the main thread.</p>
+ * <p>Timeouts: establishing the connection fails after
+ * {@link ServerHelper#CONNECT_TIMEOUT_MILLIS} and results in
+ * {@link RequestState#NETWORK_FAILURE}. The server processes the video before it responds, so the
+ * response may take up to {@link ServerHelper#READ_TIMEOUT_MILLIS} before the upload fails
+ * with {@link RequestState#FAILURE_OTHER}. Waiting at the gate has no timeout.</p>
+ * <p>Cancellation: {@link #cancel()} removes a waiting task from the gate or aborts the transfer
+ * with its next write. The callback receives {@link RequestState#CANCELLED} right away and nothing
+ * after that, even if the server responds later.</p>
  *
  * @author Fabian Wenzel
  */
-public class VideoUploadTask extends AsyncTask<String, Integer, RequestState> {
+public class VideoUploadTask {
     private final static String TAG = VideoUploadTask.class.getName();
     /**
-     * Function call which will be appended to the domain name
+     * Gate shared by all upload tasks.
      */
-    private static final String API_CALL = "videoUpload";
+    private static final PriorityGate UPLOAD_GATE = new PriorityGate(1);
 
     private static final String API_RESPONSE_SUCCESS = "Finished editing video";
     private static final String API_RESPONSE_INPUT_FAILURE = "Uploaded data was not received correctly";
     private static final String API_RESPONSE_EDITING_FAILURE = "Setting up for editing video failed. Processing aborted";
     private static final String API_RESPONSE_ACCOUNT_FAILURE = "Account data not valid";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
     private Context context;
 
     private Account account;
@@ -47,6 +59,54 @@ public class VideoUploadTask extends AsyncTask<String, Integer, RequestState> {
     private File videoFile;
     private File metadata;
     private File symKey;
+    private float priority;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private String domain;
+    private volatile boolean cancelled = false;
+    /**
+     * Whether the task passed the gate and must release it.
+     */
+    private boolean passed = false;
+    /**
+     * Whether the result was delivered.
+     */
+    private boolean finished = false;
+    private Future<?> futureResponse;
+
+    /**
+     * Run once the task passed the gate.
+     */
+    private final Runnable onPass = new Runnable() {
+        @Override
+        public void run() {
+            boolean cancelledBefore;
+            synchronized (VideoUploadTask.this) {
+                passed = true;
+                cancelledBefore = finished;
+            }
+            if (cancelledBefore) {
+                // the result was delivered without releasing the gate
+                UPLOAD_GATE.release();
+                return;
+            }
+            if (cancelled) {
+                finish(RequestState.CANCELLED);
+                return;
+            }
+            // preparing the request may bootstrap the client, so keep it off the releasing thread
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            });
+        }
+    };
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
 
     /**
      * Sets up a new task to upload the video data with the passed parameters
@@ -59,6 +119,23 @@ public class VideoUploadTask extends AsyncTask<String, Integer, RequestState> {
      */
     public VideoUploadTask(File videoFile, File metadata, File symKey, Account account,
                            ServerResponseCallback<RequestState> callback, Context context) {
+        this(videoFile, metadata, symKey, account, callback, context, 0);
+    }
+
+    /**
+     * Sets up a new task to upload the video data with the passed parameters
+     * @param videoFile file pointing to the video to upload
+     * @param metadata  file pointing to the metadata of the video
+     * @param symKey    asymmetric encrypted key used to encrypt video and metadata
+     * @param account   Account which will be used for upload
+     * @param callback  Observer which is notified about errors and state changes
+     * @param context   Application context
+     * @param priority  Priority of the upload, usually the severity of the video's metadata
+     */
+    public VideoUploadTask(File videoFile, File metadata, File symKey, Account account,
+                           ServerResponseCallback<RequestState> callback, Context context,
+                           float priority) {
+        this.priority = priority;
         this.videoFile = videoFile;
         this.metadata = metadata;
         this.symKey = symKey;
@@ -67,55 +144,97 @@ public class VideoUploadTask extends AsyncTask<String, Integer, RequestState> {
         this.context = context;
     }
 
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
     /**
      * Uploads a dataset (consisting out of an encrypted video, metadata and symmetric key file)
-     * to the webservice for processing. As the process is resource intensive the work on the
-     * server is asynchronous so this waits for a response before processing it further on.
+     * to the webservice for processing. Returns right away, the callback is notified once the
+     * server responded. As the process is resource intensive the work on the server is
+     * asynchronous, so the response arrives after the server processed the video.
      *
-     * @param params Domain to access the API
-     * @return {@link RequestState} Returns if the upload was successful or what failed.
+     * @param domain Domain to access the API
      */
-    @Override
-    protected RequestState doInBackground(String... params) {
-        if (!ServerHelper.IsNetworkAvailable()) {
-            return RequestState.NETWORK_FAILURE;
+    public void execute(String domain) {
+        this.domain = domain;
+        if (!ServerHelper.MightReachServer(context)) {
+            finish(RequestState.NETWORK_FAILURE);
+            return;
         }
+        UPLOAD_GATE.acquire(priority, onPass);
+    }
 
-        // setup client
-        String domain = params[0];
-        Client client = ClientBuilder.newClient();
-        WebTarget webTarget = client.target(domain).path(API_CALL).register(MultiPartFeature.class);
-        Log.i(TAG, "URI: " + webTarget.getUri().toASCIIString());
-
-        // build multiPart
-        MultiPart multiPart = new MultiPart();
-        multiPart.setMediaType(MediaType.MULTIPART_FORM_DATA_TYPE);
-        FileDataBodyPart video = new FileDataBodyPart("video", videoFile.getAbsoluteFile(), MediaType.APPLICATION_OCTET_STREAM_TYPE);
-        FileDataBodyPart metadata = new FileDataBodyPart("metadata", this.metadata.getAbsoluteFile(), MediaType.APPLICATION_OCTET_STREAM_TYPE);
-        FileDataBodyPart key = new FileDataBodyPart("key", symKey.getAbsoluteFile(), MediaType.APPLICATION_OCTET_STREAM_TYPE);
-        FormDataBodyPart data = new FormDataBodyPart("account", account.getAsJSON());
-        multiPart.bodyPart(video);
-        multiPart.bodyPart(metadata);
-        multiPart.bodyPart(key);
-        multiPart.bodyPart(data);
-
-        // actual post call
-        Future<Response> futureResponse = webTarget.request().async().post(Entity.entity(multiPart, multiPart.getMediaType()), Response.class);
-
-        // wait for response
-        String responseContent;
-        try {
-            Response response = futureResponse.get();
-            responseContent = response.readEntity(String.class);
-            Log.i(TAG, "response: " + responseContent);
-        } catch (InterruptedException | ExecutionException | ProcessingException e) {
-            e.printStackTrace();
-            Log.i(TAG, "Failure on getting response!");
-            client.close();
-            return RequestState.FAILURE_OTHER;
+    /**
+     * Cancels the upload. Does nothing if the upload finished already.
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> future;
+        synchronized (this) {
+            if (finished) return;
+            future = futureResponse;
         }
-        client.close();
+        // a task which is still waiting doesn't hold the gate
+        UPLOAD_GATE.cancel(onPass);
+        if (future != null) future.cancel(true);
+        finish(RequestState.CANCELLED);
+    }
+
+    private void send() {
+        String accountJSON = account.getAsJSON();
+        if (accountJSON == null) {
+            Log.w(TAG, "Account data missing");
+            finish(RequestState.FAILURE_OTHER);
+            return;
+        }
+
+        Future<?> future = TransportProvider.GetTransport().uploadVideo(domain, videoFile,
+                metadata, symKey, accountJSON, new TransferObserver() {
+                    @Override
+                    public void onProgress(final int percent) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!isFinished()) callback.onProgress(percent);
+                            }
+                        });
+                    }
 
+                    @Override
+                    public boolean isCancelled() {
+                        return cancelled;
+                    }
+                }, new TransportCallback() {
+                    @Override
+                    public void onResponse(String content) {
+                        VideoUploadTask.this.onResponse(content);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable cause) {
+                        Log.i(TAG, "Failure on getting response: " + cause);
+                        // cancelling the future fails the request before the task finished
+                        finish(cancelled ? RequestState.CANCELLED : GetFailureState(cause));
+                    }
+                });
+        if (future == null) return;
+
+        boolean abort;
+        synchronized (this) {
+            futureResponse = future;
+            abort = finished;
+        }
+        // cancelled while the request was prepared
+        if (abort) future.cancel(true);
+    }
+
+    /**
+     * Handles the response of the server. Called on a thread of the transport.
+     *
+     * @param responseContent content of the response
+     */
+    private void onResponse(String responseContent) {
         // handle response
         Log.i(TAG, "response: " + responseContent);
         RequestState requestState;
@@ -136,19 +255,70 @@ public class VideoUploadTask extends AsyncTask<String, Integer, RequestState> {
             default:
                 requestState = RequestState.FAILURE_OTHER;
         }
-        return requestState;
+        finish(requestState);
     }
 
     /**
-     * Called after video upload was executed.
+     * Releases the gate and delivers the result on the main thread. Only the first result is
+     * delivered.
      *
-     * @param requestState the result state or null if the network was unavailable
+     * @param requestState the result state
      */
-    @Override
-    protected void onPostExecute(RequestState requestState) {
-        super.onPostExecute(requestState);
+    private void finish(final RequestState requestState) {
+        boolean release;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            release = passed;
+        }
+        if (release) UPLOAD_GATE.release();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onFinished(requestState);
+            }
+        });
+    }
+
+    /**
+     * Passes the result of the upload to the callback.
+     *
+     * @param requestState the result state
+     */
+    void onFinished(RequestState requestState) {
         if(requestState != RequestState.NETWORK_FAILURE)
             callback.onResponse(requestState);
         else callback.onError("No network available");
     }
+
+    /**
+     * Maps a failed request to the result of the upload. Failing to reach the server counts as
+     * network failure, everything else, including a server which does not respond in time, as
+     * other failure.
+     *
+     * @param throwable cause of the failure
+     * @return the result state
+     */
+    static RequestState GetFailureState(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return RequestState.NETWORK_FAILURE;
+            }
+            if (cause.getCause() == cause) break;
+        }
+        return RequestState.FAILURE_OTHER;
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized boolean isFinished() {
+        return finished;
+    }
 }
@@ -11,10 +11,12 @@ import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import de.pcc.privacycrashcam.BuildConfig;
 import de.pcc.privacycrashcam.R;
 import de.pcc.privacycrashcam.applicationlogic.CameraView;
 import de.pcc.privacycrashcam.applicationlogic.camera.CameraHandler;
 import de.pcc.privacycrashcam.applicationlogic.camera.RecordCallback;
+import de.pcc.privacycrashcam.applicationlogic.camera.TriggeringCodecCameraHandler;
 import de.pcc.privacycrashcam.applicationlogic.camera.TriggeringCompatCameraHandler;
 
 /**
@@ -109,8 +111,13 @@ public class CameraActivity extends MainActivity {
         };
 
         cameraPreview = (CameraView) findViewById(R.id.sv_camera);
-        mCamHandler = new TriggeringCompatCameraHandler(getApplicationContext(),
-                cameraPreview, recordCallback);
+        if (BuildConfig.CODEC_RECORDER) {
+            mCamHandler = new TriggeringCodecCameraHandler(getApplicationContext(),
+                    cameraPreview, recordCallback);
+        } else {
+            mCamHandler = new TriggeringCompatCameraHandler(getApplicationContext(),
+                    cameraPreview, recordCallback);
+        }
         mCamHandler.createHandler();
         cameraPreview.setOnClickListener((View.OnClickListener) mCamHandler);
         cameraPreview.setCameraHandler(mCamHandler);
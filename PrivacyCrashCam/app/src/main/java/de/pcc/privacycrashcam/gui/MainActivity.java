@@ -14,6 +14,7 @@ import android.view.MenuItem;
 import android.view.View;
 
 import de.pcc.privacycrashcam.R;
+import de.pcc.privacycrashcam.data.serverconnection.UploadQueue;
 
 /**
  * Base class for all activities. Handles navigation through the application's views.
@@ -66,6 +67,9 @@ public abstract class MainActivity extends AppCompatActivity implements Navigati
         super.onCreate(savedInstanceState);
         setContentView(getLayoutRes());
 
+        // continue uploads which were interrupted when the app was killed
+        UploadQueue.GetInstance(this);
+
         // set toolbar and nav nav_drawer
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         if (toolbar == null) throw new IllegalArgumentException("You passed a layout file " +
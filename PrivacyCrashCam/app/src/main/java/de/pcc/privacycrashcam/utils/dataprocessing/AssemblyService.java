@@ -0,0 +1,62 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+/**
+ * Background service which assembles all pending videos. Assembling is expensive, so the service
+ * only does its work while the device is charging unless it was started with
+ * {@link #EXTRA_FORCE} set.
+ *
+ * @author Giorgio Gross
+ */
+public class AssemblyService extends IntentService {
+    private final static String TAG = AssemblyService.class.getName();
+
+    /**
+     * Boolean extra which makes the service assemble pending videos even if the device is not
+     * charging.
+     */
+    public static final String EXTRA_FORCE = "de.pcc.privacycrashcam.extra.FORCE_ASSEMBLY";
+
+    public AssemblyService() {
+        super(TAG);
+    }
+
+    /**
+     * Starts the service which will assemble all pending videos as soon as the device is charging.
+     *
+     * @param context Android context
+     * @param force   assemble even if the device is not charging
+     */
+    public static void Start(Context context, boolean force) {
+        Intent intent = new Intent(context, AssemblyService.class);
+        intent.putExtra(EXTRA_FORCE, force);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        boolean force = intent != null && intent.getBooleanExtra(EXTRA_FORCE, false);
+        if (!force && !isCharging()) {
+            Log.i(TAG, "Device is not charging, postponing assembly");
+            return;
+        }
+
+        int failed = new DeferredAssembler(getApplicationContext()).assembleAll();
+        if (failed > 0) Log.w(TAG, failed + " videos could not be assembled");
+    }
+
+    private boolean isCharging() {
+        Intent batteryStatus = registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) return false;
+        int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+}
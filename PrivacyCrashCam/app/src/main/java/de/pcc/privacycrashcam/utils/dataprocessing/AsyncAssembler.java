@@ -0,0 +1,60 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+/**
+ * Assembles a pending video asynchronously to the app's main thread. Used when a video is needed
+ * before the {@link AssemblyService} had the chance to assemble it, e.g. right before an upload.
+ *
+ * @author Giorgio Gross
+ */
+public class AsyncAssembler extends AsyncTask<String, Void, Boolean> {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private DeferredAssembler assembler;
+    private PersistCallback persistCallback;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new assembler task.
+     *
+     * @param persistCallback Callback used to give asynchronous response.
+     * @param context         Android context used to access the app's memory.
+     */
+    public AsyncAssembler(PersistCallback persistCallback, Context context) {
+        this.assembler = new DeferredAssembler(context);
+        this.persistCallback = persistCallback;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    @Override
+    protected void onPreExecute() {
+        super.onPreExecute();
+        persistCallback.onPersistingStarted();
+    }
+
+    /**
+     * @param params Tag of the video to be assembled
+     * @return whether the encrypted video is available
+     */
+    @Override
+    protected Boolean doInBackground(String... params) {
+        return assembler.assemble(params[0]);
+    }
+
+    @Override
+    protected void onPostExecute(Boolean status) {
+        super.onPostExecute(status);
+        persistCallback.onPersistingStopped(status);
+    }
+}
@@ -13,14 +13,19 @@ import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
 import com.googlecode.mp4parser.authoring.container.mp4.MovieCreator;
 import com.googlecode.mp4parser.authoring.tracks.AppendTrack;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -28,11 +33,16 @@ import java.util.Queue;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 
+import javax.crypto.SecretKey;
+
 import de.pcc.privacycrashcam.R;
 import de.pcc.privacycrashcam.data.Metadata;
+import de.pcc.privacycrashcam.data.SegmentManifest;
 import de.pcc.privacycrashcam.data.Settings;
 import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
 import de.pcc.privacycrashcam.utils.datastructures.VideoRingBuffer;
+import de.pcc.privacycrashcam.utils.encryption.DeviceKeyWrapper;
 import de.pcc.privacycrashcam.utils.encryption.Encryptor;
 
 /**
@@ -40,6 +50,18 @@ import de.pcc.privacycrashcam.utils.encryption.Encryptor;
  * First it saves the metadata of the recording to a json file.
  * Then it takes all recorded video snippets and creates one coherent file.
  * After that all data gets encrypted and save to the app's data storage.
+ * <p>If {@link Settings#isDeferredAssembly()} is set the video snippets are not concatenated.
+ * Instead, each snippet is encrypted on its own and persisted along with a
+ * {@link SegmentManifest}. The {@link DeferredAssembler} creates the coherent video later.</p>
+ * <p>If an {@link AccelerationTraceBuffer} is passed, it is frozen together with the video buffer
+ * and its samples are encrypted and persisted as binary track next to the metadata. See
+ * {@link TraceEncoder}.</p>
+ * <p>If {@link RecordingDiagnostics} are passed, a snapshot of them is saved next to the metadata
+ * once the video was persisted.</p>
+ * <p>Concatenating and encrypting is done by at most one persistor at a time. Waiting persistors
+ * continue in order of their metadata's {@link Metadata#getSeverity() severity}. Recordings which
+ * were only triggered manually are always persisted as segments so that assembling them is
+ * deferred until the device is idle.</p>
  * <p>The process of persisting is asynchronous to the app's main thread.
  * Therefore callbacks are used to inform the app about the persisting's progress.</p>
  *
@@ -48,6 +70,10 @@ import de.pcc.privacycrashcam.utils.encryption.Encryptor;
 public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
 
     private final static String TAG = AsyncPersistor.class.getName();
+    /**
+     * Gate for the resource intensive part of persisting, shared by all persistors.
+     */
+    final static PriorityGate PERSIST_GATE = new PriorityGate(1);
 
     /* #############################################################################################
      *                                  attributes
@@ -69,6 +95,22 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
      * Ringbuffer that contains the recorded video snippets
      */
     private VideoRingBuffer ringbuffer;
+    /**
+     * Buffer that contains the acceleration samples recorded along with the video. May be null.
+     */
+    private AccelerationTraceBuffer traceBuffer;
+    /**
+     * Window of the recording. May be null.
+     */
+    private CaptureWindow captureWindow;
+    /**
+     * Looper of the thread which closes the capture window and swaps the buffers.
+     */
+    private Looper handoffLooper = Looper.getMainLooper();
+    /**
+     * Diagnostics of the recording. May be null.
+     */
+    private RecordingDiagnostics diagnostics;
     /**
      * Encryptor used to encryptAndPersist files and keys.
      */
@@ -115,10 +157,26 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
      */
     public AsyncPersistor(VideoRingBuffer ringbuffer, MemoryManager memoryManager,
                           PersistCallback persistCallback, Context context) {
-        // new mem manager will provide own temp directory for this operation
+        this(ringbuffer, null, memoryManager, persistCallback, context);
+    }
+
+    /**
+     * Creates a new persistor which also persists the content of the passed trace buffer. See
+     * {@link #AsyncPersistor(VideoRingBuffer, MemoryManager, PersistCallback, Context)}.
+     *
+     * @param ringbuffer      Buffer containing the recorded video snippets.
+     * @param traceBuffer     Buffer containing the acceleration samples or null.
+     * @param memoryManager   MemoryManager instance to access temp files
+     * @param persistCallback Callback used to give asynchronous response.
+     * @param context         Android context of the recording.
+     */
+    public AsyncPersistor(VideoRingBuffer ringbuffer, AccelerationTraceBuffer traceBuffer,
+                          MemoryManager memoryManager, PersistCallback persistCallback,
+                          Context context) {
         this.memoryManager = memoryManager;
 
         this.ringbuffer = ringbuffer;
+        this.traceBuffer = traceBuffer;
         this.persistCallback = persistCallback;
         this.context = context;
         this.encryptor = new Encryptor();
@@ -129,41 +187,45 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
      *                                  methods
      * ###########################################################################################*/
 
+    /**
+     * Sets the window of the recording. The persistor will start persisting as soon as the window
+     * was closed instead of waiting half a buffer size. Must be called before the task is
+     * executed.
+     *
+     * @param captureWindow window of the recording
+     */
+    public void setCaptureWindow(CaptureWindow captureWindow) {
+        this.captureWindow = captureWindow;
+    }
+
+    /**
+     * Sets the looper on which the capture window is closed and
+     * {@link PersistCallback#onPersistingStarted()} is called. Defaults to the main looper. Must be
+     * called before the task is executed.
+     *
+     * @param handoffLooper looper of the thread which owns the buffers
+     */
+    public void setHandoffLooper(Looper handoffLooper) {
+        this.handoffLooper = handoffLooper;
+    }
+
+    /**
+     * Sets the diagnostics of the recording. A snapshot of them is saved along with the video. Must
+     * be called before the task is executed.
+     *
+     * @param diagnostics diagnostics of the recording
+     */
+    public void setDiagnostics(RecordingDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
     @Override
     protected Boolean doInBackground(Metadata... params) {
         Log.i(TAG, "Background task started");
 
-        // wait half a buffer size
-        int timeToWait = settings.getBufferSizeSec() * 1000 / 2;
-        try {
-            Thread.sleep(timeToWait);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        // post to UI thread and wait until the UI has migrated to a completely new RingBuffer
-        final CyclicBarrier mBarrier = new CyclicBarrier(2);
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                Log.i(TAG, "updating UI and CamHandler");
-                persistCallback.onPersistingStarted();
-                try {
-                    mBarrier.await();
-                } catch (InterruptedException | BrokenBarrierException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-        try {
-            Log.i(TAG, "waiting for UI to finish update");
-            mBarrier.await();
-        } catch (InterruptedException ex) {
+        // wait half a buffer size or until the capture window ends
+        if (!awaitCaptureWindow())
             return false;
-        } catch (BrokenBarrierException ex) {
-            return false;
-        }
         // UI has no reference to the ring buffer and the memory manager instance anymore. We can
         // now freely operate on it.
         Log.i(TAG, "Start writing files");
@@ -180,24 +242,67 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
         if (!saveMetadataToFile(metaLocation, metaData))
             return false;
 
+        // the trace covers the same window as the video
+        File traceLocation = null;
+        if (traceBuffer != null) {
+            traceBuffer.freeze();
+            traceLocation = memoryManager.getTempMetadataFile();
+            if (!saveTraceToFile(traceLocation, traceBuffer))
+                return false;
+        }
+
         // concat video snippets
         Queue<File> vidSnippets = ringbuffer.demandData();
         if (vidSnippets == null)
             return false;
         Log.i(TAG, "All files to be concatenated were written");
+        JSONObject diagnosticsSnapshot = null;
+        if (diagnostics != null) {
+            try {
+                diagnosticsSnapshot = diagnostics.getSnapshot(vidSnippets);
+            } catch (JSONException e) {
+                Log.w(TAG, "Could not create recording diagnostics");
+            }
+        }
 
-        File concatVid = memoryManager.getTempVideoFile();
-        if (!concatVideos(vidSnippets, concatVid))
+        // the most severe recordings are made durable first
+        boolean deferred = settings.isDeferredAssembly() || metaData.isManual();
+        try {
+            PERSIST_GATE.acquire(metaData.getSeverity());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for other persistors");
             return false;
+        }
+        try {
+            if (deferred) {
+                // persist segments right away, concatenating is done by the DeferredAssembler
+                if (!persistSegments(videoTag, vidSnippets, metaLocation, traceLocation))
+                    return false;
+            } else {
+                File concatVid = memoryManager.getTempVideoFile();
+                if (!ConcatVideos(vidSnippets, concatVid))
+                    return false;
+
+                // encryptAndPersist files
+                if (!encryptAndPersist(videoTag, concatVid, metaLocation, traceLocation))
+                    return false;
+            }
+        } finally {
+            PERSIST_GATE.release();
+        }
 
-        // encryptAndPersist files
-        if (!encryptAndPersist(videoTag, concatVid, metaLocation))
-            return false;
+        // diagnostics are not needed to play the video, losing them is no failure
+        if (diagnosticsSnapshot != null)
+            saveDiagnosticsToFile(memoryManager.createDiagnosticsFile(videoTag),
+                    diagnosticsSnapshot);
 
         // delete temporary files
         memoryManager.deleteCurrentTempData();
         ringbuffer.flushAll();
 
+        // assemble right away if the device is charging
+        if (deferred) AssemblyService.Start(context, false);
+
         Log.i(TAG, "Finished writing files");
 
         return true;
@@ -215,6 +320,61 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
 
      * ###########################################################################################*/
 
+    /**
+     * Waits until the capture window ended. Then posts to the handoff thread and waits until it has
+     * migrated to a completely new RingBuffer. If the window was extended in the meantime, waits
+     * again. Waits half a buffer size if no capture window was set.
+     *
+     * @return Returns whether waiting was successful or was interrupted.
+     */
+    private boolean awaitCaptureWindow() {
+        long timeToWait = settings.getBufferSizeSec() * 1000 / 2;
+        while (true) {
+            if (captureWindow != null)
+                timeToWait = captureWindow.getRemainingMillis(System.currentTimeMillis());
+            try {
+                Thread.sleep(timeToWait);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return false;
+            }
+
+            // the window is closed on the handoff thread so that no trigger gets merged afterwards
+            final boolean[] closed = {false};
+            final CyclicBarrier mBarrier = new CyclicBarrier(2);
+            boolean posted = new Handler(handoffLooper).post(new Runnable() {
+                @Override
+                public void run() {
+                    closed[0] = captureWindow == null
+                            || captureWindow.close(System.currentTimeMillis());
+                    if (closed[0]) {
+                        Log.i(TAG, "updating UI and CamHandler");
+                        persistCallback.onPersistingStarted();
+                    }
+                    try {
+                        mBarrier.await();
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            if (!posted) {
+                Log.w(TAG, "Handoff thread is gone");
+                return false;
+            }
+            try {
+                Log.i(TAG, "waiting for UI to finish update");
+                mBarrier.await();
+            } catch (InterruptedException ex) {
+                return false;
+            } catch (BrokenBarrierException ex) {
+                return false;
+            }
+            if (closed[0]) return true;
+            Log.i(TAG, "Capture window was extended");
+        }
+    }
+
     /**
      * Encrypts metadata and video with a hybrid encryption algorithm.
      * Saves the files on the app. Destination files will be created according to the MemoryManager.
@@ -222,35 +382,29 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
      * @param videoTag    Name added to the actual video name
      * @param concatVideo Location of the video to encryptAndPersist.
      * @param meta        Location of the metadata to encryptAndPersist.
+     * @param trace       Location of the acceleration trace to encryptAndPersist or null.
      * @return Returns whether encrypting was successful or not.
      */
-    private boolean encryptAndPersist(String videoTag, File concatVideo, File meta) {
+    private boolean encryptAndPersist(String videoTag, File concatVideo, File meta, File trace) {
         // encrypt
-        File[] input = new File[]{
-                concatVideo,
-                meta};
-        File[] output = new File[]{
+        File[] input = trace == null
+                ? new File[]{concatVideo, meta}
+                : new File[]{concatVideo, meta, trace};
+        File[] output = trace == null
+                ? new File[]{
                 memoryManager.getTempVideoFile(),
-                memoryManager.createEncryptedMetaFile(videoTag)};
+                memoryManager.createEncryptedMetaFile(videoTag)}
+                : new File[]{
+                memoryManager.getTempVideoFile(),
+                memoryManager.createEncryptedMetaFile(videoTag),
+                memoryManager.createEncryptedTraceFile(videoTag)};
         File encKey = memoryManager.createEncryptedSymmetricKeyFile(videoTag);
         InputStream publicKey = context.getResources().openRawResource(R.raw.publickey);
         if (!encryptor.encrypt(input, output, publicKey, encKey))
             return false;
 
-        // finally persist encrypted video
-        byte[] buffer = new byte[1024];
-        int read;
-        try {
-            FileInputStream fis = new FileInputStream(output[0]);
-            FileOutputStream fos = new FileOutputStream(memoryManager.createEncryptedVideoFile(videoTag));
-
-            while ((read = fis.read(buffer)) != -1) {
-                fos.write(buffer, 0, read);
-            }
-            fos.flush();
-            fis.close();
-            fos.close();
-        } catch (IOException e) {
+        // finally persist encrypted video, the kernel copies it without passing it through the app
+        if (!FileTransfer.Copy(output[0], memoryManager.createEncryptedVideoFile(videoTag))) {
             Log.w(TAG, "Persisting encrypted video failed");
             return false;
         }
@@ -258,6 +412,86 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
         return true;
     }
 
+    /**
+     * Encrypts each video snippet on its own and persists it to the pending directory of the
+     * video. Metadata and the encrypted symmetric key are persisted to their final location right
+     * away. The symmetric key is kept in the pending directory until the video was assembled,
+     * wrapped by the {@link DeviceKeyWrapper} so that only this app on this device can read it.
+     * The {@link SegmentManifest} is written last and marks the segments as complete.
+     *
+     * @param videoTag Name added to the actual video name
+     * @param videos   Collection of video snippets in recording order.
+     * @param meta     Location of the metadata to encrypt.
+     * @param trace    Location of the acceleration trace to encrypt or null.
+     * @return Returns whether persisting the segments was successful or not.
+     */
+    private boolean persistSegments(String videoTag, Queue<File> videos, File meta, File trace) {
+        File pendingDir = memoryManager.createPendingDir(videoTag);
+        if (pendingDir == null)
+            return false;
+
+        SecretKey key = encryptor.generateKey();
+        if (key == null)
+            return false;
+        // only the wrapped key is stored, so the pending segments stay encrypted at rest
+        byte[] wrappedKey = new DeviceKeyWrapper(context).wrap(key);
+        if (wrappedKey == null
+                || !WriteDurably(new File(pendingDir, SegmentManifest.SESSION_KEY_FILE_NAME),
+                wrappedKey))
+            return false;
+
+        // encrypt each segment with the same key
+        List<String> segments = new LinkedList<>();
+        for (File video : videos) {
+            String segmentName = SegmentManifest.GetSegmentName(segments.size());
+            if (!encryptor.encrypt(video, key, new File(pendingDir, segmentName))) {
+                Log.w(TAG, "Persisting segment failed");
+                return false;
+            }
+            segments.add(segmentName);
+        }
+
+        // metadata and key do not depend on the assembled video
+        InputStream publicKey = context.getResources().openRawResource(R.raw.publickey);
+        if (!encryptor.encrypt(meta, key, memoryManager.createEncryptedMetaFile(videoTag))
+                || !encryptor.encryptKey(key, publicKey,
+                memoryManager.createEncryptedSymmetricKeyFile(videoTag)))
+            return false;
+        if (trace != null
+                && !encryptor.encrypt(trace, key, memoryManager.createEncryptedTraceFile(videoTag)))
+            return false;
+
+        SegmentManifest manifest = new SegmentManifest(videoTag, segments);
+        return WriteDurably(new File(pendingDir, SegmentManifest.FILE_NAME),
+                manifest.getAsJSON().getBytes());
+    }
+
+    /**
+     * Writes the passed bytes to a temporary file, syncs it to the device storage and renames it to
+     * the output file. The output file thus either contains all bytes or does not exist.
+     *
+     * @param output  file to write
+     * @param content bytes to be written
+     * @return Returns whether writing the file was successful or not.
+     */
+    static boolean WriteDurably(File output, byte[] content) {
+        File tmp = new File(output.getParentFile(), output.getName() + ".tmp");
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(content);
+                fos.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Writing " + output.getName() + " failed");
+            return false;
+        }
+        return tmp.renameTo(output);
+    }
+
     /**
      * Takes a collection of videos and appends them in order.
      * Through that creates a continuous video and saves it to the desired location.
@@ -266,7 +500,7 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
      * @param concatVideo Location of the merged video.
      * @return Returns whether concatting the videos was successful or not.
      */
-    private boolean concatVideos(Queue<File> videos, File concatVideo) {
+    static boolean ConcatVideos(Collection<File> videos, File concatVideo) {
         // read all video snippets
         List<Movie> clips = new LinkedList<>();
         try {
@@ -293,7 +527,8 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
         Movie result = new Movie();
         try {
             if (videoTracks.size() > 0) {
-                result.addTrack(new AppendTrack(videoTracks.toArray(new Track[videoTracks.size()])));
+                result.addTrack(new AppendTrack(
+                        videoTracks.toArray(new Track[videoTracks.size()])));
             }
 
             Container out = new DefaultMp4Builder().build(result);
@@ -310,6 +545,42 @@ public class AsyncPersistor extends AsyncTask<Metadata, Void, Boolean> {
         return true;
     }
 
+    /**
+     * Writes the samples of the passed trace buffer as binary track to a file.
+     *
+     * @param output Output location of the trace file.
+     * @param trace  Frozen buffer containing the samples.
+     * @return Returns whether saving was successful or not.
+     */
+    private boolean saveTraceToFile(File output, AccelerationTraceBuffer trace) {
+        if (output == null) return false;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            TraceEncoder.Encode(trace, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Error when saving acceleration trace to file");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves the diagnostics snapshot of the recording to a file.
+     *
+     * @param output      Output location of the diagnostics file.
+     * @param diagnostics Snapshot to be saved.
+     * @return Returns whether saving was successful or not.
+     */
+    private boolean saveDiagnosticsToFile(File output, JSONObject diagnostics) {
+        if (output == null) return false;
+        try (PrintWriter out = new PrintWriter(output)) {
+            out.println(diagnostics.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "Error when saving recording diagnostics to file");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Takes a metadata object, parses it into json format and saves it to a file.
      *
@@ -0,0 +1,104 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import de.pcc.privacycrashcam.data.Metadata;
+
+/**
+ * Time window of a recording which is about to be persisted. The window ends a fixed time after
+ * its trigger. Triggers which arrive before the window was closed extend the window, up to a
+ * maximum extension, and are added to the window's metadata as additional triggers.
+ * <p>All methods are thread safe. Times are milliseconds in the time base of
+ * {@link System#currentTimeMillis()}.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class CaptureWindow {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final Metadata metadata;
+    private final long postTriggerMillis;
+    private final long initialEnd;
+    private final long maxEnd;
+    private long end;
+    private boolean closed = false;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new window for the passed trigger.
+     *
+     * @param metadata              metadata of the trigger which opens the window
+     * @param triggerTime           time of the trigger
+     * @param postTriggerMillis     time captured after each trigger
+     * @param maxExtensionMillis    maximum time the window may be extended by further triggers
+     */
+    public CaptureWindow(Metadata metadata, long triggerTime, long postTriggerMillis,
+                         long maxExtensionMillis) {
+        this.metadata = metadata;
+        this.postTriggerMillis = postTriggerMillis;
+        this.initialEnd = triggerTime + postTriggerMillis;
+        this.maxEnd = initialEnd + maxExtensionMillis;
+        this.end = initialEnd;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Merges the passed trigger into this window and extends the window so that the trigger's
+     * post trigger time is covered.
+     *
+     * @param trigger     metadata of the trigger
+     * @param triggerTime time of the trigger
+     * @return false if the window was closed already or if it cannot be extended far enough. The
+     * trigger was not merged in this case.
+     */
+    public synchronized boolean extend(Metadata trigger, long triggerTime) {
+        if (closed) return false;
+        long newEnd = triggerTime + postTriggerMillis;
+        if (newEnd > maxEnd) return false;
+        end = Math.max(end, newEnd);
+        metadata.addAdditionalTrigger(trigger);
+        return true;
+    }
+
+    /**
+     * Closes the window if its end was reached. Triggers can not be merged after the window was
+     * closed.
+     *
+     * @param now current time
+     * @return true if the window is closed
+     */
+    public synchronized boolean close(long now) {
+        if (!closed && now >= end) closed = true;
+        return closed;
+    }
+
+    /**
+     * @param now current time
+     * @return time left until the window ends, 0 if the end was reached
+     */
+    public synchronized long getRemainingMillis(long now) {
+        return Math.max(0, end - now);
+    }
+
+    /**
+     * @return time the window was extended by additional triggers
+     */
+    public synchronized long getExtensionMillis() {
+        return end - initialEnd;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+}
@@ -0,0 +1,245 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+/**
+ * Detects impacts in a stream of accelerometer samples.
+ * <p>Each sample is reduced to its dynamic acceleration, which is the deviation of the
+ * acceleration vector's magnitude from earth's gravity. The detector averages the dynamic
+ * acceleration over a short sliding time window so that single spikes (e.g. potholes) are
+ * filtered while sustained impacts pass. The detector triggers once the windowed value exceeds
+ * the trigger threshold and re-arms only after the value fell below the release threshold and the
+ * refractory time elapsed. This way each impact results in exactly one
+ * {@link TriggerCallback#onTrigger(long, float, float, float, float)} call.</p>
+ * <p>All samples are kept in preallocated primitive arrays. Feeding samples does not allocate
+ * memory and does not lock. The detector is not thread safe, feed it from a single thread.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class CrashDetector {
+
+    /**
+     * Gravity on earth in m/s^2.
+     */
+    public static final float GRAVITY_EARTH = 9.80665f;
+    /**
+     * Raw acceleration in g on a single axis which triggered the previous detector.
+     */
+    static final float LEGACY_AXIS_G = 2.3f;
+    /**
+     * Default windowed dynamic acceleration in g which triggers the detector. Keeps the
+     * sensitivity of the previous detector: an impact of {@link #LEGACY_AXIS_G} along the axis of
+     * gravity has a dynamic acceleration of {@link #LEGACY_AXIS_G} - 1 g. Impacts on the other axes
+     * add to gravity geometrically and pass this threshold with less raw acceleration.
+     */
+    public static final float TRIGGER_G_DEFAULT = LEGACY_AXIS_G - 1f;
+    /**
+     * Default windowed dynamic acceleration in g below which the detector re-arms.
+     */
+    public static final float RELEASE_G_DEFAULT = 1.0f;
+    /**
+     * Default length of the sliding window. Long enough that the threshold of the previous
+     * detector does not fire on potholes of up to 5 g and 20 ms.
+     */
+    public static final long WINDOW_NANOS_DEFAULT = 60L * 1000000L;
+    /**
+     * Default minimum time between two triggers.
+     */
+    public static final long REFRACTORY_NANOS_DEFAULT = 2000L * 1000000L;
+    /**
+     * Default maximum number of samples inside the window. Sufficient for 60 ms at 1 kHz.
+     */
+    public static final int WINDOW_CAPACITY_DEFAULT = 64;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final TriggerCallback callback;
+    private final float triggerG;
+    private final float releaseG;
+    private final long windowNanos;
+    private final long refractoryNanos;
+
+    // ring of samples inside the window. head points to the oldest sample
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private final float[] dynamicG;
+    private int head = 0;
+    private int size = 0;
+    private double windowSum = 0;
+
+    private boolean triggered = false;
+    private long lastTriggerNanos = 0;
+    private float windowedG = 0;
+    private float jerk = 0;
+    private long sampleCount = 0;
+    private int triggerCount = 0;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new detector with default thresholds.
+     *
+     * @param callback observer which will be notified about impacts
+     */
+    public CrashDetector(TriggerCallback callback) {
+        this(callback, TRIGGER_G_DEFAULT, RELEASE_G_DEFAULT, WINDOW_NANOS_DEFAULT,
+                REFRACTORY_NANOS_DEFAULT, WINDOW_CAPACITY_DEFAULT);
+    }
+
+    /**
+     * Creates a new detector.
+     *
+     * @param callback        observer which will be notified about impacts
+     * @param triggerG        windowed dynamic acceleration in g which triggers the detector
+     * @param releaseG        windowed dynamic acceleration in g below which the detector re-arms.
+     *                        Must not be greater than triggerG
+     * @param windowNanos     length of the sliding window
+     * @param refractoryNanos minimum time between two triggers
+     * @param windowCapacity  maximum number of samples inside the window. Older samples are dropped
+     *                        from the window if the sensor delivers more samples
+     */
+    public CrashDetector(TriggerCallback callback, float triggerG, float releaseG,
+                         long windowNanos, long refractoryNanos, int windowCapacity) {
+        if (callback == null || releaseG > triggerG || windowNanos <= 0 || windowCapacity <= 0)
+            throw new IllegalArgumentException();
+        this.callback = callback;
+        this.triggerG = triggerG;
+        this.releaseG = releaseG;
+        this.windowNanos = windowNanos;
+        this.refractoryNanos = refractoryNanos;
+
+        this.timestamps = new long[windowCapacity];
+        this.xs = new float[windowCapacity];
+        this.ys = new float[windowCapacity];
+        this.zs = new float[windowCapacity];
+        this.dynamicG = new float[windowCapacity];
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Feeds a new sample into the detector. Samples must be passed in chronological order.
+     *
+     * @param timestampNanos sample timestamp
+     * @param x              acceleration on the x axis in m/s^2
+     * @param y              acceleration on the y axis in m/s^2
+     * @param z              acceleration on the z axis in m/s^2
+     */
+    public void onSample(long timestampNanos, float x, float y, float z) {
+        sampleCount++;
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        float dynamic = Math.abs(magnitude - GRAVITY_EARTH) / GRAVITY_EARTH;
+
+        // drop samples which left the window or which do not fit anymore
+        while (size > 0 && (size == timestamps.length
+                || timestampNanos - timestamps[head] > windowNanos)) {
+            windowSum -= dynamicG[head];
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+        if (size == 0) windowSum = 0; // get rid of rounding errors
+
+        int tail = (head + size) % timestamps.length;
+        timestamps[tail] = timestampNanos;
+        xs[tail] = x;
+        ys[tail] = y;
+        zs[tail] = z;
+        dynamicG[tail] = dynamic;
+        windowSum += dynamic;
+        size++;
+
+        windowedG = (float) (windowSum / size);
+        updateJerk(tail);
+
+        if (triggered) {
+            if (windowedG < releaseG && timestampNanos - lastTriggerNanos >= refractoryNanos) {
+                triggered = false;
+            }
+        } else if (windowedG >= triggerG) {
+            triggered = true;
+            lastTriggerNanos = timestampNanos;
+            triggerCount++;
+            notifyTrigger(timestampNanos);
+        }
+    }
+
+    /**
+     * Computes the jerk between the oldest and the newest sample in the window.
+     *
+     * @param newest index of the newest sample
+     */
+    private void updateJerk(int newest) {
+        long dt = timestamps[newest] - timestamps[head];
+        if (size < 2 || dt <= 0) {
+            jerk = 0;
+            return;
+        }
+        float dx = xs[newest] - xs[head];
+        float dy = ys[newest] - ys[head];
+        float dz = zs[newest] - zs[head];
+        float delta = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / GRAVITY_EARTH;
+        jerk = (float) (delta / (dt / 1e9));
+    }
+
+    private void notifyTrigger(long timestampNanos) {
+        // report the strongest sample inside the window
+        int strongest = head;
+        for (int i = 1; i < size; i++) {
+            int index = (head + i) % timestamps.length;
+            if (dynamicG[index] > dynamicG[strongest]) strongest = index;
+        }
+        callback.onTrigger(timestampNanos, dynamicG[strongest],
+                xs[strongest], ys[strongest], zs[strongest]);
+    }
+
+    /**
+     * Clears the window and re-arms the detector.
+     */
+    public void reset() {
+        head = 0;
+        size = 0;
+        windowSum = 0;
+        windowedG = 0;
+        jerk = 0;
+        triggered = false;
+    }
+
+    /* #############################################################################################
+     *                                  getter/ setter
+     * ###########################################################################################*/
+
+    /**
+     * @return dynamic acceleration averaged over the current window, in g
+     */
+    public float getWindowedG() {
+        return windowedG;
+    }
+
+    /**
+     * @return jerk between the oldest and the newest sample in the current window, in g/s
+     */
+    public float getJerk() {
+        return jerk;
+    }
+
+    /**
+     * @return true if the detector triggered and did not re-arm yet
+     */
+    public boolean isTriggered() {
+        return triggered;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+}
@@ -0,0 +1,181 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+import de.pcc.privacycrashcam.data.SegmentManifest;
+import de.pcc.privacycrashcam.data.Video;
+import de.pcc.privacycrashcam.data.memoryaccess.MemoryManager;
+import de.pcc.privacycrashcam.utils.encryption.DeviceKeyWrapper;
+import de.pcc.privacycrashcam.utils.encryption.Encryptor;
+
+/**
+ * Assembles videos which were persisted as encrypted segments by the {@link AsyncPersistor}.
+ * Decrypts all segments of a video, concatenates them and encrypts the result with the session key
+ * of the video. The session key is stored wrapped by the {@link DeviceKeyWrapper}. The encrypted
+ * symmetric key and metadata were already written when the segments were persisted, so they stay
+ * valid for the assembled video.
+ * <p>All methods are synchronous and must not be called on the UI thread.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class DeferredAssembler {
+
+    private final static String TAG = DeferredAssembler.class.getName();
+    /**
+     * Assembling the same video twice at the same time would corrupt the output, so we only
+     * assemble one video at a time.
+     */
+    private final static Object ASSEMBLY_LOCK = new Object();
+    /**
+     * Algorithm of the session key, see {@link Encryptor#generateKey()}.
+     */
+    private final static String KEY_ALGORITHM = "AES";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private Context context;
+    private Encryptor encryptor;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new assembler.
+     *
+     * @param context Android context used to access the app's memory.
+     */
+    public DeferredAssembler(Context context) {
+        this.context = context;
+        this.encryptor = new Encryptor();
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Assembles all pending videos.
+     *
+     * @return number of videos which could not be assembled
+     */
+    public int assembleAll() {
+        int failed = 0;
+        MemoryManager memoryManager = new MemoryManager(context);
+        for (String videoTag : memoryManager.getAllPendingVideoTags()) {
+            if (!assemble(videoTag)) failed++;
+        }
+        return failed;
+    }
+
+    /**
+     * Assembles the pending video with the passed tag. Does nothing if the video was already
+     * assembled.
+     *
+     * @param videoTag Tag of the video
+     * @return Returns whether the encrypted video is available after this call.
+     */
+    public boolean assemble(String videoTag) {
+        synchronized (ASSEMBLY_LOCK) {
+            // persisting new recordings is more important than assembling old ones
+            try {
+                AsyncPersistor.PERSIST_GATE.acquire(PriorityGate.PRIORITY_BACKGROUND);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for persistors");
+                return false;
+            }
+            // new mem manager will provide own temp directory for this operation
+            MemoryManager memoryManager = new MemoryManager(context);
+            try {
+                return assemble(videoTag, memoryManager);
+            } finally {
+                memoryManager.deleteCurrentTempData();
+                AsyncPersistor.PERSIST_GATE.release();
+            }
+        }
+    }
+
+    private boolean assemble(String videoTag, MemoryManager memoryManager) {
+        File pendingDir = memoryManager.getPendingDir(videoTag);
+        if (pendingDir == null) {
+            // either assembled already or never persisted completely
+            return memoryManager.getEncryptedVideo(videoTag) != null;
+        }
+
+        SegmentManifest manifest;
+        SecretKey key;
+        try {
+            manifest = new SegmentManifest(new File(pendingDir, SegmentManifest.FILE_NAME));
+            key = new DeviceKeyWrapper(context).unwrap(readFile(
+                    new File(pendingDir, SegmentManifest.SESSION_KEY_FILE_NAME)), KEY_ALGORITHM);
+        } catch (JSONException | IOException e) {
+            Log.w(TAG, "Reading pending data of " + videoTag + " failed");
+            return false;
+        }
+        if (key == null) return false;
+
+        // decrypt segments into the temp directory. Temp video files are named by the current
+        // millisecond, which is not unique when segments decrypt quickly, so they are numbered
+        File someTempFile = memoryManager.getTempVideoFile();
+        if (someTempFile == null) return false;
+        File tempDir = someTempFile.getParentFile();
+        List<File> segments = new LinkedList<>();
+        for (String segmentName : manifest.getSegments()) {
+            File segment = new File(tempDir,
+                    Video.PREFIX + "segment_" + segments.size() + "." + Video.SUFFIX);
+            if (!encryptor.decrypt(new File(pendingDir, segmentName), key, segment)) {
+                Log.w(TAG, "Decrypting segment " + segmentName + " failed");
+                return false;
+            }
+            segments.add(segment);
+        }
+
+        File concatVid = new File(tempDir, Video.PREFIX + "assembled." + Video.SUFFIX);
+        if (!AsyncPersistor.ConcatVideos(segments, concatVid)) return false;
+
+        // encrypt next to the final location so that only complete videos show up
+        File encVideo = memoryManager.createEncryptedVideoFile(videoTag);
+        if (encVideo == null) return false;
+        File encTemp = new File(encVideo.getParentFile(), encVideo.getName() + ".tmp");
+        if (!encryptor.encrypt(concatVid, key, encTemp) || !encTemp.renameTo(encVideo)) {
+            Log.w(TAG, "Persisting assembled video failed");
+            //noinspection ResultOfMethodCallIgnored
+            encTemp.delete();
+            return false;
+        }
+
+        // the session key must not outlive the segments
+        memoryManager.deletePendingData(videoTag);
+        Log.i(TAG, "Assembled video " + videoTag);
+        return true;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < content.length
+                    && (read = fis.read(content, offset, content.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            fis.close();
+        }
+        return content;
+    }
+}
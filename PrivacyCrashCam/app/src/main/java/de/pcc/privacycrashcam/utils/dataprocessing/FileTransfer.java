@@ -0,0 +1,120 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves file content to streams and channels with as few copies as possible.
+ * <p>Channels receive the content through {@link FileChannel#transferTo(long, long,
+ * WritableByteChannel)}, which lets the kernel copy from the file to another file or a socket
+ * without passing the bytes through user space. Streams only accept arrays, so the content is
+ * passed in large blocks to keep the number of calls through the stream chain low.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class FileTransfer {
+    private final static String TAG = FileTransfer.class.getName();
+
+    /**
+     * Size of the blocks passed to streams and of the buffer used where channels can't transfer
+     * directly.
+     */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Transfers a range of the source to the target channel. Uses a direct buffer for the rest
+     * of the range if the channel stops taking bytes directly.
+     *
+     * @param source   the file to read from
+     * @param position offset of the range in the file
+     * @param count    length of the range
+     * @param target   the channel to write to
+     * @return number of bytes transferred, less than count if the file ended before
+     * @throws IOException if reading or writing failed
+     */
+    public static long Transfer(FileChannel source, long position, long count,
+                                WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        ByteBuffer buffer = null;
+        while (transferred < count) {
+            long sent = source.transferTo(position + transferred, count - transferred, target);
+            if (sent > 0) {
+                transferred += sent;
+                continue;
+            }
+            if (position + transferred >= source.size()) break;
+
+            // the channel does not take bytes directly, e.g. a non-blocking socket
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+            int read = source.read(buffer, position + transferred);
+            if (read <= 0) break;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    /**
+     * Writes the whole file to the target stream. Files are written through their channel.
+     *
+     * @param source the file to read from
+     * @param target the stream to write to, not closed
+     * @return number of bytes written
+     * @throws IOException if reading or writing failed
+     */
+    public static long Transfer(File source, OutputStream target) throws IOException {
+        try (FileInputStream input = new FileInputStream(source)) {
+            FileChannel channel = input.getChannel();
+            if (target instanceof FileOutputStream) {
+                return Transfer(channel, 0, channel.size(), ((FileOutputStream) target).getChannel());
+            }
+
+            byte[] block = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            long transferred = 0;
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                target.write(block, 0, read);
+                transferred += read;
+                buffer.clear();
+            }
+            return transferred;
+        }
+    }
+
+    /**
+     * Copies the source file to the target file without passing the content through user space.
+     *
+     * @param source the file to copy
+     * @param target the file to write, replaced if it exists
+     * @return true if the file was copied completely, false otherwise
+     */
+    public static boolean Copy(File source, File target) {
+        try (FileInputStream input = new FileInputStream(source);
+             FileOutputStream output = new FileOutputStream(target)) {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (Transfer(channel, 0, size, output.getChannel()) != size) {
+                Log.w(TAG, "Source " + source.getName() + " changed while copying");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Copying " + source.getName() + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+}
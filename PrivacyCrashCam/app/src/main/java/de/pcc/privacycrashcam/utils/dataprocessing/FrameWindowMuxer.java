@@ -0,0 +1,100 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import de.pcc.privacycrashcam.utils.datastructures.EncodedFrameRingBuffer;
+import de.pcc.privacycrashcam.utils.datastructures.FrameSink;
+
+/**
+ * Writes a time window of an {@link EncodedFrameRingBuffer} into an mp4 file.
+ *
+ * @author Giorgio Gross
+ */
+public class FrameWindowMuxer implements FrameSink {
+    private final static String TAG = FrameWindowMuxer.class.getName();
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final MediaMuxer muxer;
+    private final int track;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private long firstPtsUs = -1;
+    private boolean failed = false;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    private FrameWindowMuxer(MediaMuxer muxer, int track) {
+        this.muxer = muxer;
+        this.track = track;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Writes all frames of the passed window into a new mp4 file. The window is extended to the
+     * last key frame before it.
+     *
+     * @param frames          buffer holding the frames
+     * @param format          output format of the encoder, including its codec specific data
+     * @param startUs         start of the window in microseconds
+     * @param endUs           end of the window in microseconds
+     * @param orientationHint rotation of the video in degrees
+     * @param output          the mp4 file to be written
+     * @return true if at least one frame was written
+     */
+    public static boolean Mux(EncodedFrameRingBuffer frames, MediaFormat format, long startUs,
+                              long endUs, int orientationHint, File output) {
+        MediaMuxer muxer;
+        try {
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not create muxer");
+            return false;
+        }
+
+        int count = 0;
+        FrameWindowMuxer sink = null;
+        try {
+            muxer.setOrientationHint(orientationHint);
+            sink = new FrameWindowMuxer(muxer, muxer.addTrack(format));
+            muxer.start();
+            count = frames.read(startUs, endUs, sink);
+            muxer.stop();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Error when muxing frames: " + e.getMessage());
+            count = -1;
+        } finally {
+            muxer.release();
+        }
+        if (count < 0) Log.w(TAG, "Frames of the window were dropped while muxing");
+        return count > 0 && !sink.failed;
+    }
+
+    @Override
+    public boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+        if (firstPtsUs < 0) firstPtsUs = ptsUs;
+        info.set(frame.position(), frame.remaining(), ptsUs - firstPtsUs,
+                keyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        try {
+            muxer.writeSampleData(track, frame, info);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not write frame: " + e.getMessage());
+            failed = true;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with fixed buckets. Each bucket counts the values which are less or equal to its upper
+ * bound and greater than the bound of the previous bucket. Values greater than the last bound are
+ * counted by an overflow bucket.
+ * <p>Recording does not allocate memory. All methods are thread safe.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class Histogram {
+    private final static String JSON_KEY_BOUNDS = "bounds";
+    private final static String JSON_KEY_COUNTS = "counts";
+    private final static String JSON_KEY_COUNT = "count";
+    private final static String JSON_KEY_MIN = "min";
+    private final static String JSON_KEY_MAX = "max";
+    private final static String JSON_KEY_MEAN = "mean";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final long[] bounds;
+    private final long[] counts;
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new histogram.
+     *
+     * @param bounds upper bounds of the buckets in ascending order
+     */
+    public Histogram(long... bounds) {
+        if (bounds.length == 0) throw new IllegalArgumentException();
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) throw new IllegalArgumentException();
+        }
+        this.bounds = bounds.clone();
+        this.counts = new long[bounds.length + 1];
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param value the value
+     */
+    public synchronized void record(long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) bucket = -bucket - 1;
+        counts[bucket]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param bucket index of the bucket, {@link #getBucketCount()} - 1 is the overflow bucket
+     * @return number of values in the bucket
+     */
+    public synchronized long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @return number of buckets including the overflow bucket
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * @return smallest recorded value or 0 if there is none
+     */
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return largest recorded value or 0 if there is none
+     */
+    public synchronized long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return mean of all recorded values or 0 if there is none
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Estimates a percentile by the upper bound of the bucket which contains it.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the bucket, the largest recorded value if the percentile lies in the
+     * overflow bucket or 0 if there are no values
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100d * count);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return Math.min(bounds[i], max);
+        }
+        return max;
+    }
+
+    /**
+     * @return the histogram as json object
+     */
+    public synchronized JSONObject getAsJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONArray jsonBounds = new JSONArray();
+        for (long bound : bounds) jsonBounds.put(bound);
+        JSONArray jsonCounts = new JSONArray();
+        for (long bucket : counts) jsonCounts.put(bucket);
+        json.put(JSON_KEY_BOUNDS, jsonBounds);
+        json.put(JSON_KEY_COUNTS, jsonCounts);
+        json.put(JSON_KEY_COUNT, count);
+        json.put(JSON_KEY_MIN, getMin());
+        json.put(JSON_KEY_MAX, getMax());
+        json.put(JSON_KEY_MEAN, getMean());
+        return json;
+    }
+}
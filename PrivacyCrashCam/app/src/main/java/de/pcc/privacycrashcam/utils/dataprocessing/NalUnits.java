@@ -0,0 +1,58 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for H.264 streams in Annex B format, where each NAL unit is preceded by a start code
+ * (0x000001 or 0x00000001).
+ *
+ * @author Giorgio Gross
+ */
+public class NalUnits {
+    public final static int TYPE_NON_IDR_SLICE = 1;
+    public final static int TYPE_IDR_SLICE = 5;
+    public final static int TYPE_SPS = 7;
+    public final static int TYPE_PPS = 8;
+
+    /**
+     * Finds the first NAL unit after the passed index.
+     *
+     * @param stream the stream, read from its position to its limit
+     * @param from   absolute index to start searching at
+     * @return absolute index of the first byte of the NAL unit's header, i.e. the byte following
+     * the start code, or -1 if there is none
+     */
+    public static int FindNalUnit(ByteBuffer stream, int from) {
+        int limit = stream.limit();
+        for (int i = Math.max(from, stream.position()); i + 2 < limit; i++) {
+            if (stream.get(i) == 0 && stream.get(i + 1) == 0 && stream.get(i + 2) == 1)
+                return i + 3;
+        }
+        return -1;
+    }
+
+    /**
+     * @param header first byte of a NAL unit
+     * @return the type of the NAL unit
+     */
+    public static int GetType(byte header) {
+        return header & 0x1f;
+    }
+
+    /**
+     * Checks whether the passed access unit contains a slice of an IDR picture, so that it can be
+     * decoded without previous access units.
+     *
+     * @param accessUnit the access unit, read from its position to its limit. The position is not
+     *                   changed
+     * @return true if the access unit contains an IDR slice
+     */
+    public static boolean ContainsIdr(ByteBuffer accessUnit) {
+        int index = FindNalUnit(accessUnit, accessUnit.position());
+        while (index >= 0 && index < accessUnit.limit()) {
+            if (GetType(accessUnit.get(index)) == TYPE_IDR_SLICE) return true;
+            index = FindNalUnit(accessUnit, index);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,19 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Starts the {@link AssemblyService} as soon as the device is connected to a power source.
+ *
+ * @author Giorgio Gross
+ */
+public class PowerConnectedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) return;
+        AssemblyService.Start(context, false);
+    }
+}
@@ -0,0 +1,187 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Limits the number of jobs which run a resource intensive phase at the same time. Waiting jobs
+ * pass the gate in order of their priority, the highest priority first. Jobs with the same
+ * priority pass in the order they arrived.
+ * <p>Jobs either block a thread until they pass or leave a callback which is run once they pass,
+ * so that waiting does not need a thread.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class PriorityGate {
+    /**
+     * Priority of background work which should only run if nothing else is waiting.
+     */
+    public static final float PRIORITY_BACKGROUND = -1f;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final int permits;
+    private int used = 0;
+    private long arrivals = 0;
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new gate.
+     *
+     * @param permits number of jobs which may pass the gate at the same time
+     */
+    public PriorityGate(int permits) {
+        if (permits <= 0) throw new IllegalArgumentException();
+        this.permits = permits;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Blocks until the calling job may pass the gate. Each successful call must be followed by a
+     * call to {@link #release()}.
+     *
+     * @param priority priority of the job
+     * @throws InterruptedException if the thread was interrupted while waiting. The job did not
+     *                              pass the gate in this case.
+     */
+    public void acquire(float priority) throws InterruptedException {
+        List<Runnable> passed;
+        InterruptedException interrupted = null;
+        synchronized (this) {
+            Ticket ticket = new Ticket(priority, arrivals++, null);
+            waiting.add(ticket);
+            try {
+                while (used >= permits || waiting.peek() != ticket) {
+                    wait();
+                }
+                waiting.poll();
+                used++;
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                interrupted = e;
+            }
+            // the next job might pass as well if there are permits left
+            passed = pass();
+        }
+        // callbacks are run outside of the lock
+        run(passed);
+        if (interrupted != null) throw interrupted;
+    }
+
+    /**
+     * Lets the calling job pass the gate once it is its turn. Returns right away. The callback is
+     * run on the calling thread if the job passes immediately and on the thread releasing the
+     * gate otherwise. Each passed job must be followed by a call to {@link #release()}.
+     *
+     * @param priority priority of the job
+     * @param onPass   callback run once the job passed the gate
+     */
+    public void acquire(float priority, Runnable onPass) {
+        if (onPass == null) throw new IllegalArgumentException();
+        List<Runnable> passed;
+        synchronized (this) {
+            waiting.add(new Ticket(priority, arrivals++, onPass));
+            passed = pass();
+        }
+        run(passed);
+    }
+
+    /**
+     * Removes a job which waits with the passed callback.
+     *
+     * @param onPass callback of the job
+     * @return true if the job was removed before it passed the gate, false if it passed already
+     */
+    public boolean cancel(Runnable onPass) {
+        List<Runnable> passed;
+        synchronized (this) {
+            boolean removed = false;
+            for (Iterator<Ticket> iterator = waiting.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().onPass == onPass) {
+                    iterator.remove();
+                    removed = true;
+                    break;
+                }
+            }
+            if (!removed) return false;
+            passed = pass();
+        }
+        run(passed);
+        return true;
+    }
+
+    /**
+     * Lets the next waiting job pass the gate.
+     */
+    public void release() {
+        List<Runnable> passed;
+        synchronized (this) {
+            if (used == 0) throw new IllegalStateException();
+            used--;
+            passed = pass();
+        }
+        run(passed);
+    }
+
+    /**
+     * Lets waiting jobs with callbacks pass while permits are left and wakes up blocked jobs.
+     * Must hold the lock.
+     *
+     * @return callbacks of the jobs which passed
+     */
+    private List<Runnable> pass() {
+        List<Runnable> passed = new ArrayList<>();
+        while (used < permits && !waiting.isEmpty() && waiting.peek().onPass != null) {
+            passed.add(waiting.poll().onPass);
+            used++;
+        }
+        // a blocked job is next
+        notifyAll();
+        return passed;
+    }
+
+    private void run(List<Runnable> passed) {
+        for (Runnable onPass : passed) {
+            onPass.run();
+        }
+    }
+
+    /**
+     * @return number of jobs waiting in front of the gate
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private static class Ticket implements Comparable<Ticket> {
+        private final float priority;
+        private final long arrival;
+        /**
+         * Callback of the job or null if a thread waits for the job.
+         */
+        private final Runnable onPass;
+
+        Ticket(float priority, long arrival, Runnable onPass) {
+            this.priority = priority;
+            this.arrival = arrival;
+            this.onPass = onPass;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            if (priority != other.priority) return priority > other.priority ? -1 : 1;
+            return arrival < other.arrival ? -1 : (arrival == other.arrival ? 0 : 1);
+        }
+    }
+}
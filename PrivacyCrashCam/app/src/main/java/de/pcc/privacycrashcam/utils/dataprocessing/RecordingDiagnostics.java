@@ -0,0 +1,276 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the continuity of the recording. The recording path reports when each video chunk
+ * was prepared, started and stopped. From these timestamps the diagnostics derive
+ * <ul>
+ * <li>the gap between the end of a chunk and the start of the next one,</li>
+ * <li>the time the recorder needed to handle a rollover and</li>
+ * <li>the share of a recording's time span which is covered by its chunks.</li>
+ * </ul>
+ * Each is collected in a {@link Histogram}. A snapshot of all values is persisted along with each
+ * event, see {@link #getSnapshot(Collection)}.
+ * <p>Timestamps are given in the time base of {@link System#nanoTime()}. All methods are thread
+ * safe.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class RecordingDiagnostics {
+    public final static String PREFIX = "DIAG_";
+    public final static String SUFFIX = "json";
+
+    private final static int MAX_TRACKED_CHUNKS = 128;
+    private final static long NANOS_PER_MILLI = 1000000L;
+
+    private final static String JSON_KEY_COVERAGE = "coverage";
+    private final static String JSON_KEY_CHUNKS = "chunks";
+    private final static String JSON_KEY_PREPARED = "preparedMs";
+    private final static String JSON_KEY_STARTED = "startedMs";
+    private final static String JSON_KEY_STOPPED = "stoppedMs";
+    private final static String JSON_KEY_ROLLOVERS = "rollovers";
+    private final static String JSON_KEY_SEAMLESS_ROLLOVERS = "seamlessRollovers";
+    private final static String JSON_KEY_FORCED_RESTARTS = "forcedRestarts";
+    private final static String JSON_KEY_GAP_HISTOGRAM = "gapMs";
+    private final static String JSON_KEY_LATENCY_HISTOGRAM = "rolloverLatencyMs";
+    private final static String JSON_KEY_COVERAGE_HISTOGRAM = "coveragePercent";
+    private final static String JSON_KEY_OPEN_HISTOGRAM = "openRecorderMs";
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final Histogram gapMillis = new Histogram(0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000,
+            2000);
+    private final Histogram rolloverLatencyMillis = new Histogram(1, 2, 5, 10, 20, 50, 100, 200,
+            500, 1000, 2000);
+    private final Histogram coveragePercent = new Histogram(50, 80, 90, 95, 98, 99, 100);
+    private final Histogram openRecorderMillis = new Histogram(50, 100, 200, 300, 500, 750, 1000,
+            1500, 2000, 3000);
+
+    /**
+     * Timestamps of the most recent chunks in the order they were prepared.
+     */
+    private final LinkedHashMap<File, ChunkTiming> chunks =
+            new LinkedHashMap<File, ChunkTiming>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, ChunkTiming> eldest) {
+                    return size() > MAX_TRACKED_CHUNKS;
+                }
+            };
+    /**
+     * Time the last chunk stopped or -1 if the recording was not interrupted by a rollover.
+     */
+    private long lastStopNanos = -1;
+    private int rollovers = 0;
+    private int seamlessRollovers = 0;
+    private int forcedRestarts = 0;
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Called after the recorder of a chunk was prepared.
+     *
+     * @param chunk output file of the chunk
+     * @param nanos time preparing finished
+     */
+    public synchronized void onChunkPrepared(File chunk, long nanos) {
+        getTiming(chunk).preparedNanos = nanos;
+    }
+
+    /**
+     * Called after recording a chunk started. Records the gap to the previous chunk if the chunk
+     * follows a rollover.
+     *
+     * @param chunk output file of the chunk
+     * @param nanos time recording started
+     */
+    public synchronized void onChunkStarted(File chunk, long nanos) {
+        getTiming(chunk).startedNanos = nanos;
+        if (lastStopNanos >= 0) {
+            gapMillis.record((nanos - lastStopNanos) / NANOS_PER_MILLI);
+            lastStopNanos = -1;
+        }
+    }
+
+    /**
+     * Called after recording a chunk stopped.
+     *
+     * @param chunk output file of the chunk
+     * @param nanos time recording stopped
+     */
+    public synchronized void onChunkStopped(File chunk, long nanos) {
+        getTiming(chunk).stoppedNanos = nanos;
+        lastStopNanos = nanos;
+    }
+
+    /**
+     * Called after the recorder handled the end of a chunk and is ready for the next one.
+     *
+     * @param beginNanos time the recorder reported the end of the chunk
+     * @param endNanos   time the rollover was handled
+     * @param seamless   true if the recorder switched files without stopping
+     */
+    public synchronized void onRolloverHandled(long beginNanos, long endNanos, boolean seamless) {
+        rollovers++;
+        if (seamless) seamlessRollovers++;
+        rolloverLatencyMillis.record((endNanos - beginNanos) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Called after the camera was opened and the first chunk started recording.
+     *
+     * @param beginNanos time the camera was requested
+     * @param endNanos   time the first chunk started
+     */
+    public synchronized void onRecorderOpened(long beginNanos, long endNanos) {
+        openRecorderMillis.record((endNanos - beginNanos) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Called when the recorder is restarted to move on to a new buffer.
+     */
+    public synchronized void onForcedRestart() {
+        forcedRestarts++;
+    }
+
+    /**
+     * Called after the recorder was closed. The time until the next chunk starts is no gap.
+     */
+    public synchronized void onRecordingClosed() {
+        lastStopNanos = -1;
+    }
+
+    /**
+     * Calculates the share of the chunks' time span which is covered by the chunks. Chunks whose
+     * timestamps are unknown are ignored.
+     *
+     * @param chunks chunks in chronological order
+     * @return covered share between 0 and 1 or NaN if no chunk has known timestamps
+     */
+    public synchronized double getCoverage(Collection<File> chunks) {
+        long covered = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (File chunk : chunks) {
+            ChunkTiming timing = this.chunks.get(chunk);
+            if (timing == null || !timing.isComplete()) continue;
+            covered += timing.stoppedNanos - timing.startedNanos;
+            first = Math.min(first, timing.startedNanos);
+            last = Math.max(last, timing.stoppedNanos);
+        }
+        if (first == Long.MAX_VALUE) return Double.NaN;
+        if (last <= first) return 1;
+        return Math.min(1, (double) covered / (last - first));
+    }
+
+    /**
+     * Creates a snapshot of the diagnostics for an event and records the coverage of the event's
+     * chunks.
+     *
+     * @param chunks chunks of the event in chronological order
+     * @return the snapshot as json object
+     */
+    public synchronized JSONObject getSnapshot(Collection<File> chunks) throws JSONException {
+        JSONObject json = new JSONObject();
+        double coverage = getCoverage(chunks);
+        if (!Double.isNaN(coverage)) {
+            coveragePercent.record((long) Math.floor(coverage * 100));
+            json.put(JSON_KEY_COVERAGE, coverage);
+        }
+
+        // timestamps relative to the start of the first chunk
+        JSONArray jsonChunks = new JSONArray();
+        long origin = -1;
+        for (File chunk : chunks) {
+            ChunkTiming timing = this.chunks.get(chunk);
+            if (timing == null || !timing.isComplete()) continue;
+            if (origin < 0) origin = timing.startedNanos;
+            JSONObject jsonChunk = new JSONObject();
+            if (timing.preparedNanos >= 0) jsonChunk.put(JSON_KEY_PREPARED,
+                    (timing.preparedNanos - origin) / NANOS_PER_MILLI);
+            jsonChunk.put(JSON_KEY_STARTED, (timing.startedNanos - origin) / NANOS_PER_MILLI);
+            jsonChunk.put(JSON_KEY_STOPPED, (timing.stoppedNanos - origin) / NANOS_PER_MILLI);
+            jsonChunks.put(jsonChunk);
+        }
+        json.put(JSON_KEY_CHUNKS, jsonChunks);
+
+        json.put(JSON_KEY_ROLLOVERS, rollovers);
+        json.put(JSON_KEY_SEAMLESS_ROLLOVERS, seamlessRollovers);
+        json.put(JSON_KEY_FORCED_RESTARTS, forcedRestarts);
+        json.put(JSON_KEY_GAP_HISTOGRAM, gapMillis.getAsJSON());
+        json.put(JSON_KEY_LATENCY_HISTOGRAM, rolloverLatencyMillis.getAsJSON());
+        json.put(JSON_KEY_COVERAGE_HISTOGRAM, coveragePercent.getAsJSON());
+        json.put(JSON_KEY_OPEN_HISTOGRAM, openRecorderMillis.getAsJSON());
+        return json;
+    }
+
+    /**
+     * @return gaps between consecutive chunks in milliseconds
+     */
+    public Histogram getGapMillis() {
+        return gapMillis;
+    }
+
+    /**
+     * @return time needed to handle rollovers in milliseconds
+     */
+    public Histogram getRolloverLatencyMillis() {
+        return rolloverLatencyMillis;
+    }
+
+    /**
+     * @return coverage of the persisted events in percent
+     */
+    public Histogram getCoveragePercent() {
+        return coveragePercent;
+    }
+
+    /**
+     * @return time from opening the camera until the first chunk started in milliseconds
+     */
+    public Histogram getOpenRecorderMillis() {
+        return openRecorderMillis;
+    }
+
+    public synchronized int getRolloverCount() {
+        return rollovers;
+    }
+
+    public synchronized int getSeamlessRolloverCount() {
+        return seamlessRollovers;
+    }
+
+    public synchronized int getForcedRestartCount() {
+        return forcedRestarts;
+    }
+
+    private ChunkTiming getTiming(File chunk) {
+        ChunkTiming timing = chunks.get(chunk);
+        if (timing == null) {
+            timing = new ChunkTiming();
+            chunks.put(chunk, timing);
+        }
+        return timing;
+    }
+
+    private static class ChunkTiming {
+        private long preparedNanos = -1;
+        private long startedNanos = -1;
+        private long stoppedNanos = -1;
+
+        private boolean isComplete() {
+            return startedNanos >= 0 && stoppedNanos >= startedNanos;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import de.pcc.privacycrashcam.data.RecordingStats;
+import de.pcc.privacycrashcam.data.Video;
+
+/**
+ * Chooses the length of the video chunks of a recording session. Short chunks lose more footage
+ * as each rollover leaves a gap. Long chunks waste more, as the ring buffer holds
+ * <code>bufferSize / length + 1</code> chunks and everything beyond the buffer size is recorded,
+ * concatenated and encrypted for nothing.
+ * <p>The controller weighs the lost share of footage, measured by the rollover gap, against the
+ * wasted share of the buffer. Wasted footage costs more on slow storage. Lost footage weighs
+ * {@link #LOSS_WEIGHT} times more than wasted footage. Without measurements the
+ * {@link Video#VIDEO_CHUNK_LENGTH default length} is used.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class SegmentLengthController {
+    private final static String TAG = SegmentLengthController.class.getName();
+
+    public final static int MIN_SEGMENT_LENGTH_SEC = 2;
+    public final static int MAX_SEGMENT_LENGTH_SEC = 10;
+    /**
+     * Weight of lost footage relative to wasted footage.
+     */
+    public final static double LOSS_WEIGHT = 10;
+    /**
+     * Size of the file written to measure the storage throughput.
+     */
+    private final static int PROBE_SIZE_BYTES = 1024 * 1024;
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final int bufferSizeSec;
+    private final long bytesPerSecond;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new controller.
+     *
+     * @param bufferSizeSec  size of the ring buffer in seconds
+     * @param bytesPerSecond bit rate of the recording in bytes per second
+     */
+    public SegmentLengthController(int bufferSizeSec, long bytesPerSecond) {
+        this.bufferSizeSec = bufferSizeSec;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Chooses the chunk length with the lowest cost for the passed measurements.
+     *
+     * @param stats measurements of previous sessions
+     * @return chunk length in seconds
+     */
+    public int chooseSegmentLength(RecordingStats stats) {
+        if (stats.getRolloverGapMillis() < 0) return Video.VIDEO_CHUNK_LENGTH;
+
+        int best = Video.VIDEO_CHUNK_LENGTH;
+        double bestCost = getCost(best, stats.getRolloverGapMillis(),
+                stats.getStorageThroughput());
+        for (int length = MIN_SEGMENT_LENGTH_SEC; length <= MAX_SEGMENT_LENGTH_SEC; length++) {
+            double cost = getCost(length, stats.getRolloverGapMillis(),
+                    stats.getStorageThroughput());
+            if (cost < bestCost) {
+                best = length;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calculates the cost of a chunk length.
+     *
+     * @param lengthSec         chunk length in seconds
+     * @param gapMillis         gap between two chunks in milliseconds
+     * @param storageThroughput write throughput in bytes per second or a negative value if unknown
+     * @return the cost, lower is better
+     */
+    double getCost(int lengthSec, double gapMillis, double storageThroughput) {
+        double lost = gapMillis / (lengthSec * 1000d);
+        int recordedSec = GetCapacity(bufferSizeSec, lengthSec) * lengthSec;
+        double wasted = (double) (recordedSec - bufferSizeSec) / bufferSizeSec;
+        // on slow storage writing the wasted footage delays persisting the recording
+        double storagePenalty = storageThroughput > 0 ? bytesPerSecond / storageThroughput : 0;
+        return LOSS_WEIGHT * lost + wasted * (1 + storagePenalty);
+    }
+
+    /**
+     * Calculates the number of chunks the ring buffer needs to hold at least the buffer size.
+     *
+     * @param bufferSizeSec size of the ring buffer in seconds
+     * @param lengthSec     chunk length in seconds
+     * @return capacity of the ring buffer
+     */
+    public static int GetCapacity(int bufferSizeSec, int lengthSec) {
+        // +1 capacity to record at least the desired video length
+        return bufferSizeSec / lengthSec + 1;
+    }
+
+    /**
+     * Measures how fast data can be written durably to the passed directory. Writes and deletes a
+     * small probe file.
+     *
+     * @param directory directory to be measured
+     * @return throughput in bytes per second or -1 if the measurement failed
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static double MeasureStorageThroughput(File directory) {
+        File probe = new File(directory, "probe_" + System.nanoTime());
+        byte[] block = new byte[64 * 1024];
+        long start = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(probe)) {
+            for (int written = 0; written < PROBE_SIZE_BYTES; written += block.length) {
+                out.write(block);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not measure storage throughput");
+            return -1;
+        } finally {
+            probe.delete();
+        }
+        long duration = Math.max(1, System.nanoTime() - start);
+        return PROBE_SIZE_BYTES * 1e9 / duration;
+    }
+}
@@ -0,0 +1,146 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
+
+/**
+ * Converts the content of an {@link AccelerationTraceBuffer} to a compact binary track and back.
+ * <p>The track starts with the {@link #MAGIC} bytes, a version byte, the number of samples and the
+ * timestamp of the first sample in nanoseconds. Since version 2 the clock reference of the buffer
+ * follows: a sample timestamp in nanoseconds, the elapsed realtime in nanoseconds and the wall
+ * clock time in milliseconds when that sample was received, each -1 if unknown. Sensor timestamps
+ * use a clock which differs between devices, so the reference is needed to align the trace with
+ * the video. Each sample follows as differences to its
+ * predecessor: the time in microseconds and the acceleration on all three axes in
+ * 1/{@link #VALUE_SCALE} m/s^2. All differences are written as zigzag encoded variable length
+ * integers, so that a sample usually takes less than 8 bytes.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class TraceEncoder {
+    // File pre- and suffixes
+    public static final String PREFIX = "TRACE_";
+    public static final String SUFFIX = "bin";
+
+    public static final byte[] MAGIC = {'P', 'C', 'C', 'T'};
+    public static final int VERSION = 2;
+    /**
+     * Version of tracks without clock reference, which can still be read.
+     */
+    static final int VERSION_WITHOUT_CLOCK_REFERENCE = 1;
+    /**
+     * Acceleration values are stored with a resolution of 1/VALUE_SCALE m/s^2.
+     */
+    public static final float VALUE_SCALE = 1000f;
+
+    /**
+     * Writes the content of the passed buffer to the output stream. The buffer should be frozen.
+     *
+     * @param trace  buffer to be written
+     * @param output stream to write to. Will not be closed
+     * @throws IOException if writing fails
+     */
+    public static void Encode(AccelerationTraceBuffer trace, OutputStream output)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        int size = trace.size();
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        WriteVarInt(out, size);
+        long first = size > 0 ? trace.getTimestamp(0) : 0;
+        out.writeLong(first);
+        out.writeLong(trace.getReferenceSensorNanos());
+        out.writeLong(trace.getReferenceElapsedRealtimeNanos());
+        out.writeLong(trace.getReferenceWallClockMillis());
+
+        long lastTime = 0;
+        int lastX = 0, lastY = 0, lastZ = 0;
+        for (int i = 0; i < size; i++) {
+            long time = (trace.getTimestamp(i) - first) / 1000;
+            int x = Math.round(trace.getX(i) * VALUE_SCALE);
+            int y = Math.round(trace.getY(i) * VALUE_SCALE);
+            int z = Math.round(trace.getZ(i) * VALUE_SCALE);
+            WriteVarInt(out, ZigZag(time - lastTime));
+            WriteVarInt(out, ZigZag(x - lastX));
+            WriteVarInt(out, ZigZag(y - lastY));
+            WriteVarInt(out, ZigZag(z - lastZ));
+            lastTime = time;
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a track which was written by {@link #Encode(AccelerationTraceBuffer, OutputStream)}.
+     *
+     * @param input stream to read from. Will not be closed
+     * @return a frozen buffer holding all samples of the track
+     * @throws IOException if reading fails or the input is no valid track
+     */
+    public static AccelerationTraceBuffer Decode(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) throw new IOException("Not an acceleration trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION && version != VERSION_WITHOUT_CLOCK_REFERENCE)
+            throw new IOException("Unsupported trace version");
+        long size = ReadVarInt(in);
+        if (size < 0 || size > Integer.MAX_VALUE) throw new IOException("Invalid sample count");
+        long first = in.readLong();
+
+        AccelerationTraceBuffer trace = new AccelerationTraceBuffer(Math.max(1, (int) size),
+                Long.MAX_VALUE);
+        if (version == VERSION) {
+            trace.setClockReference(in.readLong(), in.readLong(), in.readLong());
+        }
+        long time = 0;
+        long x = 0, y = 0, z = 0;
+        for (int i = 0; i < size; i++) {
+            time += UnZigZag(ReadVarInt(in));
+            x += UnZigZag(ReadVarInt(in));
+            y += UnZigZag(ReadVarInt(in));
+            z += UnZigZag(ReadVarInt(in));
+            trace.put(first + time * 1000, x / VALUE_SCALE, y / VALUE_SCALE, z / VALUE_SCALE);
+        }
+        trace.freeze();
+        return trace;
+    }
+
+    private static long ZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long UnZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void WriteVarInt(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long ReadVarInt(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
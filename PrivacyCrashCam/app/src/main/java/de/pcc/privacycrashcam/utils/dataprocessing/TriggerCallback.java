@@ -0,0 +1,22 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+/**
+ * Observes a {@link CrashDetector}. Gets notified once per detected impact.
+ *
+ * @author Giorgio Gross
+ */
+public interface TriggerCallback {
+
+    /**
+     * Called when an impact was detected. Called on the thread which feeds the detector, so
+     * implementations should return quickly.
+     *
+     * @param timestampNanos timestamp of the sample which caused the trigger, in the time base of
+     *                       the samples
+     * @param gForce         highest dynamic acceleration in the detection window, in g
+     * @param x              acceleration on the x axis of the strongest sample, in m/s^2
+     * @param y              acceleration on the y axis of the strongest sample, in m/s^2
+     * @param z              acceleration on the z axis of the strongest sample, in m/s^2
+     */
+    void onTrigger(long timestampNanos, float gForce, float x, float y, float z);
+}
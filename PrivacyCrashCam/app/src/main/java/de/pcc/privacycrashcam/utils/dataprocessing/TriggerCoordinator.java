@@ -0,0 +1,109 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import de.pcc.privacycrashcam.data.Metadata;
+
+/**
+ * Decides what happens with a trigger. There is at most one open {@link CaptureWindow} at a time.
+ * A trigger opens a new window if there is none. Triggers arriving while the window is open are
+ * merged into it. Triggers which cannot be merged because the window would grow too long are
+ * queued and open the next window as soon as the current one was closed. No trigger is dropped.
+ * <p>All methods are thread safe. Times are milliseconds in the time base of
+ * {@link System#currentTimeMillis()}.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class TriggerCoordinator {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private long postTriggerMillis;
+    private long maxExtensionMillis;
+    private CaptureWindow openWindow = null;
+    private final Queue<Metadata> queuedTriggers = new LinkedList<>();
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new coordinator.
+     *
+     * @param postTriggerMillis  time captured after each trigger
+     * @param maxExtensionMillis maximum time a window may be extended by further triggers
+     */
+    public TriggerCoordinator(long postTriggerMillis, long maxExtensionMillis) {
+        this.postTriggerMillis = postTriggerMillis;
+        this.maxExtensionMillis = maxExtensionMillis;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Changes the limits of windows. Windows which are opened already keep their limits.
+     *
+     * @param postTriggerMillis  time captured after each trigger
+     * @param maxExtensionMillis maximum time a window may be extended by further triggers
+     */
+    public synchronized void setWindowLimits(long postTriggerMillis, long maxExtensionMillis) {
+        this.postTriggerMillis = postTriggerMillis;
+        this.maxExtensionMillis = maxExtensionMillis;
+    }
+
+    /**
+     * Handles a new trigger.
+     *
+     * @param trigger metadata of the trigger. Its date is used as trigger time
+     * @return a new window which needs to be persisted or null if the trigger was merged into the
+     * open window or queued
+     */
+    public synchronized CaptureWindow onTrigger(Metadata trigger) {
+        if (openWindow == null) {
+            openWindow = new CaptureWindow(trigger, trigger.getDate(), postTriggerMillis,
+                    maxExtensionMillis);
+            return openWindow;
+        }
+        if (trigger == openWindow.getMetadata() || openWindow.extend(trigger, trigger.getDate()))
+            return null;
+        if (!queuedTriggers.contains(trigger)) queuedTriggers.add(trigger);
+        return null;
+    }
+
+    /**
+     * Needs to be called after the open window was closed.
+     *
+     * @return a new window for queued triggers which needs to be persisted or null if there are no
+     * queued triggers
+     */
+    public synchronized CaptureWindow onWindowClosed() {
+        openWindow = null;
+        Metadata next = queuedTriggers.poll();
+        if (next == null) return null;
+
+        CaptureWindow window = onTrigger(next);
+        // merge what fits into the new window, keep the rest queued
+        int queued = queuedTriggers.size();
+        for (int i = 0; i < queued; i++) {
+            Metadata trigger = queuedTriggers.poll();
+            if (!window.extend(trigger, trigger.getDate())) queuedTriggers.add(trigger);
+        }
+        return window;
+    }
+
+    /**
+     * @return the open window or null
+     */
+    public synchronized CaptureWindow getOpenWindow() {
+        return openWindow;
+    }
+
+    public synchronized int getQueuedTriggerCount() {
+        return queuedTriggers.size();
+    }
+}
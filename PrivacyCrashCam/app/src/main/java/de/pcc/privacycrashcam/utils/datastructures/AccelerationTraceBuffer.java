@@ -0,0 +1,246 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+/**
+ * Ring buffer holding accelerometer samples of a limited time window. Each sample consists of a
+ * timestamp and the acceleration on all three axes.
+ * <p>Samples are stored in preallocated primitive arrays, so {@link #put(long, float, float, float)}
+ * does not allocate memory. Samples which are older than the window or which do not fit into the
+ * buffer anymore are overwritten.</p>
+ * <p>Once {@link #freeze()} was called the buffer ignores new samples and its content can be read
+ * safely from any thread.</p>
+ * <p>The buffer can be resized in place with {@link #resize(int)}, so that everyone holding a
+ * reference keeps receiving the samples inserted afterwards.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class AccelerationTraceBuffer {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private long windowNanos;
+    private long[] timestamps;
+    private float[] xs;
+    private float[] ys;
+    private float[] zs;
+    /**
+     * Index of the oldest sample.
+     */
+    private int head = 0;
+    private int size = 0;
+    private boolean frozen = false;
+    /**
+     * Sensor timestamp of a sample and the times of the system clocks when it was received, or -1
+     * if none was set. Sensor timestamps use a clock which differs between devices.
+     */
+    private long referenceSensorNanos = -1;
+    private long referenceElapsedRealtimeNanos = -1;
+    private long referenceWallClockMillis = -1;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param capacity    maximum number of samples
+     * @param windowNanos time span of samples to be kept, measured from the newest sample
+     */
+    public AccelerationTraceBuffer(int capacity, long windowNanos) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.windowNanos = windowNanos;
+        this.timestamps = new long[capacity];
+        this.xs = new float[capacity];
+        this.ys = new float[capacity];
+        this.zs = new float[capacity];
+    }
+
+    /**
+     * Creates a new buffer holding the newest samples of the passed buffer which fit into the new
+     * capacity. The clock reference is copied, frozen state is not.
+     *
+     * @param source      buffer to copy the samples from
+     * @param capacity    maximum number of samples
+     * @param windowNanos time span of samples to be kept, measured from the newest sample
+     */
+    public AccelerationTraceBuffer(AccelerationTraceBuffer source, int capacity,
+                                   long windowNanos) {
+        this(capacity, windowNanos);
+        synchronized (source) {
+            for (int i = Math.max(0, source.size - capacity); i < source.size; i++) {
+                int index = source.indexOf(i);
+                put(source.timestamps[index], source.xs[index], source.ys[index],
+                        source.zs[index]);
+            }
+            setClockReference(source.referenceSensorNanos, source.referenceElapsedRealtimeNanos,
+                    source.referenceWallClockMillis);
+        }
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Inserts a new sample. Samples must be inserted in chronological order. Does nothing if the
+     * buffer is frozen.
+     *
+     * @param timestampNanos sample timestamp
+     * @param x              acceleration on the x axis in m/s^2
+     * @param y              acceleration on the y axis in m/s^2
+     * @param z              acceleration on the z axis in m/s^2
+     */
+    public synchronized void put(long timestampNanos, float x, float y, float z) {
+        if (frozen) return;
+
+        // drop samples which left the window
+        while (size > 0 && timestampNanos - timestamps[head] > windowNanos) {
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+
+        int tail = (head + size) % timestamps.length;
+        timestamps[tail] = timestampNanos;
+        xs[tail] = x;
+        ys[tail] = y;
+        zs[tail] = z;
+        if (size < timestamps.length) {
+            size++;
+        } else {
+            // overwrote the oldest sample
+            head = (head + 1) % timestamps.length;
+        }
+    }
+
+    /**
+     * Changes the capacity of the buffer. If the buffer holds more samples than the new capacity
+     * the oldest ones are dropped. Does nothing if the buffer is frozen.
+     *
+     * @param capacity new maximum number of samples
+     */
+    public synchronized void resize(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        if (frozen || capacity == timestamps.length) return;
+
+        long[] resizedTimestamps = new long[capacity];
+        float[] resizedXs = new float[capacity];
+        float[] resizedYs = new float[capacity];
+        float[] resizedZs = new float[capacity];
+        int kept = Math.min(size, capacity);
+        for (int i = 0; i < kept; i++) {
+            int index = indexOf(size - kept + i);
+            resizedTimestamps[i] = timestamps[index];
+            resizedXs[i] = xs[index];
+            resizedYs[i] = ys[index];
+            resizedZs[i] = zs[index];
+        }
+        timestamps = resizedTimestamps;
+        xs = resizedXs;
+        ys = resizedYs;
+        zs = resizedZs;
+        head = 0;
+        size = kept;
+    }
+
+    /**
+     * Changes the time span of samples to be kept. Does not change the capacity.
+     *
+     * @param windowNanos time span of samples to be kept, measured from the newest sample
+     */
+    public synchronized void setWindowNanos(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Relates the clock of the sample timestamps to the system clocks. Does nothing if the buffer
+     * is frozen.
+     *
+     * @param sensorNanos          timestamp of a sample
+     * @param elapsedRealtimeNanos elapsed realtime when the sample was received
+     * @param wallClockMillis      wall clock time when the sample was received
+     */
+    public synchronized void setClockReference(long sensorNanos, long elapsedRealtimeNanos,
+                                               long wallClockMillis) {
+        if (frozen) return;
+        this.referenceSensorNanos = sensorNanos;
+        this.referenceElapsedRealtimeNanos = elapsedRealtimeNanos;
+        this.referenceWallClockMillis = wallClockMillis;
+    }
+
+    /**
+     * Stops accepting new samples. The current content will not change anymore.
+     */
+    public synchronized void freeze() {
+        frozen = true;
+    }
+
+    public synchronized boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return maximum number of samples
+     */
+    public synchronized int getCapacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Gets the number of samples currently held by the buffer.
+     *
+     * @return number of samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the timestamp of the sample at the passed position.
+     *
+     * @param index position of the sample, 0 is the oldest one
+     * @return the sample timestamp
+     */
+    public synchronized long getTimestamp(int index) {
+        return timestamps[indexOf(index)];
+    }
+
+    public synchronized float getX(int index) {
+        return xs[indexOf(index)];
+    }
+
+    public synchronized float getY(int index) {
+        return ys[indexOf(index)];
+    }
+
+    public synchronized float getZ(int index) {
+        return zs[indexOf(index)];
+    }
+
+    /**
+     * @return sample timestamp of the clock reference or -1 if there is none
+     */
+    public synchronized long getReferenceSensorNanos() {
+        return referenceSensorNanos;
+    }
+
+    /**
+     * @return elapsed realtime of the clock reference in nanoseconds or -1 if there is none
+     */
+    public synchronized long getReferenceElapsedRealtimeNanos() {
+        return referenceElapsedRealtimeNanos;
+    }
+
+    /**
+     * @return wall clock time of the clock reference in milliseconds or -1 if there is none
+     */
+    public synchronized long getReferenceWallClockMillis() {
+        return referenceWallClockMillis;
+    }
+
+    private int indexOf(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException();
+        return (head + index) % timestamps.length;
+    }
+}
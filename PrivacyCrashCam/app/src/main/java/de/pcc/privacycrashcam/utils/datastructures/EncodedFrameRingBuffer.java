@@ -0,0 +1,279 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ring buffer holding encoded video frames, e.g. H.264 access units, in memory. Frame data is kept
+ * in a single direct {@link ByteBuffer} which is allocated once. On Android direct buffers are
+ * backed by the managed heap, so the capacity counts against the app's memory class. Frames are
+ * stored in the order they were encoded, each one contiguous. If there is not enough space for a
+ * new frame the oldest frames are dropped.
+ * <p>The buffer keeps an index of its key frames so that a time window can be read starting at
+ * the last key frame before the window, see {@link #read(long, long, FrameSink)}. Frames before the
+ * first key frame are never stored as they could not be decoded.</p>
+ * <p>All methods are thread safe. Reading holds the lock for one frame at a time only, so that the
+ * encoder is not blocked while a window is read. Windows are read one after another into a frame
+ * buffer which is reused.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class EncodedFrameRingBuffer {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    private final ByteBuffer data;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] timestamps;
+    private final boolean[] keyFrames;
+    /**
+     * Sequence numbers of the buffered key frames, oldest first.
+     */
+    private final long[] keyFrameIndex;
+    private int keyFrameHead = 0;
+    private int keyFrameCount = 0;
+
+    /**
+     * Sequence number of the oldest frame. Frames are numbered in the order they were put.
+     */
+    private long firstSequence = 0;
+    /**
+     * Sequence number the next frame will get.
+     */
+    private long nextSequence = 0;
+    private int writePosition = 0;
+    private int largestFrameSize = 0;
+    private byte[] codecConfig = null;
+    /**
+     * Guards {@link #readBuffer}, so that concurrent reads wait for each other.
+     */
+    private final Object readLock = new Object();
+    /**
+     * Holds the frame passed to the sink. Grows to the largest frame.
+     */
+    private ByteBuffer readBuffer = null;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param capacityBytes maximum number of bytes of all frames
+     * @param maxFrames     maximum number of frames
+     */
+    public EncodedFrameRingBuffer(int capacityBytes, int maxFrames) {
+        if (capacityBytes <= 0 || maxFrames <= 0) throw new IllegalArgumentException();
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.offsets = new int[maxFrames];
+        this.sizes = new int[maxFrames];
+        this.timestamps = new long[maxFrames];
+        this.keyFrames = new boolean[maxFrames];
+        this.keyFrameIndex = new long[maxFrames];
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Appends a frame. Frames must be put in presentation order. Drops the oldest frames if
+     * there is not enough space. Does not allocate memory.
+     *
+     * @param frame    the encoded frame from its position to its limit. The position is not changed
+     * @param ptsUs    presentation timestamp in microseconds
+     * @param keyFrame true if the frame can be decoded without previous frames
+     * @return false if the frame was not stored because it is larger than the buffer or because
+     * no key frame was stored yet
+     */
+    public synchronized boolean put(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+        int size = frame.remaining();
+        if (size > data.capacity()) return false;
+        if (keyFrameCount == 0 && !keyFrame) return false;
+
+        if (size() == offsets.length) dropOldest();
+        int start = writePosition;
+        if (start + size > data.capacity()) {
+            // the frame does not fit behind the last one. The oldest frames are at the end of the
+            // buffer, drop them and continue at the beginning
+            while (size() > 0 && offsets[slot(firstSequence)] >= start) dropOldest();
+            start = 0;
+        }
+        while (size() > 0 && offsets[slot(firstSequence)] >= start
+                && offsets[slot(firstSequence)] < start + size) {
+            dropOldest();
+        }
+        // all key frames might have been dropped
+        if (keyFrameCount == 0 && !keyFrame) return false;
+
+        ByteBuffer target = data.duplicate();
+        target.position(start);
+        target.put(frame.duplicate());
+
+        int slot = slot(nextSequence);
+        offsets[slot] = start;
+        sizes[slot] = size;
+        timestamps[slot] = ptsUs;
+        keyFrames[slot] = keyFrame;
+        if (keyFrame) {
+            keyFrameIndex[(keyFrameHead + keyFrameCount) % keyFrameIndex.length] = nextSequence;
+            keyFrameCount++;
+        }
+        nextSequence++;
+        writePosition = start + size;
+        largestFrameSize = Math.max(largestFrameSize, size);
+        return true;
+    }
+
+    private void dropOldest() {
+        if (keyFrameCount > 0 && keyFrameIndex[keyFrameHead] == firstSequence) {
+            keyFrameHead = (keyFrameHead + 1) % keyFrameIndex.length;
+            keyFrameCount--;
+        }
+        firstSequence++;
+        if (size() == 0) writePosition = 0;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % offsets.length);
+    }
+
+    /**
+     * Reads all frames of a time window. Reading starts at the last key frame at or before the
+     * window's start, or at the oldest key frame if the window starts before it. Frames which are
+     * put while reading are read as well if they belong to the window.
+     *
+     * @param startUs start of the window in microseconds
+     * @param endUs   end of the window in microseconds, inclusive
+     * @param sink    receives the frames
+     * @return number of frames read or -1 if frames of the window were dropped while reading
+     */
+    public int read(long startUs, long endUs, FrameSink sink) {
+        synchronized (readLock) {
+            long sequence;
+            synchronized (this) {
+                sequence = findKeyFrame(startUs);
+                if (sequence < 0) return 0;
+            }
+
+            int count = 0;
+            while (true) {
+                long ptsUs;
+                boolean keyFrame;
+                synchronized (this) {
+                    if (sequence < firstSequence) return -1;
+                    if (sequence >= nextSequence) break;
+                    int slot = slot(sequence);
+                    ptsUs = timestamps[slot];
+                    if (ptsUs > endUs) break;
+                    keyFrame = keyFrames[slot];
+
+                    // copy the frame so that the lock can be released while the sink consumes it
+                    if (readBuffer == null || sizes[slot] > readBuffer.capacity()) {
+                        readBuffer = ByteBuffer.allocateDirect(Math.max(sizes[slot],
+                                largestFrameSize));
+                    }
+                    ByteBuffer source = data.duplicate();
+                    source.limit(offsets[slot] + sizes[slot]);
+                    source.position(offsets[slot]);
+                    readBuffer.clear();
+                    readBuffer.put(source);
+                    readBuffer.flip();
+                }
+                count++;
+                sequence++;
+                if (!sink.onFrame(readBuffer, ptsUs, keyFrame)) break;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @param ptsUs timestamp in microseconds
+     * @return sequence number of the last key frame at or before the timestamp, of the oldest key
+     * frame if there is none or -1 if there is no key frame at all
+     */
+    private long findKeyFrame(long ptsUs) {
+        if (keyFrameCount == 0) return -1;
+        long found = keyFrameIndex[keyFrameHead];
+        // binary search as key frames are sorted by timestamp
+        int low = 0;
+        int high = keyFrameCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long sequence = keyFrameIndex[(keyFrameHead + mid) % keyFrameIndex.length];
+            if (timestamps[slot(sequence)] <= ptsUs) {
+                found = sequence;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Removes all frames. The codec configuration is kept.
+     */
+    public synchronized void clear() {
+        firstSequence = nextSequence;
+        keyFrameCount = 0;
+        writePosition = 0;
+    }
+
+    /**
+     * @return number of buffered frames
+     */
+    public synchronized int size() {
+        return (int) (nextSequence - firstSequence);
+    }
+
+    /**
+     * @return number of buffered key frames
+     */
+    public synchronized int getKeyFrameCount() {
+        return keyFrameCount;
+    }
+
+    /**
+     * @return timestamp of the oldest frame in microseconds or -1 if the buffer is empty
+     */
+    public synchronized long getOldestTimestampUs() {
+        return size() == 0 ? -1 : timestamps[slot(firstSequence)];
+    }
+
+    /**
+     * @return timestamp of the newest frame in microseconds or -1 if the buffer is empty
+     */
+    public synchronized long getNewestTimestampUs() {
+        return size() == 0 ? -1 : timestamps[slot(nextSequence - 1)];
+    }
+
+    /**
+     * @return maximum number of bytes of all frames
+     */
+    public int getCapacityBytes() {
+        return data.capacity();
+    }
+
+    /**
+     * Stores the codec configuration, e.g. the H.264 sequence and picture parameter sets, which is
+     * needed to decode the frames.
+     *
+     * @param config the configuration from its position to its limit
+     */
+    public synchronized void setCodecConfig(ByteBuffer config) {
+        codecConfig = new byte[config.remaining()];
+        config.duplicate().get(codecConfig);
+    }
+
+    /**
+     * @return copy of the codec configuration or null if none was set
+     */
+    public synchronized byte[] getCodecConfig() {
+        return codecConfig == null ? null : codecConfig.clone();
+    }
+}
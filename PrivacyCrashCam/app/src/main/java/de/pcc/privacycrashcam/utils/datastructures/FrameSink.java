@@ -0,0 +1,21 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives encoded frames read from an {@link EncodedFrameRingBuffer}.
+ *
+ * @author Giorgio Gross
+ */
+public interface FrameSink {
+
+    /**
+     * Called for each frame in presentation order.
+     *
+     * @param frame    the encoded frame, positioned at its first byte. Only valid during the call
+     * @param ptsUs    presentation timestamp in microseconds
+     * @param keyFrame true if the frame can be decoded without previous frames
+     * @return false to stop reading frames
+     */
+    boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame);
+}
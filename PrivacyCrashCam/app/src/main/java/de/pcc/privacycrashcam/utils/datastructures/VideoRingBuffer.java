@@ -103,6 +103,26 @@ public class VideoRingBuffer {
         return file;
     }
 
+    /**
+     * Changes the capacity of the buffer. If the buffer holds more files than the new capacity
+     * allows, the oldest files are removed and deleted.
+     *
+     * @param capacity new max number of elements
+     */
+    @SuppressWarnings({"ResultOfMethodCallIgnored", "ConstantConditions"})
+    public void resize(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        if (capacity == this.capacity) return;
+
+        while (queue.size() > capacity) {
+            pop().delete();
+        }
+        Queue<File> resized = new ArrayBlockingQueue<>(capacity);
+        resized.addAll(queue);
+        this.queue = resized;
+        this.capacity = capacity;
+    }
+
     /**
      * Demands the VideoRingBuffer to provide the data.
      * As writing to the buffer happens asynchronous to demanding the data
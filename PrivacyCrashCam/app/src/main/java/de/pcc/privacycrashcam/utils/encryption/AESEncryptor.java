@@ -44,6 +44,39 @@ class AESEncryptor implements IFileEncryptor {
 
     @Override
     public boolean encrypt(File input, SecretKey key, File output) {
+        return transform(input, key, output, Cipher.ENCRYPT_MODE);
+    }
+
+    @Override
+    public boolean decrypt(File input, SecretKey key, File output) {
+        return transform(input, key, output, Cipher.DECRYPT_MODE);
+    }
+
+    @Override
+    public SecretKey generateKey() {
+        KeyGenerator kgen;
+        try {
+            kgen = KeyGenerator.getInstance("AES");
+            kgen.init(128);
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "Wasn't able to find AES algorithm");
+            return null;
+        }
+
+        return kgen.generateKey();
+    }
+
+    /**
+     * Runs the input file through an AES cipher in the passed mode and writes the result into the
+     * output file.
+     *
+     * @param input  File which should be encrypted or decrypted.
+     * @param key    Symmetric key used for the cipher.
+     * @param output Output file for the result.
+     * @param mode   Either {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+     * @return Returns whether the transformation was successful or not.
+     */
+    private boolean transform(File input, SecretKey key, File output, int mode) {
         if (input == null || key == null || output == null) {
             return false;
         }
@@ -60,17 +93,17 @@ class AESEncryptor implements IFileEncryptor {
         }
 
         // open cipher
-        Cipher encipher;
+        Cipher cipher;
         try {
-            encipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            encipher.init(Cipher.ENCRYPT_MODE, key);
+            cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+            cipher.init(mode, key);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
             Log.w(TAG, "Initializing cipher failed");
             return false;
         }
 
         // write crypt
-        CipherInputStream cis = new CipherInputStream(fis, encipher);
+        CipherInputStream cis = new CipherInputStream(fis, cipher);
         try {
             int read;
             byte[] buffer = new byte[1024];
@@ -78,6 +111,8 @@ class AESEncryptor implements IFileEncryptor {
                 fos.write(buffer, 0, read);
                 fos.flush();
             }
+            // make sure the crypt is on the device storage before anyone relies on it
+            fos.getFD().sync();
             fos.close();
             cis.close();
             fis.close();
@@ -87,18 +122,4 @@ class AESEncryptor implements IFileEncryptor {
         }
         return true;
     }
-
-    @Override
-    public SecretKey generateKey() {
-        KeyGenerator kgen;
-        try {
-            kgen = KeyGenerator.getInstance("AES");
-            kgen.init(128);
-        } catch (NoSuchAlgorithmException e) {
-            Log.w(TAG, "Wasn't able to find AES algorithm");
-            return null;
-        }
-
-        return kgen.generateKey();
-    }
 }
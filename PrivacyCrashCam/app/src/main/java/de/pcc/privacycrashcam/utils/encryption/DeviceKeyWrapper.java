@@ -0,0 +1,144 @@
+package de.pcc.privacycrashcam.utils.encryption;
+
+import android.content.Context;
+import android.security.KeyPairGeneratorSpec;
+import android.util.Log;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.Calendar;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Class that wraps symmetric keys which the app itself needs to read again later, e.g. the session
+ * key of a video which is assembled when the device is idle.
+ * <p>
+ * The keys are encrypted with an RSA key pair kept in the AndroidKeyStore. Its private key never
+ * leaves the key store, so wrapped keys written to the app's storage do not reveal the files they
+ * protect. The key pair is created on first use. Uses RSA/ECB/PKCS1Padding like the
+ * {@link RSAEncryptor}.
+ * </p>
+ *
+ * @author Giorgio Gross
+ */
+public class DeviceKeyWrapper {
+
+    /* #############################################################################################
+     *                                  attributes
+     * ###########################################################################################*/
+
+    /**
+     * Tag used for logging.
+     */
+    private static final String TAG = DeviceKeyWrapper.class.getName();
+    private static final String KEY_STORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    /**
+     * Alias of the key pair in the AndroidKeyStore.
+     */
+    static final String KEY_ALIAS = "session_key_wrapper";
+    private static final int KEY_SIZE = 2048;
+
+    private final Context context;
+
+    /* #############################################################################################
+     *                                  constructors
+     * ###########################################################################################*/
+
+    /**
+     * Creates a new wrapper.
+     *
+     * @param context Android context used to create the key pair.
+     */
+    public DeviceKeyWrapper(Context context) {
+        this.context = context;
+    }
+
+    /* #############################################################################################
+     *                                  methods
+     * ###########################################################################################*/
+
+    /**
+     * Encrypts the passed symmetric key with the device's public key.
+     *
+     * @param key Symmetric key which should be wrapped.
+     * @return Returns the wrapped key or null if there was an error.
+     */
+    public byte[] wrap(SecretKey key) {
+        if (key == null) return null;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.WRAP_MODE, getPublicKey());
+            return cipher.wrap(key);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "Wrapping the symmetric key failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decrypts a symmetric key which was wrapped by {@link #wrap(SecretKey)} on this device.
+     *
+     * @param wrapped   The wrapped key.
+     * @param algorithm Algorithm of the symmetric key, e.g. "AES".
+     * @return Returns the restored key or null if there was an error.
+     */
+    public SecretKey unwrap(byte[] wrapped, String algorithm) {
+        if (wrapped == null || wrapped.length == 0) return null;
+        try {
+            KeyStore keyStore = loadKeyStore();
+            Key privateKey = keyStore.getKey(KEY_ALIAS, null);
+            if (!(privateKey instanceof PrivateKey)) {
+                Log.w(TAG, "Device key is missing");
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.UNWRAP_MODE, privateKey);
+            return (SecretKey) cipher.unwrap(wrapped, algorithm, Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "Unwrapping the symmetric key failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private PublicKey getPublicKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = loadKeyStore();
+        synchronized (DeviceKeyWrapper.class) {
+            Certificate certificate = keyStore.getCertificate(KEY_ALIAS);
+            if (certificate != null) return certificate.getPublicKey();
+
+            // the certificate is required by the key store but never checked
+            Calendar start = Calendar.getInstance();
+            Calendar end = Calendar.getInstance();
+            end.add(Calendar.YEAR, 30);
+            @SuppressWarnings("deprecation")
+            KeyPairGeneratorSpec spec = new KeyPairGeneratorSpec.Builder(context)
+                    .setAlias(KEY_ALIAS)
+                    .setKeySize(KEY_SIZE)
+                    .setSubject(new X500Principal("CN=" + KEY_ALIAS))
+                    .setSerialNumber(BigInteger.ONE)
+                    .setStartDate(start.getTime())
+                    .setEndDate(end.getTime())
+                    .build();
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", KEY_STORE);
+            generator.initialize(spec);
+            return generator.generateKeyPair().getPublic();
+        }
+    }
+
+    private static KeyStore loadKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE);
+        keyStore.load(null);
+        return keyStore;
+    }
+}
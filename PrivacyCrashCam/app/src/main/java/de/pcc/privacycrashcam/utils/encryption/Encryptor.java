@@ -84,4 +84,54 @@ public class Encryptor {
 
         return keyEncryptor.encrypt(key, publicKey, encKey);
     }
+
+    /**
+     * Creates a new symmetric key which can be used with {@link #encrypt(File, SecretKey, File)}.
+     * Use this if files belonging to the same video need to be encrypted at different times.
+     *
+     * @return Returns a newly generated symmetric key or null if there was an error.
+     */
+    public SecretKey generateKey() {
+        return fileEncryptor.generateKey();
+    }
+
+    /**
+     * Encrypts a single file with the passed symmetric key. The key itself is not encrypted, see
+     * {@link #encryptKey(SecretKey, InputStream, File)}.
+     *
+     * @param input  File which should be encrypted.
+     * @param key    Symmetric key used for encryption.
+     * @param output Output file for the created crypt.
+     * @return Returns whether encrypting the file was successful or not.
+     */
+    public boolean encrypt(File input, SecretKey key, File output) {
+        return fileEncryptor.encrypt(input, key, output);
+    }
+
+    /**
+     * Decrypts a single file which was encrypted with the passed symmetric key.
+     *
+     * @param input  File which should be decrypted.
+     * @param key    Symmetric key used for encryption.
+     * @param output Output file for the plain content.
+     * @return Returns whether decrypting the file was successful or not.
+     */
+    public boolean decrypt(File input, SecretKey key, File output) {
+        return fileEncryptor.decrypt(input, key, output);
+    }
+
+    /**
+     * Encrypts the passed symmetric key with the public asymmetric key.
+     *
+     * @param key       Symmetric key which should be encrypted.
+     * @param publicKey InputStream of the public asymmetric key file.
+     * @param encKey    Output file for the encrypted symmetric key.
+     * @return Returns whether encrypting the symmetric key was successful or not.
+     */
+    public boolean encryptKey(SecretKey key, InputStream publicKey, File encKey) {
+        if (key == null || encKey == null) {
+            return false;
+        }
+        return keyEncryptor.encrypt(key, publicKey, encKey);
+    }
 }
@@ -28,6 +28,17 @@ interface IFileEncryptor {
      */
     boolean encrypt(File input, SecretKey key, File output);
 
+    /**
+     * Decrypts a file input which was encrypted with {@link #encrypt(File, SecretKey, File)} and
+     * the same symmetric key. Writes the plain content into the output file.
+     *
+     * @param input  File which should be decrypted.
+     * @param key    Symmetric key used for encryption.
+     * @param output Output file for the plain content.
+     * @return Returns whether decrypting the file was successful or not.
+     */
+    boolean decrypt(File input, SecretKey key, File output);
+
     /**
      * Creates a new symmetric SecretKey. The created key matches the used
      * algorithm e.g. AES.
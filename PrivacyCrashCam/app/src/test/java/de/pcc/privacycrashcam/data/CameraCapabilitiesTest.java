@@ -0,0 +1,65 @@
+package de.pcc.privacycrashcam.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class CameraCapabilitiesTest {
+    private static final String FINGERPRINT = "vendor/device:6.0/build:user/release-keys";
+
+    private CameraCapabilities capabilities;
+    private String key;
+
+    @Before
+    public void setUp() throws Exception {
+        capabilities = new CameraCapabilities(FINGERPRINT);
+        key = CameraCapabilities.GetKey(0, 1, 1920, 1080, 4, 10);
+        capabilities.put(key, new CameraCapabilities.Configuration(1280, 720, 10, 90));
+    }
+
+    @Test
+    public void restoreFromJson() throws Exception {
+        CameraCapabilities restored = new CameraCapabilities(capabilities.getAsJSON(), FINGERPRINT);
+
+        CameraCapabilities.Configuration configuration = restored.get(key);
+        assertNotNull(configuration);
+        assertEquals(1280, configuration.previewWidth);
+        assertEquals(720, configuration.previewHeight);
+        assertEquals(10, configuration.frameRate);
+        assertEquals(90, configuration.cameraOrientation);
+    }
+
+    @Test
+    public void invalidatedByOsUpdate() throws Exception {
+        CameraCapabilities restored = new CameraCapabilities(capabilities.getAsJSON(),
+                FINGERPRINT + ".1");
+
+        assertNull(restored.get(key));
+        assertEquals(0, restored.size());
+        assertEquals(FINGERPRINT + ".1", restored.getFingerprint());
+    }
+
+    @Test
+    public void keyCoversGeometryAndSettings() throws Exception {
+        assertNull(capabilities.get(CameraCapabilities.GetKey(0, 3, 1920, 1080, 4, 10)));
+        assertNull(capabilities.get(CameraCapabilities.GetKey(0, 1, 1920, 1080, 5, 10)));
+        assertNull(capabilities.get(CameraCapabilities.GetKey(0, 1, 1920, 1080, 4, 30)));
+        assertNotNull(capabilities.get(CameraCapabilities.GetKey(0, 1, 1920, 1080, 4, 10)));
+    }
+
+    @Test
+    public void dropsOldestConfiguration() throws Exception {
+        for (int i = 0; i < CameraCapabilities.MAX_CONFIGURATIONS; i++) {
+            capabilities.put(CameraCapabilities.GetKey(0, 0, i, i, 4, 10),
+                    new CameraCapabilities.Configuration(i, i, 10, 90));
+        }
+
+        assertEquals(CameraCapabilities.MAX_CONFIGURATIONS, capabilities.size());
+        assertNull(capabilities.get(key));
+        assertNotNull(capabilities.get(CameraCapabilities.GetKey(0, 0, 0, 0, 4, 10)));
+    }
+}
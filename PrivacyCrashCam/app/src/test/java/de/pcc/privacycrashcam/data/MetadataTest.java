@@ -0,0 +1,46 @@
+package de.pcc.privacycrashcam.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class MetadataTest {
+    private static final float G = 9.80665f;
+
+    private static Metadata sensor(float x, float y, float z) {
+        return new Metadata(0, Metadata.TRIGGER_TYPE_SENSOR, new float[]{x, y, z});
+    }
+
+    private static Metadata touch() {
+        return new Metadata(0, Metadata.TRIGGER_TYPE_TOUCH, new float[]{0, 0, G});
+    }
+
+    @Test
+    public void manualSeverity() throws Exception {
+        assertEquals(Metadata.SEVERITY_MANUAL, touch().getSeverity(), 0);
+        assertTrue(touch().isManual());
+    }
+
+    @Test
+    public void sensorSeverity() throws Exception {
+        Metadata light = sensor(3 * G, 0, G);
+        Metadata heavy = sensor(-10 * G, 0, G);
+
+        assertTrue(light.getSeverity() > Metadata.SEVERITY_MANUAL);
+        assertTrue(heavy.getSeverity() > light.getSeverity());
+        assertFalse(heavy.isManual());
+    }
+
+    @Test
+    public void additionalTriggersRaiseSeverity() throws Exception {
+        Metadata manual = touch();
+        Metadata impact = sensor(8 * G, 0, G);
+        manual.addAdditionalTrigger(impact);
+
+        assertEquals(impact.getSeverity(), manual.getSeverity(), 0);
+        assertFalse(manual.isManual());
+    }
+}
@@ -0,0 +1,57 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class ConcurrencyControllerTest {
+    private static final long RANGE_BYTES = 512 * 1024;
+
+    /**
+     * Reports ranges uploaded over a link where each stream gets at most the passed throughput and
+     * all streams share the link's throughput.
+     */
+    private static void upload(ConcurrencyController controller, int ranges,
+                               double streamThroughput, double linkThroughput) {
+        for (int i = 0; i < ranges; i++) {
+            int streams = controller.getConcurrency();
+            double throughput = Math.min(streamThroughput, linkThroughput / streams);
+            controller.onRangeCompleted(RANGE_BYTES, (long) (RANGE_BYTES / throughput));
+        }
+    }
+
+    @Test
+    public void growsUntilLinkIsSaturated() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 8);
+        upload(controller, 100, 100, 400);
+        assertEquals(4, controller.getConcurrency());
+    }
+
+    @Test
+    public void staysAtOneStreamIfItSaturatesLink() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(2, 8);
+        upload(controller, 100, 400, 400);
+        assertEquals(1, controller.getConcurrency());
+    }
+
+    @Test
+    public void respectsMaximum() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 3);
+        upload(controller, 100, 10, 400);
+        assertEquals(3, controller.getConcurrency());
+    }
+
+    @Test
+    public void followsLossierLink() throws Exception {
+        ConcurrencyController controller = new ConcurrencyController(1, 8);
+        upload(controller, 100, 200, 400);
+        assertEquals(2, controller.getConcurrency());
+
+        // more loss slows down each stream, so more streams are needed
+        upload(controller, 200, 50, 400);
+        assertTrue(controller.getConcurrency() >= 6);
+    }
+}
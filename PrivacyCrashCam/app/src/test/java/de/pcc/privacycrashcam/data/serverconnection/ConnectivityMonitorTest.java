@@ -0,0 +1,148 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class ConnectivityMonitorTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ServerSocket server;
+    private ConnectivityMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        monitor = new ConnectivityMonitor("localhost", server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Monitor whose probes wait for the results queued by the test.
+     */
+    private static class ScriptedMonitor extends ConnectivityMonitor {
+        final BlockingQueue<Boolean> results = new LinkedBlockingQueue<>();
+        final Semaphore started = new Semaphore(0);
+
+        ScriptedMonitor() {
+            super("localhost", 0);
+        }
+
+        @Override
+        boolean probe() {
+            started.release();
+            try {
+                Boolean result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                return result != null && result;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    private static int getClosedPort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    @Test
+    public void probe() throws Exception {
+        assertTrue(ConnectivityMonitor.Probe("localhost", server.getLocalPort(), 1000));
+        assertFalse(ConnectivityMonitor.Probe("localhost", getClosedPort(), 1000));
+    }
+
+    @Test
+    public void firstCheckProbes() throws Exception {
+        assertTrue(monitor.isServiceReachable());
+        assertFalse(new ConnectivityMonitor("localhost", getClosedPort()).isServiceReachable());
+    }
+
+    @Test
+    public void stateIsCached() throws Exception {
+        assertTrue(monitor.isServiceReachable());
+        server.close();
+
+        // the state is not outdated yet
+        assertTrue(monitor.isServiceReachable());
+    }
+
+    @Test
+    public void lostConnectivity() throws Exception {
+        assertTrue(monitor.isServiceReachable());
+
+        monitor.onConnectivityChanged(false);
+        assertFalse(monitor.isServiceReachable());
+    }
+
+    @Test
+    public void regainedConnectivity() throws Exception {
+        monitor.onConnectivityChanged(false);
+        assertFalse(monitor.isServiceReachable());
+
+        monitor.onConnectivityChanged(true);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!monitor.isServiceReachable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(monitor.isServiceReachable());
+    }
+
+    @Test
+    public void nonBlockingCheckProbesInBackground() throws Exception {
+        ConnectivityMonitor unreachable = new ConnectivityMonitor("localhost", getClosedPort());
+        // nothing is known yet, so the request should be tried
+        assertTrue(unreachable.mightReachService());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (unreachable.mightReachService() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(unreachable.mightReachService());
+        assertTrue(monitor.mightReachService());
+    }
+
+    @Test
+    public void staleProbeDoesNotOverrideLostConnectivity() throws Exception {
+        ScriptedMonitor monitor = new ScriptedMonitor();
+        monitor.onConnectivityChanged(true);
+        assertTrue(monitor.started.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        monitor.onConnectivityChanged(false);
+        monitor.results.add(true);
+        assertTrue(monitor.awaitProbes(TIMEOUT_SECONDS * 1000));
+        assertFalse(monitor.mightReachService());
+    }
+
+    @Test
+    public void reconnectDuringProbeProbesAgain() throws Exception {
+        ScriptedMonitor monitor = new ScriptedMonitor();
+        monitor.onConnectivityChanged(true);
+        assertTrue(monitor.started.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the device switched networks while the first one was probed
+        monitor.onConnectivityChanged(true);
+        monitor.results.add(false);
+        monitor.results.add(true);
+        assertTrue(monitor.awaitProbes(TIMEOUT_SECONDS * 1000));
+        // the second network was probed as well
+        assertEquals(1, monitor.started.availablePermits());
+        assertTrue(monitor.mightReachService());
+    }
+}
@@ -0,0 +1,81 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads a video over a simulated cellular link with a single and with several streams and
+ * reports the time each took. Only the uploads are checked, the times depend on the machine
+ * running the tests.
+ *
+ * @author Giorgio Gross
+ */
+public class ParallelUploadBenchmarkTest {
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_STREAMS = 6;
+
+    // a lossy link where a single stream gets a quarter of the bandwidth
+    private static final long LATENCY_MILLIS = 20;
+    private static final long STREAM_BYTES_PER_SECOND = 256 * 1024;
+    private static final long LINK_BYTES_PER_SECOND = 1024 * 1024;
+    private static final double LOSS_RATE = 0.02;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ResumableUploadServer server;
+    private File video;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ResumableUploadServer(0, folder.newFolder("server"));
+        server.simulateLink(LATENCY_MILLIS, STREAM_BYTES_PER_SECOND, LINK_BYTES_PER_SECOND,
+                LOSS_RATE);
+        server.start();
+
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        video = folder.newFile("video.mp4");
+        try (FileOutputStream output = new FileOutputStream(video)) {
+            output.write(content);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private long measureMillis(int streams, String name) throws Exception {
+        ResumableUploadClient client = new ResumableUploadClient(server.getDomain(),
+                folder.newFolder(name), CHUNK_SIZE);
+        client.setRetryDelayMillis(0);
+        long start = System.nanoTime();
+        assertEquals(RequestState.SUCCESS, client.upload(video, streams));
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    @Test
+    public void reportsParallelUploadTime() throws Exception {
+        long single = measureMillis(1, "single");
+        // the server knows the file now, so upload a changed one
+        try (FileOutputStream output = new FileOutputStream(video, true)) {
+            output.write(0);
+        }
+        long parallel = measureMillis(MAX_STREAMS, "parallel");
+
+        System.out.println("Upload benchmark");
+        System.out.println("1 stream:  " + single + " ms");
+        System.out.println("up to " + MAX_STREAMS + " streams: " + parallel + " ms");
+    }
+}
@@ -0,0 +1,101 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class ProgressOutputStreamTest {
+
+    /**
+     * Records the reported progress and cancels on request.
+     */
+    private static class RecordingObserver implements TransferObserver {
+        final List<Integer> reports = new ArrayList<>();
+        boolean cancelled = false;
+
+        @Override
+        public void onProgress(int percent) {
+            reports.add(percent);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    @Test
+    public void passesAndCountsBytes() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        RecordingObserver observer = new RecordingObserver();
+        ProgressOutputStream stream = new ProgressOutputStream(target, 10, observer, 0);
+
+        stream.write(new byte[]{1, 2, 3, 4, 5, 6}, 1, 4);
+        stream.write(7);
+        stream.write(new byte[5]);
+
+        assertEquals(10, stream.getSentBytes());
+        assertArrayEquals(new byte[]{2, 3, 4, 5, 7, 0, 0, 0, 0, 0}, target.toByteArray());
+        assertEquals(Arrays.asList(40, 50, 100), observer.reports);
+    }
+
+    @Test
+    public void throttlesReportsButNotCompletion() throws Exception {
+        RecordingObserver observer = new RecordingObserver();
+        ProgressOutputStream stream = new ProgressOutputStream(new ByteArrayOutputStream(), 100,
+                observer, 60 * 1000);
+
+        for (int i = 0; i < 120; i++) {
+            stream.write(0);
+        }
+
+        // the first report goes out right away, the rest is throttled until the end
+        assertEquals(Arrays.asList(1, 100), observer.reports);
+    }
+
+    @Test
+    public void unknownLengthReportsNothing() throws Exception {
+        RecordingObserver observer = new RecordingObserver();
+        ProgressOutputStream stream = new ProgressOutputStream(new ByteArrayOutputStream(), -1,
+                observer, 0);
+
+        stream.write(new byte[1024]);
+
+        assertEquals(Arrays.asList(0), observer.reports);
+        assertEquals(1024, stream.getSentBytes());
+    }
+
+    @Test
+    public void cancelledTransferFails() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        RecordingObserver observer = new RecordingObserver();
+        ProgressOutputStream stream = new ProgressOutputStream(target, 100, observer, 0);
+
+        stream.write(new byte[10]);
+        observer.cancelled = true;
+        try {
+            stream.write(new byte[10]);
+            fail("Write after cancellation succeeded");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        assertEquals(10, target.size());
+    }
+
+    @Test
+    public void percentIsClamped() throws Exception {
+        assertEquals(0, ProgressOutputStream.GetPercent(0, 200));
+        assertEquals(50, ProgressOutputStream.GetPercent(100, 200));
+        assertEquals(100, ProgressOutputStream.GetPercent(300, 200));
+        assertEquals(0, ProgressOutputStream.GetPercent(300, 0));
+    }
+}
@@ -0,0 +1,153 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class ResumableUploadClientTest {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int FILE_SIZE = 2600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ResumableUploadServer server;
+    private File sessionDir;
+    private File video;
+    private String uploadId;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ResumableUploadServer(0, folder.newFolder("server"));
+        server.start();
+        sessionDir = folder.newFolder("sessions");
+
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        video = folder.newFile("video.mp4");
+        try (FileOutputStream output = new FileOutputStream(video)) {
+            output.write(content);
+        }
+        uploadId = ResumableUploadClient.Hash(video);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private ResumableUploadClient createClient() {
+        ResumableUploadClient client =
+                new ResumableUploadClient(server.getDomain(), sessionDir, CHUNK_SIZE);
+        client.setRetryDelayMillis(0);
+        return client;
+    }
+
+    private void assertUploaded() throws Exception {
+        File uploaded = server.getCompletedFile(uploadId);
+        assertNotNull(uploaded);
+        assertEquals(uploadId, ResumableUploadClient.Hash(uploaded));
+        // the session is not needed anymore
+        assertEquals(0, sessionDir.list().length);
+    }
+
+    @Test
+    public void uploadsInChunks() throws Exception {
+        assertEquals(RequestState.SUCCESS, createClient().upload(video));
+        assertUploaded();
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void resumesAtCommittedOffsetAfterDroppedConnection() throws Exception {
+        server.dropAfter(500);
+        assertEquals(RequestState.SUCCESS, createClient().upload(video));
+        assertUploaded();
+        // nothing the server committed was sent again
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void resumesAfterRestart() throws Exception {
+        server.unavailableAfter(CHUNK_SIZE);
+        assertEquals(RequestState.NETWORK_FAILURE, createClient().upload(video));
+        assertEquals(Arrays.asList(video.getName() + ".session"),
+                Arrays.asList(sessionDir.list()));
+
+        server.unavailableAfter(-1);
+        assertEquals(RequestState.SUCCESS, createClient().upload(video));
+        assertUploaded();
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void serverWithoutProgressFailsUpload() throws Exception {
+        server.stall(true);
+        assertEquals(RequestState.NETWORK_FAILURE, createClient().upload(video));
+        // the upload can be resumed once the server stores chunks again
+        assertEquals(Arrays.asList(video.getName() + ".session"),
+                Arrays.asList(sessionDir.list()));
+    }
+
+    @Test
+    public void skipsCompletedUpload() throws Exception {
+        assertEquals(RequestState.SUCCESS, createClient().upload(video));
+        assertEquals(RequestState.SUCCESS, createClient().upload(video));
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void hashMismatchIsRejected() throws Exception {
+        server.corruptNextChunk();
+        assertEquals(RequestState.INPUT_FAILURE, createClient().upload(video));
+        assertNull(server.getCompletedFile(uploadId));
+        assertEquals(0, sessionDir.list().length);
+    }
+
+    @Test
+    public void parallelUploadIsConcatenated() throws Exception {
+        assertEquals(RequestState.SUCCESS, createClient().upload(video, 3));
+        assertUploaded();
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void parallelUploadResumesParts() throws Exception {
+        server.dropAfter(100);
+        assertEquals(RequestState.SUCCESS, createClient().upload(video, 3));
+        assertUploaded();
+        assertEquals(FILE_SIZE, server.getReceivedBytes());
+    }
+
+    @Test
+    public void partsConsistOfWholeChunks() throws Exception {
+        assertEquals(CHUNK_SIZE, ResumableUploadClient.GetPartSize(FILE_SIZE, CHUNK_SIZE, 3));
+        assertEquals(CHUNK_SIZE, ResumableUploadClient.GetPartSize(1, CHUNK_SIZE, 3));
+        // 4 MiB over 2 streams gives 8 parts of 512 KiB
+        assertEquals(512 * 1024, ResumableUploadClient.GetPartSize(4 * 1024 * 1024, 1024, 2));
+        assertEquals(3 * 1024, ResumableUploadClient.GetPartSize(20 * 1024 + 1, 1024, 2));
+    }
+
+    @Test
+    public void changedFileGetsNewSession() throws Exception {
+        ResumableUploadClient client = createClient();
+        assertEquals(uploadId, client.getSession(video).getUploadId());
+
+        try (FileOutputStream output = new FileOutputStream(video, true)) {
+            output.write(1);
+        }
+        assertNotEquals(uploadId, client.getSession(video).getUploadId());
+    }
+}
@@ -0,0 +1,379 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.pcc.privacycrashcam.data.serverconnection.ResumableUploadClient.*;
+
+/**
+ * Local stand-in for the server side of the resumable upload protocol of
+ * {@link ResumableUploadClient}. Supports injecting faults, so that resuming uploads can be tested.
+ * <p>A slow link can be simulated with latency, limited bandwidth per stream and in total, and
+ * randomly dropped connections. Limiting the bandwidth of a single stream models TCP on a lossy
+ * link which rarely uses the whole bandwidth of the link.</p>
+ * <p>Run {@link #main(String[])} to start it standalone, e.g. for load tests with several
+ * devices.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class ResumableUploadServer implements HttpHandler {
+    private final HttpServer server;
+    private final File storageDir;
+    private final HashMap<String, Upload> uploads = new HashMap<>();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private long dropAfterBytes = -1;
+    private long unavailableAfterBytes = -1;
+    private boolean corruptNextChunk = false;
+    private boolean stalled = false;
+
+    private long latencyMillis = 0;
+    private long streamBytesPerSecond = 0;
+    private long linkBytesPerSecond = 0;
+    private double lossRate = 0;
+    private final Random random = new Random(0);
+    private final Object linkLock = new Object();
+    private long linkFreeAtNanos = 0;
+
+    /**
+     * Creates a server storing uploads in the passed directory. Call {@link #start()} to start it.
+     *
+     * @param port       port to listen on or 0 to pick a free one
+     * @param storageDir directory to store uploads in
+     */
+    public ResumableUploadServer(int port, File storageDir) throws IOException {
+        this.storageDir = storageDir;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/" + PATH_UPLOADS, this);
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param args port, storage directory, latency in ms, bytes per second per stream, bytes per
+     *             second in total and loss rate, all optional
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        File dir = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+        ResumableUploadServer server = new ResumableUploadServer(port, dir);
+        if (args.length > 2) server.simulateLink(Long.parseLong(args[2]),
+                Long.parseLong(args[3]), Long.parseLong(args[4]), Double.parseDouble(args[5]));
+        server.start();
+        System.out.println("Serving uploads at " + server.getDomain() + ", storing in " + dir);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String getDomain() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Simulates a slow link. Pass 0 to disable a limit.
+     *
+     * @param latencyMillis        delay of every request
+     * @param streamBytesPerSecond bandwidth of a single stream
+     * @param linkBytesPerSecond   bandwidth of all streams together
+     * @param lossRate             probability of a chunk's connection being dropped
+     */
+    public synchronized void simulateLink(long latencyMillis, long streamBytesPerSecond,
+                                          long linkBytesPerSecond, double lossRate) {
+        this.latencyMillis = latencyMillis;
+        this.streamBytesPerSecond = streamBytesPerSecond;
+        this.linkBytesPerSecond = linkBytesPerSecond;
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Drops the connection of the next chunk after committing the passed number of its bytes.
+     */
+    public synchronized void dropAfter(long bytes) {
+        dropAfterBytes = bytes;
+    }
+
+    /**
+     * Answers all requests with 503 once the passed number of bytes was committed in total. Pass
+     * -1 to become available again.
+     */
+    public synchronized void unavailableAfter(long bytes) {
+        unavailableAfterBytes = bytes;
+    }
+
+    /**
+     * Answers all chunks with 409 and the committed offset without committing them, like a server
+     * which cannot store anything.
+     */
+    public synchronized void stall(boolean stalled) {
+        this.stalled = stalled;
+    }
+
+    /**
+     * Flips a byte of the next chunk, so that the hash of the upload does not match.
+     */
+    public synchronized void corruptNextChunk() {
+        corruptNextChunk = true;
+    }
+
+    /**
+     * @return number of bytes of all chunks received so far
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * @return the file of a completed upload or null if there is none
+     */
+    public synchronized File getCompletedFile(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        return upload != null && upload.committed() == upload.length ? upload.data : null;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            long latency;
+            synchronized (this) {
+                if (unavailableAfterBytes >= 0 && receivedBytes.get() >= unavailableAfterBytes) {
+                    respond(exchange, 503, -1);
+                    return;
+                }
+                latency = latencyMillis;
+            }
+            if (latency > 0) Thread.sleep(latency);
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String prefix = "/" + PATH_UPLOADS;
+            if ("POST".equals(method) && path.equals(prefix)) {
+                open(exchange);
+            } else if ("PUT".equals(method) && path.startsWith(prefix + "/")) {
+                append(exchange, path.substring(prefix.length() + 1));
+            } else {
+                respond(exchange, 405, -1);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void open(HttpExchange exchange) throws IOException {
+        String id = exchange.getRequestHeaders().getFirst(HEADER_UPLOAD_ID);
+        String length = exchange.getRequestHeaders().getFirst(HEADER_UPLOAD_LENGTH);
+        if (id == null || !id.matches("[0-9a-f]{64}(-[0-9]+)?") || length == null) {
+            respond(exchange, 400, -1);
+            return;
+        }
+        String parts = exchange.getRequestHeaders().getFirst(HEADER_UPLOAD_PARTS);
+        if (parts != null) {
+            concatenate(exchange, id, Long.parseLong(length), Integer.parseInt(parts));
+            return;
+        }
+        Upload upload;
+        boolean created = false;
+        synchronized (this) {
+            upload = uploads.get(id);
+            if (upload == null) {
+                upload = new Upload(Long.parseLong(length), new File(storageDir, id));
+                uploads.put(id, upload);
+                created = true;
+            }
+        }
+        if (upload.length != Long.parseLong(length)) {
+            respond(exchange, 400, -1);
+            return;
+        }
+        respond(exchange, created ? 201 : 200, upload.committed());
+    }
+
+    private void concatenate(HttpExchange exchange, String id, long length, int parts)
+            throws IOException {
+        synchronized (this) {
+            Upload upload = uploads.get(id);
+            if (upload != null && upload.length == length && upload.committed() == length) {
+                respond(exchange, 200, length);
+                return;
+            }
+            long total = 0;
+            for (int i = 0; i < parts; i++) {
+                Upload part = uploads.get(GetPartId(id, i));
+                if (part == null || part.committed() != part.length) {
+                    respond(exchange, STATUS_CONFLICT, -1);
+                    return;
+                }
+                total += part.length;
+            }
+            if (total != length) {
+                respond(exchange, 400, -1);
+                return;
+            }
+
+            upload = new Upload(length, new File(storageDir, id));
+            try (OutputStream output = new FileOutputStream(upload.data)) {
+                for (int i = 0; i < parts; i++) {
+                    File part = uploads.remove(GetPartId(id, i)).data;
+                    Files.copy(part.toPath(), output);
+                    Files.delete(part.toPath());
+                }
+            }
+            if (!id.equals(ResumableUploadClient.Hash(upload.data))) {
+                //noinspection ResultOfMethodCallIgnored
+                upload.data.delete();
+                respond(exchange, STATUS_HASH_MISMATCH, -1);
+                return;
+            }
+            uploads.put(id, upload);
+            respond(exchange, 201, length);
+        }
+    }
+
+    private void append(HttpExchange exchange, String id) throws IOException, InterruptedException {
+        Upload upload;
+        long limit;
+        boolean corrupt;
+        long streamRate;
+        boolean stall;
+        synchronized (this) {
+            upload = uploads.get(id);
+            limit = dropAfterBytes;
+            dropAfterBytes = -1;
+            if (limit < 0 && lossRate > 0 && random.nextDouble() < lossRate) {
+                limit = random.nextInt(Integer.parseInt(
+                        exchange.getRequestHeaders().getFirst("Content-Length")) + 1);
+            }
+            corrupt = corruptNextChunk;
+            corruptNextChunk = false;
+            streamRate = streamBytesPerSecond;
+            stall = stalled;
+        }
+        if (upload == null) {
+            respond(exchange, 404, -1);
+            return;
+        }
+        if (stall) {
+            respond(exchange, STATUS_CONFLICT, upload.committed());
+            return;
+        }
+
+        synchronized (upload) {
+            long offset = Long.parseLong(exchange.getRequestHeaders().getFirst(HEADER_UPLOAD_OFFSET));
+            long length = Long.parseLong(exchange.getRequestHeaders().getFirst("Content-Length"));
+            if (offset != upload.committed()) {
+                respond(exchange, STATUS_CONFLICT, upload.committed());
+                return;
+            }
+            if (offset + length > upload.length) {
+                respond(exchange, 400, upload.committed());
+                return;
+            }
+
+            long toRead = limit >= 0 ? Math.min(limit, length) : length;
+            long start = System.nanoTime();
+            long streamBytes = 0;
+            try (InputStream input = exchange.getRequestBody();
+                 OutputStream output = new FileOutputStream(upload.data, true)) {
+                byte[] buffer = new byte[8192];
+                while (toRead > 0) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, toRead));
+                    if (read == -1) break;
+                    if (corrupt) {
+                        buffer[0] ^= 1;
+                        corrupt = false;
+                    }
+                    output.write(buffer, 0, read);
+                    toRead -= read;
+                    receivedBytes.addAndGet(read);
+                    streamBytes += read;
+                    throttle(start, streamBytes, streamRate, read);
+                }
+            }
+            if (limit >= 0 && limit < length) {
+                // the server closes the connection without a response
+                throw new IOException("Dropping connection");
+            }
+
+            // parts are verified when they are concatenated
+            if (upload.committed() == upload.length && !id.contains("-")) {
+                if (!id.equals(ResumableUploadClient.Hash(upload.data))) {
+                    synchronized (this) {
+                        uploads.remove(id);
+                    }
+                    //noinspection ResultOfMethodCallIgnored
+                    upload.data.delete();
+                    respond(exchange, STATUS_HASH_MISMATCH, -1);
+                    return;
+                }
+            }
+            respond(exchange, 204, upload.committed());
+        }
+    }
+
+    /**
+     * Waits until the bytes read so far fit the bandwidth of the stream and of the link.
+     */
+    private void throttle(long streamStart, long streamBytes, long streamRate, int read)
+            throws InterruptedException {
+        long now = System.nanoTime();
+        long wakeUp = now;
+        if (streamRate > 0) {
+            wakeUp = streamStart + streamBytes * 1000000000L / streamRate;
+        }
+        synchronized (linkLock) {
+            long linkRate;
+            synchronized (this) {
+                linkRate = linkBytesPerSecond;
+            }
+            if (linkRate > 0) {
+                linkFreeAtNanos = Math.max(now, linkFreeAtNanos) + read * 1000000000L / linkRate;
+                wakeUp = Math.max(wakeUp, linkFreeAtNanos);
+            }
+        }
+        long sleepNanos = wakeUp - now;
+        if (sleepNanos > 0) Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+    }
+
+    private static void respond(HttpExchange exchange, int status, long offset) throws IOException {
+        if (offset >= 0) {
+            exchange.getResponseHeaders().set(HEADER_UPLOAD_OFFSET, Long.toString(offset));
+        }
+        // the JDK server does not reliably keep connections alive after responses without body
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static class Upload {
+        final long length;
+        final File data;
+
+        Upload(long length, File data) {
+            this.length = length;
+            this.data = data;
+        }
+
+        long committed() {
+            return data.length();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.pcc.privacycrashcam.data.Account;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class SessionCacheTest {
+    private static final long TTL = 1000;
+
+    private SessionCache cache;
+    private Account account;
+    private List<AuthenticationState> responses;
+    private List<String> errors;
+    private ServerResponseCallback<AuthenticationState> callback;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new SessionCache(TTL);
+        account = new Account("mail", "pw");
+        responses = new ArrayList<>();
+        errors = new ArrayList<>();
+        callback = new ServerResponseCallback<AuthenticationState>() {
+            @Override
+            public void onResponse(AuthenticationState response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onProgress(int percent) {
+            }
+
+            @Override
+            public void onError(String error) {
+                errors.add(error);
+            }
+        };
+    }
+
+    @Test
+    public void sessionExpires() throws Exception {
+        assertFalse(cache.isValid(account, 0));
+        cache.onAuthenticated(account, AuthenticationState.SUCCESS, 0);
+
+        assertTrue(cache.isValid(account, TTL - 1));
+        assertFalse(cache.isValid(account, TTL));
+    }
+
+    @Test
+    public void sessionBelongsToCredentials() throws Exception {
+        cache.onAuthenticated(account, AuthenticationState.SUCCESS, 0);
+
+        assertTrue(cache.isValid(new Account("mail", "pw"), 0));
+        assertFalse(cache.isValid(new Account("mail", "other"), 0));
+        assertFalse(cache.isValid(new Account("other", "pw"), 0));
+    }
+
+    @Test
+    public void failedAuthenticationEndsSession() throws Exception {
+        cache.onAuthenticated(account, AuthenticationState.SUCCESS, 0);
+        cache.onAuthenticated(account, AuthenticationState.FAILURE_MISMATCH, 1);
+
+        assertFalse(cache.isValid(account, 1));
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        cache.onAuthenticated(account, AuthenticationState.SUCCESS, 0);
+        cache.invalidate();
+
+        assertFalse(cache.isValid(account, 0));
+    }
+
+    @Test
+    public void concurrentRequestsShareAuthentication() throws Exception {
+        assertTrue(cache.awaitAuthentication(account, callback));
+        assertFalse(cache.awaitAuthentication(account, callback));
+        assertFalse(cache.awaitAuthentication(new Account("mail", "pw"), callback));
+        // another account needs its own authentication
+        assertTrue(cache.awaitAuthentication(new Account("other", "pw"), callback));
+
+        cache.onAuthenticated(account, AuthenticationState.SUCCESS, 0);
+        assertEquals(3, responses.size());
+        for (AuthenticationState response : responses) {
+            assertEquals(AuthenticationState.SUCCESS, response);
+        }
+
+        // the next request starts a new authentication
+        assertTrue(cache.awaitAuthentication(account, callback));
+    }
+
+    @Test
+    public void errorsReachAllWaitingRequests() throws Exception {
+        cache.awaitAuthentication(account, callback);
+        cache.awaitAuthentication(account, callback);
+
+        cache.onAuthenticationFailed(account, "No network available");
+        assertEquals(2, errors.size());
+        assertTrue(responses.isEmpty());
+        assertFalse(cache.isValid(account, 0));
+    }
+}
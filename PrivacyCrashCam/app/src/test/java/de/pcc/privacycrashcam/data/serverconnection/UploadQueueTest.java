@@ -0,0 +1,371 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.pcc.privacycrashcam.data.UploadJob;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class UploadQueueTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Keeps the jobs as JSON like the shared preferences do.
+     */
+    private static class JsonStore implements UploadJobStore {
+        private List<String> saved = new ArrayList<>();
+
+        @Override
+        public synchronized List<UploadJob> load() {
+            List<UploadJob> jobs = new ArrayList<>();
+            for (String json : saved) {
+                try {
+                    jobs.add(new UploadJob(json));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return jobs;
+        }
+
+        @Override
+        public synchronized void save(List<UploadJob> jobs) {
+            saved = new ArrayList<>();
+            for (UploadJob job : jobs) {
+                saved.add(job.getAsJSON());
+            }
+        }
+    }
+
+    /**
+     * Returns scripted results and records the order in which jobs ran. Reports half of the
+     * upload as progress and stops early if the job was cancelled. Each upload runs on a thread of
+     * its own, like a transfer of the server proxy.
+     */
+    private static class ScriptedRunner implements UploadJobRunner {
+        private final LinkedList<RequestState> results;
+        private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        ScriptedRunner(RequestState... results) {
+            this.results = new LinkedList<>(Arrays.asList(results));
+        }
+
+        @Override
+        public void start(final UploadJob job, final UploadHandle handle,
+                          final ServerResponseCallback<RequestState> callback) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResponse(upload(job, handle, callback));
+                }
+            }).start();
+        }
+
+        private RequestState upload(UploadJob job, UploadHandle handle,
+                                    ServerResponseCallback<RequestState> callback) {
+            order.add(job.getVideoTag());
+            callback.onProgress(50);
+            int now = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (now <= max || maxRunning.compareAndSet(max, now)) break;
+            }
+            try {
+                long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+                while (!release.await(10, TimeUnit.MILLISECONDS)
+                        && System.currentTimeMillis() < end) {
+                    if (handle.isCancelled()) {
+                        running.decrementAndGet();
+                        return RequestState.CANCELLED;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            synchronized (results) {
+                return results.isEmpty() ? RequestState.SUCCESS : results.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Records every change of a job.
+     */
+    private static class RecordingListener implements UploadJobListener {
+        final BlockingQueue<UploadJob> changes = new LinkedBlockingQueue<>();
+        final List<UploadJob> seen = new ArrayList<>();
+        final BlockingQueue<String> progress = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> removed = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onJobChanged(UploadJob job) {
+            changes.add(job);
+        }
+
+        @Override
+        public void onJobProgress(String videoTag, int percent) {
+            progress.add(videoTag + " " + percent);
+        }
+
+        @Override
+        public void onJobRemoved(String videoTag) {
+            removed.add(videoTag);
+        }
+
+        /**
+         * Waits until the passed video's job reached the passed state.
+         */
+        UploadJob await(String videoTag, UploadJob.State state) throws Exception {
+            for (UploadJob job : seen) {
+                if (job.getVideoTag().equals(videoTag) && job.getState() == state) return job;
+            }
+            while (true) {
+                UploadJob job = changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertNotNull("Timed out waiting for " + videoTag + " " + state, job);
+                seen.add(job);
+                if (job.getVideoTag().equals(videoTag) && job.getState() == state) return job;
+            }
+        }
+    }
+
+    @Test
+    public void runsJobsByPriority() throws Exception {
+        ScriptedRunner runner = new ScriptedRunner();
+        runner.release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(new JsonStore(), runner, 1, 10);
+        queue.addListener(listener);
+
+        queue.enqueue("first", 0);
+        listener.await("first", UploadJob.State.RUNNING);
+        queue.enqueue("low", 0.1f);
+        queue.enqueue("high", 0.9f);
+        queue.enqueue("low2", 0.1f);
+        runner.release.countDown();
+
+        listener.await("low2", UploadJob.State.SUCCEEDED);
+        assertEquals(Arrays.asList("first", "high", "low", "low2"), runner.order);
+        assertTrue(queue.getJobs().isEmpty());
+    }
+
+    @Test
+    public void limitsRunningJobs() throws Exception {
+        ScriptedRunner runner = new ScriptedRunner();
+        runner.release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(new JsonStore(), runner, 2, 10);
+        queue.addListener(listener);
+
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue("video" + i, 0);
+        }
+        Thread.sleep(100);
+        assertEquals(2, runner.running.get());
+        runner.release.countDown();
+
+        for (int i = 0; i < 5; i++) {
+            listener.await("video" + i, UploadJob.State.SUCCEEDED);
+        }
+        assertEquals(2, runner.maxRunning.get());
+    }
+
+    @Test
+    public void retriesNetworkFailuresWithBackoff() throws Exception {
+        ScriptedRunner runner = new ScriptedRunner(RequestState.NETWORK_FAILURE,
+                RequestState.FAILURE_OTHER, RequestState.SUCCESS);
+        RecordingListener listener = new RecordingListener();
+        JsonStore store = new JsonStore();
+        UploadQueue queue = new UploadQueue(store, runner, 1, 10);
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        UploadJob waiting = listener.await("video", UploadJob.State.WAITING_FOR_RETRY);
+        assertEquals(RequestState.NETWORK_FAILURE.name(), waiting.getLastError());
+        UploadJob succeeded = listener.await("video", UploadJob.State.SUCCEEDED);
+        assertEquals(3, succeeded.getAttempts());
+        queue.awaitSaved();
+        assertTrue(store.load().isEmpty());
+    }
+
+    @Test
+    public void rejectedUploadIsNotRetried() throws Exception {
+        ScriptedRunner runner = new ScriptedRunner(RequestState.INPUT_FAILURE);
+        RecordingListener listener = new RecordingListener();
+        JsonStore store = new JsonStore();
+        UploadQueue queue = new UploadQueue(store, runner, 1, 10);
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        listener.await("video", UploadJob.State.FAILED);
+        Thread.sleep(50);
+        assertEquals(1, runner.order.size());
+        queue.awaitSaved();
+        assertEquals(UploadJob.State.FAILED, store.load().get(0).getState());
+
+        // the user asks for another attempt
+        queue.retry("video");
+        listener.await("video", UploadJob.State.SUCCEEDED);
+        assertEquals(2, runner.order.size());
+    }
+
+    @Test
+    public void continuesJobsAfterRestart() throws Exception {
+        JsonStore store = new JsonStore();
+        UploadJob interrupted = new UploadJob("interrupted", 0);
+        interrupted.setState(UploadJob.State.RUNNING);
+        interrupted.setAttempts(1);
+        UploadJob waiting = new UploadJob("waiting", 0);
+        waiting.setState(UploadJob.State.WAITING_FOR_RETRY);
+        waiting.setAttempts(2);
+        waiting.setNextAttemptAt(System.currentTimeMillis() + 50);
+        UploadJob failed = new UploadJob("failed", 0);
+        failed.setState(UploadJob.State.FAILED);
+        store.save(Arrays.asList(interrupted, waiting, failed));
+
+        ScriptedRunner runner = new ScriptedRunner();
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(store, runner, 1, 10);
+        queue.addListener(listener);
+        queue.restore();
+
+        listener.await("interrupted", UploadJob.State.SUCCEEDED);
+        assertEquals(3, listener.await("waiting", UploadJob.State.SUCCEEDED).getAttempts());
+        assertEquals(Arrays.asList("interrupted", "waiting"), runner.order);
+        queue.awaitSaved();
+        assertEquals(1, store.load().size());
+        assertEquals("failed", store.load().get(0).getVideoTag());
+    }
+
+    @Test
+    public void jobsQueuedWhileRestoringAreKept() throws Exception {
+        JsonStore store = new JsonStore();
+        UploadJob failed = new UploadJob("failed", 0);
+        failed.setState(UploadJob.State.FAILED);
+        store.save(Arrays.asList(failed));
+
+        ScriptedRunner runner = new ScriptedRunner();
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(store, runner, 1, 10);
+        queue.addListener(listener);
+        queue.restore();
+        queue.enqueue("new", 0);
+
+        listener.await("new", UploadJob.State.SUCCEEDED);
+        queue.awaitSaved();
+        List<UploadJob> saved = store.load();
+        assertEquals(1, saved.size());
+        assertEquals("failed", saved.get(0).getVideoTag());
+    }
+
+    @Test
+    public void cancelRemovesJob() throws Exception {
+        JsonStore store = new JsonStore();
+        UploadQueue queue = new UploadQueue(store, new ScriptedRunner(RequestState.INPUT_FAILURE),
+                1, 10);
+        RecordingListener listener = new RecordingListener();
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        listener.await("video", UploadJob.State.FAILED);
+        queue.cancel("video");
+        assertTrue(queue.getJobs().isEmpty());
+        queue.awaitSaved();
+        assertTrue(store.load().isEmpty());
+    }
+
+    @Test
+    public void reportsProgressOfRunningJob() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(new JsonStore(), new ScriptedRunner(), 1, 10);
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        assertEquals("video 50", listener.progress.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        listener.await("video", UploadJob.State.SUCCEEDED);
+    }
+
+    @Test
+    public void cancelAbortsRunningJob() throws Exception {
+        ScriptedRunner runner = new ScriptedRunner();
+        runner.release = new CountDownLatch(1);
+        JsonStore store = new JsonStore();
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(store, runner, 1, 10);
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        queue.enqueue("next", 0);
+        listener.await("video", UploadJob.State.RUNNING);
+        queue.cancel("video");
+
+        // the next job starts without waiting for the cancelled upload to time out
+        assertEquals("video", listener.removed.poll(1, TimeUnit.SECONDS));
+        listener.await("next", UploadJob.State.RUNNING);
+        runner.release.countDown();
+        listener.await("next", UploadJob.State.SUCCEEDED);
+        queue.awaitSaved();
+        assertTrue(store.load().isEmpty());
+    }
+
+    @Test
+    public void errorOfUploadIsRetried() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        UploadQueue queue = new UploadQueue(new JsonStore(), new UploadJobRunner() {
+            @Override
+            public void start(UploadJob job, UploadHandle handle,
+                              ServerResponseCallback<RequestState> callback) {
+                callback.onError("connection refused");
+                // later results of the same upload are ignored
+                callback.onResponse(RequestState.SUCCESS);
+            }
+        }, 1, 60000);
+        queue.addListener(listener);
+
+        queue.enqueue("video", 0);
+        UploadJob waiting = listener.await("video", UploadJob.State.WAITING_FOR_RETRY);
+        assertEquals(RequestState.NETWORK_FAILURE.name(), waiting.getLastError());
+        assertEquals(1, queue.getJobs().size());
+    }
+
+    @Test
+    public void backoffDoublesUpToMaximum() throws Exception {
+        assertEquals(30000, UploadQueue.GetBackoffMillis(30000, 1));
+        assertEquals(60000, UploadQueue.GetBackoffMillis(30000, 2));
+        assertEquals(120000, UploadQueue.GetBackoffMillis(30000, 3));
+        assertEquals(UploadQueue.MAX_BACKOFF_MILLIS, UploadQueue.GetBackoffMillis(30000, 100));
+        assertFalse(UploadQueue.IsRetryable(RequestState.ACCOUNT_FAILURE));
+        assertTrue(UploadQueue.IsRetryable(RequestState.NETWORK_FAILURE));
+    }
+
+    @Test
+    public void failedAuthenticationIsRetriedUnlessAccountRejected() throws Exception {
+        assertTrue(UploadQueue.IsRetryable(
+                ServerProxy.GetUploadState(AuthenticationState.FAILURE_OTHER)));
+        assertTrue(UploadQueue.IsRetryable(
+                ServerProxy.GetUploadState(AuthenticationState.FAILURE_NETWORK)));
+        assertFalse(UploadQueue.IsRetryable(
+                ServerProxy.GetUploadState(AuthenticationState.FAILURE_MISMATCH)));
+        assertFalse(UploadQueue.IsRetryable(
+                ServerProxy.GetUploadState(AuthenticationState.FAILURE_MISSING)));
+        assertFalse(UploadQueue.IsRetryable(
+                ServerProxy.GetUploadState(AuthenticationState.NOT_VERIFIED)));
+    }
+}
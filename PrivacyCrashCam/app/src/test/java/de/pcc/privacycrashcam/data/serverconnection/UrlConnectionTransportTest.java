@@ -0,0 +1,230 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class UrlConnectionTransportTest {
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final String ACCOUNT = "{\"mail\":\"a@b.de\",\"password\":\"p&ss=1\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String domain;
+    private final BlockingQueue<HttpExchange> exchanges = new LinkedBlockingQueue<>();
+    private final BlockingQueue<byte[]> bodies = new LinkedBlockingQueue<>();
+    private volatile int status = 200;
+    private volatile String response = "SUCCESS";
+
+    private UrlConnectionTransport transport;
+
+    /**
+     * Receives the result of an upload.
+     */
+    private static class RecordingCallback implements TransportCallback {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onResponse(String content) {
+            results.add(content);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            results.add(cause);
+        }
+
+        Object await() throws InterruptedException {
+            Object result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("Timed out waiting for the upload", result);
+            return result;
+        }
+    }
+
+    /**
+     * Records the progress and cancels once the passed percentage was reported.
+     */
+    private static class RecordingObserver implements TransferObserver {
+        private final int cancelAt;
+        volatile int lastPercent = -1;
+
+        RecordingObserver(int cancelAt) {
+            this.cancelAt = cancelAt;
+        }
+
+        @Override
+        public void onProgress(int percent) {
+            lastPercent = percent;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return lastPercent >= cancelAt;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/webservice/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream input = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    // the client aborted the request
+                    exchange.close();
+                    return;
+                }
+                bodies.add(body.toByteArray());
+                exchanges.add(exchange);
+                byte[] content = response.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, content.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(content);
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        domain = "http://localhost:" + server.getAddress().getPort() + "/webservice/";
+        transport = new UrlConnectionTransport();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        File file = folder.newFile(name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content);
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+    }
+
+    @Test
+    public void authenticatePostsAccountAsForm() throws Exception {
+        assertEquals("SUCCESS", transport.authenticate(domain, ACCOUNT));
+
+        HttpExchange exchange = exchanges.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("/webservice/authenticate", exchange.getRequestURI().getPath());
+        assertEquals("application/x-www-form-urlencoded",
+                exchange.getRequestHeaders().getFirst("Content-Type"));
+        String form = new String(bodies.take(), "UTF-8");
+        assertTrue(form.startsWith("account="));
+        assertEquals(ACCOUNT, URLDecoder.decode(form.substring("account=".length()), "UTF-8"));
+    }
+
+    @Test
+    public void errorResponseIsRead() throws Exception {
+        status = 500;
+        response = "NOT EXISTING";
+        assertEquals("NOT EXISTING", transport.authenticate(domain, ACCOUNT));
+    }
+
+    @Test
+    public void uploadStreamsMultipartWithFixedLength() throws Exception {
+        File video = createFile("video.mp4", 3 * 256 * 1024 + 17);
+        File metadata = createFile("metadata.json", 300);
+        File key = createFile("key.key", 256);
+        response = "Finished editing video";
+        RecordingObserver observer = new RecordingObserver(Integer.MAX_VALUE);
+        RecordingCallback callback = new RecordingCallback();
+
+        transport.uploadVideo(domain, video, metadata, key, ACCOUNT, observer, callback);
+
+        assertEquals("Finished editing video", callback.await());
+        assertEquals(100, observer.lastPercent);
+        HttpExchange exchange = exchanges.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("/webservice/videoUpload", exchange.getRequestURI().getPath());
+        assertNull(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        assertTrue(contentType.startsWith("multipart/form-data; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+        byte[] bytes = bodies.take();
+        assertEquals(Long.parseLong(exchange.getRequestHeaders().getFirst("Content-Length")),
+                bytes.length);
+        String body = new String(bytes, "ISO-8859-1");
+        assertTrue(body.startsWith("--" + boundary + "\r\n"));
+        assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+        // four parts between the opening and the closing boundary
+        assertEquals(6, body.split("--" + boundary, -1).length);
+        assertTrue(body.contains("name=\"video\"; filename=\"video.mp4\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n" + read(video) + "\r\n"));
+        assertTrue(body.contains("name=\"metadata\"; filename=\"metadata.json\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n" + read(metadata) + "\r\n"));
+        assertTrue(body.contains("name=\"key\"; filename=\"key.key\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n" + read(key) + "\r\n"));
+        assertTrue(body.contains("name=\"account\"\r\nContent-Type: text/plain\r\n\r\n"
+                + ACCOUNT + "\r\n"));
+    }
+
+    @Test
+    public void cancelledObserverAbortsUpload() throws Exception {
+        File video = createFile("video.mp4", 4 * 1024 * 1024);
+        File metadata = createFile("metadata.json", 300);
+        File key = createFile("key.key", 256);
+        RecordingCallback callback = new RecordingCallback();
+
+        transport.uploadVideo(domain, video, metadata, key, ACCOUNT, new RecordingObserver(0),
+                callback);
+
+        assertTrue(callback.await() instanceof InterruptedIOException);
+        assertNull(exchanges.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void unreachableServerFailsUpload() throws Exception {
+        server.stop(0);
+        RecordingCallback callback = new RecordingCallback();
+
+        transport.uploadVideo(domain, createFile("video.mp4", 100), createFile("m", 1),
+                createFile("k", 1), ACCOUNT, new RecordingObserver(Integer.MAX_VALUE), callback);
+
+        assertEquals(RequestState.NETWORK_FAILURE,
+                VideoUploadTask.GetFailureState((Throwable) callback.await()));
+    }
+}
@@ -0,0 +1,163 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
+
+/**
+ * Accelerometer samples along with the onsets of all real impacts they contain. Used to replay
+ * recorded or synthetic drives through the {@link CrashDetector}.
+ * <p>Traces can be read from CSV files with lines of the form {@code timestampNanos,x,y,z}. Lines
+ * starting with {@code #impact <timestampNanos>} mark impact onsets, other lines starting with
+ * {@code #} are ignored.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class AccelerationTrace {
+    private static final String CSV_COMMENT = "#";
+    private static final String CSV_IMPACT = "#impact";
+
+    private final String name;
+    private long[] timestamps = new long[1024];
+    private float[] xs = new float[1024];
+    private float[] ys = new float[1024];
+    private float[] zs = new float[1024];
+    private int size = 0;
+    private long[] impacts = new long[0];
+
+    public AccelerationTrace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reads a trace from a CSV stream.
+     *
+     * @param name  name of the trace
+     * @param input stream to read from. Will be closed
+     * @return the trace
+     * @throws IOException if reading fails or a line is malformed
+     */
+    public static AccelerationTrace ReadCsv(String name, InputStream input) throws IOException {
+        AccelerationTrace trace = new AccelerationTrace(name);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (line.startsWith(CSV_IMPACT)) {
+                    trace.addImpact(Long.parseLong(line.substring(CSV_IMPACT.length()).trim()));
+                    continue;
+                }
+                if (line.startsWith(CSV_COMMENT)) continue;
+                String[] values = line.split(",");
+                if (values.length != 4) throw new IOException("Malformed line: " + line);
+                trace.add(Long.parseLong(values[0].trim()), Float.parseFloat(values[1].trim()),
+                        Float.parseFloat(values[2].trim()), Float.parseFloat(values[3].trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Reads a trace from a binary track written by {@link TraceEncoder}. Binary tracks do not
+     * contain impact onsets, so they need to be passed separately.
+     *
+     * @param name    name of the trace
+     * @param input   stream to read from. Will not be closed
+     * @param impacts impact onsets in the trace's time base
+     * @return the trace
+     * @throws IOException if reading fails or the input is no valid track
+     */
+    public static AccelerationTrace ReadBinary(String name, InputStream input, long... impacts)
+            throws IOException {
+        AccelerationTraceBuffer buffer = TraceEncoder.Decode(input);
+        AccelerationTrace trace = new AccelerationTrace(name);
+        for (int i = 0; i < buffer.size(); i++) {
+            trace.add(buffer.getTimestamp(i), buffer.getX(i), buffer.getY(i), buffer.getZ(i));
+        }
+        for (long impact : impacts) trace.addImpact(impact);
+        return trace;
+    }
+
+    /**
+     * Copies all samples into a frozen {@link AccelerationTraceBuffer}.
+     *
+     * @return the buffer
+     */
+    public AccelerationTraceBuffer toBuffer() {
+        AccelerationTraceBuffer buffer = new AccelerationTraceBuffer(Math.max(1, size),
+                Long.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            buffer.put(timestamps[i], xs[i], ys[i], zs[i]);
+        }
+        buffer.freeze();
+        return buffer;
+    }
+
+    public void add(long timestampNanos, float x, float y, float z) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+        }
+        timestamps[size] = timestampNanos;
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        size++;
+    }
+
+    public void addImpact(long timestampNanos) {
+        impacts = Arrays.copyOf(impacts, impacts.length + 1);
+        impacts[impacts.length - 1] = timestampNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    public float getZ(int index) {
+        return zs[index];
+    }
+
+    /**
+     * @return onsets of all real impacts in chronological order
+     */
+    public long[] getImpacts() {
+        return impacts;
+    }
+
+    /**
+     * @return time span covered by the samples
+     */
+    public long getDurationNanos() {
+        return size < 2 ? 0 : timestamps[size - 1] - timestamps[0];
+    }
+}
@@ -0,0 +1,176 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class CrashDetectorTest implements TriggerCallback {
+    private static final long SAMPLE_PERIOD_NANOS = 5L * 1000000L; // 200 Hz
+    private static final float G = CrashDetector.GRAVITY_EARTH;
+
+    private CrashDetector detector;
+    private long time;
+    private int triggers;
+    private float lastGForce;
+
+    @Before
+    public void setUp() throws Exception {
+        detector = new CrashDetector(this);
+        time = 0;
+        triggers = 0;
+        lastGForce = 0;
+    }
+
+    @Override
+    public void onTrigger(long timestampNanos, float gForce, float x, float y, float z) {
+        triggers++;
+        lastGForce = gForce;
+    }
+
+    /**
+     * Feeds samples with the passed acceleration on the x axis and gravity on the z axis.
+     */
+    private void feed(float xInG, long durationMillis) {
+        long end = time + durationMillis * 1000000L;
+        while (time < end) {
+            detector.onSample(time, xInG * G, 0, G);
+            time += SAMPLE_PERIOD_NANOS;
+        }
+    }
+
+    /**
+     * Feeds samples with the passed acceleration on the z axis, which is the axis of gravity.
+     */
+    private void feedVertical(float zInG, long durationMillis) {
+        long end = time + durationMillis * 1000000L;
+        while (time < end) {
+            detector.onSample(time, 0, 0, zInG * G);
+            time += SAMPLE_PERIOD_NANOS;
+        }
+    }
+
+    @Test
+    public void restDoesNotTrigger() throws Exception {
+        feed(0, 5000);
+
+        assertEquals(0, triggers);
+        assertEquals(0, detector.getWindowedG(), 0.01);
+        assertEquals(0, detector.getJerk(), 0.01);
+    }
+
+    @Test
+    public void shortSpikeDoesNotTrigger() throws Exception {
+        feed(0, 1000);
+        feed(5, 5);
+        feed(0, 1000);
+
+        assertEquals(0, triggers);
+    }
+
+    @Test
+    public void impactTriggersOnce() throws Exception {
+        feed(0, 1000);
+        feed(6, 150);
+        feed(0, 3000);
+
+        assertEquals(1, triggers);
+        assertTrue(lastGForce > 4);
+        assertFalse(detector.isTriggered());
+    }
+
+    @Test
+    public void moderateSingleAxisImpactTriggers() throws Exception {
+        // triggered the previous detector, which compared each raw axis with 2.3 g
+        feed(0, 1000);
+        feed(2.5f, 150);
+
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    public void impactAlongGravityKeepsLegacyThreshold() throws Exception {
+        feedVertical(1, 1000);
+        feedVertical(CrashDetector.LEGACY_AXIS_G - 0.2f, 150);
+        feedVertical(1, 3000);
+        assertEquals(0, triggers);
+
+        feedVertical(CrashDetector.LEGACY_AXIS_G + 0.2f, 150);
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    public void negativeImpactTriggers() throws Exception {
+        feed(0, 1000);
+        feed(-6, 150);
+
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    public void oscillationWithinRefractoryTriggersOnce() throws Exception {
+        feed(0, 1000);
+        for (int i = 0; i < 5; i++) {
+            feed(6, 100);
+            feed(0, 100);
+        }
+
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    public void separateImpactsTriggerTwice() throws Exception {
+        feed(0, 1000);
+        feed(6, 150);
+        feed(0, 3000);
+        feed(6, 150);
+
+        assertEquals(2, triggers);
+        assertEquals(2, detector.getTriggerCount());
+    }
+
+    @Test
+    public void jerk() throws Exception {
+        feed(0, 1000);
+        feed(6, 5);
+
+        // 6 g between the oldest and the newest sample of the window
+        double windowSeconds = CrashDetector.WINDOW_NANOS_DEFAULT / 1e9;
+        assertEquals(6 / windowSeconds, detector.getJerk(), 0.1 * 6 / windowSeconds);
+    }
+
+    @Test
+    public void noAllocationPerSample() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(allocBean.isThreadAllocatedMemorySupported());
+        allocBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // warm up so that class loading and compilation do not count
+        feedImpacts(100000);
+
+        long before = allocBean.getThreadAllocatedBytes(threadId);
+        feedImpacts(1000000);
+        long allocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(triggers > 0);
+        // allow some bytes for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private void feedImpacts(int samples) {
+        for (int i = 0; i < samples; i++) {
+            float x = (i % 1000) < 30 ? 6 * G : 0;
+            detector.onSample(time, x, 0, G);
+            time += SAMPLE_PERIOD_NANOS;
+        }
+    }
+}
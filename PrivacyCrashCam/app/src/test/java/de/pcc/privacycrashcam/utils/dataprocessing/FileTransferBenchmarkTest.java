@@ -0,0 +1,162 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the CPU time it takes to send a video to a socket with the old upload path, which
+ * passes 8 KiB blocks like Jersey's file provider, with large blocks and with transferTo. Also
+ * compares persisting a video with the old 1 KiB copy loop to {@link FileTransfer#Copy(File, File)}.
+ * The times are only reported, they depend on the machine running the tests.
+ *
+ * @author Giorgio Gross
+ */
+public class FileTransferBenchmarkTest {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final int RUNS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private ServerSocket server;
+    private Thread drain;
+    private File video;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        video = folder.newFile("video.mp4");
+        try (FileOutputStream output = new FileOutputStream(video)) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) output.write(block);
+        }
+
+        // discards whatever is sent by the benchmarks
+        server = new ServerSocket(0);
+        drain = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[1024 * 1024];
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept(); InputStream input = socket.getInputStream()) {
+                        //noinspection StatementWithEmptyBody
+                        while (input.read(buffer) != -1) ;
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        });
+        drain.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        drain.join(5000);
+    }
+
+    private interface Sender {
+        void send(SocketChannel socket) throws IOException;
+    }
+
+    /**
+     * @return lowest CPU time of the runs in milliseconds per MiB
+     */
+    private double measure(Sender sender) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            try (SocketChannel socket = SocketChannel.open(
+                    new InetSocketAddress("localhost", server.getLocalPort()))) {
+                long start = threads.getCurrentThreadCpuTime();
+                sender.send(socket);
+                best = Math.min(best, threads.getCurrentThreadCpuTime() - start);
+            }
+        }
+        return best / 1e6 / (FILE_SIZE / (1024.0 * 1024));
+    }
+
+    private double measureCopy(boolean transfer) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            File target = new File(folder.getRoot(), "copy" + i);
+            long start = threads.getCurrentThreadCpuTime();
+            if (transfer) {
+                assertTrue(FileTransfer.Copy(video, target));
+            } else {
+                byte[] buffer = new byte[1024];
+                int read;
+                try (FileInputStream fis = new FileInputStream(video);
+                     FileOutputStream fos = new FileOutputStream(target)) {
+                    while ((read = fis.read(buffer)) != -1) fos.write(buffer, 0, read);
+                }
+            }
+            best = Math.min(best, threads.getCurrentThreadCpuTime() - start);
+            assertEquals(FILE_SIZE, target.length());
+        }
+        return best / 1e6 / (FILE_SIZE / (1024.0 * 1024));
+    }
+
+    @Test
+    public void reportsCpuTimePerMiB() throws Exception {
+        assumeTrue(threads.isCurrentThreadCpuTimeSupported());
+        double smallBlocks = measure(new Sender() {
+            @Override
+            public void send(SocketChannel socket) throws IOException {
+                OutputStream output = socket.socket().getOutputStream();
+                byte[] buffer = new byte[8 * 1024];
+                int read;
+                try (FileInputStream input = new FileInputStream(video)) {
+                    while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+                }
+            }
+        });
+        double largeBlocks = measure(new Sender() {
+            @Override
+            public void send(SocketChannel socket) throws IOException {
+                assertEquals(FILE_SIZE, FileTransfer.Transfer(video,
+                        socket.socket().getOutputStream()));
+            }
+        });
+        double zeroCopy = measure(new Sender() {
+            @Override
+            public void send(SocketChannel socket) throws IOException {
+                try (FileChannel input = new FileInputStream(video).getChannel()) {
+                    assertEquals(FILE_SIZE, FileTransfer.Transfer(input, 0, FILE_SIZE, socket));
+                }
+            }
+        });
+        double copyLoop = measureCopy(false);
+        double copyTransfer = measureCopy(true);
+
+        System.out.println("Upload CPU time per MiB");
+        System.out.println(String.format("8 KiB blocks (old path):  %.3f ms", smallBlocks));
+        System.out.println(String.format("256 KiB blocks:           %.3f ms", largeBlocks));
+        System.out.println(String.format("transferTo to socket:     %.3f ms", zeroCopy));
+        System.out.println("Persist CPU time per MiB");
+        System.out.println(String.format("1 KiB copy loop (old):    %.3f ms", copyLoop));
+        System.out.println(String.format("transferTo to file:       %.3f ms", copyTransfer));
+    }
+}
@@ -0,0 +1,123 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class FileTransferTest {
+    private static final int FILE_SIZE = FileTransfer.BUFFER_SIZE * 2 + 123;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(content);
+        source = folder.newFile("video.mp4");
+        try (FileOutputStream output = new FileOutputStream(source)) {
+            output.write(content);
+        }
+    }
+
+    /**
+     * Channel which only takes bytes from the transfer's own buffer, so transferTo never makes
+     * progress, like a non-blocking socket whose buffer is full at that moment.
+     */
+    private static class StubbornChannel implements WritableByteChannel {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final WritableByteChannel delegate = Channels.newChannel(bytes);
+        private int writes = 0;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!src.isDirect() || src.capacity() != FileTransfer.BUFFER_SIZE) return 0;
+            writes++;
+            return delegate.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    @Test
+    public void transfersRangeToChannel() throws Exception {
+        File target = folder.newFile("target");
+        try (FileChannel input = new FileInputStream(source).getChannel();
+             FileOutputStream output = new FileOutputStream(target)) {
+            assertEquals(1000, FileTransfer.Transfer(input, 500, 1000, output.getChannel()));
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 500, 1500), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void stopsAtEndOfFile() throws Exception {
+        File target = folder.newFile("target");
+        try (FileChannel input = new FileInputStream(source).getChannel();
+             FileOutputStream output = new FileOutputStream(target)) {
+            assertEquals(100, FileTransfer.Transfer(input, FILE_SIZE - 100, 1000, output.getChannel()));
+        }
+    }
+
+    @Test
+    public void fallsBackToBuffer() throws Exception {
+        StubbornChannel target = new StubbornChannel();
+        try (FileChannel input = new FileInputStream(source).getChannel()) {
+            assertEquals(FILE_SIZE, FileTransfer.Transfer(input, 0, FILE_SIZE, target));
+        }
+        assertArrayEquals(content, target.bytes.toByteArray());
+        assertEquals(3, target.writes);
+    }
+
+    @Test
+    public void transfersToStreamInBlocks() throws Exception {
+        final int[] writes = {0};
+        ByteArrayOutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes[0]++;
+                super.write(b, off, len);
+            }
+        };
+        assertEquals(FILE_SIZE, FileTransfer.Transfer(source, target));
+        assertArrayEquals(content, target.toByteArray());
+        assertEquals(3, writes[0]);
+    }
+
+    @Test
+    public void copiesFile() throws Exception {
+        File target = new File(folder.getRoot(), "copy");
+        assertTrue(FileTransfer.Copy(source, target));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(FileTransfer.Copy(new File(folder.getRoot(), "missing"), target));
+    }
+}
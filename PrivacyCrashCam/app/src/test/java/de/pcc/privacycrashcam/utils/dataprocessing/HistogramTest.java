@@ -0,0 +1,69 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class HistogramTest {
+    private Histogram histogram;
+
+    @Before
+    public void setUp() throws Exception {
+        histogram = new Histogram(0, 10, 100);
+    }
+
+    @Test
+    public void bucketsIncludeUpperBound() throws Exception {
+        histogram.record(0);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(100);
+        histogram.record(101);
+
+        assertEquals(4, histogram.getBucketCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(3));
+        assertEquals(5, histogram.getCount());
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(4);
+        histogram.record(6);
+        histogram.record(500);
+
+        assertEquals(4, histogram.getMin());
+        assertEquals(500, histogram.getMax());
+        assertEquals(170, histogram.getMean(), 1e-9);
+        assertEquals(10, histogram.getPercentile(50));
+        // the overflow bucket reports the largest value
+        assertEquals(500, histogram.getPercentile(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsortedBounds() throws Exception {
+        new Histogram(10, 5);
+    }
+
+    @Test
+    public void json() throws Exception {
+        histogram.record(5);
+        JSONObject json = histogram.getAsJSON();
+
+        assertEquals(3, json.getJSONArray("bounds").length());
+        assertEquals(4, json.getJSONArray("counts").length());
+        assertEquals(1, json.getJSONArray("counts").getLong(1));
+        assertEquals(1, json.getLong("count"));
+    }
+}
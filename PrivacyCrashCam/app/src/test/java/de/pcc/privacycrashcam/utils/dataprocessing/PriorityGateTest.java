@@ -0,0 +1,157 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class PriorityGateTest {
+    private PriorityGate gate;
+    private final List<Float> passed = Collections.synchronizedList(new ArrayList<Float>());
+    private final List<String> passedNames = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        gate = new PriorityGate(1);
+        passed.clear();
+        passedNames.clear();
+    }
+
+    private Thread waitingJob(final float priority) throws InterruptedException {
+        int waiting = gate.getWaitingCount();
+        Thread job = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.acquire(priority);
+                    passed.add(priority);
+                    passedNames.add(Thread.currentThread().getName());
+                    gate.release();
+                } catch (InterruptedException e) {
+                    passed.add(Float.NaN);
+                }
+            }
+        });
+        job.start();
+        // make sure the job queued up before the next one starts
+        while (gate.getWaitingCount() == waiting) {
+            Thread.sleep(1);
+        }
+        return job;
+    }
+
+    @Test
+    public void highestPriorityFirst() throws Exception {
+        gate.acquire(0);
+        Thread low = waitingJob(1f);
+        Thread high = waitingJob(5f);
+        Thread background = waitingJob(PriorityGate.PRIORITY_BACKGROUND);
+        Thread medium = waitingJob(3f);
+        gate.release();
+
+        for (Thread job : new Thread[]{low, high, background, medium}) job.join(5000);
+        assertEquals(4, passed.size());
+        assertEquals(5f, passed.get(0), 0);
+        assertEquals(3f, passed.get(1), 0);
+        assertEquals(1f, passed.get(2), 0);
+        assertEquals(PriorityGate.PRIORITY_BACKGROUND, passed.get(3), 0);
+    }
+
+    @Test
+    public void samePriorityInArrivalOrder() throws Exception {
+        gate.acquire(0);
+        Thread first = waitingJob(2f);
+        Thread second = waitingJob(2f);
+        gate.release();
+
+        first.join(5000);
+        second.join(5000);
+        assertEquals(2, passedNames.size());
+        assertEquals(first.getName(), passedNames.get(0));
+        assertEquals(second.getName(), passedNames.get(1));
+    }
+
+    @Test
+    public void interruptedJobLeavesQueue() throws Exception {
+        gate.acquire(0);
+        Thread job = waitingJob(1f);
+        job.interrupt();
+        job.join(5000);
+
+        assertEquals(0, gate.getWaitingCount());
+        assertTrue(Float.isNaN(passed.get(0)));
+        gate.release();
+        // gate is free again
+        gate.acquire(0);
+        gate.release();
+    }
+
+    private Runnable callbackJob(final float priority) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                passed.add(priority);
+            }
+        };
+    }
+
+    @Test
+    public void callbackJobsPassByPriority() throws Exception {
+        gate.acquire(0, callbackJob(0));
+        // passed right away on the calling thread
+        assertEquals(1, passed.size());
+
+        gate.acquire(1f, callbackJob(1f));
+        gate.acquire(5f, callbackJob(5f));
+        assertEquals(2, gate.getWaitingCount());
+        assertEquals(1, passed.size());
+
+        gate.release();
+        assertEquals(5f, passed.get(1), 0);
+        gate.release();
+        assertEquals(1f, passed.get(2), 0);
+        gate.release();
+        assertEquals(0, gate.getWaitingCount());
+    }
+
+    @Test
+    public void cancelledCallbackJobDoesNotPass() throws Exception {
+        gate.acquire(0);
+        Runnable job = callbackJob(1f);
+        gate.acquire(1f, job);
+
+        assertTrue(gate.cancel(job));
+        assertFalse(gate.cancel(job));
+        gate.release();
+        assertTrue(passed.isEmpty());
+        // gate is free again
+        gate.acquire(0);
+        gate.release();
+    }
+
+    @Test
+    public void blockedAndCallbackJobsShareOrder() throws Exception {
+        gate.acquire(0);
+        Thread blocked = waitingJob(3f);
+        gate.acquire(2f, callbackJob(2f));
+        gate.release();
+
+        // the blocked job passes first and lets the callback job pass when it releases the gate
+        blocked.join(5000);
+        assertEquals(2, passed.size());
+        assertEquals(3f, passed.get(0), 0);
+        assertEquals(2f, passed.get(1), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseWithoutAcquire() throws Exception {
+        gate.release();
+    }
+}
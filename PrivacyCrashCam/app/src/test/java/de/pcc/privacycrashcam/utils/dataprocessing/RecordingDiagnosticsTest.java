@@ -0,0 +1,96 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class RecordingDiagnosticsTest {
+    private static final long MS = 1000000L;
+
+    private RecordingDiagnostics diagnostics;
+    private File first = new File("VID_1.mp4");
+    private File second = new File("VID_2.mp4");
+    private File third = new File("VID_3.mp4");
+
+    @Before
+    public void setUp() throws Exception {
+        diagnostics = new RecordingDiagnostics();
+    }
+
+    /**
+     * Records three chunks of 5 s each. The recorder needs the passed time to switch chunks.
+     */
+    private void recordChunks(long gapMillis) {
+        long time = 1000 * MS;
+        for (File chunk : Arrays.asList(first, second, third)) {
+            diagnostics.onChunkPrepared(chunk, time - MS);
+            diagnostics.onChunkStarted(chunk, time);
+            time += 5000 * MS;
+            diagnostics.onChunkStopped(chunk, time);
+            diagnostics.onRolloverHandled(time, time + gapMillis * MS, gapMillis == 0);
+            time += gapMillis * MS;
+        }
+    }
+
+    @Test
+    public void gapsAndCoverage() throws Exception {
+        recordChunks(100);
+
+        assertEquals(2, diagnostics.getGapMillis().getCount());
+        assertEquals(100, diagnostics.getGapMillis().getMax());
+        assertEquals(3, diagnostics.getRolloverCount());
+        assertEquals(0, diagnostics.getSeamlessRolloverCount());
+        // 15 s recorded within 15.2 s
+        assertEquals(15000d / 15200d, diagnostics.getCoverage(Arrays.asList(first, second, third)),
+                1e-9);
+        assertEquals(1, diagnostics.getCoverage(Collections.singletonList(second)), 1e-9);
+    }
+
+    @Test
+    public void seamlessRollovers() throws Exception {
+        recordChunks(0);
+
+        assertEquals(0, diagnostics.getGapMillis().getMax());
+        assertEquals(3, diagnostics.getSeamlessRolloverCount());
+        assertEquals(1, diagnostics.getCoverage(Arrays.asList(first, second, third)), 1e-9);
+    }
+
+    @Test
+    public void closingIsNoGap() throws Exception {
+        diagnostics.onChunkStarted(first, 0);
+        diagnostics.onChunkStopped(first, 5000 * MS);
+        diagnostics.onRecordingClosed();
+        diagnostics.onChunkStarted(second, 60000 * MS);
+
+        assertEquals(0, diagnostics.getGapMillis().getCount());
+    }
+
+    @Test
+    public void unknownChunks() throws Exception {
+        assertTrue(Double.isNaN(diagnostics.getCoverage(Collections.singletonList(first))));
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        recordChunks(100);
+        List<File> chunks = Arrays.asList(second, third);
+        JSONObject json = diagnostics.getSnapshot(chunks);
+
+        assertEquals(10000d / 10100d, json.getDouble("coverage"), 1e-9);
+        assertEquals(2, json.getJSONArray("chunks").length());
+        assertEquals(0, json.getJSONArray("chunks").getJSONObject(0).getLong("startedMs"));
+        assertEquals(5100, json.getJSONArray("chunks").getJSONObject(1).getLong("startedMs"));
+        assertEquals(1, diagnostics.getCoveragePercent().getCount());
+        assertEquals(99, diagnostics.getCoveragePercent().getMax());
+    }
+}
@@ -0,0 +1,89 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.pcc.privacycrashcam.data.RecordingStats;
+import de.pcc.privacycrashcam.data.Video;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class SegmentLengthControllerTest {
+    private static final int BUFFER_SIZE_SEC = 30;
+    private static final long BYTES_PER_SECOND = 1000000;
+
+    private SegmentLengthController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        controller = new SegmentLengthController(BUFFER_SIZE_SEC, BYTES_PER_SECOND);
+    }
+
+    @Test
+    public void defaultWithoutMeasurements() throws Exception {
+        assertEquals(Video.VIDEO_CHUNK_LENGTH, controller.chooseSegmentLength(new RecordingStats()));
+    }
+
+    @Test
+    public void shortChunksWithoutGap() throws Exception {
+        RecordingStats stats = new RecordingStats();
+        stats.addRolloverGap(0);
+
+        assertEquals(SegmentLengthController.MIN_SEGMENT_LENGTH_SEC,
+                controller.chooseSegmentLength(stats));
+    }
+
+    @Test
+    public void longChunksWithLargeGap() throws Exception {
+        RecordingStats stats = new RecordingStats();
+        stats.addRolloverGap(1000);
+
+        int length = controller.chooseSegmentLength(stats);
+        assertTrue(length > Video.VIDEO_CHUNK_LENGTH);
+        assertTrue(length <= SegmentLengthController.MAX_SEGMENT_LENGTH_SEC);
+    }
+
+    @Test
+    public void slowStorageAvoidsWaste() throws Exception {
+        RecordingStats fast = new RecordingStats();
+        fast.addRolloverGap(1000);
+        fast.addStorageThroughput(100 * BYTES_PER_SECOND);
+        RecordingStats slow = new RecordingStats();
+        slow.addRolloverGap(1000);
+        slow.addStorageThroughput(BYTES_PER_SECOND);
+
+        int fastLength = controller.chooseSegmentLength(fast);
+        int slowLength = controller.chooseSegmentLength(slow);
+        assertTrue(slowLength < fastLength);
+        // the chosen length wastes less of the buffer
+        assertTrue(SegmentLengthController.GetCapacity(BUFFER_SIZE_SEC, slowLength) * slowLength
+                < SegmentLengthController.GetCapacity(BUFFER_SIZE_SEC, fastLength) * fastLength);
+    }
+
+    @Test
+    public void capacityCoversBuffer() throws Exception {
+        for (int length = SegmentLengthController.MIN_SEGMENT_LENGTH_SEC;
+             length <= SegmentLengthController.MAX_SEGMENT_LENGTH_SEC; length++) {
+            int capacity = SegmentLengthController.GetCapacity(BUFFER_SIZE_SEC, length);
+            // the oldest chunk may be partially outside the window
+            assertTrue((capacity - 1) * length > BUFFER_SIZE_SEC - length);
+            assertTrue(capacity * length > BUFFER_SIZE_SEC);
+        }
+    }
+
+    @Test
+    public void statsMergeMeasurements() throws Exception {
+        RecordingStats stats = new RecordingStats();
+        stats.addRolloverGap(100);
+        stats.addRolloverGap(200);
+        assertEquals(130, stats.getRolloverGapMillis(), 0.001);
+        assertEquals(-1, stats.getStorageThroughput(), 0.001);
+
+        RecordingStats restored = new RecordingStats(stats.getAsJSON());
+        assertEquals(stats.getRolloverGapMillis(), restored.getRolloverGapMillis(), 0.001);
+        assertEquals(-1, restored.getStorageThroughput(), 0.001);
+    }
+}
@@ -0,0 +1,106 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.util.Random;
+
+/**
+ * Builds synthetic drives sample by sample. The device is assumed to be mounted upright with x
+ * pointing in driving direction, y to the left and z upwards, so gravity acts on the z axis. All
+ * events are overlaid with road vibration and sensor noise.
+ *
+ * @author Giorgio Gross
+ */
+public class SyntheticTraceBuilder {
+    private static final float G = CrashDetector.GRAVITY_EARTH;
+    private static final double VIBRATION_HZ = 12;
+
+    private final AccelerationTrace trace;
+    private final long periodNanos;
+    private final Random random;
+    private final float vibrationG;
+    private final float noiseG;
+    private long time = 0;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param name       name of the trace
+     * @param rateHz     sensor sampling rate
+     * @param seed       seed for the noise, so that traces are reproducible
+     * @param vibrationG amplitude of the road vibration on the z axis, in g
+     * @param noiseG     standard deviation of the sensor noise, in g
+     */
+    public SyntheticTraceBuilder(String name, int rateHz, long seed, float vibrationG,
+                                 float noiseG) {
+        this.trace = new AccelerationTrace(name);
+        this.periodNanos = 1000000000L / rateHz;
+        this.random = new Random(seed);
+        this.vibrationG = vibrationG;
+        this.noiseG = noiseG;
+    }
+
+    /**
+     * Smooth driving.
+     */
+    public SyntheticTraceBuilder cruise(long millis) {
+        return pulse(millis, 0, 0, 0, false);
+    }
+
+    /**
+     * A short vertical spike, e.g. a pothole or a curb.
+     */
+    public SyntheticTraceBuilder pothole(float peakG, long millis) {
+        return pulse(millis, 0, 0, peakG, true);
+    }
+
+    /**
+     * Hard braking with a short ramp up.
+     */
+    public SyntheticTraceBuilder braking(float decelerationG, long millis) {
+        long end = time + millis * 1000000L;
+        long rampEnd = time + Math.min(millis, 300) * 1000000L;
+        long start = time;
+        while (time < end) {
+            float ramp = time < rampEnd ? (float) (time - start) / (rampEnd - start) : 1f;
+            sample(-decelerationG * ramp, 0, 0);
+        }
+        return this;
+    }
+
+    /**
+     * A collision. The onset is marked as real impact.
+     *
+     * @param xG     peak acceleration in driving direction
+     * @param yG     peak lateral acceleration
+     * @param millis duration of the collision
+     */
+    public SyntheticTraceBuilder impact(float xG, float yG, long millis) {
+        trace.addImpact(time);
+        return pulse(millis, xG, yG, 0, true);
+    }
+
+    /**
+     * Adds a half sine pulse with the passed peak values.
+     */
+    private SyntheticTraceBuilder pulse(long millis, float xG, float yG, float zG, boolean sine) {
+        long start = time;
+        long duration = millis * 1000000L;
+        while (time < start + duration) {
+            float shape = sine ? (float) Math.sin(Math.PI * (time - start) / duration) : 1f;
+            sample(xG * shape, yG * shape, zG * shape);
+        }
+        return this;
+    }
+
+    private void sample(float xG, float yG, float zG) {
+        double vibration = vibrationG * Math.sin(2 * Math.PI * VIBRATION_HZ * time / 1e9);
+        trace.add(time,
+                (float) ((xG + noiseG * random.nextGaussian()) * G),
+                (float) ((yG + noiseG * random.nextGaussian()) * G),
+                (float) ((1 + zG + vibration + noiseG * random.nextGaussian()) * G));
+        time += periodNanos;
+    }
+
+    public AccelerationTrace build() {
+        return trace;
+    }
+}
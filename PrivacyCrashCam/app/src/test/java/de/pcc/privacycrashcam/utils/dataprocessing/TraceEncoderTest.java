@@ -0,0 +1,135 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import de.pcc.privacycrashcam.utils.datastructures.AccelerationTraceBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class TraceEncoderTest {
+    private static final long PERIOD_NANOS = 5L * 1000000L; // 200 Hz
+    private static final int CAPACITY = 1000;
+
+    private AccelerationTraceBuffer trace;
+
+    @Before
+    public void setUp() throws Exception {
+        trace = new AccelerationTraceBuffer(CAPACITY, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        long start = 123456789000L;
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            trace.put(start + i * PERIOD_NANOS, (float) Math.sin(i / 10.0) * 20f,
+                    -9.81f + i % 7, i % 2 == 0 ? 50f : -50f);
+        }
+        trace.freeze();
+
+        AccelerationTraceBuffer decoded = decode(encode(trace));
+
+        assertEquals(CAPACITY, decoded.size());
+        assertTrue(decoded.isFrozen());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(trace.getTimestamp(i), decoded.getTimestamp(i));
+            assertEquals(trace.getX(i), decoded.getX(i), 1 / TraceEncoder.VALUE_SCALE);
+            assertEquals(trace.getY(i), decoded.getY(i), 1 / TraceEncoder.VALUE_SCALE);
+            assertEquals(trace.getZ(i), decoded.getZ(i), 1 / TraceEncoder.VALUE_SCALE);
+        }
+    }
+
+    @Test
+    public void compact() throws Exception {
+        // resting device with sensor noise
+        for (int i = 0; i < CAPACITY; i++) {
+            trace.put(i * PERIOD_NANOS, 0.01f * (i % 3), 0.02f * (i % 2), 9.81f);
+        }
+        trace.freeze();
+
+        byte[] encoded = encode(trace);
+        // timestamp + 3 floats take 20 bytes per sample when stored plainly
+        assertTrue(encoded.length < CAPACITY * 8);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        trace.freeze();
+
+        assertEquals(0, decode(encode(trace)).size());
+    }
+
+    @Test
+    public void windowDropsOldSamples() throws Exception {
+        trace = new AccelerationTraceBuffer(CAPACITY, 100 * PERIOD_NANOS);
+        for (int i = 0; i < 500; i++) {
+            trace.put(i * PERIOD_NANOS, i, 0, 0);
+        }
+
+        assertEquals(101, trace.size());
+        assertEquals(399, trace.getX(0), 0);
+        assertEquals(499, trace.getX(100), 0);
+    }
+
+    @Test
+    public void frozenIgnoresSamples() throws Exception {
+        trace.put(0, 1, 2, 3);
+        trace.freeze();
+        trace.put(PERIOD_NANOS, 4, 5, 6);
+
+        assertEquals(1, trace.size());
+    }
+
+    @Test
+    public void keepsClockReference() throws Exception {
+        trace.put(123456789000L, 1, 2, 3);
+        trace.setClockReference(123456789000L, 98765432100L, 1476000000000L);
+        trace = new AccelerationTraceBuffer(trace, CAPACITY, Long.MAX_VALUE);
+        trace.freeze();
+
+        AccelerationTraceBuffer decoded = decode(encode(trace));
+        assertEquals(123456789000L, decoded.getReferenceSensorNanos());
+        assertEquals(98765432100L, decoded.getReferenceElapsedRealtimeNanos());
+        assertEquals(1476000000000L, decoded.getReferenceWallClockMillis());
+    }
+
+    @Test
+    public void readsTracksWithoutClockReference() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(TraceEncoder.MAGIC);
+        data.writeByte(TraceEncoder.VERSION_WITHOUT_CLOCK_REFERENCE);
+        // one sample at the first timestamp, all differences are 0
+        data.writeByte(1);
+        data.writeLong(5000L);
+        data.write(new byte[4]);
+
+        AccelerationTraceBuffer decoded = decode(out.toByteArray());
+        assertEquals(1, decoded.size());
+        assertEquals(5000L, decoded.getTimestamp(0));
+        assertEquals(-1, decoded.getReferenceSensorNanos());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidInput() throws Exception {
+        decode(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    private static byte[] encode(AccelerationTraceBuffer trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceEncoder.Encode(trace, out);
+        return out.toByteArray();
+    }
+
+    private static AccelerationTraceBuffer decode(byte[] encoded) throws IOException {
+        return TraceEncoder.Decode(new ByteArrayInputStream(encoded));
+    }
+}
@@ -0,0 +1,202 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays {@link AccelerationTrace AccelerationTraces} through a {@link CrashDetector} and compares
+ * the triggers with the real impacts of the trace.
+ * <p>A trigger counts as detection of an impact if it fires within {@link #MATCH_WINDOW_NANOS}
+ * after the impact's onset. Each impact can be detected once; all other triggers are false
+ * positives.</p>
+ *
+ * @author Giorgio Gross
+ */
+public class TraceReplayer implements TriggerCallback {
+    public static final long MATCH_WINDOW_NANOS = 500L * 1000000L;
+
+    private final float triggerG;
+    private final float releaseG;
+    private final long windowNanos;
+    private final long refractoryNanos;
+
+    private long[] triggers = new long[16];
+    private int triggerCount = 0;
+
+    /**
+     * Creates a replayer for detectors with default thresholds.
+     */
+    public TraceReplayer() {
+        this(CrashDetector.TRIGGER_G_DEFAULT, CrashDetector.RELEASE_G_DEFAULT,
+                CrashDetector.WINDOW_NANOS_DEFAULT, CrashDetector.REFRACTORY_NANOS_DEFAULT);
+    }
+
+    /**
+     * Creates a replayer for detectors with the passed thresholds. See
+     * {@link CrashDetector#CrashDetector(TriggerCallback, float, float, long, long, int)}.
+     */
+    public TraceReplayer(float triggerG, float releaseG, long windowNanos, long refractoryNanos) {
+        this.triggerG = triggerG;
+        this.releaseG = releaseG;
+        this.windowNanos = windowNanos;
+        this.refractoryNanos = refractoryNanos;
+    }
+
+    /**
+     * Replays the trace through a new detector.
+     *
+     * @param trace trace to be replayed
+     * @return detection quality of the replay
+     */
+    public Result replay(AccelerationTrace trace) {
+        triggerCount = 0;
+        feed(trace, newDetector());
+        return evaluate(trace, Arrays.copyOf(triggers, triggerCount));
+    }
+
+    /**
+     * Measures the time the detector needs per sample. Replays the trace repeatedly after a warm up
+     * phase.
+     *
+     * @param trace       trace to be replayed
+     * @param repetitions number of measured replays
+     * @return average time per sample in nanoseconds
+     */
+    public double measureNanosPerSample(AccelerationTrace trace, int repetitions) {
+        for (int i = 0; i < Math.max(1, repetitions / 2); i++) {
+            feed(trace, newDetector());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            feed(trace, newDetector());
+        }
+        long duration = System.nanoTime() - start;
+        return (double) duration / ((long) trace.size() * repetitions);
+    }
+
+    private CrashDetector newDetector() {
+        return new CrashDetector(this, triggerG, releaseG, windowNanos, refractoryNanos,
+                CrashDetector.WINDOW_CAPACITY_DEFAULT);
+    }
+
+    private void feed(AccelerationTrace trace, CrashDetector detector) {
+        for (int i = 0; i < trace.size(); i++) {
+            detector.onSample(trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+        }
+    }
+
+    @Override
+    public void onTrigger(long timestampNanos, float gForce, float x, float y, float z) {
+        if (triggerCount == triggers.length) triggers = Arrays.copyOf(triggers, triggerCount * 2);
+        triggers[triggerCount++] = timestampNanos;
+    }
+
+    private static Result evaluate(AccelerationTrace trace, long[] triggers) {
+        Result result = new Result(trace.getName());
+        result.samples = trace.size();
+        boolean[] used = new boolean[triggers.length];
+        for (long impact : trace.getImpacts()) {
+            boolean detected = false;
+            for (int i = 0; i < triggers.length; i++) {
+                if (used[i] || triggers[i] < impact || triggers[i] - impact > MATCH_WINDOW_NANOS)
+                    continue;
+                used[i] = true;
+                detected = true;
+                result.addLatency(triggers[i] - impact);
+                break;
+            }
+            if (!detected) result.falseNegatives++;
+        }
+        for (boolean u : used) {
+            if (!u) result.falsePositives++;
+        }
+        return result;
+    }
+
+    /**
+     * Detection quality of one or more replays.
+     */
+    public static class Result {
+        private final String name;
+        private int detections = 0;
+        private int falsePositives = 0;
+        private int falseNegatives = 0;
+        private long maxLatencyNanos = 0;
+        private long totalLatencyNanos = 0;
+        private long samples = 0;
+        /**
+         * Measured time and number of samples it was measured for. Results are weighted by their
+         * samples when they are added.
+         */
+        private double timedNanos = 0;
+        private long timedSamples = 0;
+
+        public Result(String name) {
+            this.name = name;
+        }
+
+        private void addLatency(long latency) {
+            detections++;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+
+        /**
+         * Adds the counts of the passed result to this one.
+         */
+        public void add(Result other) {
+            detections += other.detections;
+            falsePositives += other.falsePositives;
+            falseNegatives += other.falseNegatives;
+            totalLatencyNanos += other.totalLatencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, other.maxLatencyNanos);
+            samples += other.samples;
+            timedNanos += other.timedNanos;
+            timedSamples += other.timedSamples;
+        }
+
+        /**
+         * Sets the time the detector needed per sample of the replayed trace.
+         */
+        public void setNanosPerSample(double nanosPerSample) {
+            timedNanos = nanosPerSample * samples;
+            timedSamples = samples;
+        }
+
+        /**
+         * @return mean time per sample, weighted by the samples of the added results, or NaN if
+         * it was not measured
+         */
+        public double getNanosPerSample() {
+            return timedSamples == 0 ? Double.NaN : timedNanos / timedSamples;
+        }
+
+        public int getDetections() {
+            return detections;
+        }
+
+        public int getFalsePositives() {
+            return falsePositives;
+        }
+
+        public int getFalseNegatives() {
+            return falseNegatives;
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        public double getMeanLatencyMillis() {
+            return detections == 0 ? 0 : totalLatencyNanos / 1e6 / detections;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%-28s detected %2d  fp %2d  fn %2d  latency mean %6.1f ms max %6.1f ms  %8.1f ns/sample",
+                    name, detections, falsePositives, falseNegatives, getMeanLatencyMillis(),
+                    maxLatencyNanos / 1e6, getNanosPerSample());
+        }
+    }
+}
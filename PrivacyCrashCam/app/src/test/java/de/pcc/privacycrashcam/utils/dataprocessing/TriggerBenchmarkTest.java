@@ -0,0 +1,107 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays synthetic and stored drives through the {@link CrashDetector} and reports detection
+ * latency, false positives/negatives and the time spent per sample.
+ *
+ * @author Giorgio Gross
+ */
+public class TriggerBenchmarkTest {
+    private static final long MAX_LATENCY_NANOS = 100L * 1000000L;
+    // fastest rate of many devices, cruising rate of the AccelerometerSampler and the rate of
+    // slow devices, which deliver fewer samples than requested
+    private static final int[] RATES = {400, 200, 50};
+    private static final int REPETITIONS = 50;
+
+    private static List<AccelerationTrace> traces;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        traces = new ArrayList<>();
+        for (int rate : RATES) {
+            // the long bump stays below the 2.3 g of the previous detector, which counts anything
+            // above as a crash
+            traces.add(new SyntheticTraceBuilder("rough road @" + rate + "Hz", rate, 1, 0.3f, 0.05f)
+                    .cruise(2000).pothole(4f, 15).cruise(1500).pothole(5f, 20).cruise(1500)
+                    .pothole(3f, 10).cruise(1000).pothole(1f, 150).cruise(2000)
+                    .build());
+            traces.add(new SyntheticTraceBuilder("hard braking @" + rate + "Hz", rate, 2, 0.1f, 0.05f)
+                    .cruise(2000).braking(1.0f, 2500).cruise(2000)
+                    .build());
+            traces.add(new SyntheticTraceBuilder("braking, frontal @" + rate + "Hz", rate, 3, 0.1f, 0.05f)
+                    .cruise(2000).braking(0.9f, 1000).impact(-10f, 0f, 100).cruise(3000)
+                    .build());
+            traces.add(new SyntheticTraceBuilder("side impact @" + rate + "Hz", rate, 4, 0.1f, 0.05f)
+                    .cruise(2000).impact(1f, -6f, 80).cruise(3000)
+                    .build());
+            traces.add(new SyntheticTraceBuilder("minor rear impact @" + rate + "Hz", rate, 5, 0.1f, 0.05f)
+                    .cruise(2000).impact(4f, 0f, 100).cruise(3000)
+                    .build());
+            traces.add(new SyntheticTraceBuilder("chain collision @" + rate + "Hz", rate, 6, 0.1f, 0.05f)
+                    .cruise(2000).impact(-8f, 0f, 100).cruise(4000).impact(6f, 2f, 100).cruise(3000)
+                    .build());
+        }
+
+        InputStream csv = TriggerBenchmarkTest.class.getClassLoader()
+                .getResourceAsStream("traces/pothole_impact.csv");
+        assertNotNull(csv);
+        traces.add(AccelerationTrace.ReadCsv("pothole_impact.csv", csv));
+    }
+
+    @Test
+    public void replayAll() throws Exception {
+        TraceReplayer replayer = new TraceReplayer();
+        TraceReplayer.Result total = new TraceReplayer.Result("total");
+
+        System.out.println("Trigger benchmark");
+        for (AccelerationTrace trace : traces) {
+            TraceReplayer.Result result = replayer.replay(trace);
+            result.setNanosPerSample(replayer.measureNanosPerSample(trace, REPETITIONS));
+            System.out.println(result);
+            total.add(result);
+        }
+        System.out.println(total);
+
+        assertEquals(0, total.getFalseNegatives());
+        assertEquals(0, total.getFalsePositives());
+        assertTrue(total.getMaxLatencyNanos() <= MAX_LATENCY_NANOS);
+    }
+
+    @Test
+    public void binaryTrackGivesSameResult() throws Exception {
+        AccelerationTrace trace = traces.get(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceEncoder.Encode(trace.toBuffer(), out);
+        AccelerationTrace decoded = AccelerationTrace.ReadBinary(trace.getName(),
+                new ByteArrayInputStream(out.toByteArray()), trace.getImpacts());
+
+        TraceReplayer replayer = new TraceReplayer();
+        TraceReplayer.Result expected = replayer.replay(trace);
+        TraceReplayer.Result actual = replayer.replay(decoded);
+
+        assertEquals(trace.size(), decoded.size());
+        assertEquals(expected.getDetections(), actual.getDetections());
+        assertEquals(expected.getFalsePositives(), actual.getFalsePositives());
+        assertEquals(expected.getMaxLatencyNanos(), actual.getMaxLatencyNanos(), 1000);
+    }
+
+    @Test
+    public void lowThresholdCausesFalsePositives() throws Exception {
+        // sanity check of the harness itself: a naive threshold fires on potholes
+        TraceReplayer replayer = new TraceReplayer(0.8f, 0.5f, 5L * 1000000L,
+                CrashDetector.REFRACTORY_NANOS_DEFAULT);
+
+        assertTrue(replayer.replay(traces.get(0)).getFalsePositives() > 0);
+    }
+}
@@ -0,0 +1,147 @@
+package de.pcc.privacycrashcam.utils.dataprocessing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.pcc.privacycrashcam.data.Metadata;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class TriggerCoordinatorTest {
+    private static final long POST_TRIGGER = 5000;
+    private static final long MAX_EXTENSION = 10000;
+
+    private TriggerCoordinator coordinator;
+
+    @Before
+    public void setUp() throws Exception {
+        coordinator = new TriggerCoordinator(POST_TRIGGER, MAX_EXTENSION);
+    }
+
+    private static Metadata trigger(long date) {
+        return new Metadata(date, Metadata.TRIGGER_TYPE_SENSOR, new float[]{0, 0, 0});
+    }
+
+    @Test
+    public void firstTriggerOpensWindow() throws Exception {
+        Metadata first = trigger(1000);
+        CaptureWindow window = coordinator.onTrigger(first);
+
+        assertNotNull(window);
+        assertSame(first, window.getMetadata());
+        assertSame(window, coordinator.getOpenWindow());
+        assertEquals(POST_TRIGGER, window.getRemainingMillis(1000));
+    }
+
+    @Test
+    public void triggerDuringWindowIsMerged() throws Exception {
+        Metadata first = trigger(1000);
+        Metadata second = trigger(3000);
+        CaptureWindow window = coordinator.onTrigger(first);
+
+        assertNull(coordinator.onTrigger(second));
+        assertEquals(1, first.getAdditionalTriggers().size());
+        assertSame(second, first.getAdditionalTriggers().get(0));
+        assertEquals(2000, window.getExtensionMillis());
+        assertFalse(window.close(1000 + POST_TRIGGER));
+        assertTrue(window.close(3000 + POST_TRIGGER));
+    }
+
+    @Test
+    public void sameTriggerTwice() throws Exception {
+        Metadata first = trigger(1000);
+        coordinator.onTrigger(first);
+
+        assertNull(coordinator.onTrigger(first));
+        assertTrue(first.getAdditionalTriggers().isEmpty());
+        assertEquals(0, coordinator.getQueuedTriggerCount());
+    }
+
+    @Test
+    public void triggerBeyondMaxExtensionIsQueued() throws Exception {
+        Metadata first = trigger(1000);
+        Metadata late = trigger(1000 + MAX_EXTENSION + 1);
+        CaptureWindow window = coordinator.onTrigger(first);
+
+        assertNull(coordinator.onTrigger(late));
+        assertEquals(1, coordinator.getQueuedTriggerCount());
+        assertTrue(first.getAdditionalTriggers().isEmpty());
+
+        assertTrue(window.close(1000 + POST_TRIGGER));
+        CaptureWindow next = coordinator.onWindowClosed();
+        assertNotNull(next);
+        assertSame(late, next.getMetadata());
+        assertEquals(0, coordinator.getQueuedTriggerCount());
+    }
+
+    @Test
+    public void triggerAfterCloseStartsNewWindow() throws Exception {
+        CaptureWindow window = coordinator.onTrigger(trigger(1000));
+        assertTrue(window.close(1000 + POST_TRIGGER));
+        assertNull(coordinator.onWindowClosed());
+
+        Metadata next = trigger(20000);
+        CaptureWindow nextWindow = coordinator.onTrigger(next);
+        assertNotNull(nextWindow);
+        assertNotSame(window, nextWindow);
+    }
+
+    @Test
+    public void closedWindowDoesNotMerge() throws Exception {
+        Metadata first = trigger(1000);
+        CaptureWindow window = coordinator.onTrigger(first);
+        assertTrue(window.close(1000 + POST_TRIGGER));
+
+        assertFalse(window.extend(trigger(2000), 2000));
+        assertTrue(first.getAdditionalTriggers().isEmpty());
+    }
+
+    @Test
+    public void noTriggerIsDropped() throws Exception {
+        int triggers = 0;
+        int windows = 0;
+        int merged = 0;
+        long time = 0;
+        CaptureWindow window = null;
+        for (int i = 0; i < 100; i++) {
+            time += 1500;
+            triggers++;
+            CaptureWindow opened = coordinator.onTrigger(trigger(time));
+            if (opened != null) {
+                window = opened;
+                windows++;
+            }
+            if (window != null && window.close(time)) {
+                merged += window.getMetadata().getAdditionalTriggers().size();
+                window = coordinator.onWindowClosed();
+                if (window != null) windows++;
+            }
+        }
+        // close everything which is left
+        while (window != null) {
+            time += POST_TRIGGER + MAX_EXTENSION;
+            assertTrue(window.close(time));
+            merged += window.getMetadata().getAdditionalTriggers().size();
+            window = coordinator.onWindowClosed();
+            if (window != null) windows++;
+        }
+
+        assertEquals(triggers, windows + merged);
+    }
+
+    @Test
+    public void newLimitsApplyToNextWindow() throws Exception {
+        CaptureWindow window = coordinator.onTrigger(trigger(1000));
+        coordinator.setWindowLimits(2 * POST_TRIGGER, MAX_EXTENSION);
+
+        assertEquals(POST_TRIGGER, window.getRemainingMillis(1000));
+        assertTrue(window.close(1000 + POST_TRIGGER));
+        assertNull(coordinator.onWindowClosed());
+
+        CaptureWindow next = coordinator.onTrigger(trigger(20000));
+        assertEquals(2 * POST_TRIGGER, next.getRemainingMillis(20000));
+    }
+}
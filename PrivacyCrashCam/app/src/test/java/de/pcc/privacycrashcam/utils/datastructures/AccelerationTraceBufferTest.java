@@ -0,0 +1,107 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class AccelerationTraceBufferTest {
+    private static final long WINDOW = 1000;
+
+    private AccelerationTraceBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        buffer = new AccelerationTraceBuffer(4, WINDOW);
+        for (int i = 0; i < 6; i++) buffer.put(i, i, -i, 2 * i);
+    }
+
+    @Test
+    public void keepsNewestSamples() throws Exception {
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getTimestamp(0));
+        assertEquals(5, buffer.getTimestamp(3));
+    }
+
+    @Test
+    public void copyIntoLargerBuffer() throws Exception {
+        AccelerationTraceBuffer grown = new AccelerationTraceBuffer(buffer, 8, WINDOW);
+
+        assertEquals(8, grown.getCapacity());
+        assertEquals(4, grown.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(buffer.getTimestamp(i), grown.getTimestamp(i));
+            assertEquals(buffer.getX(i), grown.getX(i), 0);
+            assertEquals(buffer.getY(i), grown.getY(i), 0);
+            assertEquals(buffer.getZ(i), grown.getZ(i), 0);
+        }
+        grown.put(6, 6, -6, 12);
+        assertEquals(5, grown.size());
+    }
+
+    @Test
+    public void copyIntoSmallerBuffer() throws Exception {
+        AccelerationTraceBuffer shrunk = new AccelerationTraceBuffer(buffer, 2, WINDOW);
+
+        assertEquals(2, shrunk.size());
+        assertEquals(4, shrunk.getTimestamp(0));
+        assertEquals(5, shrunk.getTimestamp(1));
+    }
+
+    @Test
+    public void copyRespectsNewWindow() throws Exception {
+        AccelerationTraceBuffer narrowed = new AccelerationTraceBuffer(buffer, 8, 1);
+
+        assertEquals(2, narrowed.size());
+        assertEquals(4, narrowed.getTimestamp(0));
+    }
+
+    @Test
+    public void resizeInPlace() throws Exception {
+        buffer.resize(8);
+
+        assertEquals(8, buffer.getCapacity());
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getTimestamp(0));
+        assertEquals(5, buffer.getTimestamp(3));
+        assertEquals(5, buffer.getX(3), 0);
+        assertEquals(-5, buffer.getY(3), 0);
+        assertEquals(10, buffer.getZ(3), 0);
+    }
+
+    @Test
+    public void resizeIntoSmallerCapacity() throws Exception {
+        buffer.resize(2);
+
+        assertEquals(2, buffer.size());
+        assertEquals(4, buffer.getTimestamp(0));
+        assertEquals(5, buffer.getTimestamp(1));
+    }
+
+    @Test
+    public void resizeWhileWindowIsOpen() throws Exception {
+        // the persistor of an open capture window holds on to the buffer
+        AccelerationTraceBuffer persisted = buffer;
+
+        buffer.resize(8);
+        for (int i = 6; i < 10; i++) buffer.put(i, i, -i, 2 * i);
+        persisted.freeze();
+        buffer.put(10, 10, -10, 20);
+
+        assertEquals(8, persisted.size());
+        assertEquals(2, persisted.getTimestamp(0));
+        assertEquals(9, persisted.getTimestamp(7));
+    }
+
+    @Test
+    public void frozenBufferIsNotResized() throws Exception {
+        buffer.freeze();
+        buffer.resize(2);
+
+        assertEquals(4, buffer.getCapacity());
+        assertEquals(4, buffer.size());
+    }
+}
@@ -0,0 +1,181 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.pcc.privacycrashcam.utils.dataprocessing.NalUnits;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the encoded frame ring buffer with synthetic H.264 streams.
+ *
+ * @author Giorgio Gross
+ */
+public class EncodedFrameRingBufferTest {
+    private static final int FPS = 30;
+    private static final int KEY_FRAME_INTERVAL = 30;
+
+    private SyntheticNalStream stream;
+    private final List<Integer> readFrames = new ArrayList<>();
+    private final List<Long> readTimestamps = new ArrayList<>();
+    private final List<Boolean> readKeyFrames = new ArrayList<>();
+    private final FrameSink sink = new FrameSink() {
+        @Override
+        public boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+            readFrames.add(SyntheticNalStream.GetFrameNumber(frame));
+            readTimestamps.add(ptsUs);
+            readKeyFrames.add(keyFrame);
+            return true;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        stream = new SyntheticNalStream(FPS, KEY_FRAME_INTERVAL, 2000, 42);
+        readFrames.clear();
+        readTimestamps.clear();
+        readKeyFrames.clear();
+    }
+
+    private void feed(EncodedFrameRingBuffer buffer, int frames) {
+        for (int i = 0; i < frames; i++) {
+            long pts = stream.getNextTimestampUs();
+            ByteBuffer frame = stream.next();
+            buffer.put(frame, pts, NalUnits.ContainsIdr(frame));
+        }
+    }
+
+    @Test
+    public void detectsKeyFrames() throws Exception {
+        for (int i = 0; i < 2 * KEY_FRAME_INTERVAL; i++) {
+            boolean expected = stream.isNextKeyFrame();
+            assertEquals(expected, NalUnits.ContainsIdr(stream.next()));
+        }
+    }
+
+    @Test
+    public void readStartsAtPrecedingKeyFrame() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(10 * 1024 * 1024, 1000);
+        feed(buffer, 10 * FPS);
+
+        // 4.5 s to 6 s, the key frame before the window is at 4 s
+        int count = buffer.read(4500000, 6000000, sink);
+
+        assertEquals(2 * FPS + 1, count);
+        assertEquals(4 * FPS, (int) readFrames.get(0));
+        assertTrue(readKeyFrames.get(0));
+        assertEquals(6 * FPS, (int) readFrames.get(readFrames.size() - 1));
+        for (int i = 1; i < readFrames.size(); i++) {
+            assertEquals(readFrames.get(i - 1) + 1, (int) readFrames.get(i));
+        }
+    }
+
+    @Test
+    public void dropsOldestFramesWhenFull() throws Exception {
+        // room for roughly 100 frames
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(100 * 2500, 1000);
+        feed(buffer, 30 * FPS);
+
+        assertTrue(buffer.size() < 30 * FPS);
+        assertTrue(buffer.getKeyFrameCount() > 0);
+        long newest = buffer.getNewestTimestampUs();
+        assertEquals((30 * FPS - 1) * 1000000L / FPS, newest);
+
+        // the whole content is readable and intact from the oldest key frame on
+        int count = buffer.read(0, Long.MAX_VALUE, sink);
+        assertTrue(count > 0);
+        assertTrue(readKeyFrames.get(0));
+        assertEquals(30 * FPS - 1, (int) readFrames.get(readFrames.size() - 1));
+        for (int i = 1; i < readFrames.size(); i++) {
+            assertEquals(readFrames.get(i - 1) + 1, (int) readFrames.get(i));
+            assertTrue(readTimestamps.get(i) > readTimestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void limitsNumberOfFrames() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(10 * 1024 * 1024, 50);
+        feed(buffer, 200);
+
+        assertEquals(50, buffer.size());
+        assertEquals(150 * 1000000L / FPS, buffer.getOldestTimestampUs());
+    }
+
+    @Test
+    public void ignoresFramesBeforeFirstKeyFrame() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(1024 * 1024, 100);
+        stream.next();
+        ByteBuffer frame = stream.next();
+
+        assertFalse(buffer.put(frame, 0, NalUnits.ContainsIdr(frame)));
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.read(0, Long.MAX_VALUE, sink));
+    }
+
+    @Test
+    public void sinkCanStopReading() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(10 * 1024 * 1024, 1000);
+        feed(buffer, 3 * FPS);
+
+        int count = buffer.read(0, Long.MAX_VALUE, new FrameSink() {
+            @Override
+            public boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+                return ptsUs < 1000000;
+            }
+        });
+        assertEquals(FPS + 1, count);
+    }
+
+    @Test
+    public void detectsFramesDroppedWhileReading() throws Exception {
+        final EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(100 * 2500, 1000);
+        feed(buffer, 3 * FPS);
+
+        int count = buffer.read(0, Long.MAX_VALUE, new FrameSink() {
+            @Override
+            public boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+                // the encoder overwrites the whole buffer meanwhile
+                feed(buffer, 10 * FPS);
+                return true;
+            }
+        });
+        assertEquals(-1, count);
+    }
+
+    @Test
+    public void readsReuseFrameBuffer() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(10 * 1024 * 1024, 1000);
+        feed(buffer, 3 * FPS);
+        // buffers compare by content, so collect them by identity
+        final Set<ByteBuffer> frames =
+                Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        FrameSink collector = new FrameSink() {
+            @Override
+            public boolean onFrame(ByteBuffer frame, long ptsUs, boolean keyFrame) {
+                frames.add(frame);
+                return true;
+            }
+        };
+
+        buffer.read(0, Long.MAX_VALUE, collector);
+        buffer.read(1000000, Long.MAX_VALUE, collector);
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void keepsCodecConfig() throws Exception {
+        EncodedFrameRingBuffer buffer = new EncodedFrameRingBuffer(1024, 10);
+        assertNull(buffer.getCodecConfig());
+        buffer.setCodecConfig(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67}));
+        buffer.clear();
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67}, buffer.getCodecConfig());
+    }
+}
@@ -0,0 +1,86 @@
+package de.pcc.privacycrashcam.utils.datastructures;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import de.pcc.privacycrashcam.utils.dataprocessing.NalUnits;
+
+/**
+ * Generates a synthetic H.264 stream in Annex B format. Key frames consist of SPS, PPS and an IDR
+ * slice, all other frames of a single non IDR slice. Slice payloads are random but reproducible:
+ * the first payload bytes hold the frame number so that frames can be identified after reading
+ * them from a buffer.
+ *
+ * @author Giorgio Gross
+ */
+public class SyntheticNalStream {
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final int fps;
+    private final int keyFrameInterval;
+    private final int meanFrameSize;
+    private final Random random;
+    private int frameNumber = 0;
+
+    /**
+     * @param fps              frames per second
+     * @param keyFrameInterval number of frames from one key frame to the next
+     * @param meanFrameSize    mean size of a non key frame in bytes. Key frames are 4 times larger
+     * @param seed             seed of the payloads
+     */
+    public SyntheticNalStream(int fps, int keyFrameInterval, int meanFrameSize, long seed) {
+        this.fps = fps;
+        this.keyFrameInterval = keyFrameInterval;
+        this.meanFrameSize = meanFrameSize;
+        this.random = new Random(seed);
+    }
+
+    public boolean isNextKeyFrame() {
+        return frameNumber % keyFrameInterval == 0;
+    }
+
+    public long getNextTimestampUs() {
+        return frameNumber * 1000000L / fps;
+    }
+
+    /**
+     * @return the next access unit, positioned at its start
+     */
+    public ByteBuffer next() {
+        boolean key = isNextKeyFrame();
+        int payload = Math.max(8, (int) (meanFrameSize * (key ? 4 : 1)
+                * (0.5 + random.nextDouble())));
+        ByteBuffer frame = ByteBuffer.allocate(payload + 32);
+        if (key) {
+            frame.put(START_CODE).put((byte) (0x60 | NalUnits.TYPE_SPS)).put(new byte[]{0x42, 0x00, 0x1e});
+            frame.put(START_CODE).put((byte) (0x60 | NalUnits.TYPE_PPS)).put(new byte[]{(byte) 0xce, 0x38});
+        }
+        frame.put(START_CODE);
+        frame.put((byte) (0x60 | (key ? NalUnits.TYPE_IDR_SLICE : NalUnits.TYPE_NON_IDR_SLICE)));
+        frame.putInt(frameNumber);
+        for (int i = 4; i < payload; i++) {
+            // avoid emulating start codes, as an encoder would
+            frame.put((byte) (1 + random.nextInt(255)));
+        }
+        frame.flip();
+        frameNumber++;
+        return frame;
+    }
+
+    /**
+     * Reads the number of a frame created by this class.
+     *
+     * @param frame the frame, positioned at its start. The position is not changed
+     * @return the frame number
+     */
+    public static int GetFrameNumber(ByteBuffer frame) {
+        int index = -1;
+        int search = frame.position();
+        while ((search = NalUnits.FindNalUnit(frame, search)) >= 0) {
+            index = search;
+            int type = NalUnits.GetType(frame.get(index));
+            if (type == NalUnits.TYPE_IDR_SLICE || type == NalUnits.TYPE_NON_IDR_SLICE) break;
+        }
+        return frame.getInt(index + 1);
+    }
+}
@@ -0,0 +1,33 @@
+package de.pcc.privacycrashcam.data.serverconnection;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Giorgio Gross
+ */
+public class HttpClientProviderTest {
+
+    @Test
+    public void clientIsShared() throws Exception {
+        assertSame(HttpClientProvider.GetClient(), HttpClientProvider.GetClient());
+    }
+
+    @Test
+    public void clientIsConfigured() throws Exception {
+        Client client = HttpClientProvider.GetClient();
+
+        assertEquals(ServerHelper.CONNECT_TIMEOUT_MILLIS,
+                client.getConfiguration().getProperty(ClientProperties.CONNECT_TIMEOUT));
+        assertEquals(ServerHelper.READ_TIMEOUT_MILLIS,
+                client.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT));
+        assertTrue(client.getConfiguration().isRegistered(MultiPartFeature.class));
+        assertTrue(client.getConfiguration().isRegistered(ProgressInterceptor.class));
+        assertTrue(client.getConfiguration().isRegistered(FileBodyWriter.class));
+    }
+}